@@ -25,6 +25,8 @@ public class BitOutputStream extends OutputStream
     private OutputStream  myOutput;
     private int           myBuffer;
     private int           myBitsToGo;
+    private long          myBytesWritten;
+    private HuffBitStreamEvent myEvent;
     
     private static final int bmask[] = {
         0x00, 0x01, 0x03, 0x07, 0x0f, 0x1f, 0x3f, 0x7f, 0xff,
@@ -42,6 +44,7 @@ public class BitOutputStream extends OutputStream
      */
     public void write(int b) throws IOException {
         myOutput.write(b);
+        myBytesWritten++;
     }
     
     /**
@@ -57,6 +60,11 @@ public class BitOutputStream extends OutputStream
     private void initialize(){
         myBuffer = 0;
         myBitsToGo = BITS_PER_BYTE;
+        // no event is made unless it is being recorded
+        myEvent = HuffBitStreamEvent.ifEnabled();
+        if (myEvent != null) {
+            myEvent.begin();
+        }
     }
     /**
      * Construct a bit-at-a-time output stream with specified file
@@ -121,6 +129,11 @@ public class BitOutputStream extends OutputStream
         catch (IOException ioe){
             throw new RuntimeException("error closing BitOutputStream " + ioe);
         }
+        // one flight recorder event for the life of the stream, not one per write
+        if (myEvent != null && myEvent.shouldCommit()) {
+            myEvent.bytes = myBytesWritten;
+            myEvent.commit();
+        }
     }
 
     /**
@@ -3,78 +3,179 @@ import java.io.InputStream;
 import java.util.*;
 
 /**
+ * Counts are kept in an array indexed by character, so counting allocates
+ * nothing and a counter can be cleared and reused for call after call.
+ * <P>
+ * Counting an array of bytes is the whole first pass of compression. Adding 1
+ * to the same count again and again has to wait for each store before the next
+ * load of the count, so longer arrays are counted into eight tables, taking
+ * the bytes in turn, and the tables are added up at the end.
+ * 
  * @author clairewalker
  *
  */
 public class CharCounter implements ICharCounter, IHuffConstants {
-	private Map<Integer, Integer> Table;
+	// the number of tables longer arrays are counted into
+	private static final int LANES = 8;
+
+	// the distance between the tables, padded so that the same count in two
+	// tables is not a multiple of 4 KB apart, which the processor would take for
+	// the same address until it checked
+	private static final int LANE_STRIDE = ALPH_SIZE + 16;
+
+	// arrays shorter than this are counted straight into the counts, as adding
+	// up the tables would cost more than it saves
+	private static final int LANES_MIN = 1 << 12;
+
+	private final int[] counts;
+	private final byte[] buffer;
+
+	// the tables counted into by countLanes(), LANE_STRIDE counts apart
+	private final int[] lanes = new int[LANES * LANE_STRIDE];
 
 	/**
 	 * CharCounter constructor initializes empty frequency table
 	 */
 	public CharCounter() {
-		this.Table = new HashMap<Integer, Integer>();
+		this.counts = new int[ALPH_SIZE];
+		this.buffer = new byte[1 << 13];
 		this.clear();
 	}
 
 	@Override
 	public int getCount(int ch) {
 		// if character is not in the frequency table, return 0
-		if (!this.Table.containsKey(ch)) {
+		if (ch < 0 || ch >= ALPH_SIZE) {
 			return 0;
 		}
-		// else, return the frequency for the character as mapped in frequency table
-		Integer val = this.Table.get(ch);
-		return val;
+		// else, return the frequency for the character as counted
+		return this.counts[ch];
 	}
 
 	@Override
 	public int countAll(InputStream stream) throws IOException {
 		int byte_count = 0;
-		// read in bytes until you hit the end of the file
+		HuffCountEvent event = HuffCountEvent.ifEnabled();
+		if (event != null) {
+			event.begin();
+		}
+		// read in blocks of bytes until you hit the end of the file
 		try {
-			int byte_read = stream.read();
-			// for each byte read in, add it to the frequency map
-
-			while (byte_read != -1) {
-				// add() adds 1 to the count for existing characters, or adds a new entry
-				this.add(byte_read);
+			int n = stream.read(this.buffer);
+			// for each block read in, add its bytes to the frequency table
+			while (n != -1) {
+				this.countAll(this.buffer, 0, n);
 				// increase byte count
-				byte_count++;
-				byte_read = stream.read();
+				byte_count += n;
+				n = stream.read(this.buffer);
 			}
 		} catch (IOException e) {
 			System.out.print("ioexception");
 		}
+		// record the flight recorder event, if it is being recorded
+		if (event != null && event.shouldCommit()) {
+			event.bytes = byte_count;
+			for (int count : this.counts) {
+				event.distinct += (count > 0) ? 1 : 0;
+			}
+			event.commit();
+		}
 		// return count of bytes read in
 		return byte_count;
 	}
 
+	/**
+	 * Add the bytes of buf[off..off+len) to the frequency table
+	 * 
+	 * @return the number of bytes counted
+	 */
+	public int countAll(byte[] buf, int off, int len) {
+		int[] table = this.counts;
+		if (len < LANES_MIN) {
+			for (int i = off; i < off + len; i++) {
+				table[buf[i] & 0xff]++;
+			}
+			return len;
+		}
+		int[] lanes = this.lanes;
+		Arrays.fill(lanes, 0);
+		countLanes(buf, off, off + len);
+		for (int ch = 0; ch < ALPH_SIZE; ch++) {
+			table[ch] += lanes[ch] + lanes[LANE_STRIDE + ch] + lanes[2 * LANE_STRIDE + ch] + lanes[3 * LANE_STRIDE + ch]
+					+ lanes[4 * LANE_STRIDE + ch] + lanes[5 * LANE_STRIDE + ch] + lanes[6 * LANE_STRIDE + ch]
+					+ lanes[7 * LANE_STRIDE + ch];
+		}
+		return len;
+	}
+
+	/*
+	 * Helper method to add the bytes of buf[from..to) to the tables of lanes, each
+	 * byte to the table after the one before it
+	 */
+	private void countLanes(byte[] buf, int from, int to) {
+		int[] lanes = this.lanes;
+		int i = from;
+		for (int end = to - 7; i < end; i += 8) {
+			lanes[buf[i] & 0xff]++;
+			lanes[LANE_STRIDE + (buf[i + 1] & 0xff)]++;
+			lanes[2 * LANE_STRIDE + (buf[i + 2] & 0xff)]++;
+			lanes[3 * LANE_STRIDE + (buf[i + 3] & 0xff)]++;
+			lanes[4 * LANE_STRIDE + (buf[i + 4] & 0xff)]++;
+			lanes[5 * LANE_STRIDE + (buf[i + 5] & 0xff)]++;
+			lanes[6 * LANE_STRIDE + (buf[i + 6] & 0xff)]++;
+			lanes[7 * LANE_STRIDE + (buf[i + 7] & 0xff)]++;
+		}
+		for (; i < to; i++) {
+			lanes[buf[i] & 0xff]++;
+		}
+	}
+
+	/**
+	 * Record one occurrence of a character
+	 * 
+	 * @param i is the character, 0 to ALPH_SIZE - 1
+	 * @throws IllegalArgumentException if i is not a character
+	 */
 	@Override
 	public void add(int i) {
-		// if the integer is a key in the count table, increase its count by 1
-		if (this.Table.containsKey(i)) {
-			this.set(i, this.Table.get(i) + 1);
-			// otherwise, add a new entry with the integer and a count of 1
-		} else {
-			this.Table.put(i, 1);
+		if (i < 0 || i >= ALPH_SIZE) {
+			throw new IllegalArgumentException("not a character " + i);
 		}
+		// increase the count for the character by 1
+		this.counts[i]++;
 	}
 
 	@Override
 	public void set(int i, int value) {
-		this.Table.replace(i, value);
-
+		// only characters already counted can be set, as with Map.replace
+		if (i >= 0 && i < ALPH_SIZE && this.counts[i] > 0) {
+			this.counts[i] = value;
+		}
 	}
 
 	@Override
 	public void clear() {
-		Table.clear();
+		Arrays.fill(this.counts, 0);
+	}
+
+	/**
+	 * @return the count of each character, indexed by character. The array is the
+	 *         counter's own, not a copy
+	 */
+	public int[] counts() {
+		return this.counts;
 	}
 
 	@Override
 	public Map<Integer, Integer> getTable() {
-		return this.Table;
+		// build a map of only the characters that have been counted
+		Map<Integer, Integer> table = new HashMap<Integer, Integer>();
+		for (int i = 0; i < ALPH_SIZE; i++) {
+			if (this.counts[i] > 0) {
+				table.put(i, this.counts[i]);
+			}
+		}
+		return table;
 	}
 
 }
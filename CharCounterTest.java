@@ -1,6 +1,7 @@
 import static org.junit.Assert.*;
 
 import java.io.*;
+import java.util.Random;
 
 import org.junit.Test;
 
@@ -58,6 +59,15 @@ public class CharCounterTest {
 		assertEquals(c.getTable().size(), 1);
 	}
 
+	/**
+	 * Tests that adding a value that is not a character throws an exception
+	 */
+	@Test(expected = IllegalArgumentException.class)
+	public void testAddNotCharacter() {
+		CharCounter c = new CharCounter();
+		c.add(IHuffConstants.ALPH_SIZE);
+	}
+
 	/**
 	 * Tests that expected counts for t, s, and g from input stream "teststring" are
 	 * as expected
@@ -104,4 +114,27 @@ public class CharCounterTest {
 		assertEquals(c.getTable().size(), 0);
 	}
 
+	/**
+	 * Tests that counting arrays of runs, of random bytes and of both, long and
+	 * short, gives the same counts as counting one byte at a time
+	 */
+	@Test
+	public void testCountAllArrays() {
+		Random r = new Random(1);
+		for (int length : new int[] { 0, 7, 2047, 2048, 5000, 65536 }) {
+			byte[] data = new byte[length + 3];
+			for (int i = 0; i < data.length; i++) {
+				data[i] = (byte) ((i % 1000 < 600) ? 'e' : r.nextInt(256));
+			}
+			int[] expected = new int[IHuffConstants.ALPH_SIZE];
+			for (int i = 3; i < data.length; i++) {
+				expected[data[i] & 0xff] += 2;
+			}
+			CharCounter c = new CharCounter();
+			assertEquals(length, c.countAll(data, 3, length));
+			assertEquals(length, c.countAll(data, 3, length));
+			assertArrayEquals(expected, c.counts());
+		}
+	}
+
 }
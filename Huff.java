@@ -1,11 +1,21 @@
+import java.io.BufferedInputStream;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.PriorityQueue;
 
 /**
+ * The fields of a Huff hold the state of the ITreeMaker, IHuffEncoder and
+ * IHuffHeader methods (the last tree made, its codes and the last header size).
+ * write() and uncompress() keep all their state in local variables and pooled
+ * per thread contexts, so they may be called by several threads at once. A
+ * shareable codec for one fixed tree is HuffCodec.
+ * 
  * @author clairewalker
  *
  */
@@ -14,15 +24,24 @@ public class Huff implements ITreeMaker, IHuffEncoder, IHuffHeader, IHuffModel {
 	private Map<Integer, String> codesMap;
 	private HuffTree hufftree;
 	private int headerSizeVal;
-	private HuffTree reconstructedTree;
-	private int compressedFileSize;
 
 	@Override
 	public HuffTree makeHuffTree(InputStream stream) throws IOException {
-		// get the charcounter map of characters
+		// get the charcounter map of characters, clearing counts left from any
+		// previous call
+		c.clear();
 		c.countAll(stream);
-		Map<Integer, Integer> map = c.getTable();
+		// build the tree and return it
+		this.hufftree = makeHuffTree(c.getTable());
+		return this.hufftree;
+	}
 
+	/*
+	 * Helper method for makeHuffTree and write. Builds the hufftree for a map of
+	 * characters and their counts, plus the pseudo EOF. Also used by
+	 * HuffCodebook.fromCounts()
+	 */
+	static HuffTree makeHuffTree(Map<Integer, Integer> map) {
 		// create priority queue
 		PriorityQueue<HuffTree> pq = new PriorityQueue<HuffTree>();
 
@@ -37,11 +56,7 @@ public class Huff implements ITreeMaker, IHuffEncoder, IHuffHeader, IHuffModel {
 		pq.add(pseudo);
 
 		// build the tree
-		HuffTree ht = buildTree(pq);
-
-		// return the tree
-		this.hufftree = ht;
-		return ht;
+		return buildTree(pq);
 	}
 
 	/*
@@ -50,7 +65,7 @@ public class Huff implements ITreeMaker, IHuffEncoder, IHuffHeader, IHuffModel {
 	 * right child and with a weight of their combined weights. returns the new
 	 * HuffTree
 	 */
-	private HuffTree buildTree(PriorityQueue<HuffTree> Hheap) {
+	private static HuffTree buildTree(PriorityQueue<HuffTree> Hheap) {
 
 		HuffTree tmp1, tmp2, tmp3 = null;
 
@@ -60,7 +75,8 @@ public class Huff implements ITreeMaker, IHuffEncoder, IHuffHeader, IHuffModel {
 			tmp3 = new HuffTree(tmp1.root(), tmp2.root(), tmp1.weight() + tmp2.weight());
 			Hheap.add(tmp3); // Return new tree to heap
 		}
-		return tmp3; // Return the tree
+		// Return the tree. For empty input this is the lone pseudo EOF leaf
+		return Hheap.poll();
 	}
 
 	@Override
@@ -177,7 +193,7 @@ public class Huff implements ITreeMaker, IHuffEncoder, IHuffHeader, IHuffModel {
 	 * Called by checkIfCompressedVersionOfFileIsSmaller(). Returns size of
 	 * compressed tree
 	 */
-	private int compressHuffTreeWithoutWriting(IHuffBaseNode ht, int count) {
+	private static int compressHuffTreeWithoutWriting(IHuffBaseNode ht, int count) {
 		// if the node is null, return the count
 		if (ht == null) {
 			return count;
@@ -193,123 +209,95 @@ public class Huff implements ITreeMaker, IHuffEncoder, IHuffHeader, IHuffModel {
 	}
 
 	/**
-	 * Helper method to check if a file should be compressed. If the file's
-	 * compressed size is smaller than it's original size, return true. Else returns
-	 * false. Called by write()
+	 * Helper method to calculate the size in bits of a compressed file: the magic
+	 * number, the compressed tree, and the code of every character counted and of
+	 * the pseudo EOF. Called by write()
 	 */
-	private boolean checkIfCompressedVersionOfFileIsSmaller(String inFile) {
-
-		File f = new File(inFile);
-		// get the size of the original file
-		long lengthOfFile = f.length();
+	private static long compressedFileSize(HuffTree tree, HuffCodebook book, Map<Integer, Integer> counts) {
 		// set bit counters. runningCountOfBits will represent the total bits required
-		// to write the compressed file
-		int runningCountOfBits = 0;
-		int countForSingleLetter = 0;
+		// to write the compressed file. Start with the pseudo EOF's code
+		long runningCountOfBits = book.length(PSEUDO_EOF);
 
-		// calculate the size of the compressed tree
 		// for each letter, multiple its count with the length of its compression code
-		for (Map.Entry<Integer, String> e : this.codesMap.entrySet()) {
-			// if the code is the pseudo_EOF, simply add the length of its compression code
-			if (e.getKey() == PSEUDO_EOF) {
-				countForSingleLetter = e.getValue().length();
-
-			} else {
-				countForSingleLetter = e.getValue().length() * c.getCount(e.getKey());
-			}
-			// add the bits for the single character to the total count of bits for the
-			// compressed file
-			runningCountOfBits += countForSingleLetter;
+		for (Map.Entry<Integer, Integer> e : counts.entrySet()) {
+			runningCountOfBits += (long) book.length(e.getKey()) * e.getValue();
 		}
 
 		// Add header size (size of compressed tree + magic number size)
-		runningCountOfBits += BITS_PER_INT + compressHuffTreeWithoutWriting(this.hufftree.root(), 0);
+		return runningCountOfBits + BITS_PER_INT + compressHuffTreeWithoutWriting(tree.root(), 0);
+	}
 
-		compressedFileSize = runningCountOfBits;
+	/**
+	 * Helper method to check if a file should be compressed. If the file's
+	 * compressed size is smaller than it's original size, return true. Else returns
+	 * false. Called by write()
+	 */
+	private boolean checkIfCompressedVersionOfFileIsSmaller(String inFile, long compressedFileSize) {
+		File f = new File(inFile);
+		// get the size of the original file
+		long lengthOfFile = f.length();
 		// length of file returns # bytes, so need to compare bits to bits
-		if (compressedFileSize < lengthOfFile * 8) {
-			return true;
-		}
-		return false;
+		return compressedFileSize < lengthOfFile * 8;
 	}
 
 	@Override
 	public int write(String inFile, String outFile, boolean force) {
-		String code;
-		int bit_count;
-		BitInputStream in = new BitInputStream(inFile);
-		BitInputStream in1 = new BitInputStream(inFile);
-
-		// build the hufftree from the input stream
-		try {
-			makeHuffTree(in);
-		} catch (IOException e1) {
-			e1.printStackTrace();
+		// count the characters of the file. The counter is local so that calls don't
+		// share state
+		HuffBlockEvent event = HuffBlockEvent.ifEnabled();
+		long start = HuffMetrics.start(event);
+		long t = start;
+		CharCounter counts = new CharCounter();
+		long bytesIn;
+		try (InputStream in = new BufferedInputStream(new FileInputStream(inFile))) {
+			bytesIn = counts.countAll(in);
+		} catch (IOException e) {
+			HuffMetrics.failed("write", e);
+			e.printStackTrace();
+			return 0;
 		}
+		t = HuffMetrics.phase(HuffPhase.COUNT, t, event);
 
-		// make the frequency table
-		makeTable();
+		// build the hufftree and the codes for the file
+		HuffTree tree = makeHuffTree(counts.getTable());
+		t = HuffMetrics.phase(HuffPhase.TREE, t, event);
+		HuffCodebook book = HuffCodebook.fromTree(tree);
+		t = HuffMetrics.phase(HuffPhase.TABLE, t, event);
 
 		if (force == false) {
 			// check if compressed version is smaller
-			boolean check = checkIfCompressedVersionOfFileIsSmaller(inFile);
-			// if the compressed file is not smaller, then close the input stream and return
-			// the size required for the compressed file
-			if (!check) {
-				in.close();
-				in1.close();
-				return compressedFileSize;
+			// if the compressed file is not smaller, return the size required for the
+			// compressed file
+			long compressedFileSize = compressedFileSize(tree, book, counts.getTable());
+			if (!checkIfCompressedVersionOfFileIsSmaller(inFile, compressedFileSize)) {
+				return (int) compressedFileSize;
 			}
 		}
 
-		// create a bitInputStream from the outFile
-		BitOutputStream out = new BitOutputStream(outFile);
-
-		// write the header
-		bit_count = writeHeader(out);
-
-		// write the rest of the file, looking up its code in the hufftree using getCode
-		int byte_read;
-		int char_index;
-		int bit;
-		try {
-			// read through the inputstream a byte at a time
-			byte_read = in1.read(BITS_PER_WORD);
-			while (byte_read != -1) {
-				// for each byte (char) read, get its compression code
-				code = getCode(byte_read);
-				// write the code out bit by bit
-				char_index = 0;
-				while (char_index < code.length()) {
-					bit = code.charAt(char_index);
-					out.write(1, bit);
-					// increase the bit count for each bit written
-					bit_count++;
-					char_index++;
-				}
-				byte_read = in1.read(BITS_PER_WORD);
-			}
-
-			// write the pseudo EOF
-			// get the pseudo EOF code
-			code = getCode(PSEUDO_EOF);
-			char_index = 0;
-			// write that code to the file bit by bit
-			while (char_index < code.length()) {
-				bit = code.charAt(char_index);
-				out.write(1, bit);
-				bit_count++;
-				char_index++;
+		// write the header and then the code of every character and the pseudo EOF,
+		// using this thread's encoder context
+		HuffEncodeContext ctx = HuffCodec.encoder();
+		long bit_count = 0;
+		try (InputStream in = new FileInputStream(inFile); OutputStream out = new FileOutputStream(outFile)) {
+			ctx.reset(out);
+			ctx.writeBits(MAGIC_NUMBER, BITS_PER_INT);
+			book.writeTree(ctx);
+			t = HuffMetrics.phase(HuffPhase.HEADER, t, event);
+			ctx.encode(book, in);
+			ctx.writeCode(book, PSEUDO_EOF);
+			// return the total count of bits written
+			bit_count = ctx.bitsWritten();
+			ctx.finish();
+			HuffMetrics.phase(HuffPhase.ENCODE, t, event);
+			HuffMetrics.compressed(bytesIn, bit_count, start);
+			if (event != null) {
+				event.end("compress", bytesIn, bit_count, book.maxLength());
 			}
 		} catch (IOException e) {
+			HuffMetrics.failed("write", e);
 			e.printStackTrace();
 		}
-
-		// close all the files and return the total count of bits written
-		in.close();
-		in1.close();
-		out.close();
-		return bit_count;
+		return (int) bit_count;
 	}
 
 	@Override
@@ -324,11 +312,7 @@ public class Huff implements ITreeMaker, IHuffEncoder, IHuffHeader, IHuffModel {
 
 		// read in the tree and reconstruct it. make each 0 an internal node, and 1 a
 		// leaf node with element
-		reconstructedTree = buildTreeFromBitsRead(in);
-
-		// check number of bits read in is correct. what are we supposed to be comparing
-		// this against for a file we know nothing about?
-		return reconstructedTree;
+		return buildTreeFromBitsRead(in);
 	}
 
 	/**
@@ -378,63 +362,19 @@ public class Huff implements ITreeMaker, IHuffEncoder, IHuffHeader, IHuffModel {
 
 	@Override
 	public int uncompress(String inFile, String outFile) {
-		// create input and output streams
-		BitInputStream in = new BitInputStream(inFile);
-		BitOutputStream out = new BitOutputStream(outFile);
-		String code = "";
+		// use this thread's decoder context to read the header and decode the codes
+		HuffDecodeContext ctx = HuffCodec.decoder();
 		int bitCount = 0;
-
-		try {
-			// read in the header
-			readHeader(in);
-			// set the hufftree to the uncompressed tree
-			this.hufftree = reconstructedTree;
-			// make frequency table based on this hufftree
-			makeTable();
-
-			// read in a bit from the compressed file
-			int bit_read = in.read(1);
-
-			// read from the compressed file
-			while (true) {
-				// if we reach the end of the file, there is no pseudo eof. throw an exception
-				if (bit_read == -1) {
-					throw new IOException();
-				}
-
-				// else, start to construct the compressed code bit by bit
-				code = code + bit_read;
-				// if code is in map, look up character in the codesMap and write it
-				// if code is pseudo eof, close files and return the count of bits
-				if (this.codesMap.containsValue(code)) {
-					for (Map.Entry<Integer, String> el : this.codesMap.entrySet()) {
-						if (el.getValue().equals(code)) {
-							if (el.getKey().equals(PSEUDO_EOF)) {
-								in.close();
-								out.close();
-
-								return bitCount;
-							} else {
-								out.write(BITS_PER_INT, el.getKey());
-								bitCount += 8;
-
-								code = "";
-								break;
-							}
-						}
-					}
-				}
-				// else, keep reading until get a valid compression code
-				bit_read = in.read(1);
-
-			}
-
+		long start = HuffMetrics.start();
+		try (InputStream in = new FileInputStream(inFile); OutputStream out = new FileOutputStream(outFile)) {
+			bitCount = (int) (BITS_PER_WORD * HuffCodec.decode(ctx.reset(in), out, null));
+			HuffMetrics.uncompressed(ctx.bitsRead(), bitCount / BITS_PER_WORD, start);
 		} catch (IOException e) {
+			HuffMetrics.failed("uncompress", e);
 			e.printStackTrace();
+		} finally {
+			ctx.finish();
 		}
-
-		in.close();
-		out.close();
 		return bitCount;
 	}
 
@@ -0,0 +1,224 @@
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Codes a block with range asymmetric numeral systems (rANS) instead of Huffman
+ * codes. Each character's count is scaled to a frequency out of SCALE, and a
+ * character of frequency f costs log2(SCALE / f) bits, a fraction of a bit for
+ * a common character, where a Huffman code costs at least one bit. On skewed
+ * data that is most of the difference between Huffman coding and arithmetic
+ * coding; decoding still takes one table lookup a character.
+ * <P>
+ * The coder's state is a number of at least LOWER_BOUND. Encoding a character
+ * grows the state by about SCALE / f, and whenever the state would grow past
+ * 32 bits its low byte is written out first. The characters are encoded last
+ * to first, so the decoder, which undoes each step, gets them first to last.
+ * <P>
+ * The payload is, for each of the 256 characters, a bit that is 1 if the
+ * character is in the block, and if it is, the number of bits of its
+ * frequency (4 bits) and the frequency less its top bit; then the final state
+ * (32 bits) and the bytes written out, in the order the decoder reads them.
+ * Decoding ends with the state the encoder started from, which checks the
+ * payload. There is no pseudo EOF; the block header gives the number of
+ * characters.
+ * <P>
+ * An ANS coder is the block coder for BLOCK_ANS blocks. It is reusable and not
+ * thread safe; use one per thread.
+ *
+ * @author clairewalker
+ *
+ */
+public final class HuffAnsCoder implements IHuffBlockCoder, IHuffConstants {
+	/**
+	 * The number of bits of the frequency total
+	 */
+	public static final int SCALE_BITS = 12;
+
+	/**
+	 * The total of the frequencies of a block's characters
+	 */
+	public static final int SCALE = 1 << SCALE_BITS;
+
+	/**
+	 * The smallest state between characters, and the state encoding starts from
+	 */
+	public static final long LOWER_BOUND = 1L << 23;
+
+	private final int[] freqs = new int[ALPH_SIZE];
+	private final int[] starts = new int[ALPH_SIZE + 1];
+	private final byte[] symbols = new byte[SCALE];
+	private final HuffEncodeContext ctx = new HuffEncodeContext();
+	private byte[] stream = new byte[0];
+	private int streamLength;
+	private long state;
+
+	@Override
+	public int type() {
+		return BLOCK_ANS;
+	}
+
+	@Override
+	public long train(byte[] src, int off, int len, int[] counts) {
+		if (len == 0) {
+			return Long.MAX_VALUE;
+		}
+		normalize(counts, len);
+
+		// no character costs more than SCALE_BITS bits, so two bytes each is room
+		// enough
+		if (this.stream.length < 2 * len + 8) {
+			this.stream = new byte[2 * len + 8];
+		}
+		byte[] out = this.stream;
+		int[] freqs = this.freqs;
+		int[] starts = this.starts;
+		int n = 0;
+		long x = LOWER_BOUND;
+		for (int i = off + len - 1; i >= off; i--) {
+			int ch = src[i] & 0xff;
+			long f = freqs[ch];
+			long limit = ((LOWER_BOUND >> SCALE_BITS) << 8) * f;
+			while (x >= limit) {
+				out[n++] = (byte) x;
+				x >>>= 8;
+			}
+			x = ((x / f) << SCALE_BITS) + (x % f) + starts[ch];
+		}
+		this.streamLength = n;
+		this.state = x;
+		return tableBits() + 32 + 8L * n;
+	}
+
+	@Override
+	public long write(byte[] src, int off, int len, OutputStream out) throws IOException {
+		this.ctx.reset(out);
+		for (int ch = 0; ch < ALPH_SIZE; ch++) {
+			int f = this.freqs[ch];
+			if (f == 0) {
+				this.ctx.writeBits(0, 1);
+			} else {
+				int width = 32 - Integer.numberOfLeadingZeros(f);
+				this.ctx.writeBits(1, 1);
+				this.ctx.writeBits(width, 4);
+				this.ctx.writeBits(f, width - 1);
+			}
+		}
+		this.ctx.writeBits(this.state, 32);
+		for (int i = this.streamLength - 1; i >= 0; i--) {
+			this.ctx.writeBits(this.stream[i], 8);
+		}
+		long bits = this.ctx.bitsWritten();
+		this.ctx.finish();
+		return bits;
+	}
+
+	/**
+	 * @return the number of bits of the largest frequency, the nearest thing to
+	 *         a longest code
+	 */
+	@Override
+	public int decode(HuffDecodeContext in, byte[] out, int length) throws IOException {
+		int[] freqs = this.freqs;
+		int[] starts = this.starts;
+		byte[] symbols = this.symbols;
+		int total = 0;
+		int depth = 0;
+		for (int ch = 0; ch < ALPH_SIZE; ch++) {
+			freqs[ch] = 0;
+			if (in.readBits(1) == 1) {
+				int width = in.readBits(4);
+				if (width < 1 || width > SCALE_BITS + 1) {
+					throw new IOException("bad frequency for character " + ch);
+				}
+				freqs[ch] = (1 << (width - 1)) | ((width > 1) ? in.readBits(width - 1) : 0);
+				depth = Math.max(depth, width);
+			}
+			starts[ch] = total;
+			total += freqs[ch];
+			if (total > SCALE) {
+				throw new IOException("frequencies total more than " + SCALE);
+			}
+			for (int slot = starts[ch]; slot < total; slot++) {
+				symbols[slot] = (byte) ch;
+			}
+		}
+		if (total != SCALE) {
+			throw new IOException("frequencies total " + total + ", expected " + SCALE);
+		}
+
+		long x = in.readBits(32) & 0xffffffffL;
+		for (int i = 0; i < length; i++) {
+			int slot = (int) x & (SCALE - 1);
+			int ch = symbols[slot] & 0xff;
+			out[i] = (byte) ch;
+			x = freqs[ch] * (x >>> SCALE_BITS) + slot - starts[ch];
+			while (x < LOWER_BOUND) {
+				x = (x << 8) | in.readBits(8);
+			}
+		}
+		if (x != LOWER_BOUND) {
+			throw new IOException("corrupt ANS block");
+		}
+		return depth;
+	}
+
+	/*
+	 * Helper method to scale the counts of a block of len characters to
+	 * frequencies totalling SCALE, giving each character in the block at least 1,
+	 * and set the start of each character's slots
+	 */
+	private void normalize(int[] counts, int len) {
+		int total = 0;
+		for (int ch = 0; ch < ALPH_SIZE; ch++) {
+			int f = 0;
+			if (counts[ch] > 0) {
+				f = (int) Math.max(1, ((long) counts[ch] * SCALE + len / 2) / len);
+			}
+			this.freqs[ch] = f;
+			total += f;
+		}
+		// rounding leaves the total a little off; the largest frequency absorbs
+		// the difference where it costs least, taking from the next largest if
+		// the largest can't give up enough
+		while (total > SCALE) {
+			int ch = largestFreq();
+			int cut = Math.min(total - SCALE, this.freqs[ch] - 1);
+			this.freqs[ch] -= cut;
+			total -= cut;
+		}
+		this.freqs[largestFreq()] += SCALE - total;
+		int start = 0;
+		for (int ch = 0; ch < ALPH_SIZE; ch++) {
+			this.starts[ch] = start;
+			start += this.freqs[ch];
+		}
+		this.starts[ALPH_SIZE] = start;
+	}
+
+	/*
+	 * Helper method to find the character with the largest frequency
+	 */
+	private int largestFreq() {
+		int largest = 0;
+		for (int ch = 1; ch < ALPH_SIZE; ch++) {
+			if (this.freqs[ch] > this.freqs[largest]) {
+				largest = ch;
+			}
+		}
+		return largest;
+	}
+
+	/*
+	 * Helper method to count the bits of the frequency table
+	 */
+	private long tableBits() {
+		long bits = ALPH_SIZE;
+		for (int ch = 0; ch < ALPH_SIZE; ch++) {
+			if (this.freqs[ch] > 0) {
+				bits += 3 + 32 - Integer.numberOfLeadingZeros(this.freqs[ch]);
+			}
+		}
+		return bits;
+	}
+
+}
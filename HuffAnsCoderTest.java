@@ -0,0 +1,107 @@
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * @author clairewalker
+ *
+ */
+public class HuffAnsCoderTest implements IHuffConstants {
+
+	/*
+	 * Helper method to make data where one character is nine in ten of them, so
+	 * Huffman codes spend a whole bit on it
+	 */
+	private byte[] skewed() {
+		Random r = new Random(1);
+		byte[] data = new byte[100000];
+		for (int i = 0; i < data.length; i++) {
+			data[i] = (byte) ((r.nextInt(10) < 9) ? 'a' : 'b' + r.nextInt(8));
+		}
+		return data;
+	}
+
+	/*
+	 * Helper method to count the characters of data as the block format does
+	 */
+	private int[] counts(byte[] data) {
+		CharCounter counter = new CharCounter();
+		counter.countAll(data, 0, data.length);
+		return counter.counts();
+	}
+
+	/**
+	 * Tests that a payload decodes to the original data, and that train() gives
+	 * its size
+	 *
+	 * @throws IOException
+	 */
+	@Test
+	public void testRoundTrip() throws IOException {
+		byte[] data = skewed();
+		HuffAnsCoder coder = new HuffAnsCoder();
+		long bits = coder.train(data, 0, data.length, counts(data));
+		ByteArrayOutputStream payload = new ByteArrayOutputStream();
+		assertEquals(bits, coder.write(data, 0, data.length, payload));
+		assertEquals((bits + 7) / 8, payload.size());
+
+		byte[] out = new byte[data.length];
+		new HuffAnsCoder().decode(HuffCodec.decoder().reset(new ByteArrayInputStream(payload.toByteArray())), out,
+				data.length);
+		assertArrayEquals(data, out);
+	}
+
+	/**
+	 * Tests that a block stream of ANS blocks is smaller than one coded with one
+	 * tree a block, and decompresses to the original data
+	 *
+	 * @throws IOException
+	 */
+	@Test
+	public void testBlockStream() throws IOException {
+		byte[] data = skewed();
+		ByteArrayOutputStream huffman = new ByteArrayOutputStream();
+		HuffBlockFormat.compress(new ByteArrayInputStream(data), huffman, 1 << 16, false,
+				HuffBlockCoders.create(BLOCK_HUFFMAN));
+		ByteArrayOutputStream ans = new ByteArrayOutputStream();
+		HuffBlockFormat.compress(new ByteArrayInputStream(data), ans, 1 << 16, false,
+				HuffBlockCoders.create(BLOCK_HUFFMAN, BLOCK_ANS));
+		assertTrue(ans.size() < huffman.size() * 3 / 4);
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		HuffBlockFormat.decompress(new ByteArrayInputStream(ans.toByteArray()), out);
+		assertArrayEquals(data, out.toByteArray());
+	}
+
+	/**
+	 * Tests that a corrupted payload is rejected
+	 *
+	 * @throws IOException
+	 */
+	@Test(expected = IOException.class)
+	public void testCorrupt() throws IOException {
+		byte[] data = skewed();
+		HuffAnsCoder coder = new HuffAnsCoder();
+		coder.train(data, 0, data.length, counts(data));
+		ByteArrayOutputStream payload = new ByteArrayOutputStream();
+		coder.write(data, 0, data.length, payload);
+		byte[] bytes = payload.toByteArray();
+		bytes[bytes.length / 2] ^= 0x10;
+		new HuffAnsCoder().decode(HuffCodec.decoder().reset(new ByteArrayInputStream(bytes)), new byte[data.length],
+				data.length);
+	}
+
+	/**
+	 * Tests that the reserved block types can't be registered
+	 */
+	@Test(expected = IllegalArgumentException.class)
+	public void testRegisterStored() {
+		HuffBlockCoders.register(BLOCK_STORED, HuffAnsCoder::new);
+	}
+
+}
@@ -0,0 +1,105 @@
+/**
+ * One member of a multi-file archive, as recorded in the archive's central
+ * directory. An entry holds everything needed to extract its member with a
+ * single seek: where the compressed member starts, how many bytes it takes up,
+ * and the size and checksum of the original data. An entry of a deduplicated
+ * archive instead lists the chunks its member is made of, and its offset and
+ * compressed size are those of the chunks it was the first to add.
+ * 
+ * @author clairewalker
+ *
+ */
+public class HuffArchiveEntry {
+	private final String name;
+	private final long offset;
+	private final int compressedSize;
+	private final long size;
+	private final int checksum;
+	private final int[] chunks;
+
+	/**
+	 * HuffArchiveEntry constructor
+	 * 
+	 * @param name           is the name the member was added under
+	 * @param offset         is the byte offset of the compressed member in the
+	 *                       archive
+	 * @param compressedSize is the number of bytes of the compressed member
+	 * @param size           is the number of bytes of the original data
+	 * @param checksum       is the CRC32C of the original data
+	 */
+	public HuffArchiveEntry(String name, long offset, int compressedSize, long size, int checksum) {
+		this(name, offset, compressedSize, size, checksum, null);
+	}
+
+	/**
+	 * HuffArchiveEntry constructor for a member of a deduplicated archive
+	 * 
+	 * @param chunks is the index of each chunk of the member, in order, or null
+	 *               if the member is stored whole
+	 */
+	HuffArchiveEntry(String name, long offset, int compressedSize, long size, int checksum, int[] chunks) {
+		this.name = name;
+		this.offset = offset;
+		this.compressedSize = compressedSize;
+		this.size = size;
+		this.checksum = checksum;
+		this.chunks = chunks;
+	}
+
+	/**
+	 * @return the name the member was added under
+	 */
+	public String name() {
+		return this.name;
+	}
+
+	/**
+	 * @return the byte offset of the compressed member in the archive
+	 */
+	public long offset() {
+		return this.offset;
+	}
+
+	/**
+	 * @return the number of bytes of the compressed member
+	 */
+	public int compressedSize() {
+		return this.compressedSize;
+	}
+
+	/**
+	 * @return the number of bytes of the original data
+	 */
+	public long size() {
+		return this.size;
+	}
+
+	/**
+	 * @return the CRC32C of the original data
+	 */
+	public int checksum() {
+		return this.checksum;
+	}
+
+	/**
+	 * @return the number of chunks the member is made of, or 0 if it is stored
+	 *         whole
+	 */
+	public int chunkCount() {
+		return (this.chunks == null) ? 0 : this.chunks.length;
+	}
+
+	/**
+	 * @return the index of each chunk of the member in the archive, or null if it
+	 *         is stored whole
+	 */
+	int[] chunks() {
+		return this.chunks;
+	}
+
+	@Override
+	public String toString() {
+		return this.name + " " + this.size + " -> " + this.compressedSize;
+	}
+
+}
@@ -0,0 +1,289 @@
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32C;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * Reads an archive written by HuffArchiveWriter. The trailer and central
+ * directory are read once when the archive is opened, after which any member
+ * can be extracted with a single positioned read and decode. Extraction uses
+ * positioned reads only, so several threads may extract members from the same
+ * reader at once.
+ * <P>
+ * A member of a deduplicated archive is extracted by decoding each of its
+ * chunks in turn, with the chunk's own tree or the archive's shared tree.
+ * 
+ * @author clairewalker
+ *
+ */
+public class HuffArchiveReader implements IHuffConstants, Closeable {
+	private static final int TRAILER_SIZE = 16;
+
+	// the size of a directory entry with an empty name: the name's length, offset,
+	// compressed size, size and checksum
+	private static final int MIN_ENTRY_SIZE = 26;
+
+	private final RandomAccessFile file;
+	private final FileChannel channel;
+	private final List<HuffArchiveEntry> entries;
+	private final Map<String, HuffArchiveEntry> byName;
+	private final boolean deduplicated;
+	private final long directoryOffset;
+	private HuffDecodeTable sharedTable;
+	private long[] chunkOffsets;
+	private int[] chunkCompressedSizes;
+	private int[] chunkSizes;
+	private boolean[] chunkShared;
+
+	/**
+	 * HuffArchiveReader constructor opens the archive and reads its central
+	 * directory
+	 * 
+	 * @param archiveFile is the name of the archive to open
+	 * @throws IOException if the archive cannot be read or is not an archive
+	 */
+	public HuffArchiveReader(String archiveFile) throws IOException {
+		this.file = new RandomAccessFile(archiveFile, "r");
+		this.channel = this.file.getChannel();
+		try {
+			// check the magic number at the start of the archive
+			long length = this.channel.size();
+			int magic = (length < BITS_PER_INT / 8 + TRAILER_SIZE) ? 0 : readFully(0, BITS_PER_INT / 8).getInt();
+			if (magic != ARCHIVE_MAGIC_NUMBER && magic != DEDUP_ARCHIVE_MAGIC_NUMBER) {
+				throw new IOException("not an archive: " + archiveFile);
+			}
+			this.deduplicated = magic == DEDUP_ARCHIVE_MAGIC_NUMBER;
+
+			// read the trailer to find the directory
+			ByteBuffer trailer = readFully(length - TRAILER_SIZE, TRAILER_SIZE);
+			long directoryOffset = trailer.getLong();
+			int count = trailer.getInt();
+			// the members lie between the magic number and the directory, and the
+			// directory has room for at least count entries
+			if (trailer.getInt() != magic || directoryOffset < BITS_PER_INT / 8
+					|| directoryOffset > length - TRAILER_SIZE || count < 0
+					|| count > (length - TRAILER_SIZE - directoryOffset) / MIN_ENTRY_SIZE) {
+				throw new IOException("bad archive trailer: " + archiveFile);
+			}
+			this.directoryOffset = directoryOffset;
+
+			// read the whole directory in one buffered pass
+			this.entries = new ArrayList<HuffArchiveEntry>(count);
+			this.byName = new HashMap<String, HuffArchiveEntry>(count * 4 / 3 + 1);
+			DataInputStream dir = new DataInputStream(
+					new BufferedInputStream(Channels.newInputStream(this.channel.position(directoryOffset)), 1 << 16));
+			if (this.deduplicated) {
+				readChunkTable(dir, archiveFile);
+			}
+			for (int i = 0; i < count; i++) {
+				HuffArchiveEntry e = new HuffArchiveEntry(dir.readUTF(), dir.readLong(), dir.readInt(), dir.readLong(),
+						dir.readInt(), this.deduplicated ? readChunks(dir, archiveFile) : null);
+				this.entries.add(e);
+				this.byName.put(e.name(), e);
+			}
+		} catch (IOException e) {
+			this.file.close();
+			throw e;
+		}
+	}
+
+	/*
+	 * Helper method to read the shared tree and the chunk table at the start of
+	 * the directory of a deduplicated archive
+	 */
+	private void readChunkTable(DataInputStream dir, String archiveFile) throws IOException {
+		int treeSize = dir.readInt();
+		if (treeSize < 0 || treeSize > this.channel.size() - this.directoryOffset) {
+			throw new IOException("bad archive directory: " + archiveFile);
+		}
+		if (treeSize > 0) {
+			byte[] tree = new byte[treeSize];
+			dir.readFully(tree);
+			HuffDecodeContext ctx = HuffCodec.decoder().reset(new ByteArrayInputStream(tree));
+			try {
+				this.sharedTable = HuffDecodeTable.read(ctx);
+			} finally {
+				ctx.finish();
+			}
+		}
+		int chunks = dir.readInt();
+		if (chunks < 0 || chunks > this.channel.size() / 4) {
+			throw new IOException("bad archive directory: " + archiveFile);
+		}
+		this.chunkOffsets = new long[chunks];
+		this.chunkCompressedSizes = new int[chunks];
+		this.chunkSizes = new int[chunks];
+		this.chunkShared = new boolean[chunks];
+		for (int i = 0; i < chunks; i++) {
+			this.chunkOffsets[i] = dir.readLong();
+			this.chunkCompressedSizes[i] = dir.readInt();
+			this.chunkSizes[i] = dir.readInt();
+			this.chunkShared[i] = dir.readBoolean();
+			if (this.chunkShared[i] && this.sharedTable == null) {
+				throw new IOException("bad archive directory: " + archiveFile);
+			}
+		}
+	}
+
+	/*
+	 * Helper method to read the chunk list of an entry of a deduplicated archive
+	 */
+	private int[] readChunks(DataInputStream dir, String archiveFile) throws IOException {
+		int n = dir.readInt();
+		if (n < 0 || n > this.channel.size() / 4) {
+			throw new IOException("bad archive directory: " + archiveFile);
+		}
+		int[] chunks = new int[n];
+		for (int i = 0; i < n; i++) {
+			chunks[i] = dir.readInt();
+			if (chunks[i] < 0 || chunks[i] >= this.chunkSizes.length) {
+				throw new IOException("bad archive directory: " + archiveFile);
+			}
+		}
+		return chunks;
+	}
+
+	/*
+	 * Helper method to read length bytes starting at offset with positioned reads
+	 */
+	private ByteBuffer readFully(long offset, int length) throws IOException {
+		ByteBuffer buf = ByteBuffer.allocate(length);
+		while (buf.hasRemaining()) {
+			if (this.channel.read(buf, offset + buf.position()) == -1) {
+				throw new IOException("unexpected end of archive");
+			}
+		}
+		buf.flip();
+		return buf;
+	}
+
+	/**
+	 * @return the entries of the archive, in the order they were added
+	 */
+	public List<HuffArchiveEntry> entries() {
+		return Collections.unmodifiableList(this.entries);
+	}
+
+	/**
+	 * @return true if the members are stored as lists of shared chunks
+	 */
+	public boolean isDeduplicated() {
+		return this.deduplicated;
+	}
+
+	/**
+	 * @return the number of different chunks stored, 0 if the archive is not
+	 *         deduplicated
+	 */
+	public int chunkCount() {
+		return this.deduplicated ? this.chunkSizes.length : 0;
+	}
+
+	/**
+	 * @param name is the name of a member
+	 * @return the entry for the member, or null if there is no such member
+	 */
+	public HuffArchiveEntry getEntry(String name) {
+		return this.byName.get(name);
+	}
+
+	/**
+	 * Extract the named member to out
+	 * 
+	 * @param name is the name of the member
+	 * @param out  is where the uncompressed member is written
+	 * @return the number of bytes written
+	 * @throws IOException if there is no such member, or it is corrupt
+	 */
+	public long extract(String name, OutputStream out) throws IOException {
+		HuffArchiveEntry e = getEntry(name);
+		if (e == null) {
+			throw new IOException("no archive entry " + name);
+		}
+		return extract(e, out);
+	}
+
+	/**
+	 * Extract the named member into a new array
+	 * 
+	 * @param name is the name of the member
+	 * @return the uncompressed member
+	 * @throws IOException if there is no such member, or it is corrupt
+	 */
+	public byte[] extract(String name) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		extract(name, out);
+		return out.toByteArray();
+	}
+
+	/**
+	 * Extract the member for an entry to out, checking its size and checksum
+	 * 
+	 * @param e   is an entry of this archive
+	 * @param out is where the uncompressed member is written
+	 * @return the number of bytes written
+	 * @throws IOException if the member is corrupt
+	 */
+	public long extract(HuffArchiveEntry e, OutputStream out) throws IOException {
+		// decode the member, checksumming it on the way out
+		CheckedOutputStream checked = new CheckedOutputStream(out, new CRC32C());
+		long size;
+		if (e.chunks() == null) {
+			// one positioned read for the whole compressed member
+			size = decode(e.offset(), e.compressedSize(), null, checked);
+		} else {
+			size = 0;
+			for (int index : e.chunks()) {
+				long n = decode(this.chunkOffsets[index], this.chunkCompressedSizes[index],
+						this.chunkShared[index] ? this.sharedTable : null, checked);
+				if (n != this.chunkSizes[index]) {
+					throw new IOException("corrupt archive entry " + e.name());
+				}
+				size += n;
+			}
+		}
+		if (size != e.size() || (int) checked.getChecksum().getValue() != e.checksum()) {
+			throw new IOException("corrupt archive entry " + e.name());
+		}
+		return size;
+	}
+
+	/*
+	 * Helper method to decode the compressed bytes at offset with the given table,
+	 * or the tree they start with if table is null. The bytes must lie between
+	 * the magic number and the directory
+	 */
+	private long decode(long offset, int compressedSize, HuffDecodeTable table, OutputStream out)
+			throws IOException {
+		if (offset < BITS_PER_INT / 8 || compressedSize < 0 || offset > this.directoryOffset - compressedSize) {
+			throw new IOException("bad archive offset " + offset);
+		}
+		ByteBuffer member = readFully(offset, compressedSize);
+		HuffDecodeContext ctx = HuffCodec.decoder().reset(new ByteArrayInputStream(member.array()));
+		try {
+			return ctx.decode((table != null) ? table : HuffDecodeTable.read(ctx), out);
+		} finally {
+			ctx.finish();
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		this.file.close();
+	}
+
+}
@@ -0,0 +1,290 @@
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.List;
+
+import org.junit.Test;
+
+/**
+ * @author clairewalker
+ *
+ */
+public class HuffArchiveTest {
+
+	/*
+	 * Helper method to write an archive holding "teststring", an empty member and
+	 * "aaaa" to a new temporary file
+	 */
+	private File writeArchive() throws IOException {
+		File f = File.createTempFile("huff", ".har");
+		f.deleteOnExit();
+		HuffArchiveWriter w = new HuffArchiveWriter(f.getPath());
+		w.add("a", "teststring".getBytes("UTF-8"));
+		w.add("b", new byte[0]);
+		w.add("c", "aaaa".getBytes("UTF-8"));
+		w.close();
+		return f;
+	}
+
+	/**
+	 * Tests that the directory lists every member in order with its original size
+	 * 
+	 * @throws IOException
+	 */
+	@Test
+	public void testList() throws IOException {
+		HuffArchiveReader r = new HuffArchiveReader(writeArchive().getPath());
+		List<HuffArchiveEntry> entries = r.entries();
+		assertEquals(3, entries.size());
+		assertEquals("a", entries.get(0).name());
+		assertEquals(10, entries.get(0).size());
+		assertEquals(0, entries.get(1).size());
+		assertEquals("c", entries.get(2).name());
+		r.close();
+	}
+
+	/**
+	 * Tests that each member is extracted to its original bytes
+	 * 
+	 * @throws IOException
+	 */
+	@Test
+	public void testExtract() throws IOException {
+		HuffArchiveReader r = new HuffArchiveReader(writeArchive().getPath());
+		assertEquals("aaaa", new String(r.extract("c"), "UTF-8"));
+		assertEquals("teststring", new String(r.extract("a"), "UTF-8"));
+		assertEquals(0, r.extract("b").length);
+		r.close();
+	}
+
+	/**
+	 * Tests that extracting a name that is not in the archive throws an exception
+	 * 
+	 * @throws IOException
+	 */
+	@Test(expected = IOException.class)
+	public void testExtractMissing() throws IOException {
+		HuffArchiveReader r = new HuffArchiveReader(writeArchive().getPath());
+		try {
+			r.extract("d");
+		} finally {
+			r.close();
+		}
+	}
+
+	/**
+	 * Tests that adding the same name twice throws an exception
+	 * 
+	 * @throws IOException
+	 */
+	@Test(expected = IllegalArgumentException.class)
+	public void testDuplicateName() throws IOException {
+		File f = File.createTempFile("huff", ".har");
+		f.deleteOnExit();
+		HuffArchiveWriter w = new HuffArchiveWriter(f.getPath());
+		try {
+			w.add("a", new byte[1]);
+			w.add("a", new byte[1]);
+		} finally {
+			w.close();
+		}
+	}
+
+	/**
+	 * Tests that a name too long to be written in the directory is refused when
+	 * it is added, and the archive can still be closed and read
+	 * 
+	 * @throws IOException
+	 */
+	@Test
+	public void testLongName() throws IOException {
+		File f = File.createTempFile("huff", ".har");
+		f.deleteOnExit();
+		// 2 bytes a character in modified UTF-8, 60000 in all
+		String fits = "\u00e9".repeat(30000);
+		// 3 bytes a character, 65538 in all
+		String tooLong = "\u4e00".repeat(21846);
+		HuffArchiveWriter w = new HuffArchiveWriter(f.getPath());
+		try {
+			w.add(fits, new byte[1]);
+			try {
+				w.add(tooLong, new byte[1]);
+				fail();
+			} catch (IllegalArgumentException e) {
+				// expected
+			}
+		} finally {
+			w.close();
+		}
+		try (HuffArchiveReader r = new HuffArchiveReader(f.getPath())) {
+			List<HuffArchiveEntry> entries = r.entries();
+			assertEquals(1, entries.size());
+			assertEquals(fits, entries.get(0).name());
+		}
+	}
+
+	/*
+	 * Helper method to write an archive of one member named "a"
+	 */
+	private File archiveOfOne() throws IOException {
+		File f = File.createTempFile("huff", ".har");
+		f.deleteOnExit();
+		HuffArchiveWriter w = new HuffArchiveWriter(f.getPath());
+		w.add("a", HuffTestData.text(1000));
+		w.close();
+		return f;
+	}
+
+	/**
+	 * Tests that an entry count larger than the directory could hold is refused
+	 * before any room is made for the entries
+	 * 
+	 * @throws IOException
+	 */
+	@Test(expected = IOException.class)
+	public void testBadCount() throws IOException {
+		File f = archiveOfOne();
+		try (RandomAccessFile raf = new RandomAccessFile(f, "rw")) {
+			// the count follows the directory offset in the 16 byte trailer
+			raf.seek(raf.length() - 8);
+			raf.writeInt(Integer.MAX_VALUE);
+		}
+		new HuffArchiveReader(f.getPath()).close();
+	}
+
+	/**
+	 * Tests that a member whose compressed bytes would run past the start of the
+	 * directory, or have a negative size, is refused
+	 * 
+	 * @throws IOException
+	 */
+	@Test
+	public void testBadCompressedSize() throws IOException {
+		for (int size : new int[] { -1, 1 << 20 }) {
+			File f = archiveOfOne();
+			try (RandomAccessFile raf = new RandomAccessFile(f, "rw")) {
+				raf.seek(raf.length() - 16);
+				long directoryOffset = raf.readLong();
+				// the entry's name "a" takes 3 bytes and its offset 8
+				raf.seek(directoryOffset + 3 + 8);
+				raf.writeInt(size);
+			}
+			try (HuffArchiveReader r = new HuffArchiveReader(f.getPath())) {
+				r.extract("a");
+				fail();
+			} catch (IOException e) {
+				// expected
+			}
+		}
+	}
+
+	/*
+	 * Helper method to make a near copy of data, with a few bytes inserted in the
+	 * middle
+	 */
+	private byte[] edit(byte[] data) {
+		byte[] copy = new byte[data.length + 5];
+		int at = data.length / 2;
+		System.arraycopy(data, 0, copy, 0, at);
+		System.arraycopy("hello".getBytes(), 0, copy, at, 5);
+		System.arraycopy(data, at, copy, at + 5, data.length - at);
+		return copy;
+	}
+
+	/**
+	 * Tests that near copies in a deduplicated archive share their chunks, take up
+	 * little more room than one copy, and extract to their original bytes
+	 * 
+	 * @throws IOException
+	 */
+	@Test
+	public void testDedup() throws IOException {
+		byte[] data = HuffTestData.text(200000, 1);
+		byte[] copy = edit(data);
+		File f = File.createTempFile("huff", ".har");
+		f.deleteOnExit();
+		HuffArchiveWriter w = new HuffArchiveWriter(f.getPath(), new HuffChunker(), null);
+		HuffArchiveEntry first = w.add("a", data);
+		HuffArchiveEntry second = w.add("b", copy);
+		w.add("c", new byte[0]);
+		w.add("d", data);
+		w.close();
+		assertTrue(second.compressedSize() < first.compressedSize() / 4);
+
+		File whole = File.createTempFile("huff", ".har");
+		whole.deleteOnExit();
+		w = new HuffArchiveWriter(whole.getPath());
+		w.add("a", data);
+		w.add("b", copy);
+		w.close();
+		assertTrue(f.length() < whole.length() * 2 / 3);
+
+		HuffArchiveReader r = new HuffArchiveReader(f.getPath());
+		assertTrue(r.isDeduplicated());
+		assertTrue(r.getEntry("a").chunkCount() > 1);
+		assertEquals(0, r.getEntry("c").chunkCount());
+		assertArrayEquals(data, r.extract("a"));
+		assertArrayEquals(copy, r.extract("b"));
+		assertEquals(0, r.extract("c").length);
+		assertArrayEquals(data, r.extract("d"));
+		r.close();
+	}
+
+	/**
+	 * Tests that small chunks coded with a shared tree where it is smaller than
+	 * their own make a smaller archive, and extract to their original bytes
+	 * 
+	 * @throws IOException
+	 */
+	@Test
+	public void testDedupSharedTree() throws IOException {
+		HuffCodec shared = HuffCodec.train(HuffTestData.text(10000, 2));
+		byte[][] members = { HuffTestData.text(50000, 3), HuffTestData.text(50000, 4), HuffTestData.text(100, 5) };
+		File own = File.createTempFile("huff", ".har");
+		own.deleteOnExit();
+		File f = File.createTempFile("huff", ".har");
+		f.deleteOnExit();
+		HuffArchiveWriter ownWriter = new HuffArchiveWriter(own.getPath(), new HuffChunker(256, 512, 4096), null);
+		HuffArchiveWriter w = new HuffArchiveWriter(f.getPath(), new HuffChunker(256, 512, 4096), shared);
+		for (int i = 0; i < members.length; i++) {
+			ownWriter.add("m" + i, members[i]);
+			w.add("m" + i, members[i]);
+		}
+		ownWriter.close();
+		w.close();
+		assertTrue(f.length() < own.length());
+
+		HuffArchiveReader r = new HuffArchiveReader(f.getPath());
+		for (int i = 0; i < members.length; i++) {
+			assertArrayEquals(members[i], r.extract("m" + i));
+		}
+		r.close();
+	}
+
+	/**
+	 * Tests that a damaged chunk is reported as a corrupt member
+	 * 
+	 * @throws IOException
+	 */
+	@Test(expected = IOException.class)
+	public void testDedupCorrupt() throws IOException {
+		File f = File.createTempFile("huff", ".har");
+		f.deleteOnExit();
+		HuffArchiveWriter w = new HuffArchiveWriter(f.getPath(), new HuffChunker(), null);
+		w.add("a", HuffTestData.text(50000, 1));
+		w.close();
+		try (RandomAccessFile raf = new RandomAccessFile(f, "rw")) {
+			raf.seek(1000);
+			raf.write(~raf.readByte());
+		}
+		HuffArchiveReader r = new HuffArchiveReader(f.getPath());
+		try {
+			r.extract("a");
+		} finally {
+			r.close();
+		}
+	}
+
+}
@@ -0,0 +1,330 @@
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.CRC32C;
+
+/**
+ * Writes many files into one archive. Each member is stored as its compressed
+ * hufftree followed by its codes and the pseudo EOF, padded to a whole byte.
+ * The central directory (name, offset, sizes and CRC32C of every member) is
+ * written after the last member by close(), followed by a fixed size trailer:
+ * the offset of the directory, the number of entries and the archive magic
+ * number. HuffArchiveReader uses the trailer and directory to extract a member
+ * without scanning the archive.
+ * <P>
+ * A deduplicated archive, made with a HuffChunker, cuts each member into
+ * content-defined chunks instead and writes each chunk only the first time it
+ * is seen, found by its SHA-256 digest, so members that are near copies of one
+ * another cost little more than one of them, and the repeated chunks are not
+ * compressed again. Each chunk is coded with a tree of its own, or with the
+ * shared tree of a codec given to the constructor when that is smaller, which
+ * saves the tree header on the many small chunks. The directory of a
+ * deduplicated archive starts with the shared tree and a table of the chunks
+ * (offset, compressed size, size and which tree), and lists the chunks of each
+ * member after its entry; its magic number is DEDUP_ARCHIVE_MAGIC_NUMBER.
+ * 
+ * @author clairewalker
+ *
+ */
+public class HuffArchiveWriter implements IHuffConstants, Closeable {
+	private final DataOutputStream out;
+	private final List<HuffArchiveEntry> entries = new ArrayList<HuffArchiveEntry>();
+	private final Set<String> names = new HashSet<String>();
+	private final HuffCompressor compressor = new HuffCompressor();
+	private final ByteArrayOutputStream member = new ByteArrayOutputStream();
+	private final CRC32C crc = new CRC32C();
+	private final HuffChunker chunker;
+	private final HuffCodec shared;
+	private final HuffEncodeContext sharedCtx;
+	private final ByteArrayOutputStream sharedMember;
+	private final MessageDigest digest;
+	private final Map<ByteBuffer, Integer> chunkIndex;
+	private final ByteArrayOutputStream chunkBytes;
+	private final DataOutputStream chunkTable;
+	private long position;
+	private boolean closed;
+
+	/**
+	 * HuffArchiveWriter constructor creates the archive file and writes the magic
+	 * number
+	 * 
+	 * @param archiveFile is the name of the archive to create
+	 * @throws IOException if the archive cannot be created
+	 */
+	public HuffArchiveWriter(String archiveFile) throws IOException {
+		this.chunker = null;
+		this.shared = null;
+		this.sharedCtx = null;
+		this.sharedMember = null;
+		this.digest = null;
+		this.chunkIndex = null;
+		this.chunkBytes = null;
+		this.chunkTable = null;
+		this.out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(archiveFile), 1 << 16));
+		this.out.writeInt(ARCHIVE_MAGIC_NUMBER);
+		this.position = BITS_PER_INT / 8;
+	}
+
+	/**
+	 * HuffArchiveWriter constructor creates a deduplicated archive file and writes
+	 * the magic number
+	 * 
+	 * @param archiveFile is the name of the archive to create
+	 * @param chunker     cuts the members into chunks
+	 * @param shared      is a codec, such as one from HuffCodec.train(), whose tree
+	 *                    chunks may be coded with instead of their own, or null
+	 * @throws IOException              if the archive cannot be created
+	 * @throws IllegalArgumentException if the shared codec has no code for some
+	 *                                  byte
+	 */
+	public HuffArchiveWriter(String archiveFile, HuffChunker chunker, HuffCodec shared) throws IOException {
+		if (shared != null) {
+			for (int ch = 0; ch < ALPH_SIZE; ch++) {
+				if (!shared.codebook().hasCode(ch)) {
+					throw new IllegalArgumentException("shared codec has no code for " + ch);
+				}
+			}
+		}
+		try {
+			this.digest = MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			// every Java platform has SHA-256
+			throw new IllegalStateException(e);
+		}
+		this.chunker = chunker;
+		this.shared = shared;
+		this.sharedCtx = (shared != null) ? new HuffEncodeContext() : null;
+		this.sharedMember = (shared != null) ? new ByteArrayOutputStream() : null;
+		this.chunkIndex = new HashMap<ByteBuffer, Integer>();
+		this.chunkBytes = new ByteArrayOutputStream();
+		this.chunkTable = new DataOutputStream(this.chunkBytes);
+		this.out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(archiveFile), 1 << 16));
+		this.out.writeInt(DEDUP_ARCHIVE_MAGIC_NUMBER);
+		this.position = BITS_PER_INT / 8;
+	}
+
+	/**
+	 * Compress a file into the archive under the given name
+	 * 
+	 * @param name   is the name to store the member under
+	 * @param inFile is the file to compress
+	 * @return the directory entry for the member
+	 * @throws IOException              if the file cannot be read or the archive
+	 *                                  written
+	 * @throws IllegalArgumentException if name is already in the archive, or is
+	 *                                  longer than 65535 bytes in modified UTF-8
+	 */
+	public HuffArchiveEntry add(String name, String inFile) throws IOException {
+		return add(name, Files.readAllBytes(Paths.get(inFile)));
+	}
+
+	/**
+	 * Compress data into the archive under the given name
+	 * 
+	 * @param name is the name to store the member under
+	 * @param data is the data to compress
+	 * @return the directory entry for the member
+	 * @throws IOException              if the archive cannot be written
+	 * @throws IllegalArgumentException if name is already in the archive, or is
+	 *                                  longer than 65535 bytes in modified UTF-8
+	 */
+	public HuffArchiveEntry add(String name, byte[] data) throws IOException {
+		if (this.closed) {
+			throw new IOException("archive is closed");
+		}
+		// names are written with writeUTF() when the archive is closed, so a name
+		// too long for it must be refused now, not then
+		if (utfLength(name) > 65535) {
+			throw new IllegalArgumentException("archive entry name too long: " + name.length() + " characters");
+		}
+		if (!this.names.add(name)) {
+			throw new IllegalArgumentException("duplicate archive entry " + name);
+		}
+
+		long offset = this.position;
+		int[] chunks = null;
+		if (this.chunker == null) {
+			// compress the member into the reusable buffer so its size is known before
+			// it is copied into the archive
+			this.member.reset();
+			this.compressor.compressBody(data, 0, data.length, this.member);
+			this.member.writeTo(this.out);
+			this.position += this.member.size();
+		} else {
+			chunks = addChunks(data);
+		}
+
+		// checksum the original data
+		this.crc.reset();
+		this.crc.update(data, 0, data.length);
+
+		// record the entry
+		HuffArchiveEntry entry = new HuffArchiveEntry(name, offset, (int) (this.position - offset), data.length,
+				(int) this.crc.getValue(), chunks);
+		this.entries.add(entry);
+		return entry;
+	}
+
+	/*
+	 * Helper method to cut data into chunks, writing each chunk that is not
+	 * already in the archive, and return the index of every chunk
+	 */
+	private int[] addChunks(byte[] data) throws IOException {
+		int[] chunks = new int[16];
+		int count = 0;
+		for (int off = 0; off < data.length;) {
+			int len = this.chunker.next(data, off, data.length - off);
+			this.digest.update(data, off, len);
+			ByteBuffer key = ByteBuffer.wrap(this.digest.digest());
+			Integer index = this.chunkIndex.get(key);
+			if (index == null) {
+				index = this.chunkIndex.size();
+				writeChunk(data, off, len);
+				this.chunkIndex.put(key, index);
+			}
+			if (count == chunks.length) {
+				chunks = Arrays.copyOf(chunks, 2 * count);
+			}
+			chunks[count++] = index;
+			off += len;
+		}
+		return Arrays.copyOf(chunks, count);
+	}
+
+	/*
+	 * Helper method to compress a new chunk with whichever of its own tree and the
+	 * shared tree is smaller, write it and add it to the chunk table
+	 */
+	private void writeChunk(byte[] data, int off, int len) throws IOException {
+		ByteArrayOutputStream chunk = this.member;
+		boolean useShared = false;
+		this.member.reset();
+		if (this.shared == null) {
+			this.compressor.compressBody(data, off, len, this.member);
+		} else {
+			// the codes with the shared tree, then a tree of its own only if it is
+			// smaller, which is worked out before anything is written
+			this.sharedMember.reset();
+			HuffCodebook book = this.shared.codebook();
+			this.sharedCtx.reset(this.sharedMember);
+			this.sharedCtx.encode(book, data, off, len);
+			this.sharedCtx.writeCode(book, PSEUDO_EOF);
+			long sharedBits = this.sharedCtx.bitsWritten();
+			this.sharedCtx.finish();
+			if (this.compressor.compressBodyIfSmaller(data, off, len, this.member, sharedBits - 1) < 0) {
+				chunk = this.sharedMember;
+				useShared = true;
+			}
+		}
+		this.chunkTable.writeLong(this.position);
+		this.chunkTable.writeInt(chunk.size());
+		this.chunkTable.writeInt(len);
+		this.chunkTable.writeBoolean(useShared);
+		chunk.writeTo(this.out);
+		this.position += chunk.size();
+	}
+
+	/**
+	 * @return the number of members added so far
+	 */
+	public int size() {
+		return this.entries.size();
+	}
+
+	/**
+	 * @return the number of different chunks written so far, 0 if the archive is
+	 *         not deduplicated
+	 */
+	public int chunkCount() {
+		return (this.chunkIndex == null) ? 0 : this.chunkIndex.size();
+	}
+
+	/**
+	 * Writes the central directory and trailer and closes the archive file
+	 */
+	@Override
+	public void close() throws IOException {
+		if (this.closed) {
+			return;
+		}
+		this.closed = true;
+
+		// write the central directory after the last member
+		long directoryOffset = this.position;
+		if (this.chunker != null) {
+			writeChunkTable();
+		}
+		for (HuffArchiveEntry e : this.entries) {
+			this.out.writeUTF(e.name());
+			this.out.writeLong(e.offset());
+			this.out.writeInt(e.compressedSize());
+			this.out.writeLong(e.size());
+			this.out.writeInt(e.checksum());
+			if (this.chunker != null) {
+				int[] chunks = e.chunks();
+				this.out.writeInt(chunks.length);
+				for (int index : chunks) {
+					this.out.writeInt(index);
+				}
+			}
+		}
+
+		// write the trailer so the directory can be found from the end of the file
+		this.out.writeLong(directoryOffset);
+		this.out.writeInt(this.entries.size());
+		this.out.writeInt((this.chunker == null) ? ARCHIVE_MAGIC_NUMBER : DEDUP_ARCHIVE_MAGIC_NUMBER);
+		this.out.close();
+	}
+
+	/*
+	 * Helper method to write the shared tree, if any, and the chunk table at the
+	 * start of the directory
+	 */
+	private void writeChunkTable() throws IOException {
+		ByteArrayOutputStream tree = new ByteArrayOutputStream();
+		if (this.shared != null) {
+			this.sharedCtx.reset(tree);
+			this.shared.codebook().writeTree(this.sharedCtx);
+			this.sharedCtx.finish();
+		}
+		this.out.writeInt(tree.size());
+		tree.writeTo(this.out);
+		this.out.writeInt(this.chunkIndex.size());
+		this.chunkBytes.writeTo(this.out);
+	}
+
+	/*
+	 * Helper method to find the number of bytes writeUTF() writes for s, not
+	 * counting its length
+	 */
+	private static long utfLength(String s) {
+		long length = 0;
+		for (int i = 0; i < s.length(); i++) {
+			char c = s.charAt(i);
+			if (c >= 0x0001 && c <= 0x007f) {
+				length++;
+			} else if (c <= 0x07ff) {
+				length += 2;
+			} else {
+				length += 3;
+			}
+		}
+		return length;
+	}
+
+}
@@ -0,0 +1,259 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Compresses and decompresses on an executor instead of the caller's thread.
+ * Each call returns at once with a CompletableFuture that completes with a
+ * HuffResult when the job is done, or exceptionally with its IOException if it
+ * fails, so callers can do other work meanwhile or chain what comes next:
+ *
+ * <pre>
+ * HuffAsync async = new HuffAsync();
+ * async.compressAsync("log", "log.huf", (read, written) -&gt; bar.set(read))
+ * 		.thenAccept(r -&gt; log.info("compressed " + r));
+ * </pre>
+ *
+ * Cancelling the future stops the job at the end of the block it is working on,
+ * or before it starts if it is still queued; a cancelled or failed job deletes
+ * the output file it was writing. Progress callbacks are told after each block,
+ * on the executor's thread.
+ * <P>
+ * Compressing writes a block stream at one of the levels of
+ * HuffBlockCoders.types(). Decompressing reads a block stream or a file in the
+ * single tree format of Huff.write().
+ *
+ * @author clairewalker
+ *
+ */
+public class HuffAsync implements IHuffConstants, Closeable {
+	private final Executor executor;
+	private final ExecutorService ownExecutor;
+	private final int level;
+	private final int blockSize;
+
+	/**
+	 * HuffAsync constructor
+	 *
+	 * @param executor  runs the jobs, and is not shut down by close()
+	 * @param level     is the compression level
+	 * @param blockSize is the number of bytes compressed into each block
+	 * @throws IllegalArgumentException if the level or block size is out of range
+	 */
+	public HuffAsync(Executor executor, int level, int blockSize) {
+		this(executor, null, level, blockSize);
+	}
+
+	/**
+	 * HuffAsync constructor that runs jobs on threads of its own, one a job, with
+	 * the default level and block size
+	 */
+	public HuffAsync() {
+		this(null, Executors.newCachedThreadPool(r -> {
+			Thread t = new Thread(r, "huff-async");
+			t.setDaemon(true);
+			return t;
+		}), HuffBlockCoders.DEFAULT_LEVEL, DEFAULT_BLOCK_SIZE);
+	}
+
+	/*
+	 * Private constructor for the others
+	 */
+	private HuffAsync(Executor executor, ExecutorService ownExecutor, int level, int blockSize) {
+		HuffBlockCoders.splits(level);
+		if (blockSize <= 0) {
+			throw new IllegalArgumentException("bad block size " + blockSize);
+		}
+		this.executor = (executor != null) ? executor : ownExecutor;
+		this.ownExecutor = ownExecutor;
+		this.level = level;
+		this.blockSize = blockSize;
+	}
+
+	/**
+	 * Compress inFile to outFile as a block stream
+	 *
+	 * @return the future result
+	 */
+	public CompletableFuture<HuffResult> compressAsync(String inFile, String outFile) {
+		return compressAsync(inFile, outFile, null);
+	}
+
+	/**
+	 * Compress inFile to outFile as a block stream
+	 *
+	 * @param progress is told how far the job has got, or is null
+	 * @return the future result
+	 */
+	public CompletableFuture<HuffResult> compressAsync(String inFile, String outFile, IHuffProgress progress) {
+		return submit(p -> {
+			try (InputStream in = new FileInputStream(inFile); OutputStream out = create(outFile)) {
+				return compress(in, out, p);
+			} catch (IOException | RuntimeException e) {
+				new File(outFile).delete();
+				throw e;
+			}
+		}, progress);
+	}
+
+	/**
+	 * Compress in to out as a block stream. The streams are not closed, and must
+	 * not be used by anyone else until the job is done.
+	 *
+	 * @param progress is told how far the job has got, or is null
+	 * @return the future result
+	 */
+	public CompletableFuture<HuffResult> compressAsync(InputStream in, OutputStream out, IHuffProgress progress) {
+		return submit(p -> compress(in, out, p), progress);
+	}
+
+	/**
+	 * Decompress inFile to outFile
+	 *
+	 * @return the future result
+	 */
+	public CompletableFuture<HuffResult> decompressAsync(String inFile, String outFile) {
+		return decompressAsync(inFile, outFile, null);
+	}
+
+	/**
+	 * Decompress inFile to outFile
+	 *
+	 * @param progress is told how far the job has got, or is null
+	 * @return the future result
+	 */
+	public CompletableFuture<HuffResult> decompressAsync(String inFile, String outFile, IHuffProgress progress) {
+		return submit(p -> {
+			try (InputStream in = new BufferedInputStream(new FileInputStream(inFile), 1 << 16);
+					OutputStream out = create(outFile)) {
+				return decompress(in, out, p);
+			} catch (IOException | RuntimeException e) {
+				new File(outFile).delete();
+				throw e;
+			}
+		}, progress);
+	}
+
+	/**
+	 * Decompress in to out. The streams are not closed, and must not be used by
+	 * anyone else until the job is done.
+	 *
+	 * @param progress is told how far the job has got, or is null
+	 * @return the future result
+	 */
+	public CompletableFuture<HuffResult> decompressAsync(InputStream in, OutputStream out, IHuffProgress progress) {
+		return submit(p -> decompress(in, out, p), progress);
+	}
+
+	/**
+	 * Shut down the threads this HuffAsync made, after the jobs already submitted
+	 * are done. An executor given to the constructor is left running.
+	 */
+	@Override
+	public void close() {
+		if (this.ownExecutor != null) {
+			this.ownExecutor.shutdown();
+		}
+	}
+
+	/*
+	 * Helper method to compress, returning the sizes without the timings
+	 */
+	private HuffResult compress(InputStream in, OutputStream out, Sizes p) throws IOException {
+		HuffBlockFormat.compress(in, out, this.blockSize, this.level, p);
+		return new HuffResult(p.read, p.written, 0, 0);
+	}
+
+	/*
+	 * Helper method to decompress, returning the sizes without the timings
+	 */
+	private static HuffResult decompress(InputStream in, OutputStream out, Sizes p) throws IOException {
+		HuffBlockFormat.decompressAny(in, out, p);
+		return new HuffResult(p.written, p.read, 0, 0);
+	}
+
+	/*
+	 * Helper method to create an output file
+	 */
+	private static OutputStream create(String outFile) throws IOException {
+		return new BufferedOutputStream(new FileOutputStream(outFile), 1 << 16);
+	}
+
+	/*
+	 * Helper method to run a job on the executor, completing its future with the
+	 * job's result and timings
+	 */
+	private CompletableFuture<HuffResult> submit(Job job, IHuffProgress progress) {
+		CompletableFuture<HuffResult> future = new CompletableFuture<HuffResult>();
+		long queued = System.nanoTime();
+		Runnable task = () -> {
+			// cancelled while queued
+			if (future.isDone()) {
+				return;
+			}
+			long start = System.nanoTime();
+			try {
+				HuffResult r = job.run(new Sizes(future, progress));
+				future.complete(new HuffResult(r.uncompressedBytes(), r.compressedBytes(), start - queued,
+						System.nanoTime() - start));
+			} catch (Throwable e) {
+				// does nothing if the future was cancelled
+				future.completeExceptionally(e);
+			}
+		};
+		try {
+			this.executor.execute(task);
+		} catch (RejectedExecutionException e) {
+			future.completeExceptionally(e);
+		}
+		return future;
+	}
+
+	/*
+	 * A compression or decompression to run on the executor
+	 */
+	private interface Job {
+		HuffResult run(Sizes progress) throws IOException;
+	}
+
+	/*
+	 * The progress of a job: keeps the latest sizes, stops the job if its future
+	 * has been cancelled, and tells the caller's callback
+	 */
+	private static final class Sizes implements IHuffProgress {
+		private final CompletableFuture<HuffResult> future;
+		private final IHuffProgress progress;
+		long read;
+		long written;
+
+		Sizes(CompletableFuture<HuffResult> future, IHuffProgress progress) {
+			this.future = future;
+			this.progress = progress;
+		}
+
+		@Override
+		public void progress(long bytesRead, long bytesWritten) {
+			if (this.future.isCancelled()) {
+				throw new CancellationException();
+			}
+			this.read = bytesRead;
+			this.written = bytesWritten;
+			if (this.progress != null) {
+				this.progress.progress(bytesRead, bytesWritten);
+			}
+		}
+	}
+
+}
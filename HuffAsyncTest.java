@@ -0,0 +1,106 @@
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Test;
+
+/**
+ * @author clairewalker
+ *
+ */
+public class HuffAsyncTest {
+
+	/**
+	 * Tests that streams compressed and decompressed asynchronously come back
+	 * the same, with the sizes in the results and progress told in order
+	 *
+	 * @throws Exception
+	 */
+	@Test
+	public void testRoundTrip() throws Exception {
+		byte[] data = HuffTestData.text(100000);
+		try (HuffAsync async = new HuffAsync()) {
+			ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+			AtomicLong last = new AtomicLong();
+			HuffResult r = async.compressAsync(new ByteArrayInputStream(data), compressed, (read, written) -> {
+				assertTrue(read >= last.get());
+				last.set(read);
+			}).get();
+			assertEquals(data.length, r.uncompressedBytes());
+			assertEquals(compressed.size(), r.compressedBytes());
+			assertEquals(data.length, last.get());
+			assertTrue(r.ratio() < 0.7);
+
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			r = async.decompressAsync(new ByteArrayInputStream(compressed.toByteArray()), out, null).get();
+			assertArrayEquals(data, out.toByteArray());
+			assertEquals(data.length, r.uncompressedBytes());
+			assertEquals(compressed.size(), r.compressedBytes());
+		}
+	}
+
+	/**
+	 * Tests that a cancelled job stops part way and deletes its output file
+	 *
+	 * @throws Exception
+	 */
+	@Test
+	public void testCancel() throws Exception {
+		File in = File.createTempFile("huff", ".txt");
+		in.deleteOnExit();
+		File out = new File(in.getPath() + ".huf");
+		out.deleteOnExit();
+		Files.write(in.toPath(), HuffTestData.text(100000));
+
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+		HuffAsync async = new HuffAsync(executor, 1, 4096);
+		CountDownLatch started = new CountDownLatch(1);
+		CountDownLatch cancelled = new CountDownLatch(1);
+		AtomicLong blocks = new AtomicLong();
+		CompletableFuture<HuffResult> f = async.compressAsync(in.getPath(), out.getPath(), (read, written) -> {
+			blocks.incrementAndGet();
+			started.countDown();
+			try {
+				cancelled.await();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		});
+		started.await();
+		assertTrue(f.cancel(true));
+		cancelled.countDown();
+		executor.shutdown();
+		assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+
+		assertTrue(f.isCancelled());
+		assertEquals(1, blocks.get());
+		assertFalse(out.exists());
+	}
+
+	/**
+	 * Tests that a corrupt stream completes the future with an IOException
+	 *
+	 * @throws InterruptedException
+	 */
+	@Test
+	public void testCorrupt() throws InterruptedException {
+		try (HuffAsync async = new HuffAsync()) {
+			async.decompressAsync(new ByteArrayInputStream(HuffTestData.text(1000)), new ByteArrayOutputStream(), null).get();
+			fail();
+		} catch (ExecutionException e) {
+			assertTrue(e.getCause() instanceof IOException);
+		}
+	}
+
+}
@@ -0,0 +1,296 @@
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * JMH benchmarks for compressing and decoding repeated 64 KB inputs. Run with
+ * the gc profiler (-prof gc) to see the allocation per call: after warm-up the
+ * reusable compressor should show close to 0 B/op, while building a codebook
+ * per call allocates the priority queue, tree nodes and tables every time. The
+ * decode benchmarks compare a block coded as one stream with one coded as four,
+ * the counting benchmarks compare ways of counting bytes on inputs of different
+ * distributions, and the search benchmarks compare finding a string in the
+ * compressed codes with decompressing and then searching. The specialised
+ * decode benchmarks compare decoding with a decode table and with a decoder
+ * generated for the tree, on trees of different shapes.
+ * 
+ * @author clairewalker
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HuffBenchmark {
+	private byte[] input;
+	private ByteArrayOutputStream out;
+	private HuffCompressor compressor;
+	private HuffParallelEncoder parallelEncoder;
+	private HuffBlockBuffer oneStream;
+	private HuffBlockBuffer fourStreams;
+	private byte[] singleTree;
+	private byte[] pattern;
+	private HuffSearch search;
+
+	/**
+	 * Make a 64 KB input of English-like text, and the reusable buffers
+	 */
+	@Setup
+	public void setup() {
+		Random r = new Random(42);
+		String letters = "eeeeeeeeeeeetttttttttaaaaaaaaooooooooiiiiiiinnnnnnnsssssshhhhhhrrrrrrddddlllluuucccmmm      ";
+		this.input = new byte[1 << 16];
+		for (int i = 0; i < this.input.length; i++) {
+			this.input[i] = (byte) letters.charAt(r.nextInt(letters.length()));
+		}
+		this.out = new ByteArrayOutputStream(1 << 17);
+		this.compressor = new HuffCompressor();
+		this.parallelEncoder = new HuffParallelEncoder(ForkJoinPool.commonPool(), this.input.length / 4);
+		try {
+			this.oneStream = encodedBlock(new HuffTreeCoder());
+			this.fourStreams = encodedBlock(new HuffInterleavedCoder());
+			int[] counts = new int[IHuffConstants.ALPH_SIZE];
+			for (byte b : this.input) {
+				counts[b & 0xff]++;
+			}
+			ByteArrayOutputStream encoded = new ByteArrayOutputStream();
+			new HuffCodec(HuffCodebook.fromCounts(counts)).encode(this.input, 0, this.input.length, encoded);
+			this.singleTree = encoded.toByteArray();
+			this.pattern = Arrays.copyOfRange(this.input, 40000, 40008);
+			this.search = new HuffSearch(this.pattern);
+		} catch (IOException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/*
+	 * Helper method to encode the input as one block with the given coder
+	 */
+	private HuffBlockBuffer encodedBlock(IHuffBlockCoder coder) throws IOException {
+		HuffBlockBuffer b = new HuffBlockBuffer(this.input.length);
+		b.raw().write(this.input, 0, this.input.length);
+		HuffBlockFormat.encode(this.compressor, null, new IHuffBlockCoder[] { coder }, b);
+		return b;
+	}
+
+	/**
+	 * Compress with one reused compressor
+	 */
+	@Benchmark
+	public int reusedCompressor() throws IOException {
+		this.out.reset();
+		this.compressor.compress(this.input, 0, this.input.length, this.out);
+		return this.out.size();
+	}
+
+	/**
+	 * Compress as one tree and one stream, counting and encoding four segments in
+	 * parallel on the common pool
+	 */
+	@Benchmark
+	public int parallelEncoder() throws IOException {
+		this.out.reset();
+		this.parallelEncoder.encode(this.input, 0, this.input.length, this.out);
+		return this.out.size();
+	}
+
+	/**
+	 * Compress with a new codebook and codec built for each call
+	 */
+	@Benchmark
+	public int codecPerCall() throws IOException {
+		int[] counts = new int[IHuffConstants.ALPH_SIZE];
+		for (byte b : this.input) {
+			counts[b & 0xff]++;
+		}
+		this.out.reset();
+		new HuffCodec(HuffCodebook.fromCounts(counts)).encode(this.input, 0, this.input.length, this.out);
+		return this.out.size();
+	}
+
+	/**
+	 * Inputs for the counting benchmarks: 64 KB of uniformly random bytes, of
+	 * bytes that are nine in ten one character, or of runs of a few hundred bytes
+	 * with random bytes between them
+	 */
+	@State(Scope.Thread)
+	public static class Histogram {
+		@Param({ "uniform", "skewed", "runs" })
+		public String distribution;
+
+		byte[] input;
+		CharCounter scalar;
+
+		/**
+		 * Make the input and the counter
+		 */
+		@Setup
+		public void setup() {
+			Random r = new Random(42);
+			this.input = new byte[1 << 16];
+			for (int i = 0; i < this.input.length; i++) {
+				switch (this.distribution) {
+				case "uniform":
+					this.input[i] = (byte) r.nextInt(256);
+					break;
+				case "skewed":
+					this.input[i] = (byte) ((r.nextInt(10) < 9) ? 0 : r.nextInt(256));
+					break;
+				default:
+					this.input[i] = (byte) ((i % 1000 < 800) ? 0 : r.nextInt(256));
+				}
+			}
+			this.scalar = new CharCounter();
+		}
+	}
+
+	/**
+	 * Count one byte at a time, as CharCounter used to
+	 */
+	@Benchmark
+	public int countByteAtATime(Histogram h) {
+		int[] counts = new int[IHuffConstants.ALPH_SIZE];
+		for (byte b : h.input) {
+			counts[b & 0xff]++;
+		}
+		return counts[0];
+	}
+
+	/**
+	 * Count with eight tables
+	 */
+	@Benchmark
+	public int countScalar(Histogram h) {
+		h.scalar.clear();
+		return h.scalar.countAll(h.input, 0, h.input.length);
+	}
+
+	/**
+	 * Decode a block coded as one stream
+	 */
+	@Benchmark
+	public int decodeOneStream() throws IOException {
+		HuffBlockFormat.decode(this.oneStream);
+		return this.oneStream.raw().size();
+	}
+
+	/**
+	 * Decode a block coded as four interleaved streams
+	 */
+	@Benchmark
+	public int decodeFourStreams() throws IOException {
+		HuffBlockFormat.decode(this.fourStreams);
+		return this.fourStreams.raw().size();
+	}
+
+	/**
+	 * Find a string of 8 bytes in the input compressed as one tree, without
+	 * decompressing it
+	 */
+	@Benchmark
+	public int searchCompressed() throws IOException {
+		return this.search.search(new ByteArrayInputStream(this.singleTree)).length;
+	}
+
+	/**
+	 * Find the same string by decompressing the input and searching the bytes
+	 */
+	@Benchmark
+	public int decompressThenSearch() throws IOException {
+		this.out.reset();
+		HuffBlockFormat.decompressAny(new ByteArrayInputStream(this.singleTree), this.out, null);
+		byte[] data = this.out.toByteArray();
+		int found = 0;
+		for (int i = 0; i + this.pattern.length <= data.length; i++) {
+			if (Arrays.equals(data, i, i + this.pattern.length, this.pattern, 0, this.pattern.length)) {
+				found++;
+			}
+		}
+		return found;
+	}
+
+	/**
+	 * Inputs for the specialised decode benchmarks, encoded with their own trees:
+	 * 64 KB of English-like text, of uniformly random bytes, or of bytes that are
+	 * nine in ten one character
+	 */
+	@State(Scope.Thread)
+	public static class Trees {
+		@Param({ "text", "uniform", "skewed" })
+		public String distribution;
+
+		byte[] encoded;
+		HuffCodec generic;
+		HuffCodec specialized;
+		ByteArrayOutputStream out;
+
+		/**
+		 * Make and encode the input, and the codecs for its tree
+		 */
+		@Setup
+		public void setup() throws IOException {
+			Random r = new Random(42);
+			String letters = "eeeeeeeeeeeetttttttttaaaaaaaaooooooooiiiiiiinnnnnnnsssssshhhhhhrrrrrrddddlllluuucccmmm      ";
+			byte[] input = new byte[1 << 16];
+			for (int i = 0; i < input.length; i++) {
+				switch (this.distribution) {
+				case "text":
+					input[i] = (byte) letters.charAt(r.nextInt(letters.length()));
+					break;
+				case "uniform":
+					input[i] = (byte) r.nextInt(256);
+					break;
+				default:
+					input[i] = (byte) ((r.nextInt(10) < 9) ? 0 : r.nextInt(256));
+				}
+			}
+			int[] counts = new int[IHuffConstants.ALPH_SIZE];
+			for (byte b : input) {
+				counts[b & 0xff]++;
+			}
+			HuffCodebook book = HuffCodebook.fromCounts(counts);
+			this.generic = new HuffCodec(book);
+			this.specialized = new HuffCodec(book, true);
+			this.out = new ByteArrayOutputStream(1 << 17);
+			this.generic.encode(input, 0, input.length, this.out);
+			this.encoded = this.out.toByteArray();
+		}
+	}
+
+	/**
+	 * Decode with the decode table for the tree
+	 */
+	@Benchmark
+	public long decodeGeneric(Trees t) throws IOException {
+		t.out.reset();
+		return t.generic.decode(new ByteArrayInputStream(t.encoded), t.out);
+	}
+
+	/**
+	 * Decode with the decoder generated for the tree
+	 */
+	@Benchmark
+	public long decodeSpecialized(Trees t) throws IOException {
+		t.out.reset();
+		return t.specialized.decode(new ByteArrayInputStream(t.encoded), t.out);
+	}
+
+}
@@ -0,0 +1,37 @@
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * A Java Flight Recorder event for each BitOutputStream, from when it is opened
+ * to when it is closed. Events are per stream rather than per write, since
+ * write() is called for every few bits.
+ * 
+ * @author clairewalker
+ *
+ */
+@Name("fileCompressor.HuffBitStream")
+@Label("Huffman Bit Stream")
+@Category({ "fileCompressor", "Huffman" })
+@Description("One BitOutputStream from open to close")
+@StackTrace(false)
+public class HuffBitStreamEvent extends Event {
+	// only asked whether the event is enabled
+	private static final HuffBitStreamEvent PROBE = new HuffBitStreamEvent();
+
+	@Label("Bytes Written")
+	@DataAmount(DataAmount.BYTES)
+	long bytes;
+
+	/**
+	 * @return a new event if the event is being recorded, or else null
+	 */
+	static HuffBitStreamEvent ifEnabled() {
+		return PROBE.isEnabled() ? new HuffBitStreamEvent() : null;
+	}
+
+}
@@ -0,0 +1,101 @@
+import java.util.zip.CRC32C;
+
+/**
+ * One block of a block stream on its way through a compressor or decompressor:
+ * its uncompressed bytes, its type and its payload as stored in the stream.
+ * Blocks are reused from call to call and from block to block, so their buffers
+ * stop growing once they hold the largest block seen.
+ * 
+ * @author clairewalker
+ *
+ */
+public class HuffBlockBuffer {
+	/**
+	 * The uncompressed bytes of the block
+	 */
+	final HuffBuffer raw;
+
+	/**
+	 * The payload of the block as stored in the stream
+	 */
+	final HuffBuffer payload;
+
+	/**
+	 * The block type, e.g., BLOCK_HUFFMAN
+	 */
+	int type;
+
+	/**
+	 * The number of uncompressed bytes recorded for the block in the stream
+	 */
+	int rawLength;
+
+	/**
+	 * The CRC32C of the uncompressed bytes, as recorded in the stream
+	 */
+	int checksum;
+
+	/**
+	 * The number of blocks of the stream the raw bytes were encoded as. When there
+	 * is more than one, the payload holds them all with their headers, and type,
+	 * rawLength and checksum are not used
+	 */
+	int parts = 1;
+
+	/**
+	 * The position of the block in its stream, counting from 0
+	 */
+	long sequence;
+
+	/**
+	 * The checksum calculator, reused for each block
+	 */
+	final CRC32C crc = new CRC32C();
+
+	/**
+	 * The character counts of the block being encoded, shared by the coders it is
+	 * offered to
+	 */
+	final CharCounter counter = new CharCounter();
+
+	/**
+	 * HuffBlockBuffer constructor
+	 * 
+	 * @param blockSize is the largest number of uncompressed bytes in a block
+	 */
+	public HuffBlockBuffer(int blockSize) {
+		this.raw = new HuffBuffer(blockSize);
+		this.payload = new HuffBuffer(blockSize / 2 + 64);
+	}
+
+	/**
+	 * @return the uncompressed bytes of the block
+	 */
+	public HuffBuffer raw() {
+		return this.raw;
+	}
+
+	/**
+	 * @return the payload of the block as stored in the stream
+	 */
+	public HuffBuffer payload() {
+		return this.payload;
+	}
+
+	/**
+	 * @return the CRC32C of the raw bytes
+	 */
+	int computeChecksum() {
+		this.crc.reset();
+		this.crc.update(this.raw.array(), 0, this.raw.size());
+		return (int) this.crc.getValue();
+	}
+
+	/**
+	 * @return the block type
+	 */
+	public int type() {
+		return this.type;
+	}
+
+}
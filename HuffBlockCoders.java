@@ -0,0 +1,148 @@
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.function.Supplier;
+
+/**
+ * The block coders of block streams, by block type. The container format reads
+ * each block's type from its header and decodes the block with the coder
+ * registered for that type, so registering a coder is all it takes for block
+ * streams to carry blocks of a new kind. The Huffman, multi-table, context
+ * model, ANS and interleaved coders are registered from the start.
+ *
+ * @author clairewalker
+ *
+ */
+public final class HuffBlockCoders implements IHuffConstants {
+	/**
+	 * The highest compression level
+	 */
+	public static final int MAX_LEVEL = 5;
+
+	/**
+	 * The compression level used when none is given
+	 */
+	public static final int DEFAULT_LEVEL = 3;
+
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	private static final Supplier<? extends IHuffBlockCoder>[] FACTORIES = new Supplier[ALPH_SIZE];
+
+	// each thread decodes with its own coder of each type
+	private static final ThreadLocal<IHuffBlockCoder[]> DECODERS = ThreadLocal
+			.withInitial(() -> new IHuffBlockCoder[ALPH_SIZE]);
+
+	static {
+		FACTORIES[BLOCK_HUFFMAN] = HuffTreeCoder::new;
+		FACTORIES[BLOCK_MULTI] = HuffMultiTable::new;
+		FACTORIES[BLOCK_CONTEXT] = HuffContextModel::new;
+		FACTORIES[BLOCK_ANS] = HuffAnsCoder::new;
+		FACTORIES[BLOCK_INTERLEAVED] = HuffInterleavedCoder::new;
+	}
+
+	/*
+	 * Private constructor, all methods are static
+	 */
+	private HuffBlockCoders() {
+	}
+
+	/**
+	 * Register the coder for a block type, replacing any coder registered for it.
+	 * Threads that have already decoded a block of the type keep their coder.
+	 *
+	 * @param type    is the block type, from 1 to 255 but not BLOCK_STORED
+	 * @param factory makes a coder for each thread, whose type() is type
+	 * @throws IllegalArgumentException if the type is reserved or out of range
+	 */
+	public static void register(int type, Supplier<? extends IHuffBlockCoder> factory) {
+		if (type <= BLOCK_END || type == BLOCK_STORED || type >= ALPH_SIZE) {
+			throw new IllegalArgumentException("bad block type " + type);
+		}
+		if (factory == null) {
+			throw new IllegalArgumentException("no factory for block type " + type);
+		}
+		synchronized (FACTORIES) {
+			FACTORIES[type] = factory;
+		}
+	}
+
+	/**
+	 * @return true if a coder is registered for the block type
+	 */
+	public static boolean isRegistered(int type) {
+		return type > BLOCK_END && type < ALPH_SIZE && factory(type) != null;
+	}
+
+	/**
+	 * Make a new coder for each block type, for an encoder to choose between. The
+	 * encoder tries them in order and keeps the first of the smallest.
+	 *
+	 * @return the coders, in the order of types
+	 * @throws IllegalArgumentException if a type has no coder registered
+	 */
+	public static IHuffBlockCoder[] create(int... types) {
+		IHuffBlockCoder[] coders = new IHuffBlockCoder[types.length];
+		for (int i = 0; i < types.length; i++) {
+			if (!isRegistered(types[i])) {
+				throw new IllegalArgumentException("no coder for block type " + types[i]);
+			}
+			coders[i] = factory(types[i]).get();
+		}
+		return coders;
+	}
+
+	/**
+	 * The block types a compression level chooses between. Levels 1 and 2 code
+	 * each block with one tree; level 3 also tries several tables a block; level 4
+	 * also tries an order-1 context model; and level 5 also tries rANS. Levels 2
+	 * and up also split blocks where the data changes, see splits().
+	 *
+	 * @return the block types, in order of preference when they tie
+	 * @throws IllegalArgumentException if the level is out of range
+	 */
+	public static int[] types(int level) {
+		int[] types = { BLOCK_HUFFMAN, BLOCK_MULTI, BLOCK_CONTEXT, BLOCK_ANS };
+		return Arrays.copyOf(types, Math.max(1, checkLevel(level) - 1));
+	}
+
+	/**
+	 * @return true if a compression level splits blocks where the data changes
+	 * @throws IllegalArgumentException if the level is out of range
+	 */
+	public static boolean splits(int level) {
+		return checkLevel(level) > 1;
+	}
+
+	/*
+	 * Helper method to check a compression level is in range
+	 */
+	private static int checkLevel(int level) {
+		if (level < 1 || level > MAX_LEVEL) {
+			throw new IllegalArgumentException("bad level " + level);
+		}
+		return level;
+	}
+
+	/**
+	 * @return the calling thread's coder for decoding blocks of the given type
+	 * @throws IOException if no coder is registered for the type
+	 */
+	static IHuffBlockCoder decoder(int type) throws IOException {
+		if (!isRegistered(type)) {
+			throw new IOException("unknown block type " + type);
+		}
+		IHuffBlockCoder[] decoders = DECODERS.get();
+		if (decoders[type] == null) {
+			decoders[type] = factory(type).get();
+		}
+		return decoders[type];
+	}
+
+	/*
+	 * Helper method to read the factory for a type under the registry's lock
+	 */
+	private static Supplier<? extends IHuffBlockCoder> factory(int type) {
+		synchronized (FACTORIES) {
+			return FACTORIES[type];
+		}
+	}
+
+}
@@ -0,0 +1,122 @@
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * A Java Flight Recorder event for each input or block compressed or
+ * uncompressed, with the time spent in each phase. Events are made with
+ * ifEnabled(), which makes none while the event is not being recorded. The
+ * event's own duration is the whole operation and its thread is the thread
+ * that did the work. Stack traces are off by default; turn them on in the
+ * recording settings to see who called a slow operation.
+ * 
+ * @author clairewalker
+ *
+ */
+@Name("fileCompressor.HuffBlock")
+@Label("Huffman Block")
+@Category({ "fileCompressor", "Huffman" })
+@Description("One input or block compressed or uncompressed")
+@StackTrace(false)
+public class HuffBlockEvent extends Event {
+	// only asked whether the event is enabled, so operations need not allocate an
+	// event to find out
+	private static final HuffBlockEvent PROBE = new HuffBlockEvent();
+
+	@Label("Operation")
+	String operation;
+
+	@Label("Uncompressed Size")
+	@DataAmount(DataAmount.BYTES)
+	long bytes;
+
+	@Label("Compressed Size")
+	@DataAmount(DataAmount.BITS)
+	long bits;
+
+	@Label("Tree Depth")
+	@Description("The length of the longest code")
+	int treeDepth;
+
+	@Label("Count Time")
+	@Timespan(Timespan.NANOSECONDS)
+	long countTime;
+
+	@Label("Tree Time")
+	@Timespan(Timespan.NANOSECONDS)
+	long treeTime;
+
+	@Label("Table Time")
+	@Timespan(Timespan.NANOSECONDS)
+	long tableTime;
+
+	@Label("Header Time")
+	@Timespan(Timespan.NANOSECONDS)
+	long headerTime;
+
+	@Label("Encode Time")
+	@Timespan(Timespan.NANOSECONDS)
+	long encodeTime;
+
+	@Label("Decode Time")
+	@Timespan(Timespan.NANOSECONDS)
+	long decodeTime;
+
+	/**
+	 * @return a new event if the event is being recorded, or else null, so that
+	 *         nothing is allocated when it isn't
+	 */
+	static HuffBlockEvent ifEnabled() {
+		return PROBE.isEnabled() ? new HuffBlockEvent() : null;
+	}
+
+	/**
+	 * Record the time of a phase, called by HuffMetrics.phase()
+	 */
+	void phase(HuffPhase phase, long nanos) {
+		switch (phase) {
+		case COUNT:
+			this.countTime = nanos;
+			break;
+		case TREE:
+			this.treeTime = nanos;
+			break;
+		case TABLE:
+			this.tableTime = nanos;
+			break;
+		case HEADER:
+			this.headerTime = nanos;
+			break;
+		case ENCODE:
+			this.encodeTime = nanos;
+			break;
+		case DECODE:
+			this.decodeTime = nanos;
+			break;
+		}
+	}
+
+	/**
+	 * Finish the event and commit it if it is being recorded
+	 * 
+	 * @param operation is "compress" or "uncompress"
+	 * @param bytes     is the uncompressed size
+	 * @param bits      is the compressed size, including the header
+	 * @param treeDepth is the length of the longest code
+	 */
+	void end(String operation, long bytes, long bits, int treeDepth) {
+		if (shouldCommit()) {
+			this.operation = operation;
+			this.bytes = bytes;
+			this.bits = bits;
+			this.treeDepth = treeDepth;
+			commit();
+		}
+	}
+
+}
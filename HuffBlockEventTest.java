@@ -0,0 +1,90 @@
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+
+/**
+ * @author clairewalker
+ *
+ */
+public class HuffBlockEventTest {
+
+	/*
+	 * Helper method to read the HuffBlockEvents of a recording
+	 */
+	private List<RecordedEvent> blockEvents(Recording r) throws IOException {
+		Path file = Files.createTempFile("huff", ".jfr");
+		try {
+			r.dump(file);
+			List<RecordedEvent> events = new ArrayList<RecordedEvent>();
+			for (RecordedEvent e : RecordingFile.readAllEvents(file)) {
+				if (e.getEventType().getName().equals("fileCompressor.HuffBlock")) {
+					events.add(e);
+				}
+			}
+			return events;
+		} finally {
+			Files.delete(file);
+		}
+	}
+
+	/**
+	 * Tests that compressing a block while HuffBlockEvent is recorded commits one
+	 * event with the block's sizes, and a duration that covers its phases
+	 *
+	 * @throws IOException
+	 */
+	@Test
+	public void testCompressEvent() throws IOException {
+		byte[] data = HuffTestData.text(100000);
+		HuffCompressor c = new HuffCompressor();
+		long bits;
+		List<RecordedEvent> events;
+		try (Recording r = new Recording()) {
+			r.enable(HuffBlockEvent.class).withThreshold(Duration.ZERO);
+			r.start();
+			bits = c.compress(data, 0, data.length, new ByteArrayOutputStream());
+			r.stop();
+			events = blockEvents(r);
+		}
+		assertEquals(1, events.size());
+		RecordedEvent e = events.get(0);
+		assertEquals("compress", e.getString("operation"));
+		assertEquals(data.length, e.getLong("bytes"));
+		assertEquals(bits, e.getLong("bits"));
+		assertTrue(e.getInt("treeDepth") > 0);
+
+		// the phases are timed one after another within the event, with
+		// System.nanoTime() rather than the recorder's clock, so allow a millisecond
+		long phases = 0;
+		for (String phase : new String[] { "countTime", "treeTime", "tableTime", "headerTime", "encodeTime" }) {
+			long nanos = e.getDuration(phase).toNanos();
+			assertTrue(phase, nanos >= 0);
+			phases += nanos;
+		}
+		assertTrue(e.getDuration("encodeTime").toNanos() > 0);
+		assertTrue(e.getDuration().toNanos() > 0);
+		assertTrue(e.getDuration().toNanos() >= phases - 1000000);
+		assertEquals(Duration.ZERO, e.getDuration("decodeTime"));
+	}
+
+	/**
+	 * Tests that no event is made while HuffBlockEvent is not recorded
+	 */
+	@Test
+	public void testDisabled() {
+		assertNull(HuffBlockEvent.ifEnabled());
+	}
+
+}
@@ -0,0 +1,518 @@
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Reads and writes streams of independently compressed blocks. A block stream
+ * is the block magic number and the block size, then for each block its type
+ * (one byte), its uncompressed length, its payload length and the CRC32C of its
+ * uncompressed bytes (an int each) and its payload, and finally a BLOCK_END type
+ * byte. Each block is compressed on its own, by the block coder for its type
+ * (see HuffBlockCoders), and starts on a byte boundary, so blocks can be
+ * encoded, decoded and verified independently of one another. A block that no
+ * coder would make smaller is stored as it is, so a block stream is never more
+ * than a few bytes a block larger than its data.
+ * 
+ * @author clairewalker
+ *
+ */
+public final class HuffBlockFormat implements IHuffConstants {
+
+	/*
+	 * Private constructor, all methods are static
+	 */
+	private HuffBlockFormat() {
+	}
+
+	/**
+	 * Write the magic number and block size that start a block stream
+	 * 
+	 * @throws IOException if writing fails
+	 */
+	public static void writeHeader(DataOutputStream out, int blockSize) throws IOException {
+		out.writeInt(BLOCK_MAGIC_NUMBER);
+		out.writeInt(blockSize);
+	}
+
+	/**
+	 * Read the magic number and block size that start a block stream
+	 * 
+	 * @return the block size
+	 * @throws IOException if the stream is not a block stream
+	 */
+	public static int readHeader(DataInputStream in) throws IOException {
+		if (in.readInt() != BLOCK_MAGIC_NUMBER) {
+			throw new IOException("not a block stream");
+		}
+		int blockSize = in.readInt();
+		if (blockSize <= 0) {
+			throw new IOException("bad block size " + blockSize);
+		}
+		return blockSize;
+	}
+
+	/**
+	 * Compress the raw bytes of a block into its payload, or mark the block as
+	 * stored if compressing would not save at least a byte. A stored block has an
+	 * empty payload, its raw bytes are written as they are.
+	 * 
+	 * @param c is the compressor to use
+	 * @param b is the block
+	 * @throws IOException if compressing fails
+	 */
+	public static void encode(HuffCompressor c, HuffBlockBuffer b) throws IOException {
+		encode(c, null, null, b);
+	}
+
+	/**
+	 * Compress the raw bytes of a block as encode() does, but as several blocks if
+	 * the splitter finds that the data changes enough for a tree for each part to
+	 * pay for the extra headers. The blocks are written to the payload complete
+	 * with their headers, in the same format as write() would write them.
+	 * 
+	 * @param c        is the compressor to use
+	 * @param splitter chooses the blocks, or is null to compress the raw bytes as
+	 *                 one block
+	 * @param b        is the block
+	 * @throws IOException if compressing fails
+	 */
+	public static void encode(HuffCompressor c, HuffBlockSplitter splitter, HuffBlockBuffer b) throws IOException {
+		encode(c, splitter, null, b);
+	}
+
+	/**
+	 * Compress the raw bytes of a block as encode() with a splitter does, coding
+	 * each block with whichever of the coders makes it smallest, or storing it if
+	 * none makes it smaller. The characters of each block are counted once and
+	 * the counts given to every coder.
+	 * 
+	 * @param c        is the compressor the splitter costs blocks with
+	 * @param splitter chooses the blocks, or is null to compress the raw bytes as
+	 *                 one block
+	 * @param coders   are the coders to choose between, in order of preference
+	 *                 when they tie, or null to code every block with one tree
+	 *                 written by c
+	 * @param b        is the block
+	 * @throws IOException if compressing fails
+	 */
+	public static void encode(HuffCompressor c, HuffBlockSplitter splitter, IHuffBlockCoder[] coders,
+			HuffBlockBuffer b) throws IOException {
+		b.payload.reset();
+		b.rawLength = b.raw.size();
+		byte[] raw = b.raw.array();
+		if (splitter == null || splitter.split(c, raw, 0, b.rawLength) == 1) {
+			b.parts = 1;
+			b.type = encodeBody(c, coders, raw, 0, b.rawLength, b);
+			b.checksum = b.computeChecksum();
+			return;
+		}
+		b.parts = splitter.parts();
+		int from = 0;
+		for (int i = 0; i < b.parts; i++) {
+			int length = splitter.end(i) - from;
+			b.crc.reset();
+			b.crc.update(raw, from, length);
+
+			// write the header with the type and payload length left to fill in
+			int header = b.payload.size();
+			b.payload.write(0);
+			b.payload.writeInt(length);
+			b.payload.writeInt(0);
+			b.payload.writeInt((int) b.crc.getValue());
+			int type = encodeBody(c, coders, raw, from, length, b);
+			if (type == BLOCK_STORED) {
+				b.payload.write(raw, from, length);
+			}
+			b.payload.array()[header] = (byte) type;
+			b.payload.setInt(header + 5, b.payload.size() - header - 13);
+			from += length;
+		}
+	}
+
+	/*
+	 * Helper method to compress raw[off..off+len) to the block's payload with the
+	 * coder that makes it smallest, or to write nothing if it should be stored.
+	 * Returns the block type
+	 */
+	private static int encodeBody(HuffCompressor c, IHuffBlockCoder[] coders, byte[] raw, int off, int len,
+			HuffBlockBuffer b) throws IOException {
+		long maxBits = 8L * (len - 1);
+		if (coders == null) {
+			return (c.compressBodyIfSmaller(raw, off, len, b.payload, maxBits) < 0) ? BLOCK_STORED : BLOCK_HUFFMAN;
+		}
+		b.counter.clear();
+		b.counter.countAll(raw, off, len);
+		IHuffBlockCoder best = null;
+		long bestBits = maxBits;
+		for (IHuffBlockCoder coder : coders) {
+			long bits = coder.train(raw, off, len, b.counter.counts());
+			if (bits <= bestBits && (best == null || bits < bestBits)) {
+				best = coder;
+				bestBits = bits;
+			}
+		}
+		if (best == null) {
+			return BLOCK_STORED;
+		}
+		best.write(raw, off, len, b.payload);
+		return best.type();
+	}
+
+	/**
+	 * @return the number of bytes write() writes for an encoded block
+	 */
+	public static long size(HuffBlockBuffer b) {
+		if (b.parts > 1) {
+			return b.payload.size();
+		}
+		return 13 + ((b.type == BLOCK_STORED) ? b.rawLength : b.payload.size());
+	}
+
+	/**
+	 * Write an encoded block
+	 * 
+	 * @throws IOException if writing fails
+	 */
+	public static void write(DataOutputStream out, HuffBlockBuffer b) throws IOException {
+		if (b.parts > 1) {
+			b.payload.writeTo(out);
+			return;
+		}
+		HuffBuffer body = (b.type == BLOCK_STORED) ? b.raw : b.payload;
+		out.writeByte(b.type);
+		out.writeInt(b.rawLength);
+		out.writeInt(body.size());
+		out.writeInt(b.checksum);
+		body.writeTo(out);
+	}
+
+	/**
+	 * Write the end of a block stream
+	 * 
+	 * @throws IOException if writing fails
+	 */
+	public static void writeEnd(DataOutputStream out) throws IOException {
+		out.writeByte(BLOCK_END);
+	}
+
+	/**
+	 * The longest payload a block of rawLength bytes can honestly have. Huffman
+	 * codes average at most one bit per byte more than the data's entropy, so no
+	 * payload is much larger than its data. Readers use this to reject a corrupt
+	 * block header before reading or waiting for its payload.
+	 * 
+	 * @param rawLength is the number of bytes in the block, or the block size of
+	 *                  the stream for any of its blocks
+	 * @return the longest payload allowed
+	 */
+	public static int maxPayloadLength(int rawLength) {
+		return rawLength + rawLength / 8 + 1024;
+	}
+
+	/**
+	 * Read the next block of a stream into b, without decoding it
+	 * 
+	 * @param blockSize is the block size of the stream
+	 * @return false if the end of the stream was read instead of a block
+	 * @throws IOException if the block is corrupt or the stream ends early
+	 */
+	public static boolean read(DataInputStream in, HuffBlockBuffer b, int blockSize) throws IOException {
+		b.type = in.readUnsignedByte();
+		if (b.type == BLOCK_END) {
+			return false;
+		}
+		b.parts = 1;
+		b.rawLength = in.readInt();
+		int payloadLength = in.readInt();
+		if (b.rawLength < 0 || b.rawLength > blockSize || payloadLength < 0
+				|| payloadLength > maxPayloadLength(b.rawLength)) {
+			throw new IOException("corrupt block header");
+		}
+		if (b.type == BLOCK_STORED && payloadLength != b.rawLength) {
+			throw new IOException("corrupt block header");
+		}
+		b.checksum = in.readInt();
+		if (b.type == BLOCK_STORED) {
+			// stored bytes go straight to raw, decode() only checks them
+			b.payload.reset();
+			b.raw.readFully(in, payloadLength);
+		} else {
+			b.payload.readFully(in, payloadLength);
+		}
+		return true;
+	}
+
+	/**
+	 * Decode the payload of a block read by read() into its raw bytes, and check
+	 * them against the block's checksum
+	 * 
+	 * @throws IOException if the block is corrupt
+	 */
+	public static void decode(HuffBlockBuffer b) throws IOException {
+		if (b.type == BLOCK_STORED) {
+			if (b.computeChecksum() != b.checksum) {
+				throw new IOException("checksum mismatch in block " + b.sequence);
+			}
+			return;
+		}
+		IHuffBlockCoder coder = HuffBlockCoders.decoder(b.type);
+		b.raw.reset();
+		b.raw.ensureCapacity(b.rawLength);
+		HuffBlockEvent event = HuffBlockEvent.ifEnabled();
+		long start = HuffMetrics.start(event);
+		HuffDecodeContext ctx = HuffCodec.decoder().reset(b.payload.inputStream());
+		try {
+			// the coder reads its tables as part of decoding
+			int depth = coder.decode(ctx, b.raw.array(), b.rawLength);
+			b.raw.setSize(b.rawLength);
+			HuffMetrics.phase(HuffPhase.DECODE, start, event);
+			HuffMetrics.uncompressed(ctx.bitsRead(), b.raw.size(), start);
+			if (event != null) {
+				event.end("uncompress", b.raw.size(), ctx.bitsRead(), depth);
+			}
+		} finally {
+			ctx.finish();
+		}
+		if (b.raw.size() != b.rawLength) {
+			throw new IOException("block " + b.sequence + " decoded to " + b.raw.size() + " bytes, expected "
+					+ b.rawLength);
+		}
+		if (b.computeChecksum() != b.checksum) {
+			throw new IOException("checksum mismatch in block " + b.sequence);
+		}
+	}
+
+	/**
+	 * Compress in to out as a block stream on the calling thread. HuffPipeline
+	 * writes the same format with separate reader, encoder and writer threads.
+	 * The streams are not closed.
+	 * 
+	 * @return the number of bytes compressed
+	 * @throws IOException if reading or writing fails
+	 */
+	public static long compress(InputStream in, OutputStream out, int blockSize) throws IOException {
+		return compress(in, out, blockSize, false);
+	}
+
+	/**
+	 * Compress in to out as a block stream on the calling thread, splitting each
+	 * blockSize bytes into smaller blocks where the data changes if split is true.
+	 * The streams are not closed.
+	 * 
+	 * @return the number of bytes compressed
+	 * @throws IOException if reading or writing fails
+	 */
+	public static long compress(InputStream in, OutputStream out, int blockSize, boolean split)
+			throws IOException {
+		return compress(in, out, blockSize, split, 1);
+	}
+
+	/**
+	 * Compress in to out as a block stream on the calling thread, splitting blocks
+	 * if split is true, and coding each block with up to the given number of
+	 * Huffman tables where that is smaller than one. The streams are not closed.
+	 * 
+	 * @param tables is 1 to code each block with one tree, or the most tables to
+	 *               train for a block, up to HuffMultiTable.MAX_TABLES
+	 * @return the number of bytes compressed
+	 * @throws IOException if reading or writing fails
+	 */
+	public static long compress(InputStream in, OutputStream out, int blockSize, boolean split, int tables)
+			throws IOException {
+		return compress(in, out, blockSize, split, tables, false);
+	}
+
+	/**
+	 * Compress in to out as a block stream on the calling thread, as compress()
+	 * with tables does, also trying an order-1 context model for each block if
+	 * context is true. The streams are not closed.
+	 * 
+	 * @return the number of bytes compressed
+	 * @throws IOException if reading or writing fails
+	 */
+	public static long compress(InputStream in, OutputStream out, int blockSize, boolean split, int tables,
+			boolean context) throws IOException {
+		HuffCompressor c = new HuffCompressor();
+		if (tables == 1 && !context) {
+			return compress(in, out, blockSize, split, c, null, null);
+		}
+		IHuffBlockCoder[] coders = new IHuffBlockCoder[1 + ((tables > 1) ? 1 : 0) + (context ? 1 : 0)];
+		int n = 0;
+		coders[n++] = new HuffTreeCoder(c);
+		if (tables > 1) {
+			coders[n++] = new HuffMultiTable(tables);
+		}
+		if (context) {
+			coders[n++] = new HuffContextModel();
+		}
+		return compress(in, out, blockSize, split, c, coders, null);
+	}
+
+	/**
+	 * Compress in to out as a block stream on the calling thread, splitting blocks
+	 * if split is true, and coding each block with whichever of the coders makes
+	 * it smallest. The streams are not closed.
+	 * 
+	 * @param coders are the coders to choose between, e.g., from
+	 *               HuffBlockCoders.create(), in order of preference when they tie
+	 * @return the number of bytes compressed
+	 * @throws IOException if reading or writing fails
+	 */
+	public static long compress(InputStream in, OutputStream out, int blockSize, boolean split,
+			IHuffBlockCoder... coders) throws IOException {
+		if (coders.length == 0) {
+			throw new IllegalArgumentException("no block coders");
+		}
+		return compress(in, out, blockSize, split, new HuffCompressor(), coders, null);
+	}
+
+	/**
+	 * Compress in to out as a block stream on the calling thread at one of the
+	 * levels of HuffBlockCoders.types(). The streams are not closed.
+	 * 
+	 * @param progress is told after each block how far compressing has got, or
+	 *                 is null
+	 * @return the number of bytes compressed
+	 * @throws IOException              if reading or writing fails
+	 * @throws IllegalArgumentException if the level is out of range
+	 */
+	public static long compress(InputStream in, OutputStream out, int blockSize, int level, IHuffProgress progress)
+			throws IOException {
+		boolean split = HuffBlockCoders.splits(level);
+		HuffCompressor c = new HuffCompressor();
+		// one tree a block is written by c itself, without counting for the coders
+		IHuffBlockCoder[] coders = (level == 1) ? null : HuffBlockCoders.create(HuffBlockCoders.types(level));
+		return compress(in, out, blockSize, split, c, coders, progress);
+	}
+
+	/*
+	 * Helper method for the compress methods, coding blocks with the coders or
+	 * with one tree written by c if coders is null
+	 */
+	private static long compress(InputStream in, OutputStream out, int blockSize, boolean split, HuffCompressor c,
+			IHuffBlockCoder[] coders, IHuffProgress progress) throws IOException {
+		DataOutputStream data = new DataOutputStream(out);
+		HuffBlockSplitter splitter = split ? new HuffBlockSplitter() : null;
+		HuffBlockBuffer b = new HuffBlockBuffer(blockSize);
+		long total = 0;
+		long written = 8;
+		writeHeader(data, blockSize);
+		while (b.raw.fill(in, blockSize) > 0) {
+			total += b.raw.size();
+			encode(c, splitter, coders, b);
+			write(data, b);
+			written += size(b);
+			if (progress != null) {
+				progress.progress(total, written);
+			}
+		}
+		writeEnd(data);
+		data.flush();
+		if (progress != null) {
+			progress.progress(total, written + 1);
+		}
+		return total;
+	}
+
+	/**
+	 * Decompress a block stream from in to out. The streams are not closed.
+	 * 
+	 * @return the number of bytes written
+	 * @throws IOException if the stream is corrupt, or reading or writing fails
+	 */
+	public static long decompress(InputStream in, OutputStream out) throws IOException {
+		return decompress(in, out, null);
+	}
+
+	/**
+	 * Decompress a block stream from in to out. The streams are not closed.
+	 * 
+	 * @param progress is told after each block how far decompressing has got, or
+	 *                 is null
+	 * @return the number of bytes written
+	 * @throws IOException if the stream is corrupt, or reading or writing fails
+	 */
+	public static long decompress(InputStream in, OutputStream out, IHuffProgress progress) throws IOException {
+		DataInputStream data = new DataInputStream(in);
+		int blockSize = readHeader(data);
+		HuffBlockBuffer b = new HuffBlockBuffer(Math.min(blockSize, DEFAULT_BLOCK_SIZE));
+		long total = 0;
+		long read = 8;
+		long sequence = 0;
+		while (read(data, b, blockSize)) {
+			b.sequence = sequence++;
+			decode(b);
+			b.raw.writeTo(out);
+			total += b.raw.size();
+			read += size(b);
+			if (progress != null) {
+				progress.progress(read, total);
+			}
+		}
+		out.flush();
+		if (progress != null) {
+			progress.progress(read + 1, total);
+		}
+		return total;
+	}
+
+	/**
+	 * Decompress a block stream, or a file in the single tree format of
+	 * Huff.write(), from in to out. A single tree file has no blocks, so progress
+	 * is only told when it is done. The streams are not closed, but in may be
+	 * read past the end of the compressed data if it doesn't support mark().
+	 * 
+	 * @param progress is told how far decompressing has got, or is null
+	 * @return the number of bytes written
+	 * @throws IOException if the stream is not compressed or is corrupt, or
+	 *                     reading or writing fails
+	 */
+	public static long decompressAny(InputStream in, OutputStream out, IHuffProgress progress) throws IOException {
+		if (!in.markSupported()) {
+			in = new BufferedInputStream(in, 1 << 16);
+		}
+		int magic = peekMagic(in);
+		if (magic == -1) {
+			throw new IOException("not a compressed file");
+		}
+		if (magic == BLOCK_MAGIC_NUMBER) {
+			return decompress(in, out, progress);
+		}
+		if (magic == ARCHIVE_MAGIC_NUMBER || magic == DEDUP_ARCHIVE_MAGIC_NUMBER) {
+			throw new IOException("is an archive, extract it with HuffArchiveReader");
+		}
+		HuffDecodeContext ctx = HuffCodec.decoder().reset(in);
+		try {
+			// decode() checks the magic number
+			long bytes = HuffCodec.decode(ctx, out, null);
+			out.flush();
+			if (progress != null) {
+				progress.progress((ctx.bitsRead() + 7) / 8, bytes);
+			}
+			return bytes;
+		} finally {
+			ctx.finish();
+		}
+	}
+
+	/**
+	 * Read the magic number that starts a stream without consuming it
+	 * 
+	 * @param in is a stream that supports mark()
+	 * @return the magic number, or -1 if the stream is shorter than one
+	 * @throws IOException if reading fails
+	 */
+	static int peekMagic(InputStream in) throws IOException {
+		in.mark(4);
+		byte[] head = in.readNBytes(4);
+		in.reset();
+		if (head.length < 4) {
+			return -1;
+		}
+		return ((head[0] & 0xff) << 24) | ((head[1] & 0xff) << 16) | ((head[2] & 0xff) << 8) | (head[3] & 0xff);
+	}
+
+}
@@ -0,0 +1,214 @@
+import java.util.Arrays;
+
+/**
+ * Chooses where to split a window of data into blocks, so that data which
+ * changes character part way through, e.g., text followed by binary, gets a
+ * tree for each part instead of one tree that fits neither. The window is cut
+ * into segments and each segment's histogram is counted once. Walking forward
+ * a segment at a time, the block so far ends when coding it and the next few
+ * segments separately, each with its own tree and block header, costs less than
+ * coding them together. Costs are the sizes the compressor would write for the
+ * counts, tree and codes, worked out without writing, and a block never costs
+ * more than storing it.
+ * <P>
+ * Only windows are split, never joined, so windows can still be split and
+ * encoded in parallel. Splitters are reusable and not thread safe; use one per
+ * thread, together with that thread's compressor.
+ *
+ * @author clairewalker
+ *
+ */
+public final class HuffBlockSplitter implements IHuffConstants {
+	/**
+	 * The default number of bytes in a segment, which is the smallest block the
+	 * splitter makes
+	 */
+	public static final int DEFAULT_SEGMENT_SIZE = 1 << 13;
+
+	// the number of segments after a possible split whose counts are costed
+	// against the block so far
+	private static final int LOOKAHEAD = 4;
+
+	// the bits of a block header, and up to a byte of padding after its payload
+	private static final long BLOCK_BITS = 8 * 13 + 8;
+
+	private final int segmentSize;
+	private final int[] block = new int[ALPH_SIZE];
+	private final int[] ahead = new int[ALPH_SIZE];
+	private final int[] joint = new int[ALPH_SIZE];
+	private final int[] rest = new int[ALPH_SIZE];
+	private int[] histograms = new int[0];
+	private int[] ends = new int[16];
+	private int parts;
+
+	/**
+	 * HuffBlockSplitter constructor
+	 *
+	 * @param segmentSize is the number of bytes in a segment
+	 */
+	public HuffBlockSplitter(int segmentSize) {
+		if (segmentSize <= 0) {
+			throw new IllegalArgumentException("bad segment size " + segmentSize);
+		}
+		this.segmentSize = segmentSize;
+	}
+
+	/**
+	 * HuffBlockSplitter constructor with the default segment size
+	 */
+	public HuffBlockSplitter() {
+		this(DEFAULT_SEGMENT_SIZE);
+	}
+
+	/**
+	 * Choose the blocks to split buf[off..off+len) into
+	 *
+	 * @param c is the compressor used to cost the blocks
+	 * @return the number of blocks, at least 1
+	 */
+	public int split(HuffCompressor c, byte[] buf, int off, int len) {
+		this.parts = 0;
+		int segments = (len + this.segmentSize - 1) / this.segmentSize;
+		if (segments <= 1) {
+			addEnd(len);
+			return this.parts;
+		}
+		count(buf, off, len, segments);
+
+		// the block starts as the first segment, and the segments ahead are the next
+		// LOOKAHEAD or as many as are left
+		System.arraycopy(this.histograms, 0, this.block, 0, ALPH_SIZE);
+		long blockBytes = segmentBytes(0, len);
+		Arrays.fill(this.ahead, 0);
+		long aheadBytes = 0;
+		int aheadEnd = 1;
+		while (aheadEnd < segments && aheadEnd <= LOOKAHEAD) {
+			aheadBytes += add(this.ahead, aheadEnd, len, 1);
+			aheadEnd++;
+		}
+
+		for (int s = 1; s < segments; s++) {
+			if (splitBefore(c, s, aheadEnd, len, blockBytes, aheadBytes)) {
+				addEnd(s * this.segmentSize);
+				Arrays.fill(this.block, 0);
+				blockBytes = 0;
+			}
+			// move segment s from the segments ahead to the block, and look one
+			// segment further
+			blockBytes += add(this.block, s, len, 1);
+			aheadBytes -= add(this.ahead, s, len, -1);
+			if (aheadEnd < segments) {
+				aheadBytes += add(this.ahead, aheadEnd, len, 1);
+				aheadEnd++;
+			}
+		}
+		addEnd(len);
+		return this.parts;
+	}
+
+	/**
+	 * @param i is a block chosen by the last call to split(), counting from 0
+	 * @return the offset from the start of the window of the end of the block
+	 */
+	public int end(int i) {
+		return this.ends[i];
+	}
+
+	/**
+	 * @return the number of blocks chosen by the last call to split()
+	 */
+	public int parts() {
+		return this.parts;
+	}
+
+	/*
+	 * Helper method to count the histogram of each segment, segment i at
+	 * histograms[i * ALPH_SIZE]
+	 */
+	private void count(byte[] buf, int off, int len, int segments) {
+		if (this.histograms.length < segments * ALPH_SIZE) {
+			this.histograms = new int[segments * ALPH_SIZE];
+		} else {
+			Arrays.fill(this.histograms, 0, segments * ALPH_SIZE, 0);
+		}
+		int[] h = this.histograms;
+		for (int s = 0; s < segments; s++) {
+			int base = s * ALPH_SIZE;
+			int from = off + s * this.segmentSize;
+			int to = from + segmentBytes(s, len);
+			for (int i = from; i < to; i++) {
+				h[base + (buf[i] & 0xff)]++;
+			}
+		}
+	}
+
+	/*
+	 * Helper method to add sign times the histogram of segment s to counts.
+	 * Returns the number of bytes in the segment
+	 */
+	private int add(int[] counts, int s, int len, int sign) {
+		int base = s * ALPH_SIZE;
+		for (int ch = 0; ch < ALPH_SIZE; ch++) {
+			counts[ch] += sign * this.histograms[base + ch];
+		}
+		return segmentBytes(s, len);
+	}
+
+	/*
+	 * Helper method to return the number of bytes in segment s of a window of len
+	 * bytes
+	 */
+	private int segmentBytes(int s, int len) {
+		return Math.min(this.segmentSize, len - s * this.segmentSize);
+	}
+
+	/*
+	 * Helper method to decide whether the block should end before segment s, the
+	 * first of the segments ahead, which end before segment aheadEnd. When coding
+	 * them apart is cheaper, a later split among the segments ahead may be cheaper
+	 * still, e.g., when only the last of them has changed. Then the block carries
+	 * on, and splits when it reaches the change
+	 */
+	private boolean splitBefore(HuffCompressor c, int s, int aheadEnd, int len, long blockBytes, long aheadBytes) {
+		for (int ch = 0; ch < ALPH_SIZE; ch++) {
+			this.joint[ch] = this.block[ch] + this.ahead[ch];
+		}
+		long apart = cost(c, this.block, blockBytes) + cost(c, this.ahead, aheadBytes);
+		if (apart >= cost(c, this.joint, blockBytes + aheadBytes)) {
+			return false;
+		}
+
+		// move the segments ahead into the block one at a time, costing each split
+		System.arraycopy(this.block, 0, this.joint, 0, ALPH_SIZE);
+		System.arraycopy(this.ahead, 0, this.rest, 0, ALPH_SIZE);
+		for (int k = s; k < aheadEnd - 1; k++) {
+			int n = add(this.joint, k, len, 1);
+			add(this.rest, k, len, -1);
+			blockBytes += n;
+			aheadBytes -= n;
+			if (cost(c, this.joint, blockBytes) + cost(c, this.rest, aheadBytes) < apart) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/*
+	 * Helper method to return the bits of a block with the given counts, as
+	 * compressed or stored, whichever is smaller, and its header
+	 */
+	private static long cost(HuffCompressor c, int[] counts, long bytes) {
+		return Math.min(c.cost(counts), 8 * bytes) + BLOCK_BITS;
+	}
+
+	/*
+	 * Helper method to record the end of the next block
+	 */
+	private void addEnd(int end) {
+		if (this.parts == this.ends.length) {
+			this.ends = Arrays.copyOf(this.ends, 2 * this.parts);
+		}
+		this.ends[this.parts++] = end;
+	}
+
+}
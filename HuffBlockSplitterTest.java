@@ -0,0 +1,78 @@
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * @author clairewalker
+ *
+ */
+public class HuffBlockSplitterTest {
+
+	/*
+	 * Helper method to make text of a few letters followed by random bytes
+	 */
+	private byte[] mixed() {
+		Random r = new Random(1);
+		byte[] data = new byte[1 << 16];
+		for (int i = 0; i < 40000; i++) {
+			data[i] = (byte) "etaoin ".charAt(r.nextInt(7));
+		}
+		for (int i = 40000; i < data.length; i++) {
+			data[i] = (byte) r.nextInt(256);
+		}
+		return data;
+	}
+
+	/**
+	 * Tests that text followed by random bytes is split near where they change,
+	 * and that data that doesn't change is not split
+	 */
+	@Test
+	public void testSplit() {
+		HuffCompressor c = new HuffCompressor();
+		HuffBlockSplitter splitter = new HuffBlockSplitter(4096);
+		byte[] data = mixed();
+		assertEquals(2, splitter.split(c, data, 0, data.length));
+		assertTrue(Math.abs(splitter.end(0) - 40000) <= 4096);
+		assertEquals(data.length, splitter.end(1));
+
+		byte[] text = new byte[40000];
+		System.arraycopy(data, 0, text, 0, text.length);
+		assertEquals(1, splitter.split(c, text, 0, text.length));
+		assertEquals(text.length, splitter.end(0));
+	}
+
+	/**
+	 * Tests that a split block stream is smaller than one of fixed blocks, that it
+	 * decompresses to the original data, and that the pipeline writes the same
+	 * stream
+	 *
+	 * @throws IOException
+	 */
+	@Test
+	public void testSplitStream() throws IOException {
+		byte[] data = mixed();
+		ByteArrayOutputStream fixed = new ByteArrayOutputStream();
+		HuffBlockFormat.compress(new ByteArrayInputStream(data), fixed, data.length, false);
+		ByteArrayOutputStream split = new ByteArrayOutputStream();
+		HuffBlockFormat.compress(new ByteArrayInputStream(data), split, data.length, true);
+		assertTrue(split.size() < fixed.size());
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		HuffBlockFormat.decompress(new ByteArrayInputStream(split.toByteArray()), out);
+		assertArrayEquals(data, out.toByteArray());
+
+		ByteArrayOutputStream piped = new ByteArrayOutputStream();
+		HuffPipelineStats stats = new HuffPipeline(data.length, 2, 4, true).compress(new ByteArrayInputStream(data),
+				piped);
+		assertArrayEquals(split.toByteArray(), piped.toByteArray());
+		assertEquals(piped.size(), stats.bytesOut());
+		assertEquals(2, stats.blocks());
+	}
+
+}
@@ -0,0 +1,129 @@
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * A reusable byte buffer that can be written to as an OutputStream, filled from
+ * an InputStream, and read back without copying. reset() keeps the array, so a
+ * buffer that is reused for call after call stops allocating once it has grown
+ * to the largest size needed.
+ * 
+ * @author clairewalker
+ *
+ */
+public class HuffBuffer extends ByteArrayOutputStream {
+
+	/**
+	 * HuffBuffer constructor
+	 * 
+	 * @param capacity is the initial size of the array
+	 */
+	public HuffBuffer(int capacity) {
+		super(capacity);
+	}
+
+	/**
+	 * @return the buffer's own array, of which the first size() bytes are valid
+	 */
+	public byte[] array() {
+		return this.buf;
+	}
+
+	/**
+	 * Make sure the array holds at least capacity bytes, keeping its contents
+	 */
+	public void ensureCapacity(int capacity) {
+		if (this.buf.length < capacity) {
+			this.buf = Arrays.copyOf(this.buf, Math.max(capacity, 2 * this.buf.length));
+		}
+	}
+
+	/**
+	 * Set the number of valid bytes, e.g., after the array has been written to
+	 * directly
+	 */
+	public void setSize(int size) {
+		ensureCapacity(size);
+		this.count = size;
+	}
+
+	/**
+	 * Append v as four bytes, high byte first, as DataOutput.writeInt() does
+	 */
+	public void writeInt(int v) {
+		setInt(this.count, v);
+	}
+
+	/**
+	 * Write v as four bytes, high byte first, at pos, e.g., to fill in a length
+	 * once it is known. The buffer grows to hold them if it has to
+	 */
+	public void setInt(int pos, int v) {
+		ensureCapacity(pos + 4);
+		this.buf[pos] = (byte) (v >>> 24);
+		this.buf[pos + 1] = (byte) (v >>> 16);
+		this.buf[pos + 2] = (byte) (v >>> 8);
+		this.buf[pos + 3] = (byte) v;
+		this.count = Math.max(this.count, pos + 4);
+	}
+
+	/**
+	 * Replace the contents with as many bytes as can be read from in, up to max
+	 * 
+	 * @return the number of bytes read, less than max only at the end of in
+	 * @throws IOException if reading fails
+	 */
+	public int fill(InputStream in, int max) throws IOException {
+		reset();
+		ensureCapacity(max);
+		while (this.count < max) {
+			int n = in.read(this.buf, this.count, max - this.count);
+			if (n == -1) {
+				break;
+			}
+			this.count += n;
+		}
+		return this.count;
+	}
+
+	/**
+	 * Append bytes taken from src until the buffer holds max bytes or src has none
+	 * left
+	 * 
+	 * @return the number of bytes taken
+	 */
+	public int append(ByteBuffer src, int max) {
+		int n = Math.min(src.remaining(), max - this.count);
+		if (n <= 0) {
+			return 0;
+		}
+		ensureCapacity(this.count + n);
+		src.get(this.buf, this.count, n);
+		this.count += n;
+		return n;
+	}
+
+	/**
+	 * Replace the contents with exactly length bytes read from in
+	 * 
+	 * @throws IOException if in ends first or reading fails
+	 */
+	public void readFully(DataInput in, int length) throws IOException {
+		reset();
+		ensureCapacity(length);
+		in.readFully(this.buf, 0, length);
+		this.count = length;
+	}
+
+	/**
+	 * @return a stream that reads the valid bytes of the buffer
+	 */
+	public InputStream inputStream() {
+		return new ByteArrayInputStream(this.buf, 0, this.count);
+	}
+
+}
@@ -0,0 +1,130 @@
+import java.util.SplittableRandom;
+
+/**
+ * Cuts data into content-defined chunks with a gear rolling hash. The hash is
+ * shifted left one bit and has a random number for the next byte added at each
+ * step, so after 64 bytes it depends only on the 64 bytes before it. A chunk
+ * ends where the top bits of the hash are all zero, so the cut points move with
+ * the data: inserting or deleting a few bytes in one file changes only the
+ * chunks around the edit, and the rest of the file cuts into the same chunks as
+ * before. HuffArchiveWriter uses this to store the chunks that near copies of a
+ * file have in common only once.
+ * <P>
+ * A chunk is never shorter than the minimum size, except at the end of the
+ * data, nor longer than the maximum size. Beyond the minimum, a chunk ends on
+ * average after the average size.
+ *
+ * @author clairewalker
+ *
+ */
+public final class HuffChunker {
+	/**
+	 * The minimum chunk size used unless another is given
+	 */
+	public static final int DEFAULT_MIN_SIZE = 2 << 10;
+
+	/**
+	 * The average chunk size beyond the minimum used unless another is given
+	 */
+	public static final int DEFAULT_AVERAGE_SIZE = 8 << 10;
+
+	/**
+	 * The maximum chunk size used unless another is given
+	 */
+	public static final int DEFAULT_MAX_SIZE = 64 << 10;
+
+	// a fixed random number for each byte, so every chunker cuts alike
+	private static final long[] GEAR = new long[256];
+
+	static {
+		SplittableRandom r = new SplittableRandom(0x48756666L);
+		for (int i = 0; i < GEAR.length; i++) {
+			GEAR[i] = r.nextLong();
+		}
+	}
+
+	private final int minSize;
+	private final int averageSize;
+	private final int maxSize;
+	private final long mask;
+
+	/**
+	 * HuffChunker constructor
+	 *
+	 * @param minSize     is the least number of bytes in a chunk, at least 64 so
+	 *                    the hash covers a whole window before it can cut
+	 * @param averageSize is the average number of bytes in a chunk beyond the
+	 *                    minimum, a power of two
+	 * @param maxSize     is the most bytes in a chunk
+	 * @throws IllegalArgumentException if the sizes are out of range
+	 */
+	public HuffChunker(int minSize, int averageSize, int maxSize) {
+		if (minSize < Long.SIZE || averageSize <= 0 || Integer.bitCount(averageSize) != 1 || maxSize < minSize) {
+			throw new IllegalArgumentException("bad chunk sizes " + minSize + "/" + averageSize + "/" + maxSize);
+		}
+		this.minSize = minSize;
+		this.averageSize = averageSize;
+		this.maxSize = maxSize;
+		// the top log2(average) bits: a cut one time in averageSize
+		int bits = Integer.numberOfTrailingZeros(averageSize);
+		this.mask = (bits == 0) ? 0 : -1L << (Long.SIZE - bits);
+	}
+
+	/**
+	 * HuffChunker constructor with the default sizes
+	 */
+	public HuffChunker() {
+		this(DEFAULT_MIN_SIZE, DEFAULT_AVERAGE_SIZE, DEFAULT_MAX_SIZE);
+	}
+
+	/**
+	 * Find the end of the chunk that starts at data[off]
+	 *
+	 * @param data is the data being cut
+	 * @param off  is the start of the chunk
+	 * @param len  is the number of bytes left in the data, from off
+	 * @return the number of bytes in the chunk, len if the rest of the data is
+	 *         one chunk
+	 */
+	public int next(byte[] data, int off, int len) {
+		if (len <= this.minSize) {
+			return len;
+		}
+		int end = off + Math.min(len, this.maxSize);
+		// the hash over the last 64 bytes of the minimum, so the first possible cut
+		// depends on the data before it and not on where the chunk started
+		long hash = 0;
+		for (int i = off + this.minSize - Long.SIZE; i < off + this.minSize; i++) {
+			hash = (hash << 1) + GEAR[data[i] & 0xff];
+		}
+		for (int i = off + this.minSize; i < end; i++) {
+			hash = (hash << 1) + GEAR[data[i] & 0xff];
+			if ((hash & this.mask) == 0) {
+				return i + 1 - off;
+			}
+		}
+		return end - off;
+	}
+
+	/**
+	 * @return the least number of bytes in a chunk
+	 */
+	public int minSize() {
+		return this.minSize;
+	}
+
+	/**
+	 * @return the average number of bytes in a chunk beyond the minimum
+	 */
+	public int averageSize() {
+		return this.averageSize;
+	}
+
+	/**
+	 * @return the most bytes in a chunk
+	 */
+	public int maxSize() {
+		return this.maxSize;
+	}
+
+}
@@ -0,0 +1,84 @@
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * @author clairewalker
+ *
+ */
+public class HuffChunkerTest {
+
+	/*
+	 * Helper method to cut data into chunks, returning the end of each one
+	 */
+	private List<Integer> cuts(HuffChunker chunker, byte[] data) {
+		List<Integer> ends = new ArrayList<Integer>();
+		for (int off = 0; off < data.length;) {
+			off += chunker.next(data, off, data.length - off);
+			ends.add(off);
+		}
+		return ends;
+	}
+
+	/**
+	 * Tests that every chunk is within the sizes, but the last, and that the
+	 * average is about right
+	 */
+	@Test
+	public void testSizes() {
+		byte[] data = new byte[1 << 20];
+		new Random(1).nextBytes(data);
+		HuffChunker chunker = new HuffChunker(256, 1024, 4096);
+		List<Integer> ends = cuts(chunker, data);
+		int prev = 0;
+		for (int i = 0; i < ends.size(); i++) {
+			int len = ends.get(i) - prev;
+			assertTrue(len <= 4096);
+			assertTrue(len >= 256 || i == ends.size() - 1);
+			prev = ends.get(i);
+		}
+		assertEquals(data.length, prev);
+		double average = (double) data.length / ends.size();
+		assertTrue(average > 256 + 1024 / 2 && average < 256 + 1024 * 2);
+	}
+
+	/**
+	 * Tests that inserting bytes into the data moves the cuts after the edit by
+	 * the same amount, once the chunker has found its feet again
+	 */
+	@Test
+	public void testResync() {
+		byte[] data = new byte[200000];
+		new Random(2).nextBytes(data);
+		byte[] edited = new byte[data.length + 3];
+		System.arraycopy(data, 0, edited, 0, 100000);
+		System.arraycopy(data, 100000, edited, 100003, data.length - 100000);
+		HuffChunker chunker = new HuffChunker();
+
+		List<Integer> before = cuts(chunker, data);
+		List<Integer> after = new ArrayList<Integer>();
+		for (int end : cuts(chunker, edited)) {
+			after.add(end);
+		}
+		int same = 0;
+		for (int end : before) {
+			if (end < 100000 ? after.contains(end) : after.contains(end + 3)) {
+				same++;
+			}
+		}
+		assertTrue(same >= before.size() - 2);
+	}
+
+	/**
+	 * Tests that an average size that is not a power of two is refused
+	 */
+	@Test(expected = IllegalArgumentException.class)
+	public void testBadSizes() {
+		new HuffChunker(1024, 3000, 65536);
+	}
+
+}
@@ -0,0 +1,279 @@
+import java.util.Arrays;
+
+/**
+ * An immutable Huffman code for the ALPH_SIZE characters and the pseudo EOF.
+ * The codebook holds the shape of its tree in the order it is written to a
+ * header (a preorder walk, with -1 for each internal node and the character for
+ * each leaf), and the code and code length of every character in the tree.
+ * Codebooks never change once built, so one codebook can be shared by any
+ * number of threads, each encoding with its own HuffEncodeContext.
+ * 
+ * @author clairewalker
+ *
+ */
+public final class HuffCodebook implements IHuffConstants {
+	/**
+	 * The longest code a codebook can hold, so that any code fits in the 64 bit
+	 * buffer of a HuffEncodeContext with a partial byte still waiting in it
+	 */
+	static final int MAX_CODE_LENGTH = 56;
+
+	private final int[] shape;
+	private final long[] codes;
+	private final int[] lengths;
+
+	/*
+	 * Private constructor, codebooks are made with fromTree(), fromCounts() or
+	 * fromShape()
+	 */
+	private HuffCodebook(int[] shape) {
+		this.shape = shape;
+		this.codes = new long[ALPH_SIZE + 1];
+		this.lengths = new int[ALPH_SIZE + 1];
+		// characters not in the tree have a length of -1
+		Arrays.fill(this.lengths, -1);
+		assignCodes(shape, this.codes, this.lengths);
+	}
+
+	/**
+	 * Make a codebook from a hufftree
+	 * 
+	 * @param tree is the hufftree, which must contain the pseudo EOF
+	 * @return the codebook for the tree
+	 */
+	public static HuffCodebook fromTree(HuffTree tree) {
+		int[] shape = new int[2 * (ALPH_SIZE + 1)];
+		int size = shapeOf(tree.root(), shape, 0);
+		return fromShape(Arrays.copyOf(shape, size));
+	}
+
+	/**
+	 * Make a codebook from a tree shape, as read from a header
+	 * 
+	 * @param shape is the preorder shape of the tree
+	 * @return the codebook for the tree
+	 * @throws IllegalArgumentException if shape is not a tree containing the pseudo
+	 *                                  EOF, or has a code that is too long
+	 */
+	public static HuffCodebook fromShape(int[] shape) {
+		HuffCodebook book = new HuffCodebook(shape.clone());
+		if (book.lengths[PSEUDO_EOF] < 0) {
+			throw new IllegalArgumentException("tree has no pseudo EOF");
+		}
+		return book;
+	}
+
+	/**
+	 * Make a codebook from character counts with the tree Huff.makeHuffTree()
+	 * builds for a CharCounter holding them, so that characters with equal counts
+	 * get the codes Huff.write() gives them
+	 * 
+	 * @param counts is the count of each character, indexed by character
+	 * @return the codebook for the counts
+	 */
+	public static HuffCodebook fromCounts(int[] counts) {
+		CharCounter counter = new CharCounter();
+		for (int i = 0; i < ALPH_SIZE && i < counts.length; i++) {
+			if (counts[i] > 0) {
+				counter.add(i);
+				counter.set(i, counts[i]);
+			}
+		}
+		return fromTree(Huff.makeHuffTree(counter.getTable()));
+	}
+
+	/*
+	 * Helper method to write the preorder shape of the tree rooted at n into shape
+	 * starting at index i. Returns the index after the last one written
+	 */
+	private static int shapeOf(IHuffBaseNode n, int[] shape, int i) {
+		if (n.isLeaf()) {
+			shape[i] = ((HuffLeafNode) n).element();
+			return i + 1;
+		}
+		shape[i] = -1;
+		i = shapeOf(((HuffInternalNode) n).left(), shape, i + 1);
+		return shapeOf(((HuffInternalNode) n).right(), shape, i);
+	}
+
+	/**
+	 * Fill in the code and code length of each leaf of a preorder tree shape,
+	 * going left on a 0 and right on a 1.
+	 * 
+	 * @param shape   is the preorder shape of the tree
+	 * @param codes   is filled with the code of each leaf character
+	 * @param lengths is filled with the code length of each leaf character
+	 * @return the number of entries of shape used by the tree
+	 * @throws IllegalArgumentException if shape is not a tree of characters with
+	 *                                  codes of at most MAX_CODE_LENGTH bits
+	 */
+	static int assignCodes(int[] shape, long[] codes, int[] lengths) {
+		// walk the shape with an explicit stack of the codes still to be visited
+		long[] stackCode = new long[MAX_CODE_LENGTH + 1];
+		int[] stackLength = new int[MAX_CODE_LENGTH + 1];
+		int top = 0;
+		long code = 0;
+		int length = 0;
+		int i = 0;
+		while (true) {
+			if (i >= shape.length) {
+				throw new IllegalArgumentException("incomplete tree");
+			}
+			int el = shape[i++];
+			if (el < 0) {
+				// internal node, visit the left child next and remember the right child
+				if (length >= MAX_CODE_LENGTH) {
+					throw new IllegalArgumentException("code longer than " + MAX_CODE_LENGTH + " bits");
+				}
+				stackCode[top] = (code << 1) | 1;
+				stackLength[top] = length + 1;
+				top++;
+				code <<= 1;
+				length++;
+			} else {
+				// leaf, record its code and go back to the most recent right child
+				if (el > PSEUDO_EOF) {
+					throw new IllegalArgumentException("bad character in tree " + el);
+				}
+				codes[el] = code;
+				lengths[el] = length;
+				if (top == 0) {
+					return i;
+				}
+				top--;
+				code = stackCode[top];
+				length = stackLength[top];
+			}
+		}
+	}
+
+	/**
+	 * @param ch is a character or the pseudo EOF
+	 * @return true if ch has a code in this codebook
+	 */
+	public boolean hasCode(int ch) {
+		return this.lengths[ch] >= 0;
+	}
+
+	/**
+	 * @param ch is a character or the pseudo EOF with a code in this codebook
+	 * @return the code for ch, in the rightmost length(ch) bits
+	 */
+	public long code(int ch) {
+		return this.codes[ch];
+	}
+
+	/**
+	 * @param ch is a character or the pseudo EOF
+	 * @return the length of the code for ch, or -1 if it has no code
+	 */
+	public int length(int ch) {
+		return this.lengths[ch];
+	}
+
+	/**
+	 * @return the codebook's own array of codes, indexed by character
+	 */
+	long[] codes() {
+		return this.codes;
+	}
+
+	/**
+	 * @return the codebook's own array of code lengths, indexed by character
+	 */
+	int[] lengths() {
+		return this.lengths;
+	}
+
+	/**
+	 * @param ch is a character or the pseudo EOF
+	 * @return the code for ch as a string of '0' and '1', e.g., "0101", or null if
+	 *         it has no code
+	 */
+	public String codeString(int ch) {
+		int length = this.lengths[ch];
+		if (length < 0) {
+			return null;
+		}
+		StringBuilder sb = new StringBuilder(length);
+		for (int i = length - 1; i >= 0; i--) {
+			sb.append((this.codes[ch] >>> i) & 1);
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * @return the length of the longest code, the depth of the tree
+	 */
+	public int maxLength() {
+		int max = 0;
+		for (int length : this.lengths) {
+			max = Math.max(max, length);
+		}
+		return max;
+	}
+
+	/**
+	 * @return a copy of the preorder shape of the tree
+	 */
+	public int[] shape() {
+		return this.shape.clone();
+	}
+
+	/**
+	 * @return the number of bits the tree takes up in a header: 1 for each
+	 *         internal node and 10 for each leaf
+	 */
+	public int treeBits() {
+		int bits = 0;
+		for (int el : this.shape) {
+			bits += (el < 0) ? 1 : 10;
+		}
+		return bits;
+	}
+
+	/**
+	 * @param counts is the count of each character, indexed by character
+	 * @return the number of bits needed for the codes of all the characters counted
+	 *         and the pseudo EOF, or -1 if a counted character has no code
+	 */
+	public long encodedBits(int[] counts) {
+		long bits = this.lengths[PSEUDO_EOF];
+		for (int i = 0; i < ALPH_SIZE && i < counts.length; i++) {
+			if (counts[i] > 0) {
+				if (this.lengths[i] < 0) {
+					return -1;
+				}
+				bits += (long) counts[i] * this.lengths[i];
+			}
+		}
+		return bits;
+	}
+
+	/**
+	 * Write the tree in the header format read by Huff.readHeader(): a 0 for each
+	 * internal node, and a 1 followed by the 9 bit character for each leaf
+	 * 
+	 * @param out is where the tree is written
+	 * @return the number of bits written
+	 */
+	public int writeTree(HuffEncodeContext out) {
+		for (int el : this.shape) {
+			if (el < 0) {
+				out.writeBits(0, 1);
+			} else {
+				out.writeBits((1 << 9) | el, 10);
+			}
+		}
+		return treeBits();
+	}
+
+	/**
+	 * @param o is another codebook
+	 * @return true if o has a tree of the same shape as this codebook
+	 */
+	public boolean sameTree(HuffCodebook o) {
+		return Arrays.equals(this.shape, o.shape);
+	}
+
+}
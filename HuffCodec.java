@@ -0,0 +1,202 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * An immutable, shareable Huffman codec: a codebook and the decode table for
+ * the same tree. One configured codec can serve any number of threads at once
+ * without locking. All per-call state lives in HuffEncodeContext and
+ * HuffDecodeContext objects, which are pooled one per thread and reset for each
+ * call.
+ * <P>
+ * encode() writes the same format as Huff.write(): the magic number, the tree
+ * and the codes followed by the pseudo EOF. decode() reads that format, reusing
+ * the codec's own decode table when the stream was encoded with the codec's
+ * tree, and building one for the stream's tree otherwise. A codec made to be
+ * specialised decodes streams of its own tree with a HuffSpecializedDecoder
+ * generated for the tree instead of the table.
+ * 
+ * @author clairewalker
+ *
+ */
+public final class HuffCodec implements IHuffConstants {
+	private static final ThreadLocal<HuffEncodeContext> ENCODERS = ThreadLocal.withInitial(HuffEncodeContext::new);
+	private static final ThreadLocal<HuffDecodeContext> DECODERS = ThreadLocal.withInitial(HuffDecodeContext::new);
+
+	private final HuffCodebook codebook;
+	private final HuffDecodeTable decodeTable;
+	private final HuffSpecializedDecoder specialized;
+
+	/**
+	 * HuffCodec constructor
+	 * 
+	 * @param codebook is the code to encode with
+	 */
+	public HuffCodec(HuffCodebook codebook) {
+		this(codebook, false);
+	}
+
+	/**
+	 * HuffCodec constructor
+	 * 
+	 * @param codebook   is the code to encode with
+	 * @param specialize is true to decode with a decoder generated for the
+	 *                   codebook's tree, which pays off for a codec that decodes a
+	 *                   lot of data
+	 */
+	public HuffCodec(HuffCodebook codebook, boolean specialize) {
+		this.codebook = codebook;
+		this.decodeTable = HuffDecodeTable.fromCodebook(codebook);
+		this.specialized = specialize ? HuffSpecializedDecoder.forCodebook(codebook) : null;
+	}
+
+	/**
+	 * Make a codec trained on sample data. Every character gets a code, even if it
+	 * is not in the sample, so the codec can encode any data.
+	 * 
+	 * @param sample is data like the data that will be encoded
+	 * @return the trained codec
+	 */
+	public static HuffCodec train(byte[] sample) {
+		int[] counts = new int[ALPH_SIZE];
+		for (int i = 0; i < ALPH_SIZE; i++) {
+			counts[i] = 1;
+		}
+		for (byte b : sample) {
+			counts[b & 0xff]++;
+		}
+		return new HuffCodec(HuffCodebook.fromCounts(counts));
+	}
+
+	/**
+	 * @return the encoder context for the calling thread
+	 */
+	static HuffEncodeContext encoder() {
+		return ENCODERS.get();
+	}
+
+	/**
+	 * @return the decoder context for the calling thread
+	 */
+	static HuffDecodeContext decoder() {
+		return DECODERS.get();
+	}
+
+	/**
+	 * @return the codebook this codec encodes with
+	 */
+	public HuffCodebook codebook() {
+		return this.codebook;
+	}
+
+	/**
+	 * @return the decode table for this codec's tree
+	 */
+	public HuffDecodeTable decodeTable() {
+		return this.decodeTable;
+	}
+
+	/**
+	 * @return true if this codec decodes its own tree with a specialised decoder
+	 */
+	public boolean isSpecialized() {
+		return this.specialized != null;
+	}
+
+	/**
+	 * Encode src[off..off+len) to out as the magic number, the tree and the codes
+	 * followed by the pseudo EOF. The output stream is flushed but not closed.
+	 * 
+	 * @return the number of bits written, not counting the padding of the last byte
+	 * @throws IOException              if writing fails
+	 * @throws IllegalArgumentException if a byte has no code in this codec
+	 */
+	public long encode(byte[] src, int off, int len, OutputStream out) throws IOException {
+		HuffBlockEvent event = HuffBlockEvent.ifEnabled();
+		long start = HuffMetrics.start(event);
+		HuffEncodeContext ctx = encoder().reset(out);
+		ctx.writeBits(MAGIC_NUMBER, BITS_PER_INT);
+		this.codebook.writeTree(ctx);
+		long t = HuffMetrics.phase(HuffPhase.HEADER, start, event);
+		ctx.encode(this.codebook, src, off, len);
+		ctx.writeCode(this.codebook, PSEUDO_EOF);
+		long bits = ctx.bitsWritten();
+		ctx.finish();
+		HuffMetrics.phase(HuffPhase.ENCODE, t, event);
+		HuffMetrics.compressed(len, bits, start);
+		if (event != null) {
+			event.end("compress", len, bits, this.codebook.maxLength());
+		}
+		return bits;
+	}
+
+	/**
+	 * Decode a stream written by encode() or Huff.write() to out. The streams are
+	 * not closed.
+	 * 
+	 * @return the number of bytes written
+	 * @throws IOException if the stream is not compressed, is corrupt, or an I/O
+	 *                     error occurs
+	 */
+	public long decode(InputStream in, OutputStream out) throws IOException {
+		long start = HuffMetrics.start();
+		HuffDecodeContext ctx = decoder().reset(in);
+		try {
+			long bytes = decode(ctx, out, this.decodeTable, this.specialized);
+			HuffMetrics.uncompressed(ctx.bitsRead(), bytes, start);
+			return bytes;
+		} finally {
+			ctx.finish();
+		}
+	}
+
+	/**
+	 * Read the magic number and tree from a context and decode the codes that
+	 * follow to out. cached is used instead of building a decode table when it is
+	 * for the same tree as the stream's, and may be null.
+	 * 
+	 * @return the number of bytes written
+	 * @throws IOException if the stream is not compressed, is corrupt, or an I/O
+	 *                     error occurs
+	 */
+	static long decode(HuffDecodeContext ctx, OutputStream out, HuffDecodeTable cached) throws IOException {
+		return decode(ctx, out, cached, null);
+	}
+
+	/**
+	 * Read the magic number and tree from a context and decode the codes that
+	 * follow to out, as decode(ctx, out, cached) does, but with specialized
+	 * instead of a decode table when it is for the same tree as the stream's.
+	 * specialized may be null.
+	 * 
+	 * @return the number of bytes written
+	 * @throws IOException if the stream is not compressed, is corrupt, or an I/O
+	 *                     error occurs
+	 */
+	static long decode(HuffDecodeContext ctx, OutputStream out, HuffDecodeTable cached,
+			HuffSpecializedDecoder specialized) throws IOException {
+		HuffBlockEvent event = HuffBlockEvent.ifEnabled();
+		long t = HuffMetrics.start(event);
+		if (ctx.readBits(BITS_PER_INT) != MAGIC_NUMBER) {
+			throw new IOException("not a compressed file");
+		}
+		HuffCodebook book = HuffDecodeTable.readCodebook(ctx);
+		t = HuffMetrics.phase(HuffPhase.HEADER, t, event);
+		long bytes;
+		if (specialized != null && specialized.decodes(book)) {
+			t = HuffMetrics.phase(HuffPhase.TABLE, t, event);
+			bytes = ctx.decode(specialized, out);
+		} else {
+			HuffDecodeTable table = (cached != null && cached.decodes(book)) ? cached
+					: HuffDecodeTable.fromCodebook(book);
+			t = HuffMetrics.phase(HuffPhase.TABLE, t, event);
+			bytes = ctx.decode(table, out);
+		}
+		HuffMetrics.phase(HuffPhase.DECODE, t, event);
+		if (event != null) {
+			event.end("uncompress", bytes, ctx.bitsRead(), book.maxLength());
+		}
+		return bytes;
+	}
+
+}
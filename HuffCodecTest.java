@@ -0,0 +1,97 @@
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * @author clairewalker
+ *
+ */
+public class HuffCodecTest {
+
+	/*
+	 * Helper method to encode data with a codec and decode it again
+	 */
+	private byte[] roundTrip(HuffCodec codec, byte[] data) throws IOException {
+		ByteArrayOutputStream enc = new ByteArrayOutputStream();
+		codec.encode(data, 0, data.length, enc);
+		ByteArrayOutputStream dec = new ByteArrayOutputStream();
+		codec.decode(new ByteArrayInputStream(enc.toByteArray()), dec);
+		return dec.toByteArray();
+	}
+
+	/**
+	 * Tests that the codebook made from counts for "teststring" has the same code
+	 * lengths as the codes made by Huff
+	 * 
+	 * @throws IOException
+	 */
+	@Test
+	public void testCodebookLengths() throws IOException {
+		Huff h = new Huff();
+		HuffCodebook book = HuffCodebook.fromTree(h.makeHuffTree(new ByteArrayInputStream("teststring".getBytes("UTF-8"))));
+		h.makeTable();
+		assertEquals(h.getCode(116), book.codeString(116));
+		assertEquals(h.getCode(IHuffConstants.PSEUDO_EOF), book.codeString(IHuffConstants.PSEUDO_EOF));
+		assertEquals(15 + 72, book.treeBits());
+		assertNull(book.codeString(10));
+	}
+
+	/**
+	 * Tests that a trained codec decodes what it encodes, including characters not
+	 * in the training sample and empty data
+	 * 
+	 * @throws IOException
+	 */
+	@Test
+	public void testRoundTrip() throws IOException {
+		HuffCodec codec = HuffCodec.train("teststring".getBytes("UTF-8"));
+		byte[] data = "some other string \u0000\u00ff".getBytes("UTF-8");
+		assertArrayEquals(data, roundTrip(codec, data));
+		assertArrayEquals(new byte[0], roundTrip(codec, new byte[0]));
+	}
+
+	/**
+	 * Tests that one codec can be shared by several threads at once
+	 * 
+	 * @throws Exception
+	 */
+	@Test
+	public void testConcurrent() throws Exception {
+		final HuffCodec codec = HuffCodec.train("teststring".getBytes("UTF-8"));
+		final List<Throwable> failures = new ArrayList<Throwable>();
+		List<Thread> threads = new ArrayList<Thread>();
+		for (int t = 0; t < 8; t++) {
+			final Random r = new Random(t);
+			Thread th = new Thread(() -> {
+				try {
+					for (int i = 0; i < 50; i++) {
+						byte[] data = new byte[r.nextInt(5000)];
+						r.nextBytes(data);
+						if (!Arrays.equals(data, roundTrip(codec, data))) {
+							throw new AssertionError("round trip failed");
+						}
+					}
+				} catch (Throwable e) {
+					synchronized (failures) {
+						failures.add(e);
+					}
+				}
+			});
+			threads.add(th);
+			th.start();
+		}
+		for (Thread th : threads) {
+			th.join();
+		}
+		assertTrue(failures.toString(), failures.isEmpty());
+	}
+
+}
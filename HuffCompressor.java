@@ -0,0 +1,354 @@
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+/**
+ * A reusable compressor whose buffers are allocated once, when it is made, and
+ * reused by every call: the histogram, the arrays the hufftree is built in, the
+ * codes and the encoder context. After the first call, compress() allocates
+ * nothing, so a thread that compresses many inputs can keep one compressor
+ * instead of building a Huff, a priority queue, nodes and code strings each
+ * time. The one exception is while a flight recording is recording
+ * HuffBlockEvent, when each call makes its event.
+ * <P>
+ * The tree is built in arrays: nodes 0 to ALPH_SIZE are the leaves for each
+ * character and the pseudo EOF, and internal nodes are numbered after them.
+ * Compressors are not thread safe; use one per thread.
+ * 
+ * @author clairewalker
+ *
+ */
+public final class HuffCompressor implements IHuffConstants {
+	private static final int NODES = 2 * (ALPH_SIZE + 1);
+
+	private final CharCounter counter = new CharCounter();
+	private final long[] weight = new long[NODES];
+	private final int[] left = new int[NODES];
+	private final int[] right = new int[NODES];
+	private final int[] heap = new int[ALPH_SIZE + 1];
+	private final int[] stack = new int[NODES];
+	private final long[] stackCode = new long[NODES];
+	private final int[] stackLength = new int[NODES];
+	private final int[] shape = new int[NODES];
+	private final long[] codes = new long[ALPH_SIZE + 1];
+	private final int[] lengths = new int[ALPH_SIZE + 1];
+	private final long[] sorted = new long[ALPH_SIZE + 1];
+	private final long[] merged = new long[ALPH_SIZE + 1];
+	private final HuffEncodeContext ctx = new HuffEncodeContext();
+	private int heapSize;
+	private int shapeSize;
+
+	/**
+	 * HuffCompressor constructor allocates all the compressor's buffers
+	 */
+	public HuffCompressor() {
+		reset();
+	}
+
+	/**
+	 * Clear the state left by the last call, e.g., after it failed part way. Each
+	 * call to compress() starts with a reset.
+	 * 
+	 * @return this compressor
+	 */
+	public HuffCompressor reset() {
+		this.counter.clear();
+		Arrays.fill(this.lengths, -1);
+		this.heapSize = 0;
+		this.shapeSize = 0;
+		this.ctx.reset(null);
+		return this;
+	}
+
+	/**
+	 * Compress src[off..off+len) to out in the format written by Huff.write(): the
+	 * magic number, the tree and the codes followed by the pseudo EOF. The output
+	 * stream is flushed but not closed.
+	 * 
+	 * @return the number of bits written, not counting the padding of the last byte
+	 * @throws IOException if writing fails
+	 */
+	public long compress(byte[] src, int off, int len, OutputStream out) throws IOException {
+		return compress(src, off, len, out, true, Long.MAX_VALUE);
+	}
+
+	/**
+	 * Compress src[off..off+len) to out as the tree and the codes followed by the
+	 * pseudo EOF, without the magic number. This is the form of an archive member.
+	 * 
+	 * @return the number of bits written, not counting the padding of the last byte
+	 * @throws IOException if writing fails
+	 */
+	long compressBody(byte[] src, int off, int len, OutputStream out) throws IOException {
+		return compress(src, off, len, out, false, Long.MAX_VALUE);
+	}
+
+	/**
+	 * Compress src[off..off+len) to out as compressBody() does, but only if the
+	 * tree and codes take up at most maxBits. The size is worked out from the
+	 * counts and code lengths before anything is written.
+	 * 
+	 * @return the number of bits written, or -1 if nothing was written because the
+	 *         compressed form would be larger than maxBits
+	 * @throws IOException if writing fails
+	 */
+	long compressBodyIfSmaller(byte[] src, int off, int len, OutputStream out, long maxBits) throws IOException {
+		return compress(src, off, len, out, false, maxBits);
+	}
+
+	/*
+	 * Helper method for compress, compressBody and compressBodyIfSmaller
+	 */
+	private long compress(byte[] src, int off, int len, OutputStream out, boolean magic, long maxBits)
+			throws IOException {
+		reset();
+		HuffBlockEvent event = HuffBlockEvent.ifEnabled();
+		long start = HuffMetrics.start(event);
+
+		// count the characters and build the tree and codes for them
+		this.counter.countAll(src, off, len);
+		long t = HuffMetrics.phase(HuffPhase.COUNT, start, event);
+		int root = buildTree(this.counter.counts());
+		t = HuffMetrics.phase(HuffPhase.TREE, t, event);
+		int depth = assignCodes(root);
+		t = HuffMetrics.phase(HuffPhase.TABLE, t, event);
+		if (maxBits != Long.MAX_VALUE && compressedBits(this.counter.counts()) > maxBits) {
+			return -1;
+		}
+
+		// write the header, the codes and the pseudo EOF
+		this.ctx.reset(out);
+		if (magic) {
+			this.ctx.writeBits(MAGIC_NUMBER, BITS_PER_INT);
+		}
+		writeTree();
+		t = HuffMetrics.phase(HuffPhase.HEADER, t, event);
+		this.ctx.encode(this.codes, this.lengths, src, off, len);
+		this.ctx.writeBits(this.codes[PSEUDO_EOF], this.lengths[PSEUDO_EOF]);
+		long bits = this.ctx.bitsWritten();
+		this.ctx.finish();
+		HuffMetrics.phase(HuffPhase.ENCODE, t, event);
+		HuffMetrics.compressed(len, bits, start);
+		if (event != null) {
+			event.end("compress", len, bits, depth);
+		}
+		return bits;
+	}
+
+	/**
+	 * Work out the size compressBody() would write for data with the given
+	 * character counts, without building the tree or writing anything. Every
+	 * Huffman tree for the same counts codes them in the same number of bits, the
+	 * sum of the weights of its internal nodes, so the weights are merged in
+	 * sorted order with a queue of internal nodes instead of a heap of nodes.
+	 * 
+	 * @param counts is the count of each character, indexed by character
+	 * @return the number of bits of the tree, the codes and the pseudo EOF
+	 */
+	long cost(int[] counts) {
+		int leaves = 0;
+		for (int ch = 0; ch < ALPH_SIZE; ch++) {
+			if (counts[ch] > 0) {
+				this.sorted[leaves++] = counts[ch];
+			}
+		}
+		this.sorted[leaves++] = 1;
+		Arrays.sort(this.sorted, 0, leaves);
+
+		// internal nodes are made in order of weight, so the lightest two trees are
+		// always at the heads of the leaves and the queue of internal nodes
+		long bits = 0;
+		int leaf = 0;
+		int head = 0;
+		int tail = 0;
+		for (int i = 1; i < leaves; i++) {
+			long a = (leaf < leaves && (head == tail || this.sorted[leaf] <= this.merged[head]))
+					? this.sorted[leaf++]
+					: this.merged[head++];
+			long b = (leaf < leaves && (head == tail || this.sorted[leaf] <= this.merged[head]))
+					? this.sorted[leaf++]
+					: this.merged[head++];
+			this.merged[tail++] = a + b;
+			bits += a + b;
+		}
+		// 1 bit for each internal node and 10 for each leaf
+		return bits + 11L * leaves - 1;
+	}
+
+	/**
+	 * Work out the code length of each character for the given counts, building
+	 * the tree as compress() does. This replaces the state left by the last call,
+	 * like compress() does.
+	 * 
+	 * @param counts  is the count of each character, indexed by character
+	 * @param lengths is where the code length of each character is written, or -1
+	 *                for a character with no code
+	 */
+	void lengths(int[] counts, int[] lengths) {
+		reset();
+		assignCodes(buildTree(counts));
+		System.arraycopy(this.lengths, 0, lengths, 0, ALPH_SIZE);
+	}
+
+	/*
+	 * Helper method to build the tree for the counted characters and the pseudo EOF
+	 * with an array min-heap of node numbers. Returns the root
+	 */
+	private int buildTree(int[] counts) {
+		for (int ch = 0; ch < ALPH_SIZE; ch++) {
+			if (counts[ch] > 0) {
+				this.weight[ch] = counts[ch];
+				push(ch);
+			}
+		}
+		this.weight[PSEUDO_EOF] = 1;
+		push(PSEUDO_EOF);
+
+		// join the two lightest trees until one is left
+		int next = PSEUDO_EOF + 1;
+		while (this.heapSize > 1) {
+			int a = pop();
+			int b = pop();
+			this.left[next] = a;
+			this.right[next] = b;
+			this.weight[next] = this.weight[a] + this.weight[b];
+			push(next);
+			next++;
+		}
+		return pop();
+	}
+
+	/*
+	 * Helper method to walk the tree from root in preorder, recording its shape
+	 * and the code of each leaf. Returns the length of the longest code
+	 */
+	private int assignCodes(int root) {
+		int depth = 0;
+		int sp = 0;
+		this.stack[sp] = root;
+		this.stackCode[sp] = 0;
+		this.stackLength[sp] = 0;
+		sp++;
+		while (sp > 0) {
+			sp--;
+			int n = this.stack[sp];
+			long code = this.stackCode[sp];
+			int length = this.stackLength[sp];
+			if (n <= PSEUDO_EOF) {
+				// leaf
+				this.shape[this.shapeSize++] = n;
+				this.codes[n] = code;
+				this.lengths[n] = length;
+				depth = Math.max(depth, length);
+				continue;
+			}
+			if (length >= HuffCodebook.MAX_CODE_LENGTH) {
+				throw new IllegalStateException("code longer than " + HuffCodebook.MAX_CODE_LENGTH + " bits");
+			}
+			// internal node, push the right child below the left so the left is
+			// visited first
+			this.shape[this.shapeSize++] = -1;
+			this.stack[sp] = this.right[n];
+			this.stackCode[sp] = (code << 1) | 1;
+			this.stackLength[sp] = length + 1;
+			sp++;
+			this.stack[sp] = this.left[n];
+			this.stackCode[sp] = code << 1;
+			this.stackLength[sp] = length + 1;
+			sp++;
+		}
+		return depth;
+	}
+
+	/*
+	 * Helper method to calculate the size of the tree and the codes of all the
+	 * counted characters and the pseudo EOF, without writing them
+	 */
+	private long compressedBits(int[] counts) {
+		long bits = this.lengths[PSEUDO_EOF];
+		for (int ch = 0; ch < ALPH_SIZE; ch++) {
+			bits += (long) counts[ch] * this.lengths[ch];
+		}
+		// 1 bit for each internal node and 10 for each leaf
+		for (int i = 0; i < this.shapeSize; i++) {
+			bits += (this.shape[i] < 0) ? 1 : 10;
+		}
+		return bits;
+	}
+
+	/*
+	 * Helper method to write the tree shape in the header format
+	 */
+	private void writeTree() {
+		for (int i = 0; i < this.shapeSize; i++) {
+			int el = this.shape[i];
+			if (el < 0) {
+				this.ctx.writeBits(0, 1);
+			} else {
+				this.ctx.writeBits((1 << 9) | el, 10);
+			}
+		}
+	}
+
+	/*
+	 * Helper method to add node n to the heap
+	 */
+	private void push(int n) {
+		int i = this.heapSize++;
+		// sift up until the parent is no heavier
+		while (i > 0) {
+			int parent = (i - 1) / 2;
+			if (this.weight[this.heap[parent]] <= this.weight[n]) {
+				break;
+			}
+			this.heap[i] = this.heap[parent];
+			i = parent;
+		}
+		this.heap[i] = n;
+	}
+
+	/*
+	 * Helper method to remove and return the lightest node of the heap
+	 */
+	private int pop() {
+		int min = this.heap[0];
+		int last = this.heap[--this.heapSize];
+		// sift the last node down from the root
+		int i = 0;
+		while (true) {
+			int child = 2 * i + 1;
+			if (child >= this.heapSize) {
+				break;
+			}
+			if (child + 1 < this.heapSize && this.weight[this.heap[child + 1]] < this.weight[this.heap[child]]) {
+				child++;
+			}
+			if (this.weight[last] <= this.weight[this.heap[child]]) {
+				break;
+			}
+			this.heap[i] = this.heap[child];
+			i = child;
+		}
+		if (this.heapSize > 0) {
+			this.heap[i] = last;
+		}
+		return min;
+	}
+
+	/**
+	 * @return the count of each character in the last input compressed
+	 */
+	public int[] counts() {
+		return this.counter.counts();
+	}
+
+	/**
+	 * @param ch is a character or the pseudo EOF
+	 * @return the length of the code for ch in the last input compressed, or -1 if
+	 *         it had no code
+	 */
+	public int length(int ch) {
+		return this.lengths[ch];
+	}
+
+}
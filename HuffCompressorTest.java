@@ -0,0 +1,54 @@
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import org.junit.Test;
+
+/**
+ * @author clairewalker
+ *
+ */
+public class HuffCompressorTest {
+
+	/*
+	 * Helper method to decode a stream in the Huff.write() format
+	 */
+	private byte[] decode(byte[] compressed) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		HuffCodec.decode(HuffCodec.decoder().reset(new ByteArrayInputStream(compressed)), out, null);
+		return out.toByteArray();
+	}
+
+	/**
+	 * Tests that compressing "teststring" writes the same number of bits as
+	 * Huff.write(): magic number, tree and codes
+	 * 
+	 * @throws IOException
+	 */
+	@Test
+	public void testCompressSize() throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		assertEquals(72 + 15 + 32 + 32, new HuffCompressor().compress("teststring".getBytes("UTF-8"), 0, 10, out));
+		assertArrayEquals("teststring".getBytes("UTF-8"), decode(out.toByteArray()));
+	}
+
+	/**
+	 * Tests that a reused compressor keeps no state from one call to the next
+	 * 
+	 * @throws IOException
+	 */
+	@Test
+	public void testReuse() throws IOException {
+		HuffCompressor c = new HuffCompressor();
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		c.compress("teststring".getBytes("UTF-8"), 0, 10, out);
+		out.reset();
+		c.compress("aaab".getBytes("UTF-8"), 0, 4, out);
+		assertEquals(0, c.counts()['t']);
+		assertEquals(-1, c.length('t'));
+		assertArrayEquals("aaab".getBytes("UTF-8"), decode(out.toByteArray()));
+	}
+
+}
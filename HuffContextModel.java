@@ -0,0 +1,353 @@
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+/**
+ * Codes a block with an order-1 model: the code for each character is chosen by
+ * the character before it, its context. A tree for each of the 256 contexts
+ * would often cost more than it saves, so contexts with similar counts are
+ * clustered and each cluster gets one tree. Clusters are trained like
+ * HuffMultiTable's tables: seeded with the busiest contexts, then each context
+ * is given to the cluster that codes its characters in the fewest bits and the
+ * clusters are counted again, a few times over. The number of clusters is
+ * doubled for as long as that makes the block smaller.
+ * <P>
+ * The payload is the number of clusters less one (5 bits), the cluster of each
+ * context, move-to-front coded and written in unary as HuffMultiTable writes its
+ * selectors, each cluster's tree in the header format written by
+ * HuffCodebook.writeTree(), and the codes of the characters. The first
+ * character's context is 0. There is no pseudo EOF code; the block header
+ * gives the number of characters. Decoding looks up the decode table for each
+ * context once, then indexes it by the last character decoded.
+ * <P>
+ * A context model is the block coder for BLOCK_CONTEXT blocks. It is reusable
+ * and not thread safe; use one per thread.
+ *
+ * @author clairewalker
+ *
+ */
+public final class HuffContextModel implements IHuffBlockCoder, IHuffConstants {
+	/**
+	 * The most clusters of contexts, each with its own tree
+	 */
+	public static final int MAX_CLUSTERS = 32;
+
+	// the number of times the contexts are given to clusters and counted again
+	private static final int ITERATIONS = 4;
+
+	private final int[][] contextCounts = new int[ALPH_SIZE][ALPH_SIZE];
+	private final int[] contextTotals = new int[ALPH_SIZE];
+	private final int[] counts = new int[ALPH_SIZE];
+	private final int[][] clusterCounts = new int[MAX_CLUSTERS][ALPH_SIZE];
+	private final int[][] estimates = new int[MAX_CLUSTERS][ALPH_SIZE];
+	private final int[] followers = new int[ALPH_SIZE * ALPH_SIZE];
+	private final int[] followerCounts = new int[ALPH_SIZE * ALPH_SIZE];
+	private final int[] firstFollower = new int[ALPH_SIZE + 1];
+	private final int[] smoothed = new int[ALPH_SIZE];
+	private final byte[] map = new byte[ALPH_SIZE];
+	private final byte[] bestMap = new byte[ALPH_SIZE];
+	private final Integer[] busiest = new Integer[ALPH_SIZE];
+	private final HuffCodebook[] books = new HuffCodebook[MAX_CLUSTERS];
+	private final long[] codes = new long[MAX_CLUSTERS * ALPH_SIZE];
+	private final int[] lengths = new int[MAX_CLUSTERS * ALPH_SIZE];
+	private final int[] sets = new int[ALPH_SIZE];
+	private final HuffCompressor costs = new HuffCompressor();
+	private final HuffEncodeContext ctx = new HuffEncodeContext();
+	private int clusters;
+
+	/**
+	 * Count the contexts of src[off..off+len) and choose its clusters, ready for
+	 * write()
+	 *
+	 * @return the number of bits write() will write, not counting the padding of
+	 *         the last byte
+	 */
+	public long train(byte[] src, int off, int len) {
+		Arrays.fill(this.counts, 0);
+		for (int i = off; i < off + len; i++) {
+			this.counts[src[i] & 0xff]++;
+		}
+		return train(src, off, len, this.counts);
+	}
+
+	@Override
+	public int type() {
+		return BLOCK_CONTEXT;
+	}
+
+	@Override
+	public long train(byte[] src, int off, int len, int[] counts) {
+		for (int[] c : this.contextCounts) {
+			Arrays.fill(c, 0);
+		}
+		Arrays.fill(this.contextTotals, 0);
+		System.arraycopy(counts, 0, this.counts, 0, ALPH_SIZE);
+		int prev = 0;
+		for (int i = off; i < off + len; i++) {
+			int ch = src[i] & 0xff;
+			this.contextCounts[prev][ch]++;
+			this.contextTotals[prev]++;
+			prev = ch;
+		}
+		// list the characters that follow each context, to cost contexts by only
+		// the characters they have
+		int used = 0;
+		int n = 0;
+		for (int c = 0; c < ALPH_SIZE; c++) {
+			this.busiest[c] = c;
+			used += (this.contextTotals[c] > 0) ? 1 : 0;
+			this.firstFollower[c] = n;
+			for (int ch = 0; ch < ALPH_SIZE; ch++) {
+				if (this.contextCounts[c][ch] > 0) {
+					this.followers[n] = ch;
+					this.followerCounts[n++] = this.contextCounts[c][ch];
+				}
+			}
+		}
+		this.firstFollower[ALPH_SIZE] = n;
+		Arrays.sort(this.busiest, (a, b) -> this.contextTotals[b] - this.contextTotals[a]);
+
+		// keep the best clustering found, doubling the clusters until it gets worse
+		long best = Long.MAX_VALUE;
+		int bestClusters = 0;
+		for (int k = 1; k <= Math.min(MAX_CLUSTERS, Math.max(used, 1)); k *= 2) {
+			long bits = cluster(k);
+			if (bits >= best) {
+				break;
+			}
+			best = bits;
+			bestClusters = this.clusters;
+			System.arraycopy(this.map, 0, this.bestMap, 0, ALPH_SIZE);
+		}
+		this.clusters = bestClusters;
+		System.arraycopy(this.bestMap, 0, this.map, 0, ALPH_SIZE);
+		countClusters();
+		for (int k = 0; k < this.clusters; k++) {
+			this.books[k] = HuffCodebook.fromCounts(this.clusterCounts[k]);
+			System.arraycopy(this.books[k].codes(), 0, this.codes, k * ALPH_SIZE, ALPH_SIZE);
+			System.arraycopy(this.books[k].lengths(), 0, this.lengths, k * ALPH_SIZE, ALPH_SIZE);
+		}
+		for (int c = 0; c < ALPH_SIZE; c++) {
+			this.sets[c] = this.map[c] * ALPH_SIZE;
+		}
+
+		// the exact size. Each tree has a pseudo EOF leaf, but its code is never written
+		long bits = 5 + mapBits();
+		for (int k = 0; k < this.clusters; k++) {
+			bits += this.books[k].treeBits() + this.books[k].encodedBits(this.clusterCounts[k])
+					- this.books[k].length(PSEUDO_EOF);
+		}
+		return bits;
+	}
+
+	@Override
+	public long write(byte[] src, int off, int len, OutputStream out) throws IOException {
+		this.ctx.reset(out);
+		this.ctx.writeBits(this.clusters - 1, 5);
+		byte[] order = order();
+		for (int c = 0; c < ALPH_SIZE; c++) {
+			int position = moveToFront(order, this.map[c]);
+			this.ctx.writeBits(((1L << position) - 1) << 1, position + 1);
+		}
+		for (int k = 0; k < this.clusters; k++) {
+			this.books[k].writeTree(this.ctx);
+		}
+		this.ctx.encode(this.codes, this.lengths, this.sets, src, off, len, 0);
+		long bits = this.ctx.bitsWritten();
+		this.ctx.finish();
+		return bits;
+	}
+
+	/**
+	 * @return the count of each character in the block last passed to train()
+	 */
+	public int[] counts() {
+		return this.counts;
+	}
+
+	/**
+	 * @return the number of clusters chosen by the last call to train()
+	 */
+	public int clusters() {
+		return this.clusters;
+	}
+
+	/**
+	 * @return the length of the longest code of the clusters
+	 */
+	@Override
+	public int decode(HuffDecodeContext in, byte[] out, int length) throws IOException {
+		int clusters = in.readBits(5) + 1;
+		byte[] map = new byte[ALPH_SIZE];
+		byte[] order = order();
+		for (int c = 0; c < ALPH_SIZE; c++) {
+			int position = 0;
+			while (in.readBits(1) == 1) {
+				if (++position == clusters) {
+					throw new IOException("bad cluster for context " + c);
+				}
+			}
+			map[c] = order[position];
+			System.arraycopy(order, 0, order, 1, position);
+			order[0] = map[c];
+		}
+		HuffDecodeTable[] tables = new HuffDecodeTable[clusters];
+		int depth = 0;
+		for (int k = 0; k < clusters; k++) {
+			HuffCodebook book = HuffDecodeTable.readCodebook(in);
+			tables[k] = HuffDecodeTable.fromCodebook(book);
+			depth = Math.max(depth, book.maxLength());
+		}
+
+		// index the tables by context, so each character takes one lookup to find
+		// the table for the next
+		HuffDecodeTable[] byContext = new HuffDecodeTable[ALPH_SIZE];
+		for (int c = 0; c < ALPH_SIZE; c++) {
+			byContext[c] = tables[map[c]];
+		}
+		int prev = 0;
+		for (int i = 0; i < length; i++) {
+			int ch = in.decodeSymbol(byContext[prev]);
+			if (ch == PSEUDO_EOF) {
+				throw new IOException("unexpected pseudo EOF at " + i);
+			}
+			out[i] = (byte) ch;
+			prev = ch;
+		}
+		return depth;
+	}
+
+	/*
+	 * Helper method to cluster the contexts into at most k clusters, leaving the
+	 * cluster of each context in map. Returns the bits of the payload
+	 */
+	private long cluster(int k) {
+		// seed each cluster with one of the k busiest contexts, and give every other
+		// context to the first
+		Arrays.fill(this.map, (byte) 0);
+		for (int i = 0; i < k; i++) {
+			this.map[this.busiest[i]] = (byte) i;
+		}
+		this.clusters = k;
+		countClusters();
+		for (int iteration = 0; iteration < ITERATIONS && k > 1; iteration++) {
+			estimateLengths();
+			assignContexts();
+			countClusters();
+		}
+
+		// the cluster count, the map, and the tree and codes of each cluster
+		long bits = 5 + mapBits();
+		for (int i = 0; i < this.clusters; i++) {
+			bits += this.costs.cost(this.clusterCounts[i]);
+		}
+		return bits;
+	}
+
+	/*
+	 * Helper method to work out the code lengths of each cluster for estimating
+	 * the cost of giving it a context. Every character of the block is counted at
+	 * least once, so any cluster can take any context
+	 */
+	private void estimateLengths() {
+		for (int k = 0; k < this.clusters; k++) {
+			for (int ch = 0; ch < ALPH_SIZE; ch++) {
+				this.smoothed[ch] = this.clusterCounts[k][ch] + ((this.counts[ch] > 0) ? 1 : 0);
+			}
+			this.costs.lengths(this.smoothed, this.estimates[k]);
+		}
+	}
+
+	/*
+	 * Helper method to give each context that occurs to the cluster that codes its
+	 * characters in the fewest bits. Contexts that don't occur take the cluster of
+	 * the context before them, which costs a bit in the map
+	 */
+	private void assignContexts() {
+		for (int c = 0; c < ALPH_SIZE; c++) {
+			if (this.contextTotals[c] == 0) {
+				this.map[c] = (c == 0) ? 0 : this.map[c - 1];
+				continue;
+			}
+			long bestBits = Long.MAX_VALUE;
+			for (int k = 0; k < this.clusters; k++) {
+				int[] length = this.estimates[k];
+				long bits = 0;
+				for (int i = this.firstFollower[c]; i < this.firstFollower[c + 1]; i++) {
+					bits += (long) this.followerCounts[i] * length[this.followers[i]];
+				}
+				if (bits < bestBits) {
+					bestBits = bits;
+					this.map[c] = (byte) k;
+				}
+			}
+		}
+	}
+
+	/*
+	 * Helper method to count the characters of each cluster from its contexts,
+	 * dropping clusters that no context was given
+	 */
+	private void countClusters() {
+		int[] renumber = new int[MAX_CLUSTERS];
+		Arrays.fill(renumber, -1);
+		int n = 0;
+		for (int c = 0; c < ALPH_SIZE; c++) {
+			int k = this.map[c];
+			if (renumber[k] < 0) {
+				renumber[k] = n++;
+			}
+			this.map[c] = (byte) renumber[k];
+		}
+		this.clusters = n;
+		for (int k = 0; k < n; k++) {
+			Arrays.fill(this.clusterCounts[k], 0);
+		}
+		for (int c = 0; c < ALPH_SIZE; c++) {
+			if (this.contextTotals[c] > 0) {
+				int[] cluster = this.clusterCounts[this.map[c]];
+				for (int i = this.firstFollower[c]; i < this.firstFollower[c + 1]; i++) {
+					cluster[this.followers[i]] += this.followerCounts[i];
+				}
+			}
+		}
+	}
+
+	/*
+	 * Helper method to count the bits of the move-to-front coded map
+	 */
+	private long mapBits() {
+		byte[] order = order();
+		long bits = 0;
+		for (int c = 0; c < ALPH_SIZE; c++) {
+			bits += moveToFront(order, this.map[c]) + 1;
+		}
+		return bits;
+	}
+
+	/*
+	 * Helper method to return the clusters in their starting move-to-front order
+	 */
+	private static byte[] order() {
+		byte[] order = new byte[MAX_CLUSTERS];
+		for (int k = 0; k < MAX_CLUSTERS; k++) {
+			order[k] = (byte) k;
+		}
+		return order;
+	}
+
+	/*
+	 * Helper method to move cluster k to the front of order. Returns its position
+	 * before the move
+	 */
+	private static int moveToFront(byte[] order, byte k) {
+		int position = 0;
+		while (order[position] != k) {
+			position++;
+		}
+		System.arraycopy(order, 0, order, 1, position);
+		order[0] = k;
+		return position;
+	}
+
+}
@@ -0,0 +1,71 @@
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * @author clairewalker
+ *
+ */
+public class HuffContextModelTest {
+
+	/*
+	 * Helper method to make records where each character mostly decides the next
+	 */
+	private byte[] records() {
+		Random r = new Random(1);
+		StringBuilder sb = new StringBuilder();
+		while (sb.length() < 40000) {
+			sb.append("id=").append(r.nextInt(100000)).append(";name=").append((char) ('a' + r.nextInt(26)))
+					.append(r.nextBoolean() ? "xy" : "qz").append(";\n");
+		}
+		return sb.toString().getBytes();
+	}
+
+	/**
+	 * Tests that a payload decodes to the original data, and that train() gives
+	 * its size
+	 *
+	 * @throws IOException
+	 */
+	@Test
+	public void testRoundTrip() throws IOException {
+		byte[] data = records();
+		HuffContextModel m = new HuffContextModel();
+		long bits = m.train(data, 0, data.length);
+		assertTrue(m.clusters() > 1);
+		ByteArrayOutputStream payload = new ByteArrayOutputStream();
+		assertEquals(bits, m.write(data, 0, data.length, payload));
+		assertEquals((bits + 7) / 8, payload.size());
+
+		byte[] out = new byte[data.length];
+		m.decode(HuffCodec.decoder().reset(new ByteArrayInputStream(payload.toByteArray())), out,
+				data.length);
+		assertArrayEquals(data, out);
+	}
+
+	/**
+	 * Tests that a block stream with the context model is smaller than one coded
+	 * with one tree a block, and decompresses to the original data
+	 *
+	 * @throws IOException
+	 */
+	@Test
+	public void testBlockStream() throws IOException {
+		byte[] data = records();
+		ByteArrayOutputStream single = new ByteArrayOutputStream();
+		HuffBlockFormat.compress(new ByteArrayInputStream(data), single, 1 << 16, false, 1, false);
+		ByteArrayOutputStream context = new ByteArrayOutputStream();
+		HuffBlockFormat.compress(new ByteArrayInputStream(data), context, 1 << 16, false, 1, true);
+		assertTrue(context.size() < single.size());
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		HuffBlockFormat.decompress(new ByteArrayInputStream(context.toByteArray()), out);
+		assertArrayEquals(data, out.toByteArray());
+	}
+
+}
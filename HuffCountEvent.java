@@ -0,0 +1,40 @@
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * A Java Flight Recorder event for each stream counted by
+ * CharCounter.countAll(). Its duration includes the time spent reading the
+ * stream, so slow counts point at slow input.
+ * 
+ * @author clairewalker
+ *
+ */
+@Name("fileCompressor.HuffCount")
+@Label("Huffman Count")
+@Category({ "fileCompressor", "Huffman" })
+@Description("One stream read and counted")
+@StackTrace(false)
+public class HuffCountEvent extends Event {
+	// only asked whether the event is enabled
+	private static final HuffCountEvent PROBE = new HuffCountEvent();
+
+	@Label("Bytes Counted")
+	@DataAmount(DataAmount.BYTES)
+	long bytes;
+
+	@Label("Distinct Characters")
+	int distinct;
+
+	/**
+	 * @return a new event if the event is being recorded, or else null
+	 */
+	static HuffCountEvent ifEnabled() {
+		return PROBE.isEnabled() ? new HuffCountEvent() : null;
+	}
+
+}
@@ -0,0 +1,255 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * The per-call state of a decoder: a byte buffer behind the input stream, a 64
+ * bit buffer of bits read but not yet used, and a byte buffer in front of the
+ * output stream. A context is cheap to reset and is meant to be reused for call
+ * after call by a single thread, e.g., through HuffCodec.decoder(). Contexts are
+ * not thread safe; the decode tables they decode with are.
+ * 
+ * @author clairewalker
+ *
+ */
+public final class HuffDecodeContext implements IHuffConstants {
+	private static final int BUFFER_SIZE = 1 << 16;
+
+	private final byte[] inBuf = new byte[BUFFER_SIZE];
+	private final byte[] outBuf = new byte[BUFFER_SIZE];
+	private InputStream in;
+	private int inPos;
+	private int inLimit;
+	private long bitBuffer;
+	private int bitCount;
+	private long bitsRead;
+
+	/**
+	 * Start a new call reading from in, discarding any bits not yet used
+	 * 
+	 * @param in is the source of encoded bytes
+	 * @return this context
+	 */
+	public HuffDecodeContext reset(InputStream in) {
+		this.in = in;
+		this.inPos = 0;
+		this.inLimit = 0;
+		this.bitBuffer = 0;
+		this.bitCount = 0;
+		this.bitsRead = 0;
+		return this;
+	}
+
+	/*
+	 * Helper method to top the bit buffer up to at least 57 bits, or as many as are
+	 * left in the input
+	 */
+	private void refill() throws IOException {
+		while (this.bitCount <= 56) {
+			if (this.inPos == this.inLimit) {
+				this.inLimit = this.in.read(this.inBuf);
+				this.inPos = 0;
+				if (this.inLimit <= 0) {
+					this.inLimit = 0;
+					return;
+				}
+			}
+			this.bitBuffer = (this.bitBuffer << 8) | (this.inBuf[this.inPos++] & 0xff);
+			this.bitCount += 8;
+		}
+	}
+
+	/**
+	 * Returns the number of bits requested as rightmost bits in returned value
+	 * 
+	 * @param howManyBits is the number of bits to read and return (1-32)
+	 * @return the value read
+	 * @throws IOException if not enough bits are left
+	 */
+	public int readBits(int howManyBits) throws IOException {
+		if (this.bitCount < howManyBits) {
+			refill();
+			if (this.bitCount < howManyBits) {
+				throw new IOException("unexpected end of input file");
+			}
+		}
+		this.bitCount -= howManyBits;
+		this.bitsRead += howManyBits;
+		return (int) ((this.bitBuffer >>> this.bitCount) & ((1L << howManyBits) - 1));
+	}
+
+	/**
+	 * Skip the rest of the current byte and read the next len bytes into
+	 * dst[off..off+len), or as many as are left
+	 * 
+	 * @return the number of bytes read, less than len only if the input ended
+	 * @throws IOException if reading fails
+	 */
+	public int readBytes(byte[] dst, int off, int len) throws IOException {
+		// the bit buffer is filled a byte at a time, so any part byte is at its top
+		int skip = this.bitCount & 7;
+		this.bitCount -= skip;
+		this.bitsRead += skip;
+		int n = 0;
+		while (n < len && this.bitCount >= 8) {
+			this.bitCount -= 8;
+			dst[off + n++] = (byte) (this.bitBuffer >>> this.bitCount);
+		}
+		int buffered = Math.min(len - n, this.inLimit - this.inPos);
+		System.arraycopy(this.inBuf, this.inPos, dst, off + n, buffered);
+		this.inPos += buffered;
+		n += buffered;
+		while (n < len) {
+			int read = this.in.read(dst, off + n, len - n);
+			if (read <= 0) {
+				break;
+			}
+			n += read;
+		}
+		this.bitsRead += 8L * n;
+		return n;
+	}
+
+	/**
+	 * Decode the next character
+	 * 
+	 * @param table is the decode table for the tree the input was encoded with
+	 * @return the character or pseudo EOF decoded
+	 * @throws IOException if the input ends in the middle of a code
+	 */
+	public int decodeSymbol(HuffDecodeTable table) throws IOException {
+		if (table.rootLeaf() >= 0) {
+			return table.rootLeaf();
+		}
+		if (this.bitCount < HuffDecodeTable.TABLE_BITS) {
+			refill();
+		}
+
+		// look up the next TABLE_BITS bits, padding with 0 bits at the end of input
+		int peek;
+		if (this.bitCount >= HuffDecodeTable.TABLE_BITS) {
+			peek = (int) (this.bitBuffer >>> (this.bitCount - HuffDecodeTable.TABLE_BITS));
+		} else {
+			peek = (int) (this.bitBuffer << (HuffDecodeTable.TABLE_BITS - this.bitCount));
+		}
+		int entry = table.lookup(peek & ((1 << HuffDecodeTable.TABLE_BITS) - 1));
+		int length = entry & 0xff;
+		if (length != 0) {
+			if (length > this.bitCount) {
+				throw new IOException("unexpected end of input file");
+			}
+			this.bitCount -= length;
+			this.bitsRead += length;
+			return entry >>> 8;
+		}
+
+		// the code is longer than TABLE_BITS, continue a bit at a time
+		readBits(HuffDecodeTable.TABLE_BITS);
+		int node = entry >>> 8;
+		while (true) {
+			int child = table.child(node, readBits(1));
+			if (child < 0) {
+				return ~child;
+			}
+			node = child;
+		}
+	}
+
+	/**
+	 * Decode characters to out until the pseudo EOF is decoded. The output stream
+	 * is flushed but not closed.
+	 * 
+	 * @param table is the decode table for the tree the input was encoded with
+	 * @param out   is where decoded characters are written
+	 * @return the number of characters written
+	 * @throws IOException if the input ends before the pseudo EOF, or writing fails
+	 */
+	public long decode(HuffDecodeTable table, OutputStream out) throws IOException {
+		long count = 0;
+		int pos = 0;
+		int ch;
+		while ((ch = decodeSymbol(table)) != PSEUDO_EOF) {
+			if (pos == BUFFER_SIZE) {
+				out.write(this.outBuf, 0, pos);
+				pos = 0;
+			}
+			this.outBuf[pos++] = (byte) ch;
+			count++;
+		}
+		out.write(this.outBuf, 0, pos);
+		out.flush();
+		return count;
+	}
+
+	/**
+	 * Decode characters to out with a specialised decoder until the pseudo EOF is
+	 * decoded. The output stream is flushed but not closed.
+	 *
+	 * @param decoder is the specialised decoder for the tree the input was encoded
+	 *                with
+	 * @param out     is where decoded characters are written
+	 * @return the number of characters written
+	 * @throws IOException if the input ends before the pseudo EOF, or writing fails
+	 */
+	public long decode(HuffSpecializedDecoder decoder, OutputStream out) throws IOException {
+		HuffDecodeTable table = decoder.table();
+		if (table.rootLeaf() >= 0) {
+			return decode(table, out);
+		}
+		long count = 0;
+		int pos = 0;
+		while (true) {
+			if (this.bitCount <= 56) {
+				refill();
+			}
+			if (pos > BUFFER_SIZE - 64) {
+				out.write(this.outBuf, 0, pos);
+				pos = 0;
+			}
+
+			// a batch of codes while there are enough bits for one
+			if (this.bitCount >= HuffDecoderGenerator.WINDOW_BITS) {
+				int result = decoder.decode(this.bitBuffer << (64 - this.bitCount), this.outBuf, pos);
+				int used = (result >>> 8) & 0xff;
+				int n = result & 0xff;
+				this.bitCount -= used;
+				this.bitsRead += used;
+				pos += n;
+				count += n;
+				if ((result & HuffSpecializedDecoder.EOF_FLAG) != 0) {
+					break;
+				}
+				if ((result & HuffSpecializedDecoder.LONG_FLAG) == 0) {
+					continue;
+				}
+			}
+
+			// a code longer than the decoder's lookup table, or the last few codes
+			int ch = decodeSymbol(table);
+			if (ch == PSEUDO_EOF) {
+				break;
+			}
+			this.outBuf[pos++] = (byte) ch;
+			count++;
+		}
+		out.write(this.outBuf, 0, pos);
+		out.flush();
+		return count;
+	}
+
+	/**
+	 * @return the number of bits used since the last reset
+	 */
+	public long bitsRead() {
+		return this.bitsRead;
+	}
+
+	/**
+	 * Release the input stream so the context can be pooled. The input stream is
+	 * not closed.
+	 */
+	public void finish() {
+		this.in = null;
+	}
+
+}
@@ -0,0 +1,187 @@
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * An immutable table for decoding the codes of one hufftree. The tree is kept
+ * as two arrays of child indexes, where a negative child ~c is a leaf for the
+ * character c, and a lookup table indexed by the next TABLE_BITS bits of input
+ * resolves every code of up to TABLE_BITS bits in one step. Longer codes
+ * continue bit by bit from the internal node the lookup table ends on. Decode
+ * tables never change once built, so one table can be shared by any number of
+ * threads, each decoding with its own HuffDecodeContext.
+ * 
+ * @author clairewalker
+ *
+ */
+public final class HuffDecodeTable implements IHuffConstants {
+	/**
+	 * The number of bits resolved by one lookup
+	 */
+	static final int TABLE_BITS = 10;
+
+	private final int[] shape;
+	private final int[] left;
+	private final int[] right;
+	private final int rootLeaf;
+	private final int[] lookup;
+
+	/*
+	 * Private constructor, decode tables are made with fromShape(), fromCodebook()
+	 * or read()
+	 */
+	private HuffDecodeTable(int[] shape) {
+		this.shape = shape;
+		int internal = 0;
+		for (int el : shape) {
+			if (el < 0) {
+				internal++;
+			}
+		}
+		this.left = new int[internal];
+		this.right = new int[internal];
+
+		// a tree that is a single leaf decodes that leaf from no bits at all
+		if (shape[0] >= 0) {
+			this.rootLeaf = shape[0];
+			this.lookup = null;
+			return;
+		}
+		this.rootLeaf = -1;
+		int[] next = new int[] { 0, 0 };
+		link(next);
+
+		// for each possible TABLE_BITS of input, walk from the root as far as those
+		// bits go. Entries are (character << 8 | code length) when a leaf is reached,
+		// or (node << 8) when the code is longer than TABLE_BITS
+		this.lookup = new int[1 << TABLE_BITS];
+		for (int bits = 0; bits < this.lookup.length; bits++) {
+			int node = 0;
+			int depth = 0;
+			int entry = 0;
+			while (depth < TABLE_BITS) {
+				int bit = (bits >>> (TABLE_BITS - 1 - depth)) & 1;
+				int child = (bit == 0) ? this.left[node] : this.right[node];
+				depth++;
+				if (child < 0) {
+					entry = (~child << 8) | depth;
+					break;
+				}
+				node = child;
+				entry = node << 8;
+			}
+			this.lookup[bits] = entry;
+		}
+	}
+
+	/*
+	 * Helper method to link the internal node numbered next[1] to its children,
+	 * reading the shape from index next[0]. Returns the child index of the node
+	 */
+	private int link(int[] next) {
+		int el = this.shape[next[0]++];
+		if (el >= 0) {
+			return ~el;
+		}
+		int node = next[1]++;
+		this.left[node] = link(next);
+		this.right[node] = link(next);
+		return node;
+	}
+
+	/**
+	 * Make a decode table from a tree shape
+	 * 
+	 * @param shape is the preorder shape of the tree, as in HuffCodebook.shape()
+	 * @return the decode table for the tree
+	 * @throws IllegalArgumentException if shape is not a tree containing the pseudo
+	 *                                  EOF
+	 */
+	public static HuffDecodeTable fromShape(int[] shape) {
+		// let the codebook check the shape is a whole tree
+		return fromCodebook(HuffCodebook.fromShape(shape));
+	}
+
+	/**
+	 * @param book is a codebook
+	 * @return the decode table for the codebook's tree
+	 */
+	public static HuffDecodeTable fromCodebook(HuffCodebook book) {
+		return new HuffDecodeTable(book.shape());
+	}
+
+	/**
+	 * Read a tree in the header format written by HuffCodebook.writeTree() and
+	 * make its decode table
+	 * 
+	 * @param in is the source of bits for the tree
+	 * @return the decode table for the tree read
+	 * @throws IOException if the input ends or does not hold a tree
+	 */
+	public static HuffDecodeTable read(HuffDecodeContext in) throws IOException {
+		return fromCodebook(readCodebook(in));
+	}
+
+	/**
+	 * Read a tree in the header format written by HuffCodebook.writeTree()
+	 * 
+	 * @param in is the source of bits for the tree
+	 * @return the codebook for the tree read
+	 * @throws IOException if the input ends or does not hold a tree
+	 */
+	public static HuffCodebook readCodebook(HuffDecodeContext in) throws IOException {
+		int[] shape = new int[2 * (ALPH_SIZE + 1)];
+		int size = 0;
+		// count the leaves still needed to complete the tree, every internal node
+		// needs one more
+		int pending = 1;
+		while (pending > 0) {
+			if (size == shape.length) {
+				throw new IOException("tree too large");
+			}
+			int bit = in.readBits(1);
+			if (bit == 0) {
+				shape[size++] = -1;
+				pending++;
+			} else {
+				shape[size++] = in.readBits(9);
+				pending--;
+			}
+		}
+		try {
+			return HuffCodebook.fromShape(Arrays.copyOf(shape, size));
+		} catch (IllegalArgumentException e) {
+			throw new IOException("bad tree: " + e.getMessage());
+		}
+	}
+
+	/**
+	 * @return the character of a tree that is a single leaf, or -1 if the root is
+	 *         an internal node
+	 */
+	int rootLeaf() {
+		return this.rootLeaf;
+	}
+
+	/**
+	 * @return the lookup table entry for the next TABLE_BITS bits of input
+	 */
+	int lookup(int bits) {
+		return this.lookup[bits];
+	}
+
+	/**
+	 * @return the child of internal node reached with bit, ~character for a leaf
+	 */
+	int child(int node, int bit) {
+		return (bit == 0) ? this.left[node] : this.right[node];
+	}
+
+	/**
+	 * @param book is a codebook
+	 * @return true if this table decodes the tree of book
+	 */
+	public boolean decodes(HuffCodebook book) {
+		return Arrays.equals(this.shape, book.shape());
+	}
+
+}
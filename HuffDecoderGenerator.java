@@ -0,0 +1,452 @@
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Writes the class file of a HuffSpecializedDecoder for one tree. The class has
+ * a constructor and decode(long window, byte[] out, int pos), which decodes a
+ * batch of codes from the window with no loop: the code for one code is
+ * repeated batch times, each copy looking up the top lookupBits bits of the
+ * window, a constant, in the decoder's lookup table, storing the character and
+ * shifting the window by the code's length. Any code in the table is at most
+ * lookupBits long, so batch copies fit in the 57 bits the caller provides. The
+ * only branch in a copy leaves the batch on the pseudo EOF or a code longer than
+ * the table.
+ * <P>
+ * The class file is version 49, so branches need no stack map frames.
+ *
+ * @author clairewalker
+ *
+ */
+final class HuffDecoderGenerator implements IHuffConstants {
+	/**
+	 * The most bits looked up at once
+	 */
+	static final int MAX_LOOKUP_BITS = 12;
+
+	/**
+	 * The fewest bits in the window passed to decode()
+	 */
+	static final int WINDOW_BITS = 57;
+
+	/**
+	 * Lookup table entries at least this large leave the batch: the pseudo EOF,
+	 * and codes longer than the table
+	 */
+	static final int STOP = PSEUDO_EOF << 8;
+
+	private static final int LONG_CODE = 2 * STOP;
+
+	private static final String CLASS_NAME = "HuffSpecializedDecoder$Tree";
+	private static final String SUPER_NAME = "HuffSpecializedDecoder";
+
+	// the opcodes used
+	private static final int ICONST_0 = 0x03;
+	private static final int BIPUSH = 0x10;
+	private static final int SIPUSH = 0x11;
+	private static final int LDC_W = 0x13;
+	private static final int ILOAD = 0x15;
+	private static final int ALOAD = 0x19;
+	private static final int LLOAD_1 = 0x1f;
+	private static final int ALOAD_0 = 0x2a;
+	private static final int ALOAD_3 = 0x2d;
+	private static final int IALOAD = 0x2e;
+	private static final int ISTORE = 0x36;
+	private static final int ASTORE = 0x3a;
+	private static final int LSTORE_1 = 0x40;
+	private static final int BASTORE = 0x54;
+	private static final int IADD = 0x60;
+	private static final int ISUB = 0x64;
+	private static final int ISHL = 0x78;
+	private static final int LSHL = 0x79;
+	private static final int LUSHR = 0x7d;
+	private static final int IUSHR = 0x7c;
+	private static final int IAND = 0x7e;
+	private static final int IOR = 0x80;
+	private static final int IINC = 0x84;
+	private static final int L2I = 0x88;
+	private static final int IF_ICMPGE = 0xa2;
+	private static final int IRETURN = 0xac;
+	private static final int RETURN = 0xb1;
+	private static final int GETFIELD = 0xb4;
+	private static final int INVOKESPECIAL = 0xb7;
+
+	// the locals of decode(), after this, the window in 1 and 2, out and pos
+	private static final int LOOKUP = 5;
+	private static final int ENTRY = 6;
+	private static final int USED = 7;
+	private static final int START = 8;
+	private static final int LENGTH = 9;
+
+	private final ByteArrayOutputStream pool = new ByteArrayOutputStream();
+	private final Map<Object, Integer> constants = new HashMap<Object, Integer>();
+	private int poolCount = 1;
+	private final int superClass;
+	private final int lookupField;
+	private byte[] code = new byte[1 << 12];
+	private int size;
+	private int[] fixups = new int[16];
+	private int fixupCount;
+
+	/*
+	 * Private constructor, class files are made with generate()
+	 */
+	private HuffDecoderGenerator() {
+		this.superClass = reference(7, constant(SUPER_NAME), -1);
+		this.lookupField = reference(9, this.superClass, reference(12, constant("lookup"), constant("[I")));
+	}
+
+	/**
+	 * @param book is a codebook
+	 * @return the number of bits the decoder for the codebook's tree looks up at
+	 *         once: enough for every code if the tree is no deeper than
+	 *         MAX_LOOKUP_BITS
+	 */
+	static int lookupBits(HuffCodebook book) {
+		return Math.max(1, Math.min(MAX_LOOKUP_BITS, book.maxLength()));
+	}
+
+	/**
+	 * @param book is a codebook
+	 * @return the number of codes decoded by one call of the decoder for the
+	 *         codebook's tree
+	 */
+	static int batch(HuffCodebook book) {
+		return WINDOW_BITS / lookupBits(book);
+	}
+
+	/**
+	 * Make the lookup table of the decoder for a codebook's tree, indexed by the
+	 * next lookupBits bits of input. Entries are (character << 8 | code length),
+	 * where the pseudo EOF is the character PSEUDO_EOF, or LONG_CODE for the bits
+	 * that start a longer code
+	 *
+	 * @param book is a codebook whose tree is more than a single leaf
+	 * @return the lookup table
+	 */
+	static int[] lookup(HuffCodebook book) {
+		HuffDecodeTable table = HuffDecodeTable.fromCodebook(book);
+		int bits = lookupBits(book);
+		int[] lookup = new int[1 << bits];
+		for (int i = 0; i < lookup.length; i++) {
+			int node = 0;
+			lookup[i] = LONG_CODE;
+			for (int depth = 0; depth < bits; depth++) {
+				int child = table.child(node, (i >>> (bits - 1 - depth)) & 1);
+				if (child < 0) {
+					lookup[i] = (~child << 8) | (depth + 1);
+					break;
+				}
+				node = child;
+			}
+		}
+		return lookup;
+	}
+
+	/**
+	 * Write the class file of the specialised decoder for a codebook's tree
+	 *
+	 * @param book is a codebook
+	 * @return the bytes of the class file
+	 */
+	static byte[] generate(HuffCodebook book) {
+		HuffDecoderGenerator g = new HuffDecoderGenerator();
+		if (HuffDecodeTable.fromCodebook(book).rootLeaf() >= 0) {
+			// a tree of one leaf holds only the pseudo EOF, decoded from no bits
+			g.op(LDC_W);
+			g.u2(g.constant(Integer.valueOf(HuffSpecializedDecoder.EOF_FLAG)));
+			g.op(IRETURN);
+		} else {
+			g.decode(lookupBits(book), batch(book), book.maxLength() > lookupBits(book));
+		}
+		return g.classFile();
+	}
+
+	/*
+	 * Helper method to write the code of decode()
+	 */
+	private void decode(int bits, int batch, boolean longCodes) {
+		op(ALOAD_0);
+		op(GETFIELD);
+		u2(this.lookupField);
+		op(ASTORE);
+		op(LOOKUP);
+		op(ICONST_0);
+		op(ISTORE);
+		op(USED);
+		op(ILOAD);
+		op(4);
+		op(ISTORE);
+		op(START);
+
+		int[] stops = new int[batch];
+		for (int i = 0; i < batch; i++) {
+			// entry = lookup[(int) (window >>> (64 - bits))]
+			op(ALOAD);
+			op(LOOKUP);
+			op(LLOAD_1);
+			op(BIPUSH);
+			op(64 - bits);
+			op(LUSHR);
+			op(L2I);
+			op(IALOAD);
+			op(ISTORE);
+			op(ENTRY);
+
+			// leave on the pseudo EOF or a long code
+			op(ILOAD);
+			op(ENTRY);
+			op(LDC_W);
+			u2(constant(Integer.valueOf(STOP)));
+			stops[i] = this.size;
+			op(IF_ICMPGE);
+			u2(0);
+
+			// out[pos++] = (byte) (entry >>> 8)
+			op(ALOAD_3);
+			op(ILOAD);
+			op(4);
+			op(ILOAD);
+			op(ENTRY);
+			op(BIPUSH);
+			op(8);
+			op(IUSHR);
+			op(BASTORE);
+			op(IINC);
+			op(4);
+			op(1);
+
+			// window <<= length, used += length
+			op(ILOAD);
+			op(ENTRY);
+			op(SIPUSH);
+			u2(0xff);
+			op(IAND);
+			op(ISTORE);
+			op(LENGTH);
+			op(LLOAD_1);
+			op(ILOAD);
+			op(LENGTH);
+			op(LSHL);
+			op(LSTORE_1);
+			op(ILOAD);
+			op(USED);
+			op(ILOAD);
+			op(LENGTH);
+			op(IADD);
+			op(ISTORE);
+			op(USED);
+		}
+		result();
+		op(IRETURN);
+
+		// the pseudo EOF counts its bits; a long code is left for the caller
+		int stop = this.size;
+		for (int at : stops) {
+			fixup(at, stop);
+		}
+		int longCode = -1;
+		if (longCodes) {
+			op(ILOAD);
+			op(ENTRY);
+			op(LDC_W);
+			u2(constant(Integer.valueOf(LONG_CODE)));
+			longCode = this.size;
+			op(IF_ICMPGE);
+			u2(0);
+		}
+		op(ILOAD);
+		op(USED);
+		op(ILOAD);
+		op(ENTRY);
+		op(SIPUSH);
+		u2(0xff);
+		op(IAND);
+		op(IADD);
+		op(ISTORE);
+		op(USED);
+		result();
+		op(LDC_W);
+		u2(constant(Integer.valueOf(HuffSpecializedDecoder.EOF_FLAG)));
+		op(IOR);
+		op(IRETURN);
+		if (longCodes) {
+			fixup(longCode, this.size);
+			result();
+			op(LDC_W);
+			u2(constant(Integer.valueOf(HuffSpecializedDecoder.LONG_FLAG)));
+			op(IOR);
+			op(IRETURN);
+		}
+		resolve();
+	}
+
+	/*
+	 * Helper method to push (used << 8 | characters written)
+	 */
+	private void result() {
+		op(ILOAD);
+		op(USED);
+		op(BIPUSH);
+		op(8);
+		op(ISHL);
+		op(ILOAD);
+		op(4);
+		op(ILOAD);
+		op(START);
+		op(ISUB);
+		op(IOR);
+	}
+
+	/*
+	 * Helper method to note a branch at at to fill in with the offset to target
+	 */
+	private void fixup(int at, int target) {
+		if (this.fixupCount + 2 > this.fixups.length) {
+			this.fixups = Arrays.copyOf(this.fixups, 2 * this.fixups.length);
+		}
+		this.fixups[this.fixupCount++] = at;
+		this.fixups[this.fixupCount++] = target;
+	}
+
+	/*
+	 * Helper method to fill in every branch offset
+	 */
+	private void resolve() {
+		for (int i = 0; i < this.fixupCount; i += 2) {
+			int at = this.fixups[i];
+			int offset = this.fixups[i + 1] - at;
+			this.code[at + 1] = (byte) (offset >>> 8);
+			this.code[at + 2] = (byte) offset;
+		}
+	}
+
+	/*
+	 * Helper method to write one byte of code
+	 */
+	private void op(int b) {
+		if (this.size == this.code.length) {
+			this.code = Arrays.copyOf(this.code, 2 * this.size);
+		}
+		this.code[this.size++] = (byte) b;
+	}
+
+	/*
+	 * Helper method to write two bytes of code
+	 */
+	private void u2(int v) {
+		op(v >>> 8);
+		op(v);
+	}
+
+	/*
+	 * Helper method to return the index of a constant pool entry for an Integer or
+	 * a String, which is a Utf8 entry, adding it if it is new
+	 */
+	private int constant(Object value) {
+		Integer index = this.constants.get(value);
+		if (index != null) {
+			return index;
+		}
+		DataOutputStream out = new DataOutputStream(this.pool);
+		try {
+			if (value instanceof Integer) {
+				out.writeByte(3);
+				out.writeInt((Integer) value);
+			} else {
+				out.writeByte(1);
+				out.writeUTF((String) value);
+			}
+		} catch (IOException e) {
+			throw new IllegalStateException(e);
+		}
+		index = this.poolCount++;
+		this.constants.put(value, index);
+		return index;
+	}
+
+	/*
+	 * Helper method to add a constant pool entry that refers to one or two others
+	 */
+	private int reference(int tag, int first, int second) {
+		this.pool.write(tag);
+		this.pool.write(first >>> 8);
+		this.pool.write(first);
+		if (second >= 0) {
+			this.pool.write(second >>> 8);
+			this.pool.write(second);
+		}
+		return this.poolCount++;
+	}
+
+	/*
+	 * Helper method to write the class file around the code of decode()
+	 */
+	private byte[] classFile() {
+		int thisClass = reference(7, constant(CLASS_NAME), -1);
+		int init = constant("<init>");
+		int voidType = constant("()V");
+		int superInit = reference(10, this.superClass, reference(12, init, voidType));
+		int decodeName = constant("decode");
+		int decodeType = constant("(J[BI)I");
+		int codeName = constant("Code");
+
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(this.size + this.pool.size() + 128);
+		DataOutputStream out = new DataOutputStream(bytes);
+		try {
+			out.writeInt(0xcafebabe);
+			out.writeShort(0);
+			out.writeShort(49);
+			out.writeShort(this.poolCount);
+			this.pool.writeTo(out);
+			out.writeShort(0x0030); // final, super
+			out.writeShort(thisClass);
+			out.writeShort(this.superClass);
+			out.writeShort(0); // interfaces
+			out.writeShort(0); // fields
+			out.writeShort(2); // methods
+
+			// public constructor calling the super constructor
+			out.writeShort(0x0001);
+			out.writeShort(init);
+			out.writeShort(voidType);
+			out.writeShort(1);
+			byte[] initCode = { ALOAD_0, (byte) INVOKESPECIAL, (byte) (superInit >>> 8), (byte) superInit,
+					(byte) RETURN };
+			writeCode(out, codeName, 1, 1, initCode, initCode.length);
+
+			// decode(long window, byte[] out, int pos), package private like the method
+			// it implements
+			out.writeShort(0x0000);
+			out.writeShort(decodeName);
+			out.writeShort(decodeType);
+			out.writeShort(1);
+			writeCode(out, codeName, 4, LENGTH + 1, this.code, this.size);
+
+			out.writeShort(0); // class attributes
+		} catch (IOException e) {
+			throw new IllegalStateException(e);
+		}
+		return bytes.toByteArray();
+	}
+
+	/*
+	 * Helper method to write a Code attribute with no exception table or
+	 * attributes of its own
+	 */
+	private static void writeCode(DataOutputStream out, int codeName, int maxStack, int maxLocals, byte[] code,
+			int length) throws IOException {
+		out.writeShort(codeName);
+		out.writeInt(12 + length);
+		out.writeShort(maxStack);
+		out.writeShort(maxLocals);
+		out.writeInt(length);
+		out.write(code, 0, length);
+		out.writeShort(0); // exception table
+		out.writeShort(0); // attributes
+	}
+
+}
@@ -0,0 +1,255 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * The per-call state of an encoder: a 64 bit buffer of bits not yet written, a
+ * byte buffer in front of the output stream and a count of the bits written.
+ * A context is cheap to reset and is meant to be reused for call after call by
+ * a single thread, e.g., through HuffCodec.encoder(). Contexts are not thread
+ * safe; the codebooks they encode with are.
+ * 
+ * @author clairewalker
+ *
+ */
+public final class HuffEncodeContext implements IHuffConstants {
+	private static final int BUFFER_SIZE = 1 << 16;
+
+	private final byte[] buf = new byte[BUFFER_SIZE];
+	private final byte[] inBuf = new byte[BUFFER_SIZE];
+	private OutputStream out;
+	private int pos;
+	private long bitBuffer;
+	private int bitCount;
+	private long bitsWritten;
+
+	/**
+	 * Start a new call writing to out, discarding any bits not yet written
+	 * 
+	 * @param out is where the encoded bytes are written
+	 * @return this context
+	 */
+	public HuffEncodeContext reset(OutputStream out) {
+		this.out = out;
+		this.pos = 0;
+		this.bitBuffer = 0;
+		this.bitCount = 0;
+		this.bitsWritten = 0;
+		return this;
+	}
+
+	/**
+	 * Write the rightmost howManyBits bits of value
+	 * 
+	 * @param value       is source of bits, rightmost bits are written
+	 * @param howManyBits is number of bits to write (0-56)
+	 * @throws RuntimeException if writing to the output stream fails
+	 */
+	public void writeBits(long value, int howManyBits) {
+		// at most 7 bits are left in the buffer between calls, so up to 56 more fit
+		this.bitBuffer = (this.bitBuffer << howManyBits) | (value & ((1L << howManyBits) - 1));
+		this.bitCount += howManyBits;
+		this.bitsWritten += howManyBits;
+		while (this.bitCount >= 8) {
+			this.bitCount -= 8;
+			if (this.pos == BUFFER_SIZE) {
+				drain();
+			}
+			this.buf[this.pos++] = (byte) (this.bitBuffer >>> this.bitCount);
+		}
+	}
+
+	/**
+	 * Write the code for a character
+	 * 
+	 * @param book is the codebook to encode with
+	 * @param ch   is a character or the pseudo EOF
+	 * @return the number of bits written
+	 * @throws IllegalArgumentException if ch has no code in book
+	 */
+	public int writeCode(HuffCodebook book, int ch) {
+		int length = book.length(ch);
+		if (length < 0) {
+			throw new IllegalArgumentException("no code for character " + ch);
+		}
+		writeBits(book.code(ch), length);
+		return length;
+	}
+
+	/**
+	 * Write the code for each byte of src[off..off+len)
+	 * 
+	 * @param book is the codebook to encode with
+	 * @return the number of bits written
+	 * @throws IllegalArgumentException if a byte has no code in book
+	 */
+	public long encode(HuffCodebook book, byte[] src, int off, int len) {
+		return encode(book.codes(), book.lengths(), src, off, len);
+	}
+
+	/**
+	 * Write the code for each byte of src[off..off+len). This is the inner loop of
+	 * every encoder, so the bit buffer is kept in local variables while it runs.
+	 * 
+	 * @param codes   is the code of each character
+	 * @param lengths is the code length of each character, or -1 for none
+	 * @return the number of bits written
+	 * @throws IllegalArgumentException if a byte has no code
+	 */
+	long encode(long[] codes, int[] lengths, byte[] src, int off, int len) {
+		long buffer = this.bitBuffer;
+		int count = this.bitCount;
+		int p = this.pos;
+		byte[] b = this.buf;
+		long bits = 0;
+		for (int i = off; i < off + len; i++) {
+			int ch = src[i] & 0xff;
+			int length = lengths[ch];
+			if (length < 0) {
+				this.pos = p;
+				this.bitBuffer = buffer;
+				this.bitCount = count;
+				this.bitsWritten += bits;
+				throw new IllegalArgumentException("no code for character " + ch);
+			}
+			buffer = (buffer << length) | codes[ch];
+			count += length;
+			bits += length;
+			while (count >= 8) {
+				count -= 8;
+				if (p == BUFFER_SIZE) {
+					this.pos = p;
+					drain();
+					p = 0;
+				}
+				b[p++] = (byte) (buffer >>> count);
+			}
+		}
+		this.pos = p;
+		this.bitBuffer = buffer;
+		this.bitCount = count;
+		this.bitsWritten += bits;
+		return bits;
+	}
+
+	/**
+	 * Write the code for each byte of src[off..off+len), taking the codes for each
+	 * byte from the set chosen by the byte before it. This is the order-1 form of
+	 * the loop above.
+	 * 
+	 * @param codes   is the code of each character in each set of codes
+	 * @param lengths is the code length of each character in each set, or -1 for
+	 *                none
+	 * @param sets    is the offset in codes and lengths of the set of codes for
+	 *                each byte that can come before
+	 * @param prev    is the byte taken to come before src[off]
+	 * @return the number of bits written
+	 * @throws IllegalArgumentException if a byte has no code
+	 */
+	long encode(long[] codes, int[] lengths, int[] sets, byte[] src, int off, int len, int prev) {
+		long buffer = this.bitBuffer;
+		int count = this.bitCount;
+		int p = this.pos;
+		byte[] b = this.buf;
+		long bits = 0;
+		int set = sets[prev];
+		for (int i = off; i < off + len; i++) {
+			int ch = src[i] & 0xff;
+			int length = lengths[set + ch];
+			if (length < 0) {
+				this.pos = p;
+				this.bitBuffer = buffer;
+				this.bitCount = count;
+				this.bitsWritten += bits;
+				throw new IllegalArgumentException("no code for character " + ch);
+			}
+			buffer = (buffer << length) | codes[set + ch];
+			count += length;
+			bits += length;
+			set = sets[ch];
+			while (count >= 8) {
+				count -= 8;
+				if (p == BUFFER_SIZE) {
+					this.pos = p;
+					drain();
+					p = 0;
+				}
+				b[p++] = (byte) (buffer >>> count);
+			}
+		}
+		this.pos = p;
+		this.bitBuffer = buffer;
+		this.bitCount = count;
+		this.bitsWritten += bits;
+		return bits;
+	}
+
+	/**
+	 * Write the code for each byte read from in, until it ends
+	 * 
+	 * @param book is the codebook to encode with
+	 * @return the number of bits written
+	 * @throws IOException              if reading fails
+	 * @throws IllegalArgumentException if a byte has no code in book
+	 */
+	public long encode(HuffCodebook book, InputStream in) throws IOException {
+		long bits = 0;
+		int n;
+		while ((n = in.read(this.inBuf)) != -1) {
+			bits += encode(book, this.inBuf, 0, n);
+		}
+		return bits;
+	}
+
+	/**
+	 * Pad the last partial byte with 0 bits, so the next bits written start a new
+	 * byte
+	 */
+	public void align() {
+		if (this.bitCount > 0) {
+			writeBits(0, 8 - this.bitCount);
+		}
+	}
+
+	/**
+	 * @return the number of bits written since the last reset
+	 */
+	public long bitsWritten() {
+		return this.bitsWritten;
+	}
+
+	/**
+	 * Pad the last partial byte with 0 bits and write everything buffered to the
+	 * output stream, which is flushed but not closed. The output stream is released
+	 * so the context can be pooled.
+	 * 
+	 * @throws IOException if writing fails
+	 */
+	public void finish() throws IOException {
+		align();
+		drainOrThrow();
+		this.out.flush();
+		this.out = null;
+	}
+
+	/*
+	 * Helper method to write the byte buffer to the output stream
+	 */
+	private void drainOrThrow() throws IOException {
+		this.out.write(this.buf, 0, this.pos);
+		this.pos = 0;
+	}
+
+	/*
+	 * Helper method for writeBits, which can't throw an IOException. Rethrows as
+	 * RuntimeException like BitOutputStream does
+	 */
+	private void drain() {
+		try {
+			drainOrThrow();
+		} catch (IOException e) {
+			throw new RuntimeException("error writing bits " + e);
+		}
+	}
+
+}
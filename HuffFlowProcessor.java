@@ -0,0 +1,479 @@
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A Flow.Processor that compresses the bytes it is sent to a block stream, or
+ * decompresses a block stream back to bytes, as they arrive. The input can be
+ * cut into ByteBuffers anywhere. Each output ByteBuffer is what one block of
+ * input became: the compressor's first also holds the stream header and its
+ * last the end of the stream.
+ * <P>
+ * The processor asks its publisher for one buffer at a time, and only when it
+ * has fewer than maxBlocks blocks waiting for its subscriber's demand, so it
+ * holds at most one input buffer, the block it is filling and maxBlocks output
+ * blocks, however large the stream. A slow subscriber slows the publisher
+ * instead of filling the heap. The input buffers are read, moving their
+ * positions, and not kept.
+ * <P>
+ * All the work, including the calls to the subscriber, is done on the
+ * processor's executor, one task at a time, so the publisher's onNext() only
+ * queues its buffer and returns, and the subscriber's request() never runs
+ * compression on the subscriber's thread. A processor has one publisher and
+ * one subscriber.
+ *
+ * @author clairewalker
+ *
+ */
+public class HuffFlowProcessor implements Flow.Processor<ByteBuffer, ByteBuffer>, IHuffConstants {
+	/**
+	 * The number of blocks held for the subscriber by default
+	 */
+	public static final int DEFAULT_MAX_BLOCKS = 2;
+
+	private final Engine engine;
+	private final int maxBlocks;
+	private final Executor executor;
+	private final AtomicInteger work = new AtomicInteger();
+	private final Queue<ByteBuffer> inbound = new ConcurrentLinkedQueue<ByteBuffer>();
+	private final AtomicLong demand = new AtomicLong();
+	private volatile Flow.Subscription upstream;
+	private volatile Flow.Subscriber<? super ByteBuffer> downstream;
+	private volatile boolean upstreamDone;
+	private volatile Throwable failure;
+	private volatile boolean cancelled;
+
+	// only used by the task running drain()
+	private final Queue<ByteBuffer> outbound = new ArrayDeque<ByteBuffer>();
+	private ByteBuffer current;
+	private boolean requested;
+	private boolean finished;
+	private boolean terminated;
+
+	/*
+	 * Private constructor, use compressor() or decompressor()
+	 */
+	private HuffFlowProcessor(Engine engine, int maxBlocks, Executor executor) {
+		if (maxBlocks <= 0) {
+			throw new IllegalArgumentException("bad number of blocks " + maxBlocks);
+		}
+		this.engine = engine;
+		this.maxBlocks = maxBlocks;
+		this.executor = executor;
+	}
+
+	/**
+	 * Make a compressor at the default level and block size, working on the
+	 * common pool
+	 *
+	 * @return the compressor
+	 */
+	public static HuffFlowProcessor compressor() {
+		return compressor(HuffBlockCoders.DEFAULT_LEVEL, DEFAULT_BLOCK_SIZE, DEFAULT_MAX_BLOCKS,
+				ForkJoinPool.commonPool());
+	}
+
+	/**
+	 * Make a compressor
+	 *
+	 * @param level     is one of the levels of HuffBlockCoders.types()
+	 * @param blockSize is the number of bytes compressed into each block
+	 * @param maxBlocks is the most compressed blocks held for the subscriber
+	 * @param executor  does the work
+	 * @return the compressor
+	 * @throws IllegalArgumentException if a size or the level is out of range
+	 */
+	public static HuffFlowProcessor compressor(int level, int blockSize, int maxBlocks, Executor executor) {
+		if (blockSize <= 0) {
+			throw new IllegalArgumentException("bad block size " + blockSize);
+		}
+		return new HuffFlowProcessor(new Compressor(level, blockSize), maxBlocks, executor);
+	}
+
+	/**
+	 * Make a decompressor working on the common pool
+	 *
+	 * @return the decompressor
+	 */
+	public static HuffFlowProcessor decompressor() {
+		return decompressor(DEFAULT_MAX_BLOCKS, ForkJoinPool.commonPool());
+	}
+
+	/**
+	 * Make a decompressor
+	 *
+	 * @param maxBlocks is the most decompressed blocks held for the subscriber
+	 * @param executor  does the work
+	 * @return the decompressor
+	 */
+	public static HuffFlowProcessor decompressor(int maxBlocks, Executor executor) {
+		return new HuffFlowProcessor(new Decompressor(), maxBlocks, executor);
+	}
+
+	@Override
+	public void subscribe(Flow.Subscriber<? super ByteBuffer> subscriber) {
+		synchronized (this) {
+			if (this.downstream != null) {
+				subscriber.onSubscribe(new Flow.Subscription() {
+					@Override
+					public void request(long n) {
+					}
+
+					@Override
+					public void cancel() {
+					}
+				});
+				subscriber.onError(new IllegalStateException("already subscribed"));
+				return;
+			}
+			this.downstream = subscriber;
+		}
+		subscriber.onSubscribe(new Flow.Subscription() {
+			@Override
+			public void request(long n) {
+				if (n <= 0) {
+					fail(new IllegalArgumentException("non-positive request " + n));
+				} else {
+					HuffFlowProcessor.this.demand.accumulateAndGet(n, (a, b) -> (a + b < 0) ? Long.MAX_VALUE : a + b);
+				}
+				signal();
+			}
+
+			@Override
+			public void cancel() {
+				HuffFlowProcessor.this.cancelled = true;
+				signal();
+			}
+		});
+		signal();
+	}
+
+	@Override
+	public void onSubscribe(Flow.Subscription subscription) {
+		synchronized (this) {
+			if (this.upstream != null) {
+				subscription.cancel();
+				return;
+			}
+			this.upstream = subscription;
+		}
+		signal();
+	}
+
+	@Override
+	public void onNext(ByteBuffer item) {
+		this.inbound.add(item);
+		signal();
+	}
+
+	@Override
+	public void onError(Throwable e) {
+		fail(e);
+	}
+
+	@Override
+	public void onComplete() {
+		this.upstreamDone = true;
+		signal();
+	}
+
+	/*
+	 * Helper method to record the first failure and have it sent on
+	 */
+	private void fail(Throwable e) {
+		if (this.failure == null) {
+			this.failure = e;
+		}
+		signal();
+	}
+
+	/*
+	 * Helper method to run drain() on the executor, unless it is running already,
+	 * in which case it runs again when it finishes
+	 */
+	private void signal() {
+		if (this.work.getAndIncrement() == 0) {
+			this.executor.execute(() -> {
+				int missed = 1;
+				do {
+					drain();
+					missed = this.work.addAndGet(-missed);
+				} while (missed != 0);
+			});
+		}
+	}
+
+	/*
+	 * Helper method to do all the work that can be done now: send blocks the
+	 * subscriber has asked for, make blocks from the input while there is room for
+	 * them, and ask the publisher for more input when there is room for it
+	 */
+	private void drain() {
+		Flow.Subscriber<? super ByteBuffer> down = this.downstream;
+		Flow.Subscription up = this.upstream;
+		// nothing is asked for or sent until there is a subscriber
+		if (this.terminated || down == null) {
+			return;
+		}
+		if (this.cancelled) {
+			terminate(up);
+			return;
+		}
+		try {
+			if (this.failure != null) {
+				throw this.failure;
+			}
+			while (true) {
+				while (this.demand.get() > 0 && !this.outbound.isEmpty()) {
+					this.demand.decrementAndGet();
+					down.onNext(this.outbound.poll());
+				}
+				if (this.outbound.size() >= this.maxBlocks || this.finished) {
+					break;
+				}
+				if (this.current == null || !this.current.hasRemaining()) {
+					this.current = this.inbound.poll();
+					if (this.current != null) {
+						this.requested = false;
+					}
+				}
+				if (this.current != null) {
+					ByteBuffer block = this.engine.next(this.current);
+					if (block != null) {
+						this.outbound.add(block);
+					}
+				} else if (this.upstreamDone) {
+					ByteBuffer block = this.engine.finish();
+					if (block != null) {
+						this.outbound.add(block);
+					}
+					this.finished = true;
+				} else {
+					if (!this.requested && up != null) {
+						this.requested = true;
+						up.request(1);
+					}
+					break;
+				}
+			}
+			if (this.finished && this.outbound.isEmpty()) {
+				this.terminated = true;
+				down.onComplete();
+			}
+		} catch (Throwable e) {
+			terminate(up);
+			down.onError(e);
+		}
+	}
+
+	/*
+	 * Helper method to stop taking input and drop the blocks held
+	 */
+	private void terminate(Flow.Subscription up) {
+		this.terminated = true;
+		this.outbound.clear();
+		this.inbound.clear();
+		this.current = null;
+		if (up != null && !this.upstreamDone) {
+			up.cancel();
+		}
+	}
+
+	/*
+	 * Turns input bytes into output blocks
+	 */
+	private interface Engine {
+		/*
+		 * Take bytes from in until a block is ready or in is used up
+		 *
+		 * @return the block, or null if in was used up first
+		 */
+		ByteBuffer next(ByteBuffer in) throws IOException;
+
+		/*
+		 * @return the last block after the input has ended, or null
+		 */
+		ByteBuffer finish() throws IOException;
+	}
+
+	/*
+	 * Compresses input bytes to a block stream, writing the stream header with the
+	 * first block and the end of the stream as the last
+	 */
+	private static final class Compressor implements Engine {
+		private final int blockSize;
+		private final HuffCompressor compressor = new HuffCompressor();
+		private final HuffBlockSplitter splitter;
+		private final IHuffBlockCoder[] coders;
+		private final HuffBlockBuffer block;
+		private final HuffBuffer out = new HuffBuffer(1 << 12);
+		private final DataOutputStream data = new DataOutputStream(this.out);
+		private long sequence;
+
+		Compressor(int level, int blockSize) {
+			this.blockSize = blockSize;
+			this.splitter = HuffBlockCoders.splits(level) ? new HuffBlockSplitter() : null;
+			this.coders = (level == 1) ? null : HuffBlockCoders.create(HuffBlockCoders.types(level));
+			this.block = new HuffBlockBuffer(blockSize);
+		}
+
+		@Override
+		public ByteBuffer next(ByteBuffer in) throws IOException {
+			this.block.raw().append(in, this.blockSize);
+			return (this.block.raw().size() == this.blockSize) ? encode(false) : null;
+		}
+
+		@Override
+		public ByteBuffer finish() throws IOException {
+			return encode(true);
+		}
+
+		/*
+		 * Helper method to encode the block filled so far, if any, after the stream
+		 * header if this is the first, and before the end of the stream if last
+		 */
+		private ByteBuffer encode(boolean last) throws IOException {
+			this.out.reset();
+			if (this.sequence == 0) {
+				HuffBlockFormat.writeHeader(this.data, this.blockSize);
+			}
+			if (this.block.raw().size() > 0) {
+				this.block.sequence = this.sequence++;
+				HuffBlockFormat.encode(this.compressor, this.splitter, this.coders, this.block);
+				HuffBlockFormat.write(this.data, this.block);
+				this.block.raw().reset();
+			} else if (this.sequence == 0) {
+				// an empty stream still gets its header, but only once
+				this.sequence++;
+			}
+			if (last) {
+				HuffBlockFormat.writeEnd(this.data);
+			}
+			return ByteBuffer.wrap(this.out.toByteArray());
+		}
+	}
+
+	/*
+	 * Decompresses a block stream, gathering each block's bytes before decoding it
+	 */
+	private static final class Decompressor implements Engine {
+		private final HuffBuffer staging = new HuffBuffer(1 << 12);
+		private HuffBlockBuffer block;
+		private int blockSize;
+		private long sequence;
+		private boolean ended;
+		// the length of the stream up to its end, and of the data after it, of which
+		// the first and last bytes are kept to check they are a seek index's
+		// block size, uncompressed size and stream length, and its trailer
+		private long streamLength;
+		private long trailing;
+		private final byte[] head = new byte[20];
+		private final byte[] trailer = new byte[HuffSeekIndex.TRAILER_SIZE];
+
+		@Override
+		public ByteBuffer next(ByteBuffer in) throws IOException {
+			if (this.ended) {
+				skipTrailing(in);
+				return null;
+			}
+			if (this.block == null) {
+				// the stream header: magic number and block size
+				this.staging.append(in, 8);
+				if (this.staging.size() < 8) {
+					return null;
+				}
+				this.blockSize = HuffBlockFormat.readHeader(new DataInputStream(this.staging.inputStream()));
+				this.streamLength = 8;
+				this.block = new HuffBlockBuffer(Math.min(this.blockSize, DEFAULT_BLOCK_SIZE));
+				this.staging.reset();
+			}
+			// the type, then the rest of the block header, then the payload
+			if (this.staging.size() == 0 && this.staging.append(in, 1) == 0) {
+				return null;
+			}
+			if (this.staging.array()[0] == BLOCK_END) {
+				this.ended = true;
+				this.streamLength++;
+				this.staging.reset();
+				return null;
+			}
+			this.staging.append(in, 13);
+			if (this.staging.size() < 13) {
+				return null;
+			}
+			int payloadLength = readInt(5);
+			if (payloadLength < 0 || payloadLength > HuffBlockFormat.maxPayloadLength(this.blockSize)) {
+				throw new IOException("corrupt block header");
+			}
+			this.staging.append(in, 13 + payloadLength);
+			if (this.staging.size() < 13 + payloadLength) {
+				return null;
+			}
+			HuffBlockFormat.read(new DataInputStream(this.staging.inputStream()), this.block, this.blockSize);
+			this.block.sequence = this.sequence++;
+			HuffBlockFormat.decode(this.block);
+			this.streamLength += 13 + payloadLength;
+			this.staging.reset();
+			return ByteBuffer.wrap(this.block.raw().toByteArray());
+		}
+
+		@Override
+		public ByteBuffer finish() throws IOException {
+			if (!this.ended) {
+				throw new IOException("unexpected end of block stream");
+			}
+			// the only data allowed after the end is a seek index appended to the
+			// stream, which holds the stream length and whose trailer holds the offset it
+			// starts at
+			if (this.trailing > 0) {
+				ByteBuffer h = ByteBuffer.wrap(this.head);
+				ByteBuffer t = ByteBuffer.wrap(this.trailer);
+				if (this.trailing < this.head.length + this.trailer.length || h.getLong(12) != this.streamLength
+						|| t.getLong(0) != this.streamLength || t.getInt(8) != SEEK_INDEX_MAGIC_NUMBER) {
+					throw new IOException("data after the end of the block stream");
+				}
+			}
+			return null;
+		}
+
+		/*
+		 * Helper method to use up the bytes of in after the end of the stream,
+		 * keeping the first of them in the head and the last in the trailer
+		 */
+		private void skipTrailing(ByteBuffer in) {
+			if (this.trailing < this.head.length) {
+				int n = (int) Math.min(in.remaining(), this.head.length - this.trailing);
+				in.duplicate().get(this.head, (int) this.trailing, n);
+			}
+			int n = in.remaining();
+			int keep = this.trailer.length;
+			if (n >= keep) {
+				in.position(in.limit() - keep);
+				in.get(this.trailer);
+			} else {
+				System.arraycopy(this.trailer, n, this.trailer, 0, keep - n);
+				in.get(this.trailer, keep - n, n);
+			}
+			this.trailing += n;
+		}
+
+		/*
+		 * Helper method to read an int of the staged block header
+		 */
+		private int readInt(int pos) {
+			byte[] b = this.staging.array();
+			return ((b[pos] & 0xff) << 24) | ((b[pos + 1] & 0xff) << 16) | ((b[pos + 2] & 0xff) << 8)
+					| (b[pos + 3] & 0xff);
+		}
+	}
+
+}
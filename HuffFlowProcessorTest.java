@@ -0,0 +1,237 @@
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.SubmissionPublisher;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+/**
+ * @author clairewalker
+ *
+ */
+public class HuffFlowProcessorTest {
+	// runs the processors' work on the calling thread, so the tests are in step
+	private static final Executor DIRECT = Runnable::run;
+
+	/*
+	 * A publisher of data in chunks, one for each one requested, that counts the
+	 * chunks it has sent
+	 */
+	private static final class Source implements Flow.Subscription {
+		private final byte[] data;
+		private final int chunk;
+		private final Flow.Subscriber<? super ByteBuffer> subscriber;
+		int sent;
+		boolean cancelled;
+
+		Source(byte[] data, int chunk, Flow.Subscriber<? super ByteBuffer> subscriber) {
+			this.data = data;
+			this.chunk = chunk;
+			this.subscriber = subscriber;
+			subscriber.onSubscribe(this);
+		}
+
+		@Override
+		public void request(long n) {
+			for (long i = 0; i < n && !this.cancelled; i++) {
+				int from = this.sent * this.chunk;
+				if (from >= this.data.length) {
+					this.subscriber.onComplete();
+					return;
+				}
+				this.sent++;
+				this.subscriber.onNext(ByteBuffer.wrap(Arrays.copyOfRange(this.data, from,
+						Math.min(from + this.chunk, this.data.length))));
+			}
+		}
+
+		@Override
+		public void cancel() {
+			this.cancelled = true;
+		}
+	}
+
+	/*
+	 * A subscriber that keeps what it is sent, asking for it as the test says
+	 */
+	private static final class Sink implements Flow.Subscriber<ByteBuffer> {
+		final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		final CountDownLatch done = new CountDownLatch(1);
+		Flow.Subscription subscription;
+		Throwable error;
+		int blocks;
+
+		@Override
+		public void onSubscribe(Flow.Subscription subscription) {
+			this.subscription = subscription;
+		}
+
+		@Override
+		public void onNext(ByteBuffer item) {
+			this.blocks++;
+			byte[] b = new byte[item.remaining()];
+			item.get(b);
+			this.bytes.write(b, 0, b.length);
+		}
+
+		@Override
+		public void onError(Throwable e) {
+			this.error = e;
+			this.done.countDown();
+		}
+
+		@Override
+		public void onComplete() {
+			this.done.countDown();
+		}
+	}
+
+	/**
+	 * Tests that data compressed and decompressed by a chain of processors comes
+	 * out the same, whatever the size of the pieces it is cut into
+	 */
+	@Test
+	public void testRoundTrip() {
+		byte[] data = HuffTestData.text(100000);
+		for (int chunk : new int[] { 1, 777, 4096, 200000 }) {
+			HuffFlowProcessor compressor = HuffFlowProcessor.compressor(2, 4096, 2, DIRECT);
+			HuffFlowProcessor decompressor = HuffFlowProcessor.decompressor(2, DIRECT);
+			Sink sink = new Sink();
+			compressor.subscribe(decompressor);
+			decompressor.subscribe(sink);
+			new Source(data, chunk, compressor);
+			sink.subscription.request(Long.MAX_VALUE);
+
+			assertEquals(0, sink.done.getCount());
+			assertNull(sink.error);
+			assertArrayEquals(data, sink.bytes.toByteArray());
+		}
+	}
+
+	/**
+	 * Tests that a subscriber that asks for nothing stops the publisher once the
+	 * processor holds as many blocks as it may, and gets the rest when it asks
+	 */
+	@Test
+	public void testBackpressure() {
+		byte[] data = HuffTestData.text(100000);
+		HuffFlowProcessor compressor = HuffFlowProcessor.compressor(1, 4096, 2, DIRECT);
+		Sink sink = new Sink();
+		compressor.subscribe(sink);
+		Source source = new Source(data, 1000, compressor);
+
+		// two blocks of 4096 bytes, and the chunk that would start a third
+		assertTrue(source.sent <= 9);
+		sink.subscription.request(1);
+		assertEquals(1, sink.blocks);
+		assertTrue(source.sent <= 14);
+
+		sink.subscription.request(Long.MAX_VALUE);
+		assertEquals(0, sink.done.getCount());
+		assertEquals(100, source.sent);
+		// the last part block goes with the end of the stream
+		assertEquals(100000 / 4096 + 1, sink.blocks);
+	}
+
+	/**
+	 * Tests that a corrupt stream is reported to the subscriber and cancels the
+	 * publisher
+	 */
+	@Test
+	public void testCorrupt() {
+		HuffFlowProcessor decompressor = HuffFlowProcessor.decompressor(2, DIRECT);
+		Sink sink = new Sink();
+		decompressor.subscribe(sink);
+		Source source = new Source(HuffTestData.text(10000), 100, decompressor);
+		sink.subscription.request(Long.MAX_VALUE);
+
+		assertTrue(sink.error instanceof IOException);
+		assertTrue(source.cancelled);
+	}
+
+	/*
+	 * Helper method to decompress data through a processor, cut into chunks
+	 */
+	private Sink decompress(byte[] data, int chunk) {
+		HuffFlowProcessor decompressor = HuffFlowProcessor.decompressor(2, DIRECT);
+		Sink sink = new Sink();
+		decompressor.subscribe(sink);
+		new Source(data, chunk, decompressor);
+		sink.subscription.request(Long.MAX_VALUE);
+		assertEquals(0, sink.done.getCount());
+		return sink;
+	}
+
+	/**
+	 * Tests that a seek index appended to a stream is skipped, and that other
+	 * data after the end of the stream is reported
+	 *
+	 * @throws IOException
+	 */
+	@Test
+	public void testTrailingSeekIndex() throws IOException {
+		byte[] data = HuffTestData.text(50000);
+		File file = File.createTempFile("huff", ".hfb");
+		file.deleteOnExit();
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		HuffBlockFormat.compress(new ByteArrayInputStream(data), out, 4096);
+		Files.write(file.toPath(), out.toByteArray());
+		HuffSeekIndex.build(file.getPath()).append(file.getPath());
+		byte[] indexed = Files.readAllBytes(file.toPath());
+		assertTrue(indexed.length > out.size());
+
+		for (int chunk : new int[] { 1, 5, 777, 100000 }) {
+			Sink sink = decompress(indexed, chunk);
+			assertNull(sink.error);
+			assertArrayEquals(data, sink.bytes.toByteArray());
+		}
+
+		// the index of another stream, or bytes that are no index at all
+		byte[] moved = Arrays.copyOf(out.toByteArray(), indexed.length + 1);
+		System.arraycopy(indexed, out.size(), moved, out.size() + 1, indexed.length - out.size());
+		byte[] junk = Arrays.copyOf(out.toByteArray(), out.size() + 3);
+		for (byte[] bad : new byte[][] { moved, junk }) {
+			for (int chunk : new int[] { 1, 777 }) {
+				assertTrue(decompress(bad, chunk).error instanceof IOException);
+			}
+		}
+	}
+
+	/**
+	 * Tests compressing on the common pool from a SubmissionPublisher
+	 *
+	 * @throws InterruptedException
+	 */
+	@Test
+	public void testAsync() throws InterruptedException {
+		byte[] data = HuffTestData.text(300000);
+		HuffFlowProcessor compressor = HuffFlowProcessor.compressor();
+		HuffFlowProcessor decompressor = HuffFlowProcessor.decompressor();
+		Sink sink = new Sink();
+		compressor.subscribe(decompressor);
+		decompressor.subscribe(sink);
+		sink.subscription.request(Long.MAX_VALUE);
+		try (SubmissionPublisher<ByteBuffer> publisher = new SubmissionPublisher<ByteBuffer>(
+				ForkJoinPool.commonPool(), 4)) {
+			publisher.subscribe(compressor);
+			for (int from = 0; from < data.length; from += 10000) {
+				publisher.submit(ByteBuffer.wrap(data, from, Math.min(10000, data.length - from)));
+			}
+		}
+		assertTrue(sink.done.await(10, TimeUnit.SECONDS));
+		assertNull(sink.error);
+		assertArrayEquals(data, sink.bytes.toByteArray());
+	}
+
+}
@@ -0,0 +1,84 @@
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A latency histogram with one bucket per power of two nanoseconds. Recording a
+ * latency is a few atomic adds, so any number of threads can record at once,
+ * and percentiles are accurate to within a factor of 2.
+ *
+ * @author clairewalker
+ *
+ */
+final class HuffHistogram {
+	private final AtomicLongArray buckets = new AtomicLongArray(64);
+	private final LongAdder count = new LongAdder();
+	private final LongAdder total = new LongAdder();
+	private final AtomicLong max = new AtomicLong();
+
+	/**
+	 * Record one latency
+	 */
+	void record(long nanos) {
+		this.buckets.incrementAndGet(64 - Long.numberOfLeadingZeros(Math.max(nanos, 0)));
+		this.count.increment();
+		this.total.add(nanos);
+		long m;
+		while (nanos > (m = this.max.get()) && !this.max.compareAndSet(m, nanos)) {
+		}
+	}
+
+	/**
+	 * Set the histogram back to empty. A latency recorded while the histogram is
+	 * being reset may be partly kept, as with LongAdder.reset()
+	 */
+	void reset() {
+		for (int i = 0; i < 64; i++) {
+			this.buckets.set(i, 0);
+		}
+		this.count.reset();
+		this.total.reset();
+		this.max.set(0);
+	}
+
+	/**
+	 * @return the number of latencies recorded
+	 */
+	long count() {
+		return this.count.sum();
+	}
+
+	/**
+	 * @return the sum of the latencies recorded
+	 */
+	long total() {
+		return this.total.sum();
+	}
+
+	/**
+	 * @return the longest latency recorded
+	 */
+	long max() {
+		return this.max.get();
+	}
+
+	/**
+	 * @return the upper bound of the bucket holding the p-th percentile
+	 */
+	long percentile(double p) {
+		long count = this.count.sum();
+		if (count == 0) {
+			return 0;
+		}
+		long rank = (long) Math.ceil(count * p / 100.0);
+		long seen = 0;
+		for (int i = 0; i < 64; i++) {
+			seen += this.buckets.get(i);
+			if (seen >= rank && seen > 0) {
+				return (i == 0) ? 0 : Math.min((1L << i) - 1, this.max.get());
+			}
+		}
+		return this.max.get();
+	}
+
+}
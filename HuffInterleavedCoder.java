@@ -0,0 +1,277 @@
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Codes a block with one tree as four streams, in the way zstd's huff0 does.
+ * The block is cut into four quarters and each quarter is coded as a stream of
+ * its own, starting on a byte boundary. Decoding one stream has to wait for
+ * each code's length before it can find the next code, but the four streams
+ * don't wait on each other, so the decoder decodes a character from each in
+ * turn and the processor works on all four at once.
+ * <P>
+ * The payload is the tree in the header format written by
+ * HuffCodebook.writeTree(), the lengths in bytes of the first three streams (32
+ * bits each), then, from the next byte boundary, the four streams. The first
+ * three quarters have (length + 3) / 4 characters each and the last has the
+ * rest. There is no pseudo EOF code; the block header gives the number of
+ * characters. A block costs about 15 bytes more than one coded with
+ * HuffTreeCoder, so the encoder picks this coder only if it is told to.
+ * <P>
+ * An interleaved coder is the block coder for BLOCK_INTERLEAVED blocks. It is
+ * reusable and not thread safe; use one per thread.
+ *
+ * @author clairewalker
+ *
+ */
+public final class HuffInterleavedCoder implements IHuffBlockCoder, IHuffConstants {
+	/**
+	 * The number of streams a block is coded as
+	 */
+	public static final int STREAMS = 4;
+
+	private final HuffEncodeContext ctx = new HuffEncodeContext();
+	private final long[] streamBits = new long[STREAMS];
+	private final Stream[] streams = new Stream[STREAMS];
+	private byte[] data = new byte[0];
+	private HuffCodebook book;
+
+	/**
+	 * HuffInterleavedCoder constructor
+	 */
+	public HuffInterleavedCoder() {
+		for (int i = 0; i < STREAMS; i++) {
+			this.streams[i] = new Stream();
+		}
+	}
+
+	@Override
+	public int type() {
+		return BLOCK_INTERLEAVED;
+	}
+
+	@Override
+	public long train(byte[] src, int off, int len, int[] counts) {
+		this.book = HuffCodebook.fromCounts(counts);
+		int[] lengths = this.book.lengths();
+		int quarter = (len + STREAMS - 1) / STREAMS;
+		for (int i = 0; i < STREAMS; i++) {
+			int from = Math.min(i * quarter, len);
+			int to = (i == STREAMS - 1) ? len : Math.min(from + quarter, len);
+			long bits = 0;
+			for (int j = off + from; j < off + to; j++) {
+				bits += lengths[src[j] & 0xff];
+			}
+			this.streamBits[i] = bits;
+		}
+
+		// every stream but the last is padded to a whole byte, as is the header
+		long bits = bytes(this.book.treeBits() + 32 * (STREAMS - 1)) * 8;
+		for (int i = 0; i < STREAMS - 1; i++) {
+			bits += bytes(this.streamBits[i]) * 8;
+		}
+		return bits + this.streamBits[STREAMS - 1];
+	}
+
+	@Override
+	public long write(byte[] src, int off, int len, OutputStream out) throws IOException {
+		this.ctx.reset(out);
+		this.book.writeTree(this.ctx);
+		for (int i = 0; i < STREAMS - 1; i++) {
+			this.ctx.writeBits(bytes(this.streamBits[i]), 32);
+		}
+		int quarter = (len + STREAMS - 1) / STREAMS;
+		for (int i = 0; i < STREAMS; i++) {
+			this.ctx.align();
+			int from = Math.min(i * quarter, len);
+			int to = (i == STREAMS - 1) ? len : Math.min(from + quarter, len);
+			this.ctx.encode(this.book, src, off + from, to - from);
+		}
+		long bits = this.ctx.bitsWritten();
+		this.ctx.finish();
+		return bits;
+	}
+
+	/**
+	 * @return the length of the longest code
+	 */
+	@Override
+	public int decode(HuffDecodeContext in, byte[] out, int length) throws IOException {
+		HuffCodebook book = HuffDecodeTable.readCodebook(in);
+		HuffDecodeTable table = HuffDecodeTable.fromCodebook(book);
+		// no code is longer than MAX_CODE_LENGTH bits
+		long limit = (long) length * HuffCodebook.MAX_CODE_LENGTH / 8 + STREAMS;
+		long total = 0;
+		int[] sizes = new int[STREAMS];
+		for (int i = 0; i < STREAMS - 1; i++) {
+			sizes[i] = in.readBits(32);
+			total += sizes[i];
+			if (sizes[i] < 0 || total > limit) {
+				throw new IOException("bad stream lengths");
+			}
+		}
+
+		// the last stream runs to the end of the payload, and has at most the
+		// longest code for each of its characters
+		int quarter = (length + STREAMS - 1) / STREAMS;
+		int last = length - Math.min(quarter * (STREAMS - 1), length);
+		int size = (int) Math.min(limit, total + bytes((long) last * book.maxLength()));
+		if (this.data.length < size) {
+			this.data = new byte[size];
+		}
+		size = in.readBytes(this.data, 0, size);
+		if (size < total) {
+			throw new IOException("unexpected end of input file");
+		}
+		sizes[STREAMS - 1] = size - (int) total;
+		int start = 0;
+		for (int i = 0; i < STREAMS; i++) {
+			this.streams[i].reset(this.data, start, start + sizes[i]);
+			start += sizes[i];
+		}
+
+		if (table.rootLeaf() >= 0) {
+			// a tree of one leaf is the pseudo EOF alone, which has no characters
+			if (length > 0) {
+				throw new IOException("unexpected pseudo EOF");
+			}
+			return book.maxLength();
+		}
+
+		// decode a character from each stream in turn while all four have some
+		// left, then finish the longer quarters
+		Stream s0 = this.streams[0];
+		Stream s1 = this.streams[1];
+		Stream s2 = this.streams[2];
+		Stream s3 = this.streams[3];
+		int p0 = 0;
+		int p1 = Math.min(quarter, length);
+		int p2 = Math.min(2 * quarter, length);
+		int p3 = Math.min(3 * quarter, length);
+		int end3 = p3 + last;
+		while (p3 < end3) {
+			out[p0++] = s0.decode(table);
+			out[p1++] = s1.decode(table);
+			out[p2++] = s2.decode(table);
+			out[p3++] = s3.decode(table);
+		}
+		while (p0 < Math.min(quarter, length)) {
+			out[p0++] = s0.decode(table);
+		}
+		while (p1 < Math.min(2 * quarter, length)) {
+			out[p1++] = s1.decode(table);
+		}
+		while (p2 < Math.min(3 * quarter, length)) {
+			out[p2++] = s2.decode(table);
+		}
+		for (int i = 0; i < STREAMS; i++) {
+			this.streams[i].finish(i);
+		}
+		return book.maxLength();
+	}
+
+	/*
+	 * Helper method to count the bytes taken by the given number of bits
+	 */
+	private static long bytes(long bits) {
+		return (bits + 7) / 8;
+	}
+
+	/*
+	 * One stream of a block being decoded: its bytes and a 64 bit buffer of the
+	 * bits read but not yet used, as in HuffDecodeContext
+	 */
+	private static final class Stream {
+		private byte[] data;
+		private int pos;
+		private int end;
+		private long bitBuffer;
+		private int bitCount;
+
+		/*
+		 * Start decoding data[from..to)
+		 */
+		void reset(byte[] data, int from, int to) {
+			this.data = data;
+			this.pos = from;
+			this.end = to;
+			this.bitBuffer = 0;
+			this.bitCount = 0;
+		}
+
+		/*
+		 * Decode the next character
+		 */
+		byte decode(HuffDecodeTable table) throws IOException {
+			if (this.bitCount < HuffDecodeTable.TABLE_BITS) {
+				refill();
+			}
+			int peek;
+			if (this.bitCount >= HuffDecodeTable.TABLE_BITS) {
+				peek = (int) (this.bitBuffer >>> (this.bitCount - HuffDecodeTable.TABLE_BITS));
+			} else {
+				peek = (int) (this.bitBuffer << (HuffDecodeTable.TABLE_BITS - this.bitCount));
+			}
+			int entry = table.lookup(peek & ((1 << HuffDecodeTable.TABLE_BITS) - 1));
+			int length = entry & 0xff;
+			if (length == 0 || length > this.bitCount || (entry >>> 8) == PSEUDO_EOF) {
+				return decodeSlowly(table, entry);
+			}
+			this.bitCount -= length;
+			return (byte) (entry >>> 8);
+		}
+
+		/*
+		 * Helper method to decode a code longer than TABLE_BITS, or fail on the end
+		 * of the stream or the pseudo EOF
+		 */
+		private byte decodeSlowly(HuffDecodeTable table, int entry) throws IOException {
+			int length = entry & 0xff;
+			if (length != 0) {
+				throw new IOException((length > this.bitCount) ? "unexpected end of stream" : "unexpected pseudo EOF");
+			}
+			this.bitCount -= HuffDecodeTable.TABLE_BITS;
+			int node = entry >>> 8;
+			while (true) {
+				if (this.bitCount == 0) {
+					refill();
+					if (this.bitCount == 0) {
+						throw new IOException("unexpected end of stream");
+					}
+				}
+				this.bitCount--;
+				int child = table.child(node, (int) (this.bitBuffer >>> this.bitCount) & 1);
+				if (child < 0) {
+					if (~child == PSEUDO_EOF) {
+						throw new IOException("unexpected pseudo EOF");
+					}
+					return (byte) ~child;
+				}
+				node = child;
+			}
+		}
+
+		/*
+		 * Helper method to top the bit buffer up to at least 57 bits, or as many as
+		 * are left in the stream
+		 */
+		private void refill() throws IOException {
+			while (this.bitCount <= 56) {
+				if (this.pos == this.end) {
+					return;
+				}
+				this.bitBuffer = (this.bitBuffer << 8) | (this.data[this.pos++] & 0xff);
+				this.bitCount += 8;
+			}
+		}
+
+		/*
+		 * Check the stream was used up, leaving only the padding of its last byte
+		 */
+		void finish(int i) throws IOException {
+			if (this.pos != this.end || this.bitCount >= 8) {
+				throw new IOException("stream " + i + " longer than its characters");
+			}
+		}
+	}
+
+}
@@ -0,0 +1,78 @@
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import org.junit.Test;
+
+/**
+ * @author clairewalker
+ *
+ */
+public class HuffInterleavedCoderTest implements IHuffConstants {
+
+	/*
+	 * Helper method to encode data with an interleaved coder
+	 */
+	private byte[] encode(byte[] data) throws IOException {
+		CharCounter counter = new CharCounter();
+		counter.countAll(data, 0, data.length);
+		HuffInterleavedCoder coder = new HuffInterleavedCoder();
+		long bits = coder.train(data, 0, data.length, counter.counts());
+		ByteArrayOutputStream payload = new ByteArrayOutputStream();
+		assertEquals(bits, coder.write(data, 0, data.length, payload));
+		assertEquals((bits + 7) / 8, payload.size());
+		return payload.toByteArray();
+	}
+
+	/**
+	 * Tests that payloads of lengths that do and don't divide into four decode to
+	 * the original data, and that train() gives their size
+	 *
+	 * @throws IOException
+	 */
+	@Test
+	public void testRoundTrip() throws IOException {
+		for (int length : new int[] { 1, 2, 3, 5, 1000, 40003 }) {
+			byte[] data = HuffTestData.text(length);
+			byte[] payload = encode(data);
+			byte[] out = new byte[length];
+			new HuffInterleavedCoder().decode(HuffCodec.decoder().reset(new ByteArrayInputStream(payload)), out,
+					length);
+			assertArrayEquals(data, out);
+		}
+	}
+
+	/**
+	 * Tests that a block stream of interleaved blocks decompresses to the original
+	 * data
+	 *
+	 * @throws IOException
+	 */
+	@Test
+	public void testBlockStream() throws IOException {
+		byte[] data = HuffTestData.text(100000);
+		ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+		HuffBlockFormat.compress(new ByteArrayInputStream(data), compressed, 1 << 15, false,
+				HuffBlockCoders.create(BLOCK_INTERLEAVED));
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		HuffBlockFormat.decompress(new ByteArrayInputStream(compressed.toByteArray()), out);
+		assertArrayEquals(data, out.toByteArray());
+	}
+
+	/**
+	 * Tests that a payload cut short is rejected
+	 *
+	 * @throws IOException
+	 */
+	@Test(expected = IOException.class)
+	public void testTruncated() throws IOException {
+		byte[] data = HuffTestData.text(1000);
+		byte[] payload = encode(data);
+		new HuffInterleavedCoder().decode(
+				HuffCodec.decoder().reset(new ByteArrayInputStream(payload, 0, payload.length - 10)),
+				new byte[data.length], data.length);
+	}
+
+}
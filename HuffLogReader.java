@@ -0,0 +1,183 @@
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Reads a log written by HuffLogWriter while it is still being written. A log
+ * is a block stream that grows a sealed block at a time, so it can be read up to
+ * its last whole block at any moment. read() decodes the next block if all of
+ * it has been written, and returns -1 without moving on if it has not, so a
+ * reader can tail a log by calling read() again later:
+ *
+ * <pre>
+ * try (HuffLogReader log = new HuffLogReader("app.log.huf")) {
+ * 	while (!log.isFinished()) {
+ * 		if (log.read(System.out) &lt; 0) {
+ * 			Thread.sleep(1000);
+ * 		}
+ * 	}
+ * }
+ * </pre>
+ *
+ * A log whose writer has been closed ends with BLOCK_END, and is a complete
+ * block stream that HuffBlockFormat.decompress() also reads.
+ *
+ * @author clairewalker
+ *
+ */
+public class HuffLogReader implements IHuffConstants, Closeable {
+	private static final int HEADER_SIZE = 8;
+	private static final int BLOCK_HEADER_SIZE = 13;
+
+	private final RandomAccessFile file;
+	private final FileChannel channel;
+	private HuffBlockBuffer block;
+	private byte[] bytes = new byte[BLOCK_HEADER_SIZE];
+	private int blockSize = -1;
+	private long position;
+	private long sequence;
+	private boolean finished;
+
+	/**
+	 * HuffLogReader constructor opens a log to read from its first block
+	 *
+	 * @param logFile is the name of the log
+	 * @throws IOException if the log cannot be opened
+	 */
+	public HuffLogReader(String logFile) throws IOException {
+		this.file = new RandomAccessFile(logFile, "r");
+		this.channel = this.file.getChannel();
+	}
+
+	/**
+	 * Decode the next block of the log to out, if it has been written
+	 *
+	 * @param out is where the block's bytes are written
+	 * @return the number of bytes written, or -1 if the next block has not been
+	 *         written yet or the log is finished
+	 * @throws IOException if the log is not a block stream or is corrupt
+	 */
+	public int read(OutputStream out) throws IOException {
+		if (!next(true)) {
+			return -1;
+		}
+		this.block.raw().writeTo(out);
+		return this.block.raw().size();
+	}
+
+	/**
+	 * @return true once the end of a log whose writer was closed has been read
+	 */
+	public boolean isFinished() {
+		return this.finished;
+	}
+
+	/**
+	 * @return the number of bytes of the log read so far
+	 */
+	public long position() {
+		return this.position;
+	}
+
+	/**
+	 * @return the block size of the log, or -1 if its header has not been read
+	 */
+	int blockSize() {
+		return this.blockSize;
+	}
+
+	/**
+	 * Move to a block boundary found by an earlier read, to read the block there
+	 * again
+	 *
+	 * @param position is the offset of the block in the log
+	 */
+	void seek(long position) {
+		this.position = position;
+		this.finished = false;
+	}
+
+	/**
+	 * Read the next block if it has all been written, decoding it if asked to
+	 *
+	 * @param decode is true to decode the block and check its checksum, false
+	 *               to check only its header
+	 * @return false if the next block has not all been written, or the log is
+	 *         finished
+	 * @throws IOException if the log is not a block stream or is corrupt
+	 */
+	boolean next(boolean decode) throws IOException {
+		if (this.finished) {
+			return false;
+		}
+		long length = this.channel.size();
+		if (this.blockSize < 0) {
+			if (length < HEADER_SIZE) {
+				return false;
+			}
+			this.blockSize = HuffBlockFormat.readHeader(new DataInputStream(
+					new ByteArrayInputStream(readFully(0, HEADER_SIZE), 0, HEADER_SIZE)));
+			this.block = new HuffBlockBuffer(Math.min(this.blockSize, DEFAULT_BLOCK_SIZE));
+			this.position = HEADER_SIZE;
+		}
+
+		// the end of a closed log
+		if (length > this.position && readFully(this.position, 1)[0] == BLOCK_END) {
+			this.position++;
+			this.finished = true;
+			return false;
+		}
+
+		// the header says how long the block is, so a block still being written is
+		// not mistaken for a corrupt one
+		if (length < this.position + BLOCK_HEADER_SIZE) {
+			return false;
+		}
+		int payloadLength = ByteBuffer.wrap(readFully(this.position, BLOCK_HEADER_SIZE)).getInt(5);
+		if (payloadLength < 0 || payloadLength > HuffBlockFormat.maxPayloadLength(this.blockSize)) {
+			throw new IOException("corrupt block header");
+		}
+		long end = this.position + BLOCK_HEADER_SIZE + payloadLength;
+		if (length < end) {
+			return false;
+		}
+		int size = (int) (end - this.position);
+		HuffBlockFormat.read(new DataInputStream(new ByteArrayInputStream(readFully(this.position, size), 0, size)),
+				this.block, this.blockSize);
+		this.block.sequence = this.sequence;
+		if (decode) {
+			HuffBlockFormat.decode(this.block);
+		}
+		this.sequence++;
+		this.position = end;
+		return true;
+	}
+
+	/*
+	 * Helper method to read length bytes starting at offset into the reusable
+	 * array, with positioned reads
+	 */
+	private byte[] readFully(long offset, int length) throws IOException {
+		if (this.bytes.length < length) {
+			this.bytes = new byte[Math.max(length, 2 * this.bytes.length)];
+		}
+		ByteBuffer buf = ByteBuffer.wrap(this.bytes, 0, length);
+		while (buf.hasRemaining()) {
+			if (this.channel.read(buf, offset + buf.position()) == -1) {
+				throw new IOException("unexpected end of log");
+			}
+		}
+		return this.bytes;
+	}
+
+	@Override
+	public void close() throws IOException {
+		this.file.close();
+	}
+
+}
@@ -0,0 +1,196 @@
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+/**
+ * @author clairewalker
+ *
+ */
+public class HuffLogTest {
+
+	/*
+	 * Helper method to make a new temporary log file name
+	 */
+	private File logFile() throws IOException {
+		File f = File.createTempFile("huff", ".log.huf");
+		f.deleteOnExit();
+		f.delete();
+		return f;
+	}
+
+	/*
+	 * Helper method to make the i-th log record
+	 */
+	private String record(int i) {
+		return "2026-10-19 12:00:" + (i % 60) + " INFO request " + i + " served in " + (i * 7 % 100) + " ms\n";
+	}
+
+	/*
+	 * Helper method to read all the sealed blocks of a log
+	 */
+	private String readAll(HuffLogReader reader) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		while (reader.read(out) >= 0) {
+		}
+		return out.toString("UTF-8");
+	}
+
+	/**
+	 * Tests that a reader tailing a log sees each block once it is sealed, and
+	 * that a closed log is a block stream
+	 *
+	 * @throws IOException
+	 */
+	@Test
+	public void testTail() throws IOException {
+		File f = logFile();
+		StringBuilder expected = new StringBuilder();
+		try (HuffLogWriter w = new HuffLogWriter(f.getPath(), 4096, 0, TimeUnit.MILLISECONDS, 2);
+				HuffLogReader r = new HuffLogReader(f.getPath())) {
+			for (int i = 0; i < 1000; i++) {
+				w.append(record(i));
+				expected.append(record(i));
+			}
+			String sealed = readAll(r);
+			assertTrue(sealed.length() > 0 && sealed.length() < expected.length());
+			assertTrue(expected.toString().startsWith(sealed));
+			// blocks end between records
+			assertTrue(sealed.endsWith("\n"));
+			assertTrue(w.length() < sealed.length() * 3 / 4);
+
+			w.append("last\n");
+			expected.append("last\n");
+			w.flush();
+			assertEquals(expected.toString(), sealed + readAll(r));
+			assertFalse(r.isFinished());
+			assertEquals(1001, w.records());
+		}
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		HuffBlockFormat.decompress(new ByteArrayInputStream(Files.readAllBytes(f.toPath())), out);
+		assertEquals(expected.toString(), out.toString("UTF-8"));
+		try (HuffLogReader r = new HuffLogReader(f.getPath())) {
+			assertEquals(expected.toString(), readAll(r));
+			assertTrue(r.isFinished());
+		}
+	}
+
+	/**
+	 * Tests that records are sealed when they have waited for the delay, without
+	 * a full block or a flush
+	 *
+	 * @throws Exception
+	 */
+	@Test
+	public void testDelay() throws Exception {
+		File f = logFile();
+		try (HuffLogWriter w = new HuffLogWriter(f.getPath(), 1 << 16, 20, TimeUnit.MILLISECONDS, 1);
+				HuffLogReader r = new HuffLogReader(f.getPath())) {
+			w.append(record(1));
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+			while (r.read(out) < 0 && System.nanoTime() < deadline) {
+				Thread.sleep(5);
+			}
+			assertEquals(record(1), out.toString("UTF-8"));
+			assertEquals(1, w.blocks());
+		}
+	}
+
+	/**
+	 * Tests that reopening a log whose last block was torn by a crash cuts the
+	 * torn block off, and appends after the last whole one
+	 *
+	 * @throws IOException
+	 */
+	@Test
+	public void testRecover() throws IOException {
+		File f = logFile();
+		HuffLogWriter w = new HuffLogWriter(f.getPath(), 1024, 0, TimeUnit.MILLISECONDS, 3);
+		for (int i = 0; i < 100; i++) {
+			w.append(record(i));
+		}
+		w.flush();
+		long whole;
+		try (HuffLogReader r = new HuffLogReader(f.getPath())) {
+			readAll(r);
+			whole = r.position();
+		}
+		String kept;
+		try (HuffLogReader r = new HuffLogReader(f.getPath())) {
+			kept = readAll(r);
+		}
+		w.append(record(100));
+		w.flush();
+		w.close();
+		// the crash: part of the last block written, and no end of stream
+		try (RandomAccessFile raf = new RandomAccessFile(f, "rw")) {
+			raf.setLength(whole + 20);
+		}
+
+		try (HuffLogWriter again = new HuffLogWriter(f.getPath())) {
+			assertEquals(whole, again.length());
+			again.append("after\n");
+		}
+		try (HuffLogReader r = new HuffLogReader(f.getPath())) {
+			assertEquals(kept + "after\n", readAll(r));
+			assertTrue(r.isFinished());
+		}
+	}
+
+	/**
+	 * Tests that reopening a closed log appends to it as if it had not been
+	 * closed
+	 *
+	 * @throws IOException
+	 */
+	@Test
+	public void testReopen() throws IOException {
+		File f = logFile();
+		try (HuffLogWriter w = new HuffLogWriter(f.getPath())) {
+			w.append("one\n");
+		}
+		try (HuffLogWriter w = new HuffLogWriter(f.getPath())) {
+			w.append("two\n");
+		}
+		try (HuffLogReader r = new HuffLogReader(f.getPath())) {
+			assertEquals("one\ntwo\n", readAll(r));
+		}
+	}
+
+	/**
+	 * Tests that a short file that is not a log is refused and left as it is,
+	 * while a log torn in its header is started again
+	 *
+	 * @throws IOException
+	 */
+	@Test
+	public void testNotALog() throws IOException {
+		File f = logFile();
+		Files.write(f.toPath(), "hello".getBytes("US-ASCII"));
+		try {
+			new HuffLogWriter(f.getPath()).close();
+			fail();
+		} catch (IOException e) {
+			// expected
+		}
+		assertEquals("hello", new String(Files.readAllBytes(f.toPath()), "US-ASCII"));
+
+		Files.write(f.toPath(), new byte[] { (byte) (IHuffConstants.BLOCK_MAGIC_NUMBER >>> 24) });
+		try (HuffLogWriter w = new HuffLogWriter(f.getPath())) {
+			w.append("one\n");
+		}
+		try (HuffLogReader r = new HuffLogReader(f.getPath())) {
+			assertEquals("one\n", readAll(r));
+		}
+	}
+
+}
@@ -0,0 +1,365 @@
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.Flushable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Appends records to a compressed log that can be read while it grows. Records
+ * are buffered until they fill a block, or the oldest of them has waited for the
+ * longest delay, and the block is then sealed: compressed with its checksum and
+ * appended to the file in one write. The file is a block stream, so it can be
+ * decoded up to its last sealed block at any time, and HuffLogReader can tail
+ * it. A block holds whole records unless a record is longer than a block.
+ * <P>
+ * A crash loses only the records not yet sealed, and at worst leaves part of a
+ * block at the end of the file. Opening an existing log to append to it checks
+ * its last block and cuts off anything after the last whole one, along with the
+ * end of the stream if the log was closed. A block that fails to be written is
+ * cut off too, so the next one does not follow it. sync() seals the buffered
+ * records and forces the file to disk, for records that must survive the
+ * machine failing as well.
+ * <P>
+ * The writer is thread safe. The delay is kept by a daemon thread of the
+ * writer's own; an I/O error on that thread is thrown by the next call.
+ *
+ * @author clairewalker
+ *
+ */
+public class HuffLogWriter implements IHuffConstants, Closeable, Flushable {
+	/**
+	 * The number of bytes of records in a block unless another size is given
+	 */
+	public static final int DEFAULT_LOG_BLOCK_SIZE = 1 << 16;
+
+	/**
+	 * The longest a record waits to be sealed unless another delay is given
+	 */
+	public static final long DEFAULT_MAX_DELAY_MILLIS = 1000;
+
+	private final FileChannel channel;
+	private final int blockSize;
+	private final long maxDelayNanos;
+	private final HuffCompressor compressor = new HuffCompressor();
+	private final HuffBlockSplitter splitter;
+	private final IHuffBlockCoder[] coders;
+	private final HuffBlockBuffer block;
+	private final HuffBuffer sealed;
+	private final DataOutputStream sealedData;
+	private final ScheduledExecutorService timer;
+	private long oldest;
+	private long records;
+	private long blocks;
+	private IOException failure;
+	private boolean closed;
+
+	/**
+	 * HuffLogWriter constructor creates the log, or opens it to append to it
+	 *
+	 * @param logFile   is the name of the log
+	 * @param blockSize is the number of bytes of records in a block, unless the
+	 *                  log already exists with a block size of its own
+	 * @param maxDelay  is the longest a record waits to be sealed, or 0 to seal
+	 *                  only full blocks and when asked to
+	 * @param unit      is the unit of maxDelay
+	 * @param level     is the compression level
+	 * @throws IOException              if the log cannot be opened or is not a
+	 *                                  block stream
+	 * @throws IllegalArgumentException if the block size, delay or level is out
+	 *                                  of range
+	 */
+	public HuffLogWriter(String logFile, int blockSize, long maxDelay, TimeUnit unit, int level) throws IOException {
+		if (blockSize <= 0 || maxDelay < 0) {
+			throw new IllegalArgumentException("bad block size " + blockSize + " or delay " + maxDelay);
+		}
+		this.splitter = HuffBlockCoders.splits(level) ? new HuffBlockSplitter() : null;
+		this.coders = (level > 1) ? HuffBlockCoders.create(HuffBlockCoders.types(level)) : null;
+		this.maxDelayNanos = unit.toNanos(maxDelay);
+		this.sealed = new HuffBuffer(blockSize / 2 + 64);
+		this.sealedData = new DataOutputStream(this.sealed);
+		this.channel = FileChannel.open(Paths.get(logFile), StandardOpenOption.CREATE, StandardOpenOption.READ,
+				StandardOpenOption.WRITE);
+		try {
+			this.blockSize = recover(logFile, blockSize);
+		} catch (IOException e) {
+			this.channel.close();
+			throw e;
+		}
+		this.block = new HuffBlockBuffer(this.blockSize);
+		if (this.maxDelayNanos > 0) {
+			this.timer = Executors.newSingleThreadScheduledExecutor(r -> {
+				Thread t = new Thread(r, "huff-log");
+				t.setDaemon(true);
+				return t;
+			});
+			long period = Math.max(TimeUnit.MILLISECONDS.toNanos(1), this.maxDelayNanos / 4);
+			this.timer.scheduleWithFixedDelay(this::sealIfDue, period, period, TimeUnit.NANOSECONDS);
+		} else {
+			this.timer = null;
+		}
+	}
+
+	/**
+	 * HuffLogWriter constructor with the default block size, delay and level
+	 *
+	 * @param logFile is the name of the log
+	 * @throws IOException if the log cannot be opened or is not a block stream
+	 */
+	public HuffLogWriter(String logFile) throws IOException {
+		this(logFile, DEFAULT_LOG_BLOCK_SIZE, DEFAULT_MAX_DELAY_MILLIS, TimeUnit.MILLISECONDS,
+				HuffBlockCoders.DEFAULT_LEVEL);
+	}
+
+	/*
+	 * Helper method to write the header of a new log, or to find the end of the
+	 * last whole block of an existing one and cut off what follows. Only the last
+	 * block is decoded, the rest of the log was checked when it was written.
+	 * Returns the block size of the log
+	 */
+	private int recover(String logFile, int blockSize) throws IOException {
+		if (this.channel.size() >= 8) {
+			try (HuffLogReader reader = new HuffLogReader(logFile)) {
+				long last = -1;
+				long end;
+				long start = 8;
+				try {
+					while (reader.next(false)) {
+						last = start;
+						start = reader.position();
+					}
+					end = reader.isFinished() ? start : reader.position();
+				} catch (IOException e) {
+					// a torn block at the end of the log
+					if (reader.position() == 0) {
+						throw e;
+					}
+					end = reader.position();
+				}
+				if (last >= 0) {
+					reader.seek(last);
+					try {
+						reader.next(true);
+					} catch (IOException e) {
+						end = last;
+					}
+				}
+				this.channel.truncate(end);
+				this.channel.position(end);
+				return reader.blockSize();
+			}
+		}
+		// a log torn while its header was written starts with part of the magic
+		// number, anything else is not a log and is left alone
+		ByteBuffer start = ByteBuffer.allocate((int) this.channel.size());
+		while (start.hasRemaining()) {
+			if (this.channel.read(start, start.position()) < 0) {
+				break;
+			}
+		}
+		byte[] magic = ByteBuffer.allocate(4).putInt(BLOCK_MAGIC_NUMBER).array();
+		for (int i = 0; i < Math.min(start.position(), magic.length); i++) {
+			if (start.get(i) != magic[i]) {
+				throw new IOException(logFile + " is not a log");
+			}
+		}
+		this.channel.truncate(0);
+		this.sealed.reset();
+		HuffBlockFormat.writeHeader(this.sealedData, blockSize);
+		writeSealed();
+		return blockSize;
+	}
+
+	/**
+	 * Append a record to the log
+	 *
+	 * @param record is the record, which is written as it is
+	 * @throws IOException if sealing a block fails, or the log is closed
+	 */
+	public void append(byte[] record) throws IOException {
+		append(record, 0, record.length);
+	}
+
+	/**
+	 * Append a record to the log in UTF-8
+	 *
+	 * @param record is the record, which is written as it is, without adding a
+	 *               line separator
+	 * @throws IOException if sealing a block fails, or the log is closed
+	 */
+	public void append(String record) throws IOException {
+		append(record.getBytes(StandardCharsets.UTF_8));
+	}
+
+	/**
+	 * Append record[off..off+len) to the log as one record
+	 *
+	 * @throws IOException if sealing a block fails, or the log is closed
+	 */
+	public synchronized void append(byte[] record, int off, int len) throws IOException {
+		checkOpen();
+		HuffBuffer raw = this.block.raw();
+		// start a new block rather than split a record that would fit in one
+		if (raw.size() > 0 && raw.size() + len > this.blockSize) {
+			seal();
+		}
+		while (len > 0) {
+			if (raw.size() == 0) {
+				this.oldest = System.nanoTime();
+			}
+			int n = Math.min(len, this.blockSize - raw.size());
+			raw.write(record, off, n);
+			off += n;
+			len -= n;
+			if (raw.size() == this.blockSize) {
+				seal();
+			}
+		}
+		this.records++;
+		if (this.maxDelayNanos > 0 && raw.size() > 0 && System.nanoTime() - this.oldest >= this.maxDelayNanos) {
+			seal();
+		}
+	}
+
+	/**
+	 * Seal the records buffered so far into a block, so readers can see them
+	 *
+	 * @throws IOException if writing fails, or the log is closed
+	 */
+	@Override
+	public synchronized void flush() throws IOException {
+		checkOpen();
+		seal();
+	}
+
+	/**
+	 * Seal the records buffered so far into a block and force the log to disk
+	 *
+	 * @throws IOException if writing fails, or the log is closed
+	 */
+	public synchronized void sync() throws IOException {
+		flush();
+		this.channel.force(false);
+	}
+
+	/**
+	 * @return the number of records appended since the log was opened
+	 */
+	public synchronized long records() {
+		return this.records;
+	}
+
+	/**
+	 * @return the number of blocks sealed since the log was opened
+	 */
+	public synchronized long blocks() {
+		return this.blocks;
+	}
+
+	/**
+	 * @return the number of bytes of the log, not counting the records waiting to
+	 *         be sealed
+	 * @throws IOException if the size can't be read
+	 */
+	public synchronized long length() throws IOException {
+		return this.channel.size();
+	}
+
+	/**
+	 * Seal the records buffered so far, end the block stream, and close the log
+	 */
+	@Override
+	public synchronized void close() throws IOException {
+		if (this.closed) {
+			return;
+		}
+		this.closed = true;
+		if (this.timer != null) {
+			this.timer.shutdownNow();
+		}
+		try {
+			seal();
+			this.sealed.reset();
+			HuffBlockFormat.writeEnd(this.sealedData);
+			writeSealed();
+		} finally {
+			this.channel.close();
+		}
+	}
+
+	/*
+	 * Helper method to throw the error of the timer thread, or an error if the
+	 * log is closed
+	 */
+	private void checkOpen() throws IOException {
+		if (this.failure != null) {
+			throw this.failure;
+		}
+		if (this.closed) {
+			throw new IOException("log is closed");
+		}
+	}
+
+	/*
+	 * Helper method for the timer thread to seal the buffered records once the
+	 * oldest has waited long enough
+	 */
+	private synchronized void sealIfDue() {
+		if (this.closed || this.failure != null || this.block.raw().size() == 0
+				|| System.nanoTime() - this.oldest < this.maxDelayNanos) {
+			return;
+		}
+		try {
+			seal();
+		} catch (IOException e) {
+			this.failure = e;
+		}
+	}
+
+	/*
+	 * Helper method to compress the buffered records into a block and append it
+	 * to the log
+	 */
+	private void seal() throws IOException {
+		if (this.block.raw().size() == 0) {
+			return;
+		}
+		HuffBlockFormat.encode(this.compressor, this.splitter, this.coders, this.block);
+		this.sealed.reset();
+		HuffBlockFormat.write(this.sealedData, this.block);
+		writeSealed();
+		this.block.raw().reset();
+		this.blocks++;
+	}
+
+	/*
+	 * Helper method to write the sealed bytes to the end of the log. If writing
+	 * fails, the part written is cut off so the next block does not follow a torn
+	 * one, and if that fails too the writer fails for good
+	 */
+	private void writeSealed() throws IOException {
+		long start = this.channel.position();
+		ByteBuffer buf = ByteBuffer.wrap(this.sealed.array(), 0, this.sealed.size());
+		try {
+			while (buf.hasRemaining()) {
+				this.channel.write(buf);
+			}
+		} catch (IOException e) {
+			try {
+				this.channel.truncate(start);
+				this.channel.position(start);
+			} catch (IOException t) {
+				e.addSuppressed(t);
+				this.failure = e;
+			}
+			throw e;
+		}
+	}
+
+}
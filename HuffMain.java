@@ -0,0 +1,625 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The command line front end. It compresses to and decompresses from block
+ * streams, tests and lists compressed files, and benchmarks the codec on a
+ * file, reading standard input and writing standard output when it is given no
+ * files, so it can be used in shell pipelines:
+ *
+ * <pre>
+ * java HuffMain compress -j 4 -5 &lt; data &gt; data.huf
+ * java HuffMain decompress &lt; data.huf | wc -c
+ * java HuffMain test *.huf
+ * java HuffMain serve -p 7070
+ * </pre>
+ *
+ * The level chooses how hard the compressor tries, as HuffBlockCoders.types()
+ * describes: level 1 codes each block with one tree, and each level after it
+ * adds a way of coding blocks. Each level picks whichever of its coders makes a
+ * block smallest, so higher levels are rarely larger, only slower to compress.
+ * Decompressing takes the same time at every level.
+ * <P>
+ * Inputs smaller than a block are compressed on the calling thread, since
+ * starting the pipeline's threads and allocating its blocks would take longer
+ * than compressing them. Many small files are best given to one command, which
+ * pays the JVM's start-up once.
+ *
+ * @author clairewalker
+ *
+ */
+public final class HuffMain implements IHuffConstants {
+	/**
+	 * The suffix added to the names of compressed files
+	 */
+	public static final String SUFFIX = ".huf";
+
+	/**
+	 * The port served on when none is given
+	 */
+	public static final int DEFAULT_PORT = 7070;
+
+	private static final String USAGE = String.join(System.lineSeparator(),
+			"usage: HuffMain command [options] [file ...]",
+			"commands:",
+			"  compress, c     compress each file to file" + SUFFIX,
+			"  decompress, d   decompress each file" + SUFFIX + " to file",
+			"  test, t         check each compressed file decodes, writing nothing",
+			"  list, l         show the sizes and blocks of each compressed file",
+			"  benchmark, b    time compressing and decompressing each file in memory",
+			"  serve, s        serve compress and decompress requests over loopback HTTP",
+			"options:",
+			"  -1 .. -" + HuffBlockCoders.MAX_LEVEL + "       compression level (default " + HuffBlockCoders.DEFAULT_LEVEL + ")",
+			"  -j threads      encoder, verifier or server worker threads (default one per processor)",
+			"  -b size         block size in bytes, or with a k or m suffix (default 1m)",
+			"  -c              write to standard output",
+			"  -f              overwrite existing output files",
+			"  -p port         the port to serve on (default " + DEFAULT_PORT + ")",
+			"  -v              print statistics to standard error",
+			"With no files, or the file -, standard input is read and standard output written.");
+
+	private final InputStream stdin;
+	private final PrintStream stdout;
+	private final PrintStream stderr;
+	private final List<String> files = new ArrayList<String>();
+	private String command;
+	private int level = HuffBlockCoders.DEFAULT_LEVEL;
+	private int threads = Runtime.getRuntime().availableProcessors();
+	private int blockSize = DEFAULT_BLOCK_SIZE;
+	private int port = DEFAULT_PORT;
+	private boolean toStdout;
+	private boolean force;
+	private boolean verbose;
+
+	/*
+	 * Private constructor, use run()
+	 */
+	private HuffMain(InputStream stdin, PrintStream stdout, PrintStream stderr) {
+		this.stdin = stdin;
+		this.stdout = stdout;
+		this.stderr = stderr;
+	}
+
+	/**
+	 * Run a command and exit with its status
+	 */
+	public static void main(String[] args) {
+		System.exit(run(args, System.in, System.out, System.err));
+	}
+
+	/**
+	 * Run a command
+	 *
+	 * @param args   are the command, options and files
+	 * @param stdin  is read when no file is given
+	 * @param stdout is written when no file is given, or with -c
+	 * @param stderr gets errors and statistics
+	 * @return 0 if the command succeeded, 1 if any file failed, or 2 if the
+	 *         arguments were bad
+	 */
+	public static int run(String[] args, InputStream stdin, PrintStream stdout, PrintStream stderr) {
+		HuffMain main = new HuffMain(stdin, stdout, stderr);
+		try {
+			if (!main.parse(args)) {
+				stdout.println(USAGE);
+				return 0;
+			}
+		} catch (IllegalArgumentException e) {
+			stderr.println("huff: " + e.getMessage());
+			stderr.println(USAGE);
+			return 2;
+		}
+		return main.runCommand();
+	}
+
+	/*
+	 * Helper method to read the arguments into the fields
+	 *
+	 * @return false if help was asked for
+	 */
+	private boolean parse(String[] args) {
+		if (args.length == 0) {
+			throw new IllegalArgumentException("no command");
+		}
+		this.command = command(args[0]);
+		if (this.command == null) {
+			return false;
+		}
+		boolean options = true;
+		for (int i = 1; i < args.length; i++) {
+			String arg = args[i];
+			if (!options || arg.equals("-") || !arg.startsWith("-")) {
+				this.files.add(arg);
+			} else if (arg.equals("--")) {
+				options = false;
+			} else if (arg.equals("-j") || arg.equals("-b") || arg.equals("-p")) {
+				if (i + 1 == args.length) {
+					throw new IllegalArgumentException(arg + " needs a value");
+				}
+				if (arg.equals("-j")) {
+					this.threads = number(arg, args[++i], 1);
+				} else if (arg.equals("-b")) {
+					this.blockSize = number(arg, args[++i], 1);
+				} else {
+					this.port = number(arg, args[++i], 0);
+					if (this.port > 65535) {
+						throw new IllegalArgumentException("bad value for -p: " + this.port);
+					}
+				}
+			} else if (arg.equals("-c")) {
+				this.toStdout = true;
+			} else if (arg.equals("-f")) {
+				this.force = true;
+			} else if (arg.equals("-v")) {
+				this.verbose = true;
+			} else if (arg.length() == 2 && arg.charAt(1) >= '1' && arg.charAt(1) <= '0' + HuffBlockCoders.MAX_LEVEL) {
+				this.level = arg.charAt(1) - '0';
+			} else {
+				throw new IllegalArgumentException("unknown option " + arg);
+			}
+		}
+		if (this.files.isEmpty()) {
+			this.files.add("-");
+		}
+		return true;
+	}
+
+	/*
+	 * Helper method to give the full name of a command, or null for help
+	 */
+	private static String command(String arg) {
+		switch (arg) {
+		case "compress":
+		case "c":
+			return "compress";
+		case "decompress":
+		case "d":
+			return "decompress";
+		case "test":
+		case "t":
+			return "test";
+		case "list":
+		case "l":
+			return "list";
+		case "benchmark":
+		case "b":
+			return "benchmark";
+		case "serve":
+		case "s":
+			return "serve";
+		case "help":
+		case "-h":
+		case "--help":
+			return null;
+		default:
+			throw new IllegalArgumentException("unknown command " + arg);
+		}
+	}
+
+	/*
+	 * Helper method to parse an option's number, with an optional k or m suffix
+	 */
+	private static int number(String option, String value, int min) {
+		String digits = value.toLowerCase();
+		int scale = 1;
+		if (digits.endsWith("k")) {
+			scale = 1 << 10;
+		} else if (digits.endsWith("m")) {
+			scale = 1 << 20;
+		}
+		if (scale > 1) {
+			digits = digits.substring(0, digits.length() - 1);
+		}
+		long n;
+		try {
+			n = Long.parseLong(digits) * scale;
+		} catch (NumberFormatException e) {
+			throw new IllegalArgumentException("bad value for " + option + ": " + value);
+		}
+		if (n < min || n > Integer.MAX_VALUE) {
+			throw new IllegalArgumentException("bad value for " + option + ": " + value);
+		}
+		return (int) n;
+	}
+
+	/*
+	 * Helper method to run the command on each file, going on to the next when one
+	 * fails
+	 */
+	private int runCommand() {
+		if (this.command.equals("serve")) {
+			return serve();
+		}
+		int status = 0;
+		HuffVerifier verifier = this.command.equals("test") ? new HuffVerifier(this.threads) : null;
+		try {
+			for (String file : this.files) {
+				try {
+					switch (this.command) {
+					case "compress":
+						compress(file);
+						break;
+					case "decompress":
+						decompress(file);
+						break;
+					case "test":
+						test(verifier, file);
+						break;
+					case "list":
+						list(file);
+						break;
+					default:
+						benchmark(file);
+					}
+				} catch (IOException | RuntimeException e) {
+					this.stderr.println("huff: " + name(file) + ": " + e.getMessage());
+					status = 1;
+				}
+			}
+		} finally {
+			if (verifier != null) {
+				verifier.close();
+			}
+		}
+		// standard output hides its write errors, such as a closed pipe
+		if (this.stdout.checkError()) {
+			this.stderr.println("huff: error writing standard output");
+			status = 1;
+		}
+		return status;
+	}
+
+	/*
+	 * Helper method to serve until the JVM is stopped
+	 */
+	private int serve() {
+		try {
+			HuffServer server = new HuffServer(this.port, this.threads);
+			this.stderr.println("huff: serving on " + InetAddress.getLoopbackAddress().getHostAddress() + ":"
+					+ server.port());
+			Thread.sleep(Long.MAX_VALUE);
+			return 0;
+		} catch (IOException e) {
+			this.stderr.println("huff: " + e.getMessage());
+			return 1;
+		} catch (InterruptedException e) {
+			return 0;
+		}
+	}
+
+	/*
+	 * Helper method to compress one file, or standard input
+	 */
+	private void compress(String file) throws IOException {
+		long size = file.equals("-") ? -1 : new File(file).length();
+		String outFile = toFile(file) ? checkOutput(file + SUFFIX) : null;
+		try (InputStream in = open(file)) {
+			try (OutputStream out = create(outFile)) {
+				CountingOutputStream counted = new CountingOutputStream(out);
+				long start = System.nanoTime();
+				long bytesIn = compress(in, counted, size);
+				counted.flush();
+				report(file, bytesIn, counted.count, System.nanoTime() - start);
+			} catch (IOException | RuntimeException e) {
+				discard(outFile);
+				throw e;
+			}
+		}
+	}
+
+	/*
+	 * Helper method to compress a stream at the level and block size, with a
+	 * pipeline unless there is only one thread or the input fits in a block
+	 *
+	 * @param size is the size of the input, or -1 if it isn't known
+	 * @return the number of bytes compressed
+	 */
+	private long compress(InputStream in, OutputStream out, long size) throws IOException {
+		if (this.threads == 1 || (size >= 0 && size <= this.blockSize)) {
+			return HuffBlockFormat.compress(in, out, this.blockSize, this.level, null);
+		}
+		HuffPipeline pipeline = new HuffPipeline(this.blockSize, this.threads, 2 * this.threads + 2,
+				HuffBlockCoders.splits(this.level), HuffBlockCoders.types(this.level));
+		HuffPipelineStats stats = pipeline.compress(in, out);
+		if (this.verbose) {
+			this.stderr.println("huff: " + stats);
+		}
+		return stats.bytesIn();
+	}
+
+	/*
+	 * Helper method to decompress one file, or standard input
+	 */
+	private void decompress(String file) throws IOException {
+		if (toFile(file) && !file.endsWith(SUFFIX)) {
+			throw new IOException("unknown suffix, use -c to decompress to standard output");
+		}
+		String outFile = toFile(file) ? checkOutput(file.substring(0, file.length() - SUFFIX.length())) : null;
+		try (InputStream in = open(file)) {
+			try (OutputStream out = create(outFile)) {
+				long start = System.nanoTime();
+				long bytesOut = HuffBlockFormat.decompressAny(in, out, null);
+				report(file, bytesOut, -1, System.nanoTime() - start);
+			} catch (IOException | RuntimeException e) {
+				discard(outFile);
+				throw e;
+			}
+		}
+	}
+
+	/*
+	 * Helper method to test one file, or standard input
+	 */
+	private void test(HuffVerifier verifier, String file) throws IOException {
+		long start = System.nanoTime();
+		long bytes;
+		if (file.equals("-")) {
+			InputStream in = open(file);
+			bytes = (HuffBlockFormat.peekMagic(in) == BLOCK_MAGIC_NUMBER) ? verifier.verifyBlocks(in)
+					: HuffBlockFormat.decompressAny(in, OutputStream.nullOutputStream(), null);
+		} else {
+			bytes = verifier.verify(file);
+		}
+		if (this.verbose) {
+			this.stderr.printf("huff: %s: ok, %d bytes, %.1f MB/s%n", name(file), bytes,
+					throughput(bytes, System.nanoTime() - start));
+		}
+	}
+
+	/*
+	 * Helper method to list one file, or standard input, without decoding it
+	 */
+	private void list(String file) throws IOException {
+		try (InputStream in = open(file)) {
+			int magic = HuffBlockFormat.peekMagic(in);
+			if ((magic == ARCHIVE_MAGIC_NUMBER || magic == DEDUP_ARCHIVE_MAGIC_NUMBER) && !file.equals("-")) {
+				listArchive(file);
+			} else if (magic == BLOCK_MAGIC_NUMBER) {
+				listBlocks(file, in);
+			} else if (magic == MAGIC_NUMBER) {
+				this.stdout.printf("%-12s %12s %12s %7s %7s  %s%n", "single tree", "-", "-", "-", "1", name(file));
+			} else {
+				throw new IOException("not a compressed file");
+			}
+		}
+	}
+
+	/*
+	 * Helper method to list the blocks of a block stream by type
+	 */
+	private void listBlocks(String file, InputStream in) throws IOException {
+		DataInputStream data = new DataInputStream(in);
+		int blockSize = HuffBlockFormat.readHeader(data);
+		HuffBlockBuffer b = new HuffBlockBuffer(Math.min(blockSize, DEFAULT_BLOCK_SIZE));
+		long[] blocks = new long[ALPH_SIZE];
+		long raw = 0;
+		long compressed = 9;
+		long count = 0;
+		while (HuffBlockFormat.read(data, b, blockSize)) {
+			blocks[b.type]++;
+			raw += b.rawLength;
+			compressed += HuffBlockFormat.size(b);
+			count++;
+		}
+		this.stdout.printf("%-12s %12d %12d %6.1f%% %7d  %s%n", "blocks", compressed, raw,
+				(raw == 0) ? 0.0 : 100.0 * compressed / raw, count, name(file));
+		if (this.verbose) {
+			for (int type = 0; type < blocks.length; type++) {
+				if (blocks[type] > 0) {
+					this.stdout.printf("  %-10s %7d%n", typeName(type), blocks[type]);
+				}
+			}
+		}
+	}
+
+	/*
+	 * Helper method to list the members of an archive
+	 */
+	private void listArchive(String file) throws IOException {
+		try (HuffArchiveReader reader = new HuffArchiveReader(file)) {
+			long size = 0;
+			for (HuffArchiveEntry e : reader.entries()) {
+				size += e.size();
+			}
+			long length = new File(file).length();
+			this.stdout.printf("%-12s %12d %12d %6.1f%% %7d  %s%n", reader.isDeduplicated() ? "dedup" : "archive",
+					length, size, (size == 0) ? 0.0 : 100.0 * length / size, reader.entries().size(), file);
+			if (reader.isDeduplicated() && this.verbose) {
+				this.stdout.printf("  %-10s %7d%n", "chunks", reader.chunkCount());
+			}
+			for (HuffArchiveEntry e : reader.entries()) {
+				// the compressed size of a chunked member is what it added to the archive
+				this.stdout.printf("  %-10s %12d %12d %6.1f%% %7s  %s%n", "member", e.compressedSize(), e.size(),
+						(e.size() == 0) ? 0.0 : 100.0 * e.compressedSize() / e.size(),
+						reader.isDeduplicated() ? Integer.toString(e.chunkCount()) : "-", e.name());
+			}
+		}
+	}
+
+	/*
+	 * Helper method to name a block type
+	 */
+	private static String typeName(int type) {
+		switch (type) {
+		case BLOCK_HUFFMAN:
+			return "huffman";
+		case BLOCK_STORED:
+			return "stored";
+		case BLOCK_MULTI:
+			return "multi";
+		case BLOCK_CONTEXT:
+			return "context";
+		case BLOCK_ANS:
+			return "ans";
+		case BLOCK_INTERLEAVED:
+			return "interleaved";
+		default:
+			return "type " + type;
+		}
+	}
+
+	/*
+	 * Helper method to time compressing and decompressing one file, or standard
+	 * input, in memory. Each is run three times and the fastest run reported.
+	 */
+	private void benchmark(String file) throws IOException {
+		byte[] data;
+		try (InputStream in = open(file)) {
+			data = in.readAllBytes();
+		}
+		ByteArrayOutputStream compressed = new ByteArrayOutputStream(data.length / 2 + 64);
+		ByteArrayOutputStream decompressed = new ByteArrayOutputStream(data.length);
+		long compressNanos = Long.MAX_VALUE;
+		long decompressNanos = Long.MAX_VALUE;
+		for (int run = 0; run < 3; run++) {
+			compressed.reset();
+			long start = System.nanoTime();
+			compress(new ByteArrayInputStream(data), compressed, this.threads == 1 ? data.length : -1);
+			compressNanos = Math.min(compressNanos, System.nanoTime() - start);
+
+			decompressed.reset();
+			start = System.nanoTime();
+			HuffBlockFormat.decompressAny(new ByteArrayInputStream(compressed.toByteArray()), decompressed, null);
+			decompressNanos = Math.min(decompressNanos, System.nanoTime() - start);
+		}
+		if (!Arrays.equals(data, decompressed.toByteArray())) {
+			throw new IOException("decompressed data differs from the input");
+		}
+		this.stdout.printf("%s: level %d, %d threads, %d -> %d bytes (%.1f%%), compress %.1f MB/s, "
+				+ "decompress %.1f MB/s%n", name(file), this.level, this.threads, data.length, compressed.size(),
+				(data.length == 0) ? 0.0 : 100.0 * compressed.size() / data.length,
+				throughput(data.length, compressNanos), throughput(data.length, decompressNanos));
+	}
+
+	/*
+	 * Helper method to print what a compression or decompression did, with -v
+	 *
+	 * @param compressed is the compressed size, or -1 after decompressing
+	 */
+	private void report(String file, long raw, long compressed, long nanos) {
+		if (this.verbose) {
+			String sizes = (compressed < 0) ? "decompressed " + raw + " bytes"
+					: String.format("compressed %d -> %d bytes (%.1f%%)", raw, compressed,
+							(raw == 0) ? 0.0 : 100.0 * compressed / raw);
+			this.stderr.printf("huff: %s: %s, %.1f MB/s%n", name(file), sizes, throughput(raw, nanos));
+		}
+	}
+
+	/*
+	 * Helper method to give the uncompressed megabytes per second
+	 */
+	private static double throughput(long bytes, long nanos) {
+		return (nanos == 0) ? 0 : bytes / 1e6 / (nanos / 1e9);
+	}
+
+	/*
+	 * Helper method to give the name of a file in messages
+	 */
+	private static String name(String file) {
+		return file.equals("-") ? "(stdin)" : file;
+	}
+
+	/*
+	 * Helper method to open a file, or standard input, buffered so its magic
+	 * number can be read ahead. Standard input is never closed.
+	 */
+	private InputStream open(String file) throws IOException {
+		if (file.equals("-")) {
+			return new BufferedInputStream(this.stdin, 1 << 16) {
+				@Override
+				public void close() {
+				}
+			};
+		}
+		return new BufferedInputStream(new FileInputStream(file), 1 << 16);
+	}
+
+	/*
+	 * Helper method to tell if the output for file goes to a file, or to standard
+	 * output for standard input or with -c
+	 */
+	private boolean toFile(String file) {
+		return !file.equals("-") && !this.toStdout;
+	}
+
+	/*
+	 * Helper method to check that an output file may be written, returning its
+	 * name
+	 */
+	private String checkOutput(String outFile) throws IOException {
+		if (new File(outFile).exists() && !this.force) {
+			throw new IOException(outFile + " already exists, use -f to overwrite it");
+		}
+		return outFile;
+	}
+
+	/*
+	 * Helper method to create an output file, or standard output if outFile is
+	 * null. Standard output is flushed but not closed.
+	 */
+	private OutputStream create(String outFile) throws IOException {
+		if (outFile == null) {
+			return new FilterOutputStream(this.stdout) {
+				@Override
+				public void write(byte[] b, int off, int len) throws IOException {
+					this.out.write(b, off, len);
+				}
+
+				@Override
+				public void close() throws IOException {
+					flush();
+				}
+			};
+		}
+		return new BufferedOutputStream(new FileOutputStream(outFile), 1 << 16);
+	}
+
+	/*
+	 * Helper method to delete the output file, if any, that a failed compress or
+	 * decompress was writing, so no partial output is left behind
+	 */
+	private static void discard(String outFile) {
+		if (outFile != null) {
+			new File(outFile).delete();
+		}
+	}
+
+	/*
+	 * An output stream that counts the bytes written through it
+	 */
+	private static final class CountingOutputStream extends FilterOutputStream {
+		long count;
+
+		CountingOutputStream(OutputStream out) {
+			super(out);
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			this.out.write(b);
+			this.count++;
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			this.out.write(b, off, len);
+			this.count += len;
+		}
+	}
+
+}
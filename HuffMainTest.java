@@ -0,0 +1,139 @@
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+
+import org.junit.Test;
+
+/**
+ * @author clairewalker
+ *
+ */
+public class HuffMainTest {
+	private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+	private final ByteArrayOutputStream err = new ByteArrayOutputStream();
+
+	/*
+	 * Helper method to run a command with the given standard input, keeping its
+	 * standard output and error
+	 */
+	private int run(byte[] stdin, String... args) {
+		this.out.reset();
+		this.err.reset();
+		return HuffMain.run(args, new ByteArrayInputStream(stdin), new PrintStream(this.out),
+				new PrintStream(this.err));
+	}
+
+	/**
+	 * Tests that standard input compressed at each level decompresses to the
+	 * original data, and that higher levels are no larger
+	 *
+	 * @throws IOException
+	 */
+	@Test
+	public void testPipe() throws IOException {
+		byte[] data = HuffTestData.text(50000);
+		long last = Long.MAX_VALUE;
+		for (int level = 1; level <= HuffBlockCoders.MAX_LEVEL; level++) {
+			assertEquals(0, run(data, "compress", "-" + level, "-b", "8k", "-j", "2"));
+			byte[] compressed = this.out.toByteArray();
+			assertTrue(compressed.length <= last);
+			last = compressed.length;
+
+			assertEquals(0, run(compressed, "d"));
+			assertArrayEquals(data, this.out.toByteArray());
+			assertEquals(0, run(compressed, "test"));
+		}
+	}
+
+	/**
+	 * Tests compressing a file to a file beside it, refusing to overwrite it, and
+	 * decompressing it back
+	 *
+	 * @throws IOException
+	 */
+	@Test
+	public void testFiles() throws IOException {
+		File f = File.createTempFile("huff", ".txt");
+		f.deleteOnExit();
+		File compressed = new File(f.getPath() + HuffMain.SUFFIX);
+		compressed.deleteOnExit();
+		byte[] data = HuffTestData.text(100000);
+		Files.write(f.toPath(), data);
+
+		assertEquals(0, run(new byte[0], "compress", "-j", "3", "-b", "16k", f.getPath()));
+		assertTrue(compressed.length() < data.length);
+		assertEquals(1, run(new byte[0], "compress", f.getPath()));
+		assertEquals(0, run(new byte[0], "list", "-v", compressed.getPath()));
+		assertTrue(this.out.toString().contains("huffman"));
+		assertEquals(0, run(new byte[0], "decompress", "-f", compressed.getPath()));
+		assertArrayEquals(data, Files.readAllBytes(f.toPath()));
+		assertEquals(0, run(new byte[0], "t", compressed.getPath()));
+	}
+
+	/**
+	 * Tests that a corrupt stream fails with status 1
+	 *
+	 * @throws IOException
+	 */
+	@Test
+	public void testCorrupt() throws IOException {
+		assertEquals(0, run(HuffTestData.text(10000), "compress"));
+		byte[] compressed = this.out.toByteArray();
+		compressed[compressed.length - 100] ^= 0x10;
+		assertEquals(1, run(compressed, "test"));
+		assertEquals(1, run(compressed, "decompress"));
+		assertEquals(1, run(HuffTestData.text(100), "decompress"));
+	}
+
+	/**
+	 * Tests that -c decompresses a file with a name shorter than the suffix, and
+	 * that a failed decompress leaves no output file behind
+	 *
+	 * @throws IOException
+	 */
+	@Test
+	public void testOutputFiles() throws IOException {
+		File dir = Files.createTempDirectory("huff").toFile();
+		dir.deleteOnExit();
+		byte[] data = HuffTestData.text(20000);
+		assertEquals(0, run(data, "compress"));
+		byte[] compressed = this.out.toByteArray();
+
+		// a relative name, in the working directory, so it really is short
+		File shortName = new File("a.z");
+		try {
+			Files.write(shortName.toPath(), compressed);
+			assertEquals(0, run(new byte[0], "decompress", "-c", shortName.getPath()));
+			assertArrayEquals(data, this.out.toByteArray());
+		} finally {
+			shortName.delete();
+		}
+
+		File corrupt = new File(dir, "b" + HuffMain.SUFFIX);
+		corrupt.deleteOnExit();
+		compressed[compressed.length - 100] ^= 0x10;
+		Files.write(corrupt.toPath(), compressed);
+		assertEquals(1, run(new byte[0], "decompress", corrupt.getPath()));
+		assertFalse(new File(dir, "b").exists());
+	}
+
+	/**
+	 * Tests that bad arguments fail with status 2, and help succeeds
+	 */
+	@Test
+	public void testUsage() {
+		assertEquals(2, run(new byte[0]));
+		assertEquals(2, run(new byte[0], "squash"));
+		assertEquals(2, run(new byte[0], "compress", "-9"));
+		assertEquals(2, run(new byte[0], "compress", "-j", "0"));
+		assertEquals(2, run(new byte[0], "compress", "-b"));
+		assertEquals(0, run(new byte[0], "help"));
+		assertTrue(this.out.toString().startsWith("usage"));
+	}
+
+}
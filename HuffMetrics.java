@@ -0,0 +1,168 @@
+import java.util.Arrays;
+
+/**
+ * The registry of IHuffMetricsListener objects, and the hooks the compressors
+ * call to report to them. With no listeners added, each hook is a read of one
+ * volatile field, so the hooks cost nothing noticeable when metrics are off.
+ * With listeners, each phase costs a System.nanoTime() call, which is far below
+ * 1% of the time of any phase that touches the data.
+ * <P>
+ * Hooks are used like this, where each call to phase() returns the start time
+ * of the next phase:
+ * 
+ * <pre>
+ * long t = HuffMetrics.start();
+ * ... count ...
+ * t = HuffMetrics.phase(HuffPhase.COUNT, t);
+ * ... build tree ...
+ * t = HuffMetrics.phase(HuffPhase.TREE, t);
+ * </pre>
+ * 
+ * @author clairewalker
+ *
+ */
+public final class HuffMetrics {
+	private static volatile IHuffMetricsListener[] listeners = new IHuffMetricsListener[0];
+
+	/*
+	 * Private constructor, all methods are static
+	 */
+	private HuffMetrics() {
+	}
+
+	/**
+	 * Start reporting to a listener
+	 */
+	public static synchronized void addListener(IHuffMetricsListener l) {
+		IHuffMetricsListener[] ls = Arrays.copyOf(listeners, listeners.length + 1);
+		ls[ls.length - 1] = l;
+		listeners = ls;
+	}
+
+	/**
+	 * Stop reporting to a listener
+	 */
+	public static synchronized void removeListener(IHuffMetricsListener l) {
+		IHuffMetricsListener[] ls = listeners;
+		for (int i = 0; i < ls.length; i++) {
+			if (ls[i] == l) {
+				IHuffMetricsListener[] rest = new IHuffMetricsListener[ls.length - 1];
+				System.arraycopy(ls, 0, rest, 0, i);
+				System.arraycopy(ls, i + 1, rest, i, ls.length - i - 1);
+				listeners = rest;
+				return;
+			}
+		}
+	}
+
+	/**
+	 * @return true if any listener has been added
+	 */
+	public static boolean enabled() {
+		return listeners.length != 0;
+	}
+
+	/**
+	 * @return the start time of an operation, or 0 if there are no listeners
+	 */
+	static long start() {
+		return (listeners.length != 0) ? System.nanoTime() : 0;
+	}
+
+	/**
+	 * Begin a flight recorder event for an operation
+	 * 
+	 * @param event is a new event for the operation, or null if the event is not
+	 *              being recorded
+	 * @return the start time of the operation, or 0 if there are no listeners and
+	 *         no event
+	 */
+	static long start(HuffBlockEvent event) {
+		if (event == null) {
+			return start();
+		}
+		event.begin();
+		return System.nanoTime();
+	}
+
+	/**
+	 * Report that a phase has finished
+	 * 
+	 * @param phase is the phase that finished
+	 * @param start is the start time of the phase, from start() or phase()
+	 * @return the start time of the next phase, or 0 if there are no listeners
+	 */
+	static long phase(HuffPhase phase, long start) {
+		return phase(phase, start, null);
+	}
+
+	/**
+	 * Report that a phase has finished, to the listeners and to a flight recorder
+	 * event
+	 * 
+	 * @param phase is the phase that finished
+	 * @param start is the start time of the phase, from start() or phase()
+	 * @param event is the event for the operation, or null
+	 * @return the start time of the next phase, or 0 if there are no listeners and
+	 *         the operation is not being timed for its event
+	 */
+	static long phase(HuffPhase phase, long start, HuffBlockEvent event) {
+		IHuffMetricsListener[] ls = listeners;
+		if (ls.length == 0 && start == 0) {
+			return 0;
+		}
+		long now = System.nanoTime();
+		// a listener added part way through an operation starts with the next phase
+		if (start != 0) {
+			if (event != null) {
+				event.phase(phase, now - start);
+			}
+			for (IHuffMetricsListener l : ls) {
+				l.phase(phase, now - start);
+			}
+		}
+		return now;
+	}
+
+	/**
+	 * Report that an input has been compressed
+	 * 
+	 * @param start is the start time of the operation, from start()
+	 */
+	static void compressed(long bytesIn, long bitsOut, long start) {
+		IHuffMetricsListener[] ls = listeners;
+		if (ls.length == 0 || start == 0) {
+			return;
+		}
+		long nanos = System.nanoTime() - start;
+		for (IHuffMetricsListener l : ls) {
+			l.compressed(bytesIn, bitsOut, nanos);
+		}
+	}
+
+	/**
+	 * Report that an input has been uncompressed
+	 * 
+	 * @param start is the start time of the operation, from start()
+	 */
+	static void uncompressed(long bitsIn, long bytesOut, long start) {
+		IHuffMetricsListener[] ls = listeners;
+		if (ls.length == 0 || start == 0) {
+			return;
+		}
+		long nanos = System.nanoTime() - start;
+		for (IHuffMetricsListener l : ls) {
+			l.uncompressed(bitsIn, bytesOut, nanos);
+		}
+	}
+
+	/**
+	 * Report that an operation has failed
+	 */
+	static void failed(String operation, Throwable e) {
+		for (IHuffMetricsListener l : listeners) {
+			l.failed(operation, e);
+		}
+	}
+
+}
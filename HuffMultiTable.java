@@ -0,0 +1,302 @@
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+/**
+ * Codes a block with several Huffman tables instead of one, in the way bzip2
+ * does. The block is cut into groups of GROUP_SIZE characters, and each group
+ * is coded with whichever table codes it in the fewest bits. The tables are
+ * trained together: each starts from the counts of one stretch of the block,
+ * then every group is given to its best table and each table is rebuilt from
+ * the counts of its groups, a few times over.
+ * <P>
+ * The payload is the number of tables (3 bits), each table's tree in the header
+ * format written by HuffCodebook.writeTree(), a selector naming the table of
+ * each group, and the codes of the characters. Selectors are move-to-front
+ * coded, so a run of groups that use the same table costs a bit a group, and
+ * each position is written in unary. There is no pseudo EOF code; the block
+ * header gives the number of characters. Decoding switches decode tables from
+ * group to group, so each character is still decoded with one table lookup.
+ * <P>
+ * A multi-table coder is the block coder for BLOCK_MULTI blocks. It is reusable
+ * and not thread safe; use one per thread.
+ *
+ * @author clairewalker
+ *
+ */
+public final class HuffMultiTable implements IHuffBlockCoder, IHuffConstants {
+	/**
+	 * The number of characters coded with each selected table
+	 */
+	public static final int GROUP_SIZE = 50;
+
+	/**
+	 * The fewest tables a block is coded with
+	 */
+	public static final int MIN_TABLES = 2;
+
+	/**
+	 * The most tables a block is coded with
+	 */
+	public static final int MAX_TABLES = 6;
+
+	// the number of times the groups are given to tables and the tables rebuilt
+	private static final int ITERATIONS = 4;
+
+	private final int maxTables;
+	private final int[] counts = new int[ALPH_SIZE];
+	private final int[][] tableCounts = new int[MAX_TABLES][ALPH_SIZE];
+	private final int[][] lengths = new int[MAX_TABLES][];
+	private final HuffCodebook[] books = new HuffCodebook[MAX_TABLES];
+	private final int[] smoothed = new int[ALPH_SIZE];
+	private final long[] groupBits = new long[MAX_TABLES];
+	private final HuffEncodeContext ctx = new HuffEncodeContext();
+	private byte[] selectors = new byte[0];
+	private int tables;
+	private int groups;
+
+	/**
+	 * HuffMultiTable constructor
+	 *
+	 * @param maxTables is the most tables to code a block with, from MIN_TABLES
+	 *                  to MAX_TABLES. Smaller blocks get fewer
+	 */
+	public HuffMultiTable(int maxTables) {
+		if (maxTables < MIN_TABLES || maxTables > MAX_TABLES) {
+			throw new IllegalArgumentException("bad number of tables " + maxTables);
+		}
+		this.maxTables = maxTables;
+	}
+
+	/**
+	 * HuffMultiTable constructor for up to MAX_TABLES tables
+	 */
+	public HuffMultiTable() {
+		this(MAX_TABLES);
+	}
+
+	/**
+	 * Train the tables for src[off..off+len) and choose the table of each group,
+	 * ready for write()
+	 *
+	 * @return the number of bits write() will write, not counting the padding of
+	 *         the last byte
+	 */
+	public long train(byte[] src, int off, int len) {
+		Arrays.fill(this.counts, 0);
+		for (int i = off; i < off + len; i++) {
+			this.counts[src[i] & 0xff]++;
+		}
+		return train(src, off, len, this.counts);
+	}
+
+	@Override
+	public int type() {
+		return BLOCK_MULTI;
+	}
+
+	@Override
+	public long train(byte[] src, int off, int len, int[] counts) {
+		this.groups = (len + GROUP_SIZE - 1) / GROUP_SIZE;
+		this.tables = tablesFor(this.groups);
+		if (this.selectors.length < this.groups) {
+			this.selectors = new byte[this.groups];
+		}
+		System.arraycopy(counts, 0, this.counts, 0, ALPH_SIZE);
+
+		// start each table from the counts of an equal stretch of groups
+		for (int t = 0; t < this.tables; t++) {
+			Arrays.fill(this.tableCounts[t], 0);
+			int from = off + (int) ((long) len * t / this.tables);
+			int to = off + (int) ((long) len * (t + 1) / this.tables);
+			for (int i = from; i < to; i++) {
+				this.tableCounts[t][src[i] & 0xff]++;
+			}
+		}
+
+		for (int iteration = 0; iteration < ITERATIONS; iteration++) {
+			buildTables();
+			assignGroups(src, off, len);
+		}
+		buildTables();
+
+		// the tables, the selectors and the codes
+		long bits = 3;
+		for (int t = 0; t < this.tables; t++) {
+			bits += this.books[t].treeBits();
+			for (int ch = 0; ch < ALPH_SIZE; ch++) {
+				bits += (long) this.tableCounts[t][ch] * Math.max(this.lengths[t][ch], 0);
+			}
+		}
+		return bits + selectorBits();
+	}
+
+	@Override
+	public long write(byte[] src, int off, int len, OutputStream out) throws IOException {
+		this.ctx.reset(out);
+		this.ctx.writeBits(this.tables, 3);
+		for (int t = 0; t < this.tables; t++) {
+			this.books[t].writeTree(this.ctx);
+		}
+
+		// each selector is written as its position in the tables most recently
+		// used first, as that many 1 bits and a 0
+		byte[] order = new byte[] { 0, 1, 2, 3, 4, 5 };
+		for (int g = 0; g < this.groups; g++) {
+			int position = moveToFront(order, this.selectors[g]);
+			this.ctx.writeBits(((1L << position) - 1) << 1, position + 1);
+		}
+
+		for (int g = 0; g < this.groups; g++) {
+			int from = off + g * GROUP_SIZE;
+			this.ctx.encode(this.books[this.selectors[g]], src, from, Math.min(GROUP_SIZE, off + len - from));
+		}
+		long bits = this.ctx.bitsWritten();
+		this.ctx.finish();
+		return bits;
+	}
+
+	/**
+	 * @return the count of each character in the block last passed to train()
+	 */
+	public int[] counts() {
+		return this.counts;
+	}
+
+	/**
+	 * @return the number of tables chosen by the last call to train()
+	 */
+	public int tables() {
+		return this.tables;
+	}
+
+	/**
+	 * @return the length of the longest code of the tables
+	 */
+	@Override
+	public int decode(HuffDecodeContext in, byte[] out, int length) throws IOException {
+		int tables = in.readBits(3);
+		if (tables < MIN_TABLES || tables > MAX_TABLES) {
+			throw new IOException("bad number of tables " + tables);
+		}
+		HuffDecodeTable[] decoders = new HuffDecodeTable[tables];
+		int depth = 0;
+		for (int t = 0; t < tables; t++) {
+			HuffCodebook book = HuffDecodeTable.readCodebook(in);
+			decoders[t] = HuffDecodeTable.fromCodebook(book);
+			depth = Math.max(depth, book.maxLength());
+		}
+
+		int groups = (length + GROUP_SIZE - 1) / GROUP_SIZE;
+		byte[] selectors = new byte[groups];
+		byte[] order = new byte[] { 0, 1, 2, 3, 4, 5 };
+		for (int g = 0; g < groups; g++) {
+			int position = 0;
+			while (in.readBits(1) == 1) {
+				if (++position == tables) {
+					throw new IOException("bad selector in group " + g);
+				}
+			}
+			selectors[g] = order[position];
+			System.arraycopy(order, 0, order, 1, position);
+			order[0] = selectors[g];
+		}
+
+		int pos = 0;
+		for (int g = 0; g < groups; g++) {
+			HuffDecodeTable table = decoders[selectors[g]];
+			int end = Math.min(pos + GROUP_SIZE, length);
+			while (pos < end) {
+				int ch = in.decodeSymbol(table);
+				if (ch == PSEUDO_EOF) {
+					throw new IOException("unexpected pseudo EOF in group " + g);
+				}
+				out[pos++] = (byte) ch;
+			}
+		}
+		return depth;
+	}
+
+	/*
+	 * Helper method to choose the number of tables for a block of the given number
+	 * of groups. Each table costs its tree, so small blocks get fewer
+	 */
+	private int tablesFor(int groups) {
+		int n = (groups < 200) ? 2 : (groups < 600) ? 3 : (groups < 1200) ? 4 : (groups < 2400) ? 5 : 6;
+		return Math.min(n, this.maxTables);
+	}
+
+	/*
+	 * Helper method to build each table from the counts of its groups. Every
+	 * character in the block is counted at least once, so any table can code any
+	 * group
+	 */
+	private void buildTables() {
+		for (int t = 0; t < this.tables; t++) {
+			for (int ch = 0; ch < ALPH_SIZE; ch++) {
+				this.smoothed[ch] = this.tableCounts[t][ch] + ((this.counts[ch] > 0) ? 1 : 0);
+			}
+			this.books[t] = HuffCodebook.fromCounts(this.smoothed);
+			this.lengths[t] = this.books[t].lengths();
+		}
+	}
+
+	/*
+	 * Helper method to give each group to the table that codes it in the fewest
+	 * bits, and count each table's characters again from its groups
+	 */
+	private void assignGroups(byte[] src, int off, int len) {
+		for (int t = 0; t < this.tables; t++) {
+			Arrays.fill(this.tableCounts[t], 0);
+		}
+		for (int g = 0; g < this.groups; g++) {
+			int from = off + g * GROUP_SIZE;
+			int to = Math.min(from + GROUP_SIZE, off + len);
+			Arrays.fill(this.groupBits, 0);
+			for (int i = from; i < to; i++) {
+				int ch = src[i] & 0xff;
+				for (int t = 0; t < this.tables; t++) {
+					this.groupBits[t] += this.lengths[t][ch];
+				}
+			}
+			int best = 0;
+			for (int t = 1; t < this.tables; t++) {
+				if (this.groupBits[t] < this.groupBits[best]) {
+					best = t;
+				}
+			}
+			this.selectors[g] = (byte) best;
+			int[] table = this.tableCounts[best];
+			for (int i = from; i < to; i++) {
+				table[src[i] & 0xff]++;
+			}
+		}
+	}
+
+	/*
+	 * Helper method to count the bits of the move-to-front coded selectors
+	 */
+	private long selectorBits() {
+		byte[] order = new byte[] { 0, 1, 2, 3, 4, 5 };
+		long bits = 0;
+		for (int g = 0; g < this.groups; g++) {
+			bits += moveToFront(order, this.selectors[g]) + 1;
+		}
+		return bits;
+	}
+
+	/*
+	 * Helper method to move table t to the front of order. Returns its position
+	 * before the move
+	 */
+	private static int moveToFront(byte[] order, byte t) {
+		int position = 0;
+		while (order[position] != t) {
+			position++;
+		}
+		System.arraycopy(order, 0, order, 1, position);
+		order[0] = t;
+		return position;
+	}
+
+}
@@ -0,0 +1,72 @@
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * @author clairewalker
+ *
+ */
+public class HuffMultiTableTest {
+
+	/*
+	 * Helper method to make data that switches between two alphabets every few
+	 * hundred bytes
+	 */
+	private byte[] data() {
+		Random r = new Random(1);
+		byte[] data = new byte[30000];
+		for (int i = 0; i < data.length; i++) {
+			String letters = ((i / 300) % 2 == 0) ? "etaoin " : "0123456789,.";
+			data[i] = (byte) letters.charAt(r.nextInt(letters.length()));
+		}
+		return data;
+	}
+
+	/**
+	 * Tests that a payload decodes to the original data, and that train() gives
+	 * its size
+	 *
+	 * @throws IOException
+	 */
+	@Test
+	public void testRoundTrip() throws IOException {
+		byte[] data = data();
+		HuffMultiTable m = new HuffMultiTable();
+		long bits = m.train(data, 0, data.length);
+		assertEquals(4, m.tables());
+		ByteArrayOutputStream payload = new ByteArrayOutputStream();
+		assertEquals(bits, m.write(data, 0, data.length, payload));
+		assertEquals((bits + 7) / 8, payload.size());
+
+		byte[] out = new byte[data.length];
+		m.decode(HuffCodec.decoder().reset(new ByteArrayInputStream(payload.toByteArray())), out,
+				data.length);
+		assertArrayEquals(data, out);
+	}
+
+	/**
+	 * Tests that a block stream coded with several tables is smaller than one
+	 * coded with one tree a block, and decompresses to the original data
+	 *
+	 * @throws IOException
+	 */
+	@Test
+	public void testBlockStream() throws IOException {
+		byte[] data = data();
+		ByteArrayOutputStream single = new ByteArrayOutputStream();
+		HuffBlockFormat.compress(new ByteArrayInputStream(data), single, 1 << 16, false, 1);
+		ByteArrayOutputStream multi = new ByteArrayOutputStream();
+		HuffBlockFormat.compress(new ByteArrayInputStream(data), multi, 1 << 16, false, 6);
+		assertTrue(multi.size() < single.size());
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		HuffBlockFormat.decompress(new ByteArrayInputStream(multi.toByteArray()), out);
+		assertArrayEquals(data, out.toByteArray());
+	}
+
+}
@@ -0,0 +1,327 @@
+import java.io.BufferedOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * Decodes a file in the single tree format of Huff.write() on several threads,
+ * although the format has no block boundaries to split it at. The codes are cut
+ * into chunks of bits, and each chunk is decoded speculatively from its first
+ * bit, as if a code started there, recording the bit at which each code it
+ * decodes starts. A wrong guess decodes garbage at first, but Huffman codes
+ * synchronise themselves: once a speculative decode and the true one both start
+ * a code at the same bit, they decode the same characters from there on.
+ * <P>
+ * The chunks are then stitched together in order on the calling thread. The
+ * true decode reaches each chunk at a known bit, where the chunk before it
+ * stopped. From there it decodes on its own only until it starts a code at a
+ * bit where the chunk's speculative decode also started one, and then takes
+ * the chunk's characters from that code on. Usually that is within a few codes
+ * of the start of the chunk; at worst the chunk is decoded again, as the one
+ * thread decoder would. A speculative decode that meets what looks like the
+ * pseudo EOF, or the end of the file, just stops there.
+ * <P>
+ * The output is the same as the single thread decoder's. Only a bounded number
+ * of decoded chunks are held at once, so files of any size can be decoded.
+ *
+ * @author clairewalker
+ *
+ */
+public final class HuffParallelDecoder implements IHuffConstants {
+	/**
+	 * The number of compressed bytes in a chunk unless another size is given
+	 */
+	public static final int DEFAULT_CHUNK_SIZE = 1 << 20;
+
+	private final ExecutorService pool;
+	private final int chunkSize;
+	private final int inFlight;
+
+	/**
+	 * HuffParallelDecoder constructor
+	 *
+	 * @param pool      decodes the chunks
+	 * @param chunkSize is the number of compressed bytes in each chunk
+	 * @param inFlight  is the most chunks decoded ahead of the one being stitched
+	 * @throws IllegalArgumentException if chunkSize or inFlight is not positive
+	 */
+	public HuffParallelDecoder(ExecutorService pool, int chunkSize, int inFlight) {
+		if (chunkSize <= 0 || inFlight <= 0) {
+			throw new IllegalArgumentException("bad chunk size " + chunkSize + " or chunks in flight " + inFlight);
+		}
+		this.pool = pool;
+		this.chunkSize = chunkSize;
+		this.inFlight = inFlight;
+	}
+
+	/**
+	 * HuffParallelDecoder constructor that runs on the common pool with the
+	 * default chunk size, and two chunks in flight a processor
+	 */
+	public HuffParallelDecoder() {
+		this(ForkJoinPool.commonPool(), DEFAULT_CHUNK_SIZE, 2 * Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * Decompress inFile, written by Huff.write(), to outFile
+	 *
+	 * @return the number of bytes written
+	 * @throws IOException if the file is not compressed, is corrupt, or reading
+	 *                     or writing fails
+	 */
+	public long uncompress(String inFile, String outFile) throws IOException {
+		try (OutputStream out = new BufferedOutputStream(new FileOutputStream(outFile), 1 << 16)) {
+			return decode(inFile, out);
+		}
+	}
+
+	/**
+	 * Decode inFile, written by Huff.write(), to out. The output stream is
+	 * flushed but not closed.
+	 *
+	 * @return the number of bytes written
+	 * @throws IOException if the file is not compressed, is corrupt, or reading
+	 *                     or writing fails
+	 */
+	public long decode(String inFile, OutputStream out) throws IOException {
+		long start = HuffMetrics.start();
+		try (RandomAccessFile file = new RandomAccessFile(inFile, "r")) {
+			FileChannel channel = file.getChannel();
+			long bits = 8 * channel.size();
+
+			// the header, on this thread
+			HuffDecodeContext ctx = HuffCodec.decoder().reset(new Positioned(channel, 0));
+			HuffDecodeTable table;
+			long codes;
+			try {
+				if (ctx.readBits(BITS_PER_INT) != MAGIC_NUMBER) {
+					throw new IOException("not a compressed file");
+				}
+				table = HuffDecodeTable.read(ctx);
+				codes = ctx.bitsRead();
+
+				// nothing to share out
+				if (table.rootLeaf() >= 0 || bits - codes <= 8L * this.chunkSize) {
+					long bytes = ctx.decode(table, out);
+					HuffMetrics.uncompressed(ctx.bitsRead(), bytes, start);
+					return bytes;
+				}
+			} finally {
+				ctx.finish();
+			}
+
+			// decode chunks ahead while stitching them in order
+			long chunkBits = 8L * this.chunkSize;
+			Deque<Future<Chunk>> ahead = new ArrayDeque<Future<Chunk>>();
+			long next = codes;
+			long position = codes;
+			long bytes = 0;
+			try {
+				while (true) {
+					while (ahead.size() < this.inFlight && next < bits) {
+						long from = next;
+						long to = Math.min(bits, from + chunkBits);
+						ahead.add(this.pool.submit(() -> speculate(channel, table, from, to)));
+						next = to;
+					}
+					if (ahead.isEmpty()) {
+						throw new IOException("unexpected end of input file");
+					}
+					Chunk chunk = ahead.poll().get();
+					position = stitch(channel, table, chunk, position, out);
+					bytes += chunk.written;
+					if (position < 0) {
+						break;
+					}
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IOException("decode interrupted");
+			} catch (ExecutionException e) {
+				if (e.getCause() instanceof IOException) {
+					throw (IOException) e.getCause();
+				}
+				throw new IOException("decode failed", e.getCause());
+			} finally {
+				for (Future<Chunk> f : ahead) {
+					f.cancel(true);
+				}
+			}
+			out.flush();
+			HuffMetrics.uncompressed(bits, bytes, start);
+			return bytes;
+		}
+	}
+
+	/*
+	 * Helper method to decode the bits from..to as if a code started at from,
+	 * recording the characters and the bit each code starts at, until a code
+	 * would start at or after to, or the pseudo EOF or the end of the file
+	 */
+	private static Chunk speculate(FileChannel channel, HuffDecodeTable table, long from, long to)
+			throws IOException {
+		Chunk chunk = new Chunk(from, to);
+		HuffDecodeContext ctx = HuffCodec.decoder().reset(new Positioned(channel, from / 8));
+		try {
+			long base = from / 8 * 8;
+			ctx.readBits((int) (from - base));
+			long pos = from;
+			while (pos < to) {
+				int ch;
+				try {
+					ch = ctx.decodeSymbol(table);
+				} catch (IOException e) {
+					// a code cut off by the end of the file, not the true one
+					break;
+				}
+				chunk.starts[(int) ((pos - from) >>> 6)] |= 1L << (pos - from);
+				if (ch == PSEUDO_EOF) {
+					chunk.eof = true;
+					break;
+				}
+				chunk.add(ch);
+				pos = base + ctx.bitsRead();
+			}
+			chunk.end = pos;
+		} finally {
+			ctx.finish();
+		}
+		return chunk;
+	}
+
+	/*
+	 * Helper method to write a chunk's part of the output, given the bit at which
+	 * the true decode starts its next code. The true decode runs on its own until
+	 * it starts a code where the chunk did. Returns the bit at which the code after
+	 * the chunk starts, or -1 if the pseudo EOF was decoded
+	 */
+	private static long stitch(FileChannel channel, HuffDecodeTable table, Chunk chunk, long position,
+			OutputStream out) throws IOException {
+		if (!chunk.startsAt(position)) {
+			HuffDecodeContext ctx = HuffCodec.decoder().reset(new Positioned(channel, position / 8));
+			try {
+				long base = position / 8 * 8;
+				ctx.readBits((int) (position - base));
+				while (position < chunk.to && !chunk.startsAt(position)) {
+					int ch = ctx.decodeSymbol(table);
+					if (ch == PSEUDO_EOF) {
+						return -1;
+					}
+					out.write(ch);
+					chunk.written++;
+					position = base + ctx.bitsRead();
+				}
+			} finally {
+				ctx.finish();
+			}
+			if (position >= chunk.to) {
+				return position;
+			}
+		}
+
+		// in step with the chunk from here
+		int from = chunk.rank(position);
+		out.write(chunk.symbols, from, chunk.count - from);
+		chunk.written += chunk.count - from;
+		if (chunk.eof) {
+			return -1;
+		}
+		if (chunk.end < chunk.to) {
+			// the file ended in the middle of the true decode's code
+			throw new IOException("unexpected end of input file");
+		}
+		return chunk.end;
+	}
+
+	/*
+	 * The speculative decode of one chunk: its characters, a bit set for each bit
+	 * of the chunk that a code starts at, and where the decode stopped
+	 */
+	private static final class Chunk {
+		final long from;
+		final long to;
+		final long[] starts;
+		byte[] symbols = new byte[1 << 12];
+		int count;
+		long end;
+		boolean eof;
+		long written;
+
+		Chunk(long from, long to) {
+			this.from = from;
+			this.to = to;
+			this.starts = new long[(int) ((to - from + 63) >>> 6)];
+		}
+
+		void add(int ch) {
+			if (this.count == this.symbols.length) {
+				byte[] bigger = new byte[2 * this.count];
+				System.arraycopy(this.symbols, 0, bigger, 0, this.count);
+				this.symbols = bigger;
+			}
+			this.symbols[this.count++] = (byte) ch;
+		}
+
+		boolean startsAt(long pos) {
+			if (pos < this.from || pos >= this.to) {
+				return false;
+			}
+			long i = pos - this.from;
+			return (this.starts[(int) (i >>> 6)] & (1L << i)) != 0;
+		}
+
+		/*
+		 * the number of codes that start before pos, which is the index of the
+		 * character whose code starts at pos
+		 */
+		int rank(long pos) {
+			long i = pos - this.from;
+			int word = (int) (i >>> 6);
+			int n = 0;
+			for (int w = 0; w < word; w++) {
+				n += Long.bitCount(this.starts[w]);
+			}
+			return n + Long.bitCount(this.starts[word] & ((1L << i) - 1));
+		}
+	}
+
+	/*
+	 * An input stream of a file from an offset, with positioned reads so that
+	 * several threads can read the same file at once
+	 */
+	private static final class Positioned extends InputStream {
+		private final FileChannel channel;
+		private long position;
+
+		Positioned(FileChannel channel, long position) {
+			this.channel = channel;
+			this.position = position;
+		}
+
+		@Override
+		public int read() throws IOException {
+			byte[] b = new byte[1];
+			return (read(b, 0, 1) < 0) ? -1 : (b[0] & 0xff);
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			int n = this.channel.read(ByteBuffer.wrap(b, off, len), this.position);
+			if (n > 0) {
+				this.position += n;
+			}
+			return n;
+		}
+	}
+
+}
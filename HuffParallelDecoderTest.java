@@ -0,0 +1,104 @@
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.Test;
+
+/**
+ * @author clairewalker
+ *
+ */
+public class HuffParallelDecoderTest {
+
+	/*
+	 * Helper method to write data in the single tree format to a new temporary
+	 * file
+	 */
+	private File compress(byte[] data) throws IOException {
+		File f = File.createTempFile("huff", ".hf");
+		f.deleteOnExit();
+		int[] counts = new int[IHuffConstants.ALPH_SIZE];
+		for (byte b : data) {
+			counts[b & 0xff]++;
+		}
+		try (OutputStream out = new FileOutputStream(f)) {
+			new HuffCodec(HuffCodebook.fromCounts(counts)).encode(data, 0, data.length, out);
+		}
+		return f;
+	}
+
+	/**
+	 * Tests that decoding in chunks gives the original data, for chunks from a
+	 * byte, shorter than the longest code, up to larger than the file
+	 *
+	 * @throws IOException
+	 */
+	@Test
+	public void testChunkSizes() throws IOException {
+		ExecutorService pool = Executors.newFixedThreadPool(4);
+		try {
+			for (byte[] data : new byte[][] { HuffTestData.textWithRareBytes(200000), HuffTestData.textWithRareBytes(10),
+					new byte[0], new byte[5000] }) {
+				File f = compress(data);
+				for (int chunkSize : new int[] { 1, 3, 64, 4096, 1 << 20 }) {
+					ByteArrayOutputStream out = new ByteArrayOutputStream();
+					long bytes = new HuffParallelDecoder(pool, chunkSize, 8).decode(f.getPath(), out);
+					assertEquals(data.length, bytes);
+					assertArrayEquals(data, out.toByteArray());
+				}
+			}
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	/**
+	 * Tests that a file written by Huff.write() decodes to the same file as
+	 * Huff.uncompress() writes
+	 *
+	 * @throws IOException
+	 */
+	@Test
+	public void testSameAsUncompress() throws IOException {
+		File in = File.createTempFile("huff", ".txt");
+		in.deleteOnExit();
+		File compressed = File.createTempFile("huff", ".hf");
+		compressed.deleteOnExit();
+		File out = File.createTempFile("huff", ".out");
+		out.deleteOnExit();
+		byte[] data = HuffTestData.textWithRareBytes(500000);
+		Files.write(in.toPath(), data);
+		new Huff().write(in.getPath(), compressed.getPath(), true);
+
+		assertEquals(data.length, new HuffParallelDecoder().uncompress(compressed.getPath(), out.getPath()));
+		assertArrayEquals(data, Files.readAllBytes(out.toPath()));
+	}
+
+	/**
+	 * Tests that a file cut off before its pseudo EOF is reported as corrupt
+	 *
+	 * @throws IOException
+	 */
+	@Test(expected = IOException.class)
+	public void testTruncated() throws IOException {
+		File f = compress(HuffTestData.textWithRareBytes(100000));
+		try (RandomAccessFile raf = new RandomAccessFile(f, "rw")) {
+			raf.setLength(raf.length() - 100);
+		}
+		ExecutorService pool = Executors.newFixedThreadPool(2);
+		try {
+			new HuffParallelDecoder(pool, 1000, 4).decode(f.getPath(), OutputStream.nullOutputStream());
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+}
@@ -0,0 +1,230 @@
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * Encodes one input as one tree and one stream of codes, in the format of
+ * Huff.write() and HuffCodec.encode(), with the work shared between threads.
+ * The input is cut into segments, which are counted in parallel. Once the tree
+ * is built from the sum of the counts, the number of bits each segment's codes
+ * take up is known from its counts alone, so a prefix sum of those lengths gives
+ * the bit offset each segment starts at in the output. Every segment is then
+ * encoded in parallel straight into its place in one preallocated output array.
+ * <P>
+ * Segments meet in the middle of bytes. Each segment's codes are written with
+ * zero bits before and after them to fill out its first and last bytes, and
+ * the worker keeps its first byte instead of storing it, so no two workers ever
+ * store to the same byte. The first bytes are ORed into place once all the
+ * workers are done, which stitches each segment to the one before it.
+ * <P>
+ * The output is the same, bit for bit, as encoding on one thread. An encoder
+ * holds no state between calls, and may be used by several threads at once.
+ *
+ * @author clairewalker
+ *
+ */
+public final class HuffParallelEncoder implements IHuffConstants {
+	/**
+	 * The number of bytes of input in a segment unless another size is given
+	 */
+	public static final int DEFAULT_SEGMENT_SIZE = 1 << 20;
+
+	private final ExecutorService pool;
+	private final int segmentSize;
+
+	/**
+	 * HuffParallelEncoder constructor
+	 *
+	 * @param pool        runs the counting and encoding of the segments
+	 * @param segmentSize is the number of bytes of input in each segment
+	 * @throws IllegalArgumentException if segmentSize is not positive
+	 */
+	public HuffParallelEncoder(ExecutorService pool, int segmentSize) {
+		if (segmentSize <= 0) {
+			throw new IllegalArgumentException("bad segment size " + segmentSize);
+		}
+		this.pool = pool;
+		this.segmentSize = segmentSize;
+	}
+
+	/**
+	 * HuffParallelEncoder constructor that runs on the common pool with the
+	 * default segment size
+	 */
+	public HuffParallelEncoder() {
+		this(ForkJoinPool.commonPool(), DEFAULT_SEGMENT_SIZE);
+	}
+
+	/**
+	 * Encode src[off..off+len) to out as the magic number, the tree and the codes
+	 * followed by the pseudo EOF. The output stream is flushed but not closed.
+	 *
+	 * @return the number of bits written, not counting the padding of the last
+	 *         byte
+	 * @throws IOException if writing fails, or the encoding is interrupted
+	 */
+	public long encode(byte[] src, int off, int len, OutputStream out) throws IOException {
+		long start = HuffMetrics.start();
+		int segments = Math.max(1, (int) ((len + (long) this.segmentSize - 1) / this.segmentSize));
+
+		// count every segment, then build the tree from the total
+		List<Callable<int[]>> counting = new ArrayList<Callable<int[]>>(segments);
+		for (int i = 0; i < segments; i++) {
+			int from = off + i * this.segmentSize;
+			int to = off + Math.min(len, (i + 1) * this.segmentSize);
+			counting.add(() -> {
+				CharCounter counter = new CharCounter();
+				counter.countAll(src, from, to - from);
+				return counter.counts();
+			});
+		}
+		List<int[]> counts = run(counting);
+		int[] total = new int[ALPH_SIZE];
+		for (int[] c : counts) {
+			for (int ch = 0; ch < ALPH_SIZE; ch++) {
+				total[ch] += c[ch];
+			}
+		}
+		HuffCodebook book = HuffCodebook.fromCounts(total);
+
+		// the bit offset of each segment, after the header: the prefix sum of the
+		// bit lengths of the segments before it
+		long[] offsets = new long[segments + 1];
+		offsets[0] = BITS_PER_INT + book.treeBits();
+		for (int i = 0; i < segments; i++) {
+			offsets[i + 1] = book.encodedBits(counts.get(i)) - book.length(PSEUDO_EOF);
+		}
+		Arrays.parallelPrefix(offsets, Long::sum);
+		long bits = offsets[segments] + book.length(PSEUDO_EOF);
+		if ((bits + 7) / 8 > Integer.MAX_VALUE - 8) {
+			throw new IOException("output too large for one array");
+		}
+		byte[] dst = new byte[(int) ((bits + 7) / 8)];
+
+		// the header is written first, so no worker stores to its bytes
+		HuffEncodeContext ctx = HuffCodec.encoder().reset(new Region(dst, 0, false));
+		ctx.writeBits(MAGIC_NUMBER, BITS_PER_INT);
+		book.writeTree(ctx);
+		ctx.finish();
+
+		// encode every segment into place, the last one with the pseudo EOF
+		List<Callable<Region>> encoding = new ArrayList<Callable<Region>>(segments);
+		for (int i = 0; i < segments; i++) {
+			int from = off + i * this.segmentSize;
+			int to = off + Math.min(len, (i + 1) * this.segmentSize);
+			long bitOffset = offsets[i];
+			boolean last = i == segments - 1;
+			encoding.add(() -> {
+				Region region = new Region(dst, (int) (bitOffset / 8), true);
+				HuffEncodeContext c = HuffCodec.encoder().reset(region);
+				c.writeBits(0, (int) (bitOffset % 8));
+				c.encode(book, src, from, to - from);
+				if (last) {
+					c.writeCode(book, PSEUDO_EOF);
+				}
+				c.finish();
+				return region;
+			});
+		}
+
+		// stitch each segment's first byte to the last byte of the one before it
+		for (Region region : run(encoding)) {
+			if (region.kept) {
+				dst[region.start] |= region.first;
+			}
+		}
+		out.write(dst);
+		out.flush();
+		HuffMetrics.compressed(len, bits, start);
+		return bits;
+	}
+
+	/**
+	 * Compress inFile to outFile in the format of Huff.write(), on the encoder's
+	 * threads
+	 *
+	 * @return the number of bits written, not counting the padding of the last
+	 *         byte
+	 * @throws IOException if reading or writing fails
+	 */
+	public long write(String inFile, String outFile) throws IOException {
+		byte[] src = Files.readAllBytes(Paths.get(inFile));
+		try (OutputStream out = new FileOutputStream(outFile)) {
+			return encode(src, 0, src.length, out);
+		}
+	}
+
+	/*
+	 * Helper method to run tasks on the pool, returning their results in order
+	 */
+	private <T> List<T> run(List<Callable<T>> tasks) throws IOException {
+		List<T> results = new ArrayList<T>(tasks.size());
+		try {
+			for (Future<T> f : this.pool.invokeAll(tasks)) {
+				results.add(f.get());
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("encode interrupted");
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof IOException) {
+				throw (IOException) e.getCause();
+			}
+			throw new IOException("encode failed", e.getCause());
+		}
+		return results;
+	}
+
+	/*
+	 * An output stream that stores into an array from a start index, keeping its
+	 * first byte instead of storing it if asked to
+	 */
+	private static final class Region extends OutputStream {
+		private final byte[] dst;
+		private final int start;
+		private final boolean keepFirst;
+		private int pos;
+		boolean kept;
+		byte first;
+
+		Region(byte[] dst, int start, boolean keepFirst) {
+			this.dst = dst;
+			this.start = start;
+			this.keepFirst = keepFirst;
+			this.pos = start;
+		}
+
+		@Override
+		public void write(int b) {
+			if (this.keepFirst && !this.kept) {
+				this.first = (byte) b;
+				this.kept = true;
+			} else {
+				this.dst[this.pos] = (byte) b;
+			}
+			this.pos++;
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) {
+			if (len > 0 && this.keepFirst && !this.kept) {
+				write(b[off]);
+				off++;
+				len--;
+			}
+			System.arraycopy(b, off, this.dst, this.pos, len);
+			this.pos += len;
+		}
+	}
+
+}
@@ -0,0 +1,146 @@
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.Test;
+
+/**
+ * @author clairewalker
+ *
+ */
+public class HuffParallelEncoderTest {
+
+	/*
+	 * Helper method to encode data on one thread with the tree Huff.write() would
+	 * build for it
+	 */
+	private byte[] encodeSerially(byte[] data) throws IOException {
+		int[] counts = new int[IHuffConstants.ALPH_SIZE];
+		for (byte b : data) {
+			counts[b & 0xff]++;
+		}
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		new HuffCodec(HuffCodebook.fromCounts(counts)).encode(data, 0, data.length, out);
+		return out.toByteArray();
+	}
+
+	/**
+	 * Tests that the output is the same as encoding on one thread, whatever the
+	 * segment size, so segments that meet in the middle of a byte are stitched
+	 * together
+	 *
+	 * @throws IOException
+	 */
+	@Test
+	public void testSameAsSerial() throws IOException {
+		ExecutorService pool = Executors.newFixedThreadPool(4);
+		try {
+			byte[] text = HuffTestData.text(100000);
+			byte[] runs = new byte[5000];
+			runs[2500] = 'x';
+			for (byte[] data : new byte[][] { text, runs, new byte[0], new byte[] { 'a' } }) {
+				byte[] expected = encodeSerially(data);
+				for (int segmentSize : new int[] { 1, 7, 1000, 1 << 20 }) {
+					ByteArrayOutputStream out = new ByteArrayOutputStream();
+					long bits = new HuffParallelEncoder(pool, segmentSize).encode(data, 0, data.length, out);
+					assertArrayEquals(expected, out.toByteArray());
+					assertEquals(expected.length, (bits + 7) / 8);
+				}
+			}
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	/**
+	 * Tests that a file written in parallel is the same as one written by
+	 * Huff.write(), and decodes to the original
+	 *
+	 * @throws IOException
+	 */
+	@Test
+	public void testSameAsWrite() throws IOException {
+		File in = File.createTempFile("huff", ".txt");
+		in.deleteOnExit();
+		File serial = File.createTempFile("huff", ".hf");
+		serial.deleteOnExit();
+		File parallel = File.createTempFile("huff", ".hf");
+		parallel.deleteOnExit();
+		byte[] data = HuffTestData.text(300000);
+		Files.write(in.toPath(), data);
+
+		int bits = new Huff().write(in.getPath(), serial.getPath(), true);
+		ExecutorService pool = Executors.newFixedThreadPool(4);
+		try {
+			assertEquals(bits, new HuffParallelEncoder(pool, 65536).write(in.getPath(), parallel.getPath()));
+		} finally {
+			pool.shutdown();
+		}
+		assertArrayEquals(Files.readAllBytes(serial.toPath()), Files.readAllBytes(parallel.toPath()));
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		HuffBlockFormat.decompressAny(new ByteArrayInputStream(Files.readAllBytes(parallel.toPath())), out, null);
+		assertArrayEquals(data, out.toByteArray());
+	}
+
+	/*
+	 * Helper method to check that data written in parallel is the same file
+	 * Huff.write() writes for it
+	 */
+	private void assertSameAsWrite(byte[] data, ExecutorService pool) throws IOException {
+		File in = File.createTempFile("huff", ".txt");
+		in.deleteOnExit();
+		File serial = File.createTempFile("huff", ".hf");
+		serial.deleteOnExit();
+		File parallel = File.createTempFile("huff", ".hf");
+		parallel.deleteOnExit();
+		Files.write(in.toPath(), data);
+		int bits = new Huff().write(in.getPath(), serial.getPath(), true);
+		assertEquals(bits, new HuffParallelEncoder(pool, 3).write(in.getPath(), parallel.getPath()));
+		assertArrayEquals(new String(data, "ISO-8859-1"), Files.readAllBytes(serial.toPath()),
+				Files.readAllBytes(parallel.toPath()));
+	}
+
+	/**
+	 * Tests that characters with equal counts get the same codes as they do from
+	 * Huff.write(), for inputs where most or all of the counts are tied
+	 *
+	 * @throws IOException
+	 */
+	@Test
+	public void testTiedCountsSameAsWrite() throws IOException {
+		ExecutorService pool = Executors.newFixedThreadPool(4);
+		try {
+			assertSameAsWrite("mississippi".getBytes("ISO-8859-1"), pool);
+			assertSameAsWrite("hello world".getBytes("ISO-8859-1"), pool);
+
+			// every byte value twice, so all 256 counts are tied
+			byte[] all = new byte[512];
+			for (int i = 0; i < all.length; i++) {
+				all[i] = (byte) (i * 37);
+			}
+			assertSameAsWrite(all, pool);
+
+			// short random strings over small alphabets tie often
+			Random r = new Random(2);
+			for (int n = 0; n < 200; n++) {
+				byte[] data = new byte[1 + r.nextInt(40)];
+				int alphabet = 2 + r.nextInt(20);
+				for (int i = 0; i < data.length; i++) {
+					data[i] = (byte) ('a' + r.nextInt(alphabet));
+				}
+				assertSameAsWrite(data, pool);
+			}
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+}
@@ -0,0 +1,38 @@
+/**
+ * The phases of compressing and uncompressing that are timed and reported to
+ * IHuffMetricsListener objects.
+ * 
+ * @author clairewalker
+ *
+ */
+public enum HuffPhase {
+	/**
+	 * Counting the characters of the input
+	 */
+	COUNT,
+
+	/**
+	 * Building the hufftree from the counts
+	 */
+	TREE,
+
+	/**
+	 * Making the table of codes, or the decode table, for a tree
+	 */
+	TABLE,
+
+	/**
+	 * Writing or reading the header, including the tree
+	 */
+	HEADER,
+
+	/**
+	 * Writing the codes of the input
+	 */
+	ENCODE,
+
+	/**
+	 * Decoding the codes of a compressed input
+	 */
+	DECODE
+}
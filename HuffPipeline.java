@@ -0,0 +1,403 @@
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Compresses to a block stream with reading, encoding and writing overlapped. A
+ * reader thread fills free blocks from the input, one or more encoder threads
+ * compress them, and the calling thread writes them out in order. The stages
+ * are connected by bounded queues, and a fixed set of blocks circulates between
+ * them: when every block is in use the reader waits for the writer to free one,
+ * so no more than that many blocks are ever held in memory. The output is the
+ * same as HuffBlockFormat.compress().
+ * 
+ * @author clairewalker
+ *
+ */
+public class HuffPipeline implements IHuffConstants {
+	// handed from the reader to each encoder, and from each encoder to the writer,
+	// when there are no more blocks
+	private static final HuffBlockBuffer DONE = new HuffBlockBuffer(0);
+
+	private final int blockSize;
+	private final int encoders;
+	private final int buffers;
+	private final boolean split;
+	private final Supplier<IHuffBlockCoder[]> coders;
+
+	/**
+	 * HuffPipeline constructor
+	 * 
+	 * @param blockSize is the number of bytes compressed into each block
+	 * @param encoders  is the number of encoder threads
+	 * @param buffers   is the number of blocks in circulation, at least encoders +
+	 *                  2 so the reader and writer can work while every encoder is
+	 *                  busy
+	 */
+	public HuffPipeline(int blockSize, int encoders, int buffers) {
+		this(blockSize, encoders, buffers, false);
+	}
+
+	/**
+	 * HuffPipeline constructor
+	 * 
+	 * @param blockSize is the number of bytes read into each block
+	 * @param encoders  is the number of encoder threads
+	 * @param buffers   is the number of blocks in circulation, at least encoders +
+	 *                  2
+	 * @param split     is true to let each encoder split its blocks where the data
+	 *                  changes, as HuffBlockFormat.compress() does with split
+	 */
+	public HuffPipeline(int blockSize, int encoders, int buffers, boolean split) {
+		this(blockSize, encoders, buffers, split, 1);
+	}
+
+	/**
+	 * HuffPipeline constructor
+	 * 
+	 * @param blockSize is the number of bytes read into each block
+	 * @param encoders  is the number of encoder threads
+	 * @param buffers   is the number of blocks in circulation, at least encoders +
+	 *                  2
+	 * @param split     is true to let each encoder split its blocks where the data
+	 *                  changes
+	 * @param tables    is the most Huffman tables to code a block with, or 1 for
+	 *                  one tree a block, as HuffBlockFormat.compress() does
+	 */
+	public HuffPipeline(int blockSize, int encoders, int buffers, boolean split, int tables) {
+		this(blockSize, encoders, buffers, split, tables, false);
+	}
+
+	/**
+	 * HuffPipeline constructor
+	 * 
+	 * @param blockSize is the number of bytes read into each block
+	 * @param encoders  is the number of encoder threads
+	 * @param buffers   is the number of blocks in circulation, at least encoders +
+	 *                  2
+	 * @param split     is true to let each encoder split its blocks where the data
+	 *                  changes
+	 * @param tables    is the most Huffman tables to code a block with, or 1 for
+	 *                  one tree a block
+	 * @param context   is true to also try an order-1 context model for each block,
+	 *                  as HuffBlockFormat.compress() does
+	 */
+	public HuffPipeline(int blockSize, int encoders, int buffers, boolean split, int tables, boolean context) {
+		this(blockSize, encoders, buffers, split, coders(tables, context));
+	}
+
+	/**
+	 * HuffPipeline constructor
+	 * 
+	 * @param blockSize is the number of bytes read into each block
+	 * @param encoders  is the number of encoder threads
+	 * @param buffers   is the number of blocks in circulation, at least encoders +
+	 *                  2
+	 * @param split     is true to let each encoder split its blocks where the data
+	 *                  changes
+	 * @param types     are the block types to choose between for each block, each
+	 *                  with a coder registered with HuffBlockCoders, in order of
+	 *                  preference when they tie
+	 */
+	public HuffPipeline(int blockSize, int encoders, int buffers, boolean split, int[] types) {
+		this(blockSize, encoders, buffers, split, coders(types));
+	}
+
+	/*
+	 * Private constructor for the others, with a source of each encoder's coders
+	 */
+	private HuffPipeline(int blockSize, int encoders, int buffers, boolean split,
+			Supplier<IHuffBlockCoder[]> coders) {
+		if (blockSize <= 0 || encoders <= 0 || buffers < encoders + 2) {
+			throw new IllegalArgumentException("bad pipeline size");
+		}
+		this.blockSize = blockSize;
+		this.encoders = encoders;
+		this.buffers = buffers;
+		this.split = split;
+		this.coders = coders;
+	}
+
+	/**
+	 * HuffPipeline constructor with the default block size, one encoder per
+	 * processor and two blocks per encoder
+	 */
+	public HuffPipeline() {
+		this(DEFAULT_BLOCK_SIZE, Runtime.getRuntime().availableProcessors(),
+				2 * Runtime.getRuntime().availableProcessors() + 2);
+	}
+
+	/*
+	 * Helper method to make each encoder's coders for the given tables and context
+	 * model, or none for one tree a block
+	 */
+	private static Supplier<IHuffBlockCoder[]> coders(int tables, boolean context) {
+		if (tables < 1 || tables > HuffMultiTable.MAX_TABLES) {
+			throw new IllegalArgumentException("bad number of tables " + tables);
+		}
+		if (tables == 1 && !context) {
+			return () -> null;
+		}
+		return () -> {
+			List<IHuffBlockCoder> coders = new ArrayList<>();
+			coders.add(new HuffTreeCoder());
+			if (tables > 1) {
+				coders.add(new HuffMultiTable(tables));
+			}
+			if (context) {
+				coders.add(new HuffContextModel());
+			}
+			return coders.toArray(new IHuffBlockCoder[0]);
+		};
+	}
+
+	/*
+	 * Helper method to make each encoder's coders for the given block types
+	 */
+	private static Supplier<IHuffBlockCoder[]> coders(int[] types) {
+		if (types.length == 0) {
+			throw new IllegalArgumentException("no block types");
+		}
+		int[] copy = types.clone();
+		// fail now rather than in every encoder if a type has no coder
+		HuffBlockCoders.create(copy);
+		return () -> HuffBlockCoders.create(copy);
+	}
+
+	/**
+	 * Compress inFile to outFile as a block stream
+	 * 
+	 * @return the statistics of the run
+	 * @throws IOException if reading or writing fails
+	 */
+	public HuffPipelineStats compress(String inFile, String outFile) throws IOException {
+		try (InputStream in = new FileInputStream(inFile); OutputStream out = new FileOutputStream(outFile)) {
+			return compress(in, out);
+		}
+	}
+
+	/**
+	 * Compress in to out as a block stream. The streams are not closed.
+	 * 
+	 * @return the statistics of the run
+	 * @throws IOException if reading or writing fails, or a stage is interrupted
+	 */
+	public HuffPipelineStats compress(InputStream in, OutputStream out) throws IOException {
+		return new Run(in, out).run();
+	}
+
+	/*
+	 * The state of one call to compress()
+	 */
+	private class Run {
+		private final InputStream in;
+		private final DataOutputStream out;
+		private final BlockingQueue<HuffBlockBuffer> free = new ArrayBlockingQueue<HuffBlockBuffer>(buffers);
+		private final BlockingQueue<HuffBlockBuffer> filled = new ArrayBlockingQueue<HuffBlockBuffer>(buffers + encoders);
+		private final BlockingQueue<HuffBlockBuffer> encoded = new ArrayBlockingQueue<HuffBlockBuffer>(buffers + encoders);
+		private final List<Thread> threads = new ArrayList<Thread>();
+		private final AtomicLong encodeNanos = new AtomicLong();
+		private final AtomicLong encodeStallNanos = new AtomicLong();
+		private volatile Throwable failure;
+		private long bytesIn;
+		private long readNanos;
+		private long readStallNanos;
+		private Thread writer;
+
+		Run(InputStream in, OutputStream out) {
+			this.in = in;
+			this.out = new DataOutputStream(new BufferedOutputStream(out, 1 << 16));
+			for (int i = 0; i < buffers; i++) {
+				this.free.add(new HuffBlockBuffer(blockSize));
+			}
+		}
+
+		/*
+		 * Start the reader and encoders, write on the calling thread, and collect the
+		 * statistics
+		 */
+		HuffPipelineStats run() throws IOException {
+			long start = System.nanoTime();
+			this.writer = Thread.currentThread();
+			this.threads.add(new Thread(this::read, "huff-reader"));
+			for (int i = 0; i < encoders; i++) {
+				this.threads.add(new Thread(this::encode, "huff-encoder-" + i));
+			}
+			for (Thread t : this.threads) {
+				t.setDaemon(true);
+				t.start();
+			}
+
+			long writeNanos = 0;
+			long writeStallNanos = 0;
+			long blocks = 0;
+			long sequence = 0;
+			long bytesOut = 0;
+			try {
+				long t0 = System.nanoTime();
+				HuffBlockFormat.writeHeader(this.out, blockSize);
+				bytesOut += 8;
+				writeNanos += System.nanoTime() - t0;
+
+				// blocks can finish encoding out of order. Hold each one in the slot for its
+				// sequence number until all the blocks before it have been written
+				HuffBlockBuffer[] pending = new HuffBlockBuffer[buffers];
+				int encodersDone = 0;
+				while (encodersDone < encoders) {
+					t0 = System.nanoTime();
+					HuffBlockBuffer b = this.encoded.take();
+					writeStallNanos += System.nanoTime() - t0;
+					if (b == DONE) {
+						encodersDone++;
+						continue;
+					}
+					pending[(int) (b.sequence % buffers)] = b;
+
+					t0 = System.nanoTime();
+					HuffBlockBuffer next;
+					while ((next = pending[(int) (sequence % buffers)]) != null && next.sequence == sequence) {
+						pending[(int) (sequence % buffers)] = null;
+						HuffBlockFormat.write(this.out, next);
+						bytesOut += HuffBlockFormat.size(next);
+						blocks += next.parts;
+						sequence++;
+						this.free.put(next);
+					}
+					writeNanos += System.nanoTime() - t0;
+				}
+
+				t0 = System.nanoTime();
+				HuffBlockFormat.writeEnd(this.out);
+				bytesOut += 1;
+				this.out.flush();
+				writeNanos += System.nanoTime() - t0;
+			} catch (InterruptedException e) {
+				// a failed stage interrupts the writer, report its failure below
+				if (this.failure == null) {
+					fail(e);
+				}
+			} catch (IOException | RuntimeException e) {
+				fail(e);
+			}
+			join();
+
+			if (this.failure != null) {
+				HuffMetrics.failed("pipeline", this.failure);
+				if (this.failure instanceof IOException) {
+					throw (IOException) this.failure;
+				}
+				throw new IOException("pipeline failed", this.failure);
+			}
+			return new HuffPipelineStats(this.bytesIn, bytesOut, blocks,
+					System.nanoTime() - start, this.readNanos, this.encodeNanos.get(), writeNanos,
+					this.readStallNanos, this.encodeStallNanos.get(), writeStallNanos);
+		}
+
+		/*
+		 * The reader stage: fill free blocks from the input and number them
+		 */
+		private void read() {
+			try {
+				long sequence = 0;
+				while (true) {
+					long t0 = System.nanoTime();
+					HuffBlockBuffer b = this.free.take();
+					long t1 = System.nanoTime();
+					int n = b.raw.fill(this.in, blockSize);
+					this.readNanos += System.nanoTime() - t1;
+					this.readStallNanos += t1 - t0;
+					if (n == 0) {
+						break;
+					}
+					this.bytesIn += n;
+					b.sequence = sequence++;
+					this.filled.put(b);
+				}
+				for (int i = 0; i < encoders; i++) {
+					this.filled.put(DONE);
+				}
+			} catch (Throwable e) {
+				fail(e);
+			}
+		}
+
+		/*
+		 * An encoder stage: compress filled blocks with this thread's own compressor
+		 */
+		private void encode() {
+			HuffCompressor c = new HuffCompressor();
+			HuffBlockSplitter splitter = split ? new HuffBlockSplitter() : null;
+			IHuffBlockCoder[] blockCoders = coders.get();
+			try {
+				while (true) {
+					long t0 = System.nanoTime();
+					HuffBlockBuffer b = this.filled.take();
+					long t1 = System.nanoTime();
+					this.encodeStallNanos.addAndGet(t1 - t0);
+					if (b == DONE) {
+						break;
+					}
+					HuffBlockFormat.encode(c, splitter, blockCoders, b);
+					this.encodeNanos.addAndGet(System.nanoTime() - t1);
+					this.encoded.put(b);
+				}
+				this.encoded.put(DONE);
+			} catch (Throwable e) {
+				fail(e);
+			}
+		}
+
+		/*
+		 * Record the first failure and interrupt every stage so none is left waiting
+		 */
+		private synchronized void fail(Throwable e) {
+			if (this.failure != null) {
+				return;
+			}
+			this.failure = e;
+			for (Thread t : this.threads) {
+				t.interrupt();
+			}
+			if (Thread.currentThread() != this.writer) {
+				this.writer.interrupt();
+			}
+		}
+
+		/*
+		 * Wait for the reader and encoders to finish. The reader's counters are only
+		 * read after it has been joined
+		 */
+		private void join() throws IOException {
+			boolean interrupted = false;
+			for (Thread t : this.threads) {
+				while (true) {
+					try {
+						t.join();
+						break;
+					} catch (InterruptedException e) {
+						interrupted = true;
+					}
+				}
+			}
+			// after a failure, clear the interrupt meant for the writer stage. Otherwise
+			// the interrupt came from outside, so keep it
+			if (this.failure != null) {
+				Thread.interrupted();
+			} else if (interrupted) {
+				Thread.currentThread().interrupt();
+			}
+		}
+
+	}
+
+}
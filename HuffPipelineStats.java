@@ -0,0 +1,142 @@
+/**
+ * What one pipelined compression did and how well its stages overlapped. Busy
+ * times are the time each stage spent doing its own work; stall times are the
+ * time it spent waiting on a neighbouring stage. The encode times are summed
+ * over all encoder threads.
+ * 
+ * @author clairewalker
+ *
+ */
+public class HuffPipelineStats {
+	private final long bytesIn;
+	private final long bytesOut;
+	private final long blocks;
+	private final long wallNanos;
+	private final long readNanos;
+	private final long encodeNanos;
+	private final long writeNanos;
+	private final long readStallNanos;
+	private final long encodeStallNanos;
+	private final long writeStallNanos;
+
+	/**
+	 * HuffPipelineStats constructor
+	 */
+	public HuffPipelineStats(long bytesIn, long bytesOut, long blocks, long wallNanos, long readNanos,
+			long encodeNanos, long writeNanos, long readStallNanos, long encodeStallNanos, long writeStallNanos) {
+		this.bytesIn = bytesIn;
+		this.bytesOut = bytesOut;
+		this.blocks = blocks;
+		this.wallNanos = wallNanos;
+		this.readNanos = readNanos;
+		this.encodeNanos = encodeNanos;
+		this.writeNanos = writeNanos;
+		this.readStallNanos = readStallNanos;
+		this.encodeStallNanos = encodeStallNanos;
+		this.writeStallNanos = writeStallNanos;
+	}
+
+	/**
+	 * @return the number of uncompressed bytes read
+	 */
+	public long bytesIn() {
+		return this.bytesIn;
+	}
+
+	/**
+	 * @return the number of compressed bytes written, including headers
+	 */
+	public long bytesOut() {
+		return this.bytesOut;
+	}
+
+	/**
+	 * @return the number of blocks written to the stream
+	 */
+	public long blocks() {
+		return this.blocks;
+	}
+
+	/**
+	 * @return the time from start to finish
+	 */
+	public long wallNanos() {
+		return this.wallNanos;
+	}
+
+	/**
+	 * @return the time the reader spent reading input
+	 */
+	public long readNanos() {
+		return this.readNanos;
+	}
+
+	/**
+	 * @return the time the encoders spent encoding, summed over all encoders
+	 */
+	public long encodeNanos() {
+		return this.encodeNanos;
+	}
+
+	/**
+	 * @return the time the writer spent writing output
+	 */
+	public long writeNanos() {
+		return this.writeNanos;
+	}
+
+	/**
+	 * @return the time the reader waited for a free buffer
+	 */
+	public long readStallNanos() {
+		return this.readStallNanos;
+	}
+
+	/**
+	 * @return the time the encoders waited for a block to encode, summed over all
+	 *         encoders
+	 */
+	public long encodeStallNanos() {
+		return this.encodeStallNanos;
+	}
+
+	/**
+	 * @return the time the writer waited for the next block in order
+	 */
+	public long writeStallNanos() {
+		return this.writeStallNanos;
+	}
+
+	/**
+	 * @return the busy time of all stages divided by the wall time. 1 means the
+	 *         stages took turns as if run one after another; higher values mean
+	 *         reading, encoding and writing overlapped
+	 */
+	public double overlap() {
+		if (this.wallNanos == 0) {
+			return 0;
+		}
+		return (double) (this.readNanos + this.encodeNanos + this.writeNanos) / this.wallNanos;
+	}
+
+	/**
+	 * @return the uncompressed megabytes per second, from start to finish
+	 */
+	public double throughput() {
+		if (this.wallNanos == 0) {
+			return 0;
+		}
+		return this.bytesIn / 1e6 / (this.wallNanos / 1e9);
+	}
+
+	@Override
+	public String toString() {
+		return String.format(
+				"%d -> %d bytes in %d blocks, %.1f ms, %.1f MB/s, overlap %.2f "
+						+ "(read %.1f ms, encode %.1f ms, write %.1f ms; stalls read %.1f ms, encode %.1f ms, write %.1f ms)",
+				this.bytesIn, this.bytesOut, this.blocks, this.wallNanos / 1e6, throughput(), overlap(),
+				this.readNanos / 1e6, this.encodeNanos / 1e6, this.writeNanos / 1e6, this.readStallNanos / 1e6,
+				this.encodeStallNanos / 1e6, this.writeStallNanos / 1e6);
+	}
+
+}
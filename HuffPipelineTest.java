@@ -0,0 +1,103 @@
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * @author clairewalker
+ *
+ */
+public class HuffPipelineTest {
+
+	/*
+	 * Helper method to make data of many small blocks with different characters
+	 */
+	private byte[] data() {
+		Random r = new Random(1);
+		byte[] data = new byte[100000];
+		for (int i = 0; i < data.length; i++) {
+			data[i] = (byte) ('a' + r.nextInt(1 + i / 5000));
+		}
+		return data;
+	}
+
+	/**
+	 * Tests that the pipeline writes the same block stream as the sequential
+	 * compressor, and that it decompresses to the original data
+	 * 
+	 * @throws IOException
+	 */
+	@Test
+	public void testSameAsSequential() throws IOException {
+		byte[] data = data();
+		ByteArrayOutputStream sequential = new ByteArrayOutputStream();
+		HuffBlockFormat.compress(new ByteArrayInputStream(data), sequential, 4096);
+		ByteArrayOutputStream piped = new ByteArrayOutputStream();
+		HuffPipelineStats stats = new HuffPipeline(4096, 3, 5).compress(new ByteArrayInputStream(data), piped);
+
+		assertArrayEquals(sequential.toByteArray(), piped.toByteArray());
+		assertEquals(data.length, stats.bytesIn());
+		assertEquals(piped.size(), stats.bytesOut());
+		assertEquals(25, stats.blocks());
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		HuffBlockFormat.decompress(new ByteArrayInputStream(piped.toByteArray()), out);
+		assertArrayEquals(data, out.toByteArray());
+	}
+
+	/**
+	 * Tests that random data is stored rather than made larger, and that stored
+	 * and compressed blocks in one stream decompress to the original data
+	 * 
+	 * @throws IOException
+	 */
+	@Test
+	public void testIncompressible() throws IOException {
+		byte[] data = new byte[40000];
+		new Random(2).nextBytes(data);
+		System.arraycopy(data(), 0, data, 20000, 20000);
+		ByteArrayOutputStream piped = new ByteArrayOutputStream();
+		HuffPipelineStats stats = new HuffPipeline(4096, 3, 5).compress(new ByteArrayInputStream(data), piped);
+
+		assertTrue(piped.size() <= data.length + 9 + 13 * stats.blocks());
+		assertTrue(piped.size() < data.length);
+		assertEquals(piped.size(), stats.bytesOut());
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		HuffBlockFormat.decompress(new ByteArrayInputStream(piped.toByteArray()), out);
+		assertArrayEquals(data, out.toByteArray());
+	}
+
+	/**
+	 * Tests that an empty input makes a stream with no blocks
+	 * 
+	 * @throws IOException
+	 */
+	@Test
+	public void testEmpty() throws IOException {
+		ByteArrayOutputStream piped = new ByteArrayOutputStream();
+		HuffPipelineStats stats = new HuffPipeline(4096, 2, 4).compress(new ByteArrayInputStream(new byte[0]), piped);
+		assertEquals(0, stats.blocks());
+		assertEquals(9, piped.size());
+	}
+
+	/**
+	 * Tests that a failing input is reported to the caller
+	 * 
+	 * @throws IOException
+	 */
+	@Test(expected = IOException.class)
+	public void testReadFailure() throws IOException {
+		new HuffPipeline(4096, 2, 4).compress(new java.io.InputStream() {
+			@Override
+			public int read() throws IOException {
+				throw new IOException("broken");
+			}
+		}, new ByteArrayOutputStream());
+	}
+
+}
@@ -0,0 +1,80 @@
+/**
+ * What one asynchronous compression or decompression did: the sizes of the
+ * data before and after compressing, and how long the job waited for a thread
+ * and then ran.
+ *
+ * @author clairewalker
+ *
+ */
+public class HuffResult {
+	private final long uncompressedBytes;
+	private final long compressedBytes;
+	private final long queueNanos;
+	private final long runNanos;
+
+	/**
+	 * HuffResult constructor
+	 *
+	 * @param uncompressedBytes is the size of the data before compressing
+	 * @param compressedBytes   is the size of the data after compressing
+	 * @param queueNanos        is how long the job waited to start
+	 * @param runNanos          is how long the job ran
+	 */
+	public HuffResult(long uncompressedBytes, long compressedBytes, long queueNanos, long runNanos) {
+		this.uncompressedBytes = uncompressedBytes;
+		this.compressedBytes = compressedBytes;
+		this.queueNanos = queueNanos;
+		this.runNanos = runNanos;
+	}
+
+	/**
+	 * @return the size of the data before compressing
+	 */
+	public long uncompressedBytes() {
+		return this.uncompressedBytes;
+	}
+
+	/**
+	 * @return the size of the data after compressing
+	 */
+	public long compressedBytes() {
+		return this.compressedBytes;
+	}
+
+	/**
+	 * @return the compressed size divided by the uncompressed size, or 0 for no
+	 *         data
+	 */
+	public double ratio() {
+		return (this.uncompressedBytes == 0) ? 0 : (double) this.compressedBytes / this.uncompressedBytes;
+	}
+
+	/**
+	 * @return how long the job waited for its executor to start it
+	 */
+	public long queueNanos() {
+		return this.queueNanos;
+	}
+
+	/**
+	 * @return how long the job ran, from starting to finishing
+	 */
+	public long runNanos() {
+		return this.runNanos;
+	}
+
+	/**
+	 * @return the uncompressed megabytes per second the job ran
+	 */
+	public double throughput() {
+		return (this.runNanos == 0) ? 0 : this.uncompressedBytes / 1e6 / (this.runNanos / 1e9);
+	}
+
+	@Override
+	public String toString() {
+		return String.format("%d <-> %d bytes (%.1f%%), queued %.1f ms, ran %.1f ms, %.1f MB/s",
+				this.uncompressedBytes, this.compressedBytes, 100 * ratio(), this.queueNanos / 1e6,
+				this.runNanos / 1e6, throughput());
+	}
+
+}
@@ -0,0 +1,502 @@
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+/**
+ * Finds a fixed string of bytes in a file in the single tree format of
+ * Huff.write() without decompressing it. The pattern is translated into the
+ * sequence of its characters' codes under the file's tree, and the codes are
+ * scanned for that sequence of bits a byte at a time, with a table built for the
+ * file from the KMP automaton of the bits. A match of the bits is only a match
+ * of the characters if the true decode starts a code where the bits start, so
+ * alongside the matcher a second table walks the tree a byte at a time, giving
+ * the tree node and the number of characters decoded at the start of each byte.
+ * The few bytes a match can reach back over are kept, and a candidate match is
+ * checked by decoding locally from the start of its first byte to the bit it
+ * starts at. Nothing is written out, so a scan costs two table lookups for each
+ * byte of compressed input.
+ * <P>
+ * Patterns whose codes are longer than FILTER_BITS are found by matching their
+ * first FILTER_BITS bits, and then comparing the rest of the bits of each
+ * aligned candidate as the input goes by. A search holds no state between calls,
+ * and may be used by several threads at once.
+ *
+ * @author clairewalker
+ *
+ */
+public final class HuffSearch implements IHuffConstants {
+	/**
+	 * The most bits of the pattern's codes matched by the byte table; the table
+	 * has 256 entries for each of them
+	 */
+	static final int FILTER_BITS = 1024;
+
+	private static final int BUFFER_SIZE = 1 << 16;
+
+	private final byte[] pattern;
+
+	/**
+	 * HuffSearch constructor
+	 *
+	 * @param pattern is the bytes to search for
+	 * @throws IllegalArgumentException if pattern is empty
+	 */
+	public HuffSearch(byte[] pattern) {
+		if (pattern.length == 0) {
+			throw new IllegalArgumentException("empty pattern");
+		}
+		this.pattern = pattern.clone();
+	}
+
+	/**
+	 * Search a file written by Huff.write()
+	 *
+	 * @return the uncompressed offset of every match, in order, including matches
+	 *         that overlap
+	 * @throws IOException if the file is not compressed, is corrupt, or reading
+	 *                     fails
+	 */
+	public long[] search(String file) throws IOException {
+		try (InputStream in = new FileInputStream(file)) {
+			return search(in);
+		}
+	}
+
+	/**
+	 * Search the compressed stream in, in the format of Huff.write(), to its end.
+	 * The stream is not closed.
+	 *
+	 * @return the uncompressed offset of every match, in order, including matches
+	 *         that overlap
+	 * @throws IOException if the stream is not compressed, is corrupt, or reading
+	 *                     fails
+	 */
+	public long[] search(InputStream in) throws IOException {
+		// the header, keeping the bytes the decoder reads ahead past it
+		Recording header = new Recording(in);
+		HuffDecodeContext ctx = HuffCodec.decoder().reset(header);
+		HuffCodebook book;
+		long codes;
+		try {
+			if (ctx.readBits(BITS_PER_INT) != MAGIC_NUMBER) {
+				throw new IOException("not a compressed file");
+			}
+			book = HuffDecodeTable.readCodebook(ctx);
+			codes = ctx.bitsRead();
+		} finally {
+			ctx.finish();
+		}
+		HuffDecodeTable table = HuffDecodeTable.fromCodebook(book);
+
+		// a tree of one leaf holds only the pseudo EOF, and a character with no
+		// code can't be in the file
+		if (table.rootLeaf() >= 0) {
+			return new long[0];
+		}
+		for (byte b : this.pattern) {
+			if (!book.hasCode(b & 0xff)) {
+				return new long[0];
+			}
+		}
+
+		Scan scan = new Scan(book, table, this.pattern, codes);
+		int first = (int) (codes / 8);
+		if (first >= header.size) {
+			throw new IOException("unexpected end of input file");
+		}
+		if (scan.scan(header.data, first, header.size - first)) {
+			return scan.matches();
+		}
+		byte[] buf = new byte[BUFFER_SIZE];
+		int n;
+		while ((n = in.read(buf)) > 0) {
+			if (scan.scan(buf, 0, n)) {
+				return scan.matches();
+			}
+		}
+		throw new IOException("unexpected end of input file");
+	}
+
+	/*
+	 * The state of one search of one file: the byte tables built from its tree,
+	 * the kept bytes with the tree node and character count at the start of each,
+	 * and the matches found so far
+	 */
+	private static final class Scan {
+		private static final int EOF_FLAG = 1 << 24;
+
+		private final HuffDecodeTable table;
+		private final long codes;
+		private final long[] bits;
+		private final int length;
+		private final int filter;
+		private final int[][] next;
+		private final int[] matcher;
+		private final int[] walker;
+		private final int mask;
+		private final int[] keptNode;
+		private final long[] keptCount;
+		private final byte[] kept;
+
+		private long index;
+		private int state;
+		private int node;
+		private long count;
+		private long[] found = new long[16];
+		private int matches;
+		private long[] pendingOffset = new long[16];
+		private int[] pendingBit = new int[16];
+		private int pending;
+
+		Scan(HuffCodebook book, HuffDecodeTable table, byte[] pattern, long codes) {
+			this.table = table;
+			this.codes = codes;
+
+			// the pattern's codes, packed from the high bit of each long
+			long length = 0;
+			for (byte b : pattern) {
+				length += book.length(b & 0xff);
+			}
+			if (length > Integer.MAX_VALUE - 64) {
+				throw new IllegalArgumentException("pattern too long");
+			}
+			this.length = (int) length;
+			this.bits = new long[(this.length + 63) >>> 6];
+			int at = 0;
+			for (byte b : pattern) {
+				int ch = b & 0xff;
+				for (int i = book.length(ch) - 1; i >= 0; i--) {
+					if (((book.code(ch) >>> i) & 1) != 0) {
+						this.bits[at >>> 6] |= 1L << (63 - (at & 63));
+					}
+					at++;
+				}
+			}
+			this.filter = Math.min(this.length, FILTER_BITS);
+			this.next = new int[2][this.filter + 1];
+			this.matcher = matcher();
+			this.walker = walker(book);
+
+			// a match ends at most this many bytes after the byte it starts in
+			int keep = Integer.highestOneBit((this.filter + 7) / 8 + 1) << 1;
+			this.mask = keep - 1;
+			this.keptNode = new int[keep];
+			this.keptCount = new long[keep];
+			this.kept = new byte[keep];
+			this.index = codes / 8;
+		}
+
+		/*
+		 * Helper method to return bit i of the pattern's codes
+		 */
+		private int bit(int i) {
+			return (int) (this.bits[i >>> 6] >>> (63 - (i & 63))) & 1;
+		}
+
+		/*
+		 * Helper method to build the KMP automaton of the first filter bits of the
+		 * pattern, a bit at a time in next and a byte at a time in the table returned.
+		 * Entries are (next state << 8 | matches), where bit j of matches is set if a
+		 * match ends with bit j of the byte, counting from the high bit
+		 */
+		private int[] matcher() {
+			int f = this.filter;
+			int[][] next = this.next;
+			next[bit(0)][0] = 1;
+			int x = 0;
+			for (int q = 1; q <= f; q++) {
+				next[0][q] = next[0][x];
+				next[1][q] = next[1][x];
+				if (q < f) {
+					next[bit(q)][q] = q + 1;
+					x = next[bit(q)][x];
+				}
+			}
+			int[] bytes = new int[(f + 1) << 8];
+			for (int q = 0; q <= f; q++) {
+				for (int b = 0; b < 256; b++) {
+					int s = q;
+					int matches = 0;
+					for (int j = 0; j < 8; j++) {
+						s = next[(b >>> (7 - j)) & 1][s];
+						if (s == f) {
+							matches |= 1 << j;
+						}
+					}
+					bytes[(q << 8) | b] = (s << 8) | matches;
+				}
+			}
+			return bytes;
+		}
+
+		/*
+		 * Helper method to build the byte table of the tree walk. Entries are (the
+		 * node after the byte | the characters decoded in it << 16), with EOF_FLAG
+		 * set if the pseudo EOF was decoded
+		 */
+		private int[] walker(HuffCodebook book) {
+			int internal = 0;
+			for (int el : book.shape()) {
+				if (el < 0) {
+					internal++;
+				}
+			}
+			int[] bytes = new int[internal << 8];
+			for (int n = 0; n < internal; n++) {
+				for (int b = 0; b < 256; b++) {
+					int at = n;
+					int decoded = 0;
+					int entry = -1;
+					for (int j = 0; j < 8; j++) {
+						int child = this.table.child(at, (b >>> (7 - j)) & 1);
+						if (child >= 0) {
+							at = child;
+						} else if (~child == PSEUDO_EOF) {
+							entry = EOF_FLAG | (decoded << 16);
+							break;
+						} else {
+							decoded++;
+							at = 0;
+						}
+					}
+					bytes[(n << 8) | b] = (entry >= 0) ? entry : (at | (decoded << 16));
+				}
+			}
+			return bytes;
+		}
+
+		/*
+		 * Helper method to scan the next len bytes of the codes. Returns true once the
+		 * pseudo EOF has been decoded
+		 */
+		boolean scan(byte[] buf, int off, int len) {
+			int end = off + len;
+			// the byte the codes start in goes a bit at a time from the first code
+			if (off < end && 8 * this.index < this.codes) {
+				int b = buf[off++] & 0xff;
+				keep(b);
+				int e = firstByte(b);
+				this.state = e >>> 8;
+				if ((e & 0xff) != 0) {
+					candidates(e & 0xff);
+				}
+				if (step(walkFirstByte(b))) {
+					return true;
+				}
+			}
+
+			int[] matcher = this.matcher;
+			int[] walker = this.walker;
+			for (int i = off; i < end; i++) {
+				int b = buf[i] & 0xff;
+				keep(b);
+				int e = matcher[(this.state << 8) | b];
+				this.state = e >>> 8;
+				if ((e & 0xff) != 0) {
+					candidates(e & 0xff);
+				}
+				if (this.pending > 0) {
+					compare(b);
+				}
+				if (step(walker[(this.node << 8) | b])) {
+					return true;
+				}
+			}
+			return false;
+		}
+
+		/*
+		 * Helper method to keep the current byte with the node and character count at
+		 * its start
+		 */
+		private void keep(int b) {
+			int k = (int) this.index & this.mask;
+			this.keptNode[k] = this.node;
+			this.keptCount[k] = this.count;
+			this.kept[k] = (byte) b;
+		}
+
+		/*
+		 * Helper method to move the tree walk past the current byte, given its walker
+		 * entry. Returns true if the pseudo EOF was decoded
+		 */
+		private boolean step(int w) {
+			this.count += (w >>> 16) & 0xff;
+			if ((w & EOF_FLAG) != 0) {
+				return true;
+			}
+			this.node = w & 0xffff;
+			this.index++;
+			return false;
+		}
+
+		/*
+		 * Helper method to run the matcher over the bits of the byte the codes start
+		 * in, from the first bit of the first code
+		 */
+		private int firstByte(int b) {
+			int s = 0;
+			int matches = 0;
+			for (int j = (int) (this.codes & 7); j < 8; j++) {
+				s = this.next[(b >>> (7 - j)) & 1][s];
+				if (s == this.filter) {
+					matches |= 1 << j;
+				}
+			}
+			return (s << 8) | matches;
+		}
+
+		/*
+		 * Helper method to walk the tree over the bits of the byte the codes start in
+		 */
+		private int walkFirstByte(int b) {
+			int at = 0;
+			int decoded = 0;
+			for (int j = (int) (this.codes & 7); j < 8; j++) {
+				int child = this.table.child(at, (b >>> (7 - j)) & 1);
+				if (child >= 0) {
+					at = child;
+				} else if (~child == PSEUDO_EOF) {
+					return EOF_FLAG | (decoded << 16);
+				} else {
+					decoded++;
+					at = 0;
+				}
+			}
+			return at | (decoded << 16);
+		}
+
+		/*
+		 * Helper method to check the matches of the filter bits that end in the
+		 * current byte, in the order they start
+		 */
+		private void candidates(int ends) {
+			for (int j = 0; j < 8; j++) {
+				if ((ends & (1 << j)) == 0) {
+					continue;
+				}
+				long start = 8 * this.index + j + 1 - this.filter;
+				long offset = aligned(start);
+				if (offset < 0) {
+					continue;
+				}
+				if (this.filter == this.length) {
+					add(offset);
+				} else {
+					if (this.pending == this.pendingOffset.length) {
+						this.pendingOffset = Arrays.copyOf(this.pendingOffset, 2 * this.pending);
+						this.pendingBit = Arrays.copyOf(this.pendingBit, 2 * this.pending);
+					}
+					// the rest of the pattern starts with the next bit of this byte
+					this.pendingOffset[this.pending] = offset;
+					this.pendingBit[this.pending] = this.filter - 1 - j;
+					this.pending++;
+				}
+			}
+		}
+
+		/*
+		 * Helper method to decode locally from the start of the kept byte holding bit
+		 * start, returning the number of characters before start if a code starts
+		 * there, or -1 if not
+		 */
+		private long aligned(long start) {
+			long byteIndex = start >>> 3;
+			int k = (int) byteIndex & this.mask;
+			int at = this.keptNode[k];
+			long decoded = this.keptCount[k];
+			int b = this.kept[k] & 0xff;
+			for (long q = Math.max(8 * byteIndex, this.codes); q < start; q++) {
+				int child = this.table.child(at, (b >>> (7 - (int) (q & 7))) & 1);
+				if (child >= 0) {
+					at = child;
+				} else if (~child == PSEUDO_EOF) {
+					return -1;
+				} else {
+					decoded++;
+					at = 0;
+				}
+			}
+			return (at == 0) ? decoded : -1;
+		}
+
+		/*
+		 * Helper method to compare the bits of the current byte with the rest of the
+		 * pattern for each pending candidate, dropping those that differ and adding
+		 * those that reach the end of the pattern. pendingBit is the index in the
+		 * pattern of the high bit of the byte, which may be before the filter bits end
+		 */
+		private void compare(int b) {
+			int still = 0;
+			for (int p = 0; p < this.pending; p++) {
+				int at = this.pendingBit[p];
+				boolean same = true;
+				for (int j = 0; j < 8 && at + j < this.length; j++) {
+					if (at + j >= this.filter && ((b >>> (7 - j)) & 1) != bit(at + j)) {
+						same = false;
+						break;
+					}
+				}
+				if (!same) {
+					continue;
+				}
+				if (at + 8 >= this.length) {
+					add(this.pendingOffset[p]);
+				} else {
+					this.pendingOffset[still] = this.pendingOffset[p];
+					this.pendingBit[still] = at + 8;
+					still++;
+				}
+			}
+			this.pending = still;
+		}
+
+		/*
+		 * Helper method to add a match
+		 */
+		private void add(long offset) {
+			if (this.matches == this.found.length) {
+				this.found = Arrays.copyOf(this.found, 2 * this.matches);
+			}
+			this.found[this.matches++] = offset;
+		}
+
+		long[] matches() {
+			return Arrays.copyOf(this.found, this.matches);
+		}
+	}
+
+	/*
+	 * An input stream that keeps a copy of every byte read through it
+	 */
+	private static final class Recording extends InputStream {
+		private final InputStream in;
+		byte[] data = new byte[1 << 12];
+		int size;
+
+		Recording(InputStream in) {
+			this.in = in;
+		}
+
+		@Override
+		public int read() throws IOException {
+			byte[] b = new byte[1];
+			return (read(b, 0, 1) < 0) ? -1 : (b[0] & 0xff);
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			int n = this.in.read(b, off, len);
+			if (n > 0) {
+				if (this.size + n > this.data.length) {
+					this.data = Arrays.copyOf(this.data, Math.max(2 * this.data.length, this.size + n));
+				}
+				System.arraycopy(b, off, this.data, this.size, n);
+				this.size += n;
+			}
+			return n;
+		}
+	}
+
+}
@@ -0,0 +1,137 @@
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * @author clairewalker
+ *
+ */
+public class HuffSearchTest {
+
+	/*
+	 * Helper method to make log-like lines of text
+	 */
+	private byte[] log(int lines) {
+		Random r = new Random(1);
+		String[] words = { "GET", "POST", "/index.html", "/api/v1/users", "200", "404", "500", "OK", "timeout",
+				"user=alice", "user=bob", "latency_ms=12", "latency_ms=340" };
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < lines; i++) {
+			sb.append(i).append(' ');
+			for (int w = 0; w < 5; w++) {
+				sb.append(words[r.nextInt(words.length)]).append(' ');
+			}
+			sb.append('\n');
+		}
+		return sb.toString().getBytes();
+	}
+
+	/*
+	 * Helper method to write data in the single tree format
+	 */
+	private byte[] compress(byte[] data) throws IOException {
+		int[] counts = new int[IHuffConstants.ALPH_SIZE];
+		for (byte b : data) {
+			counts[b & 0xff]++;
+		}
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		new HuffCodec(HuffCodebook.fromCounts(counts)).encode(data, 0, data.length, out);
+		return out.toByteArray();
+	}
+
+	/*
+	 * Helper method to find every match, overlapping or not, in the uncompressed
+	 * data
+	 */
+	private long[] naive(byte[] data, byte[] pattern) {
+		long[] found = new long[data.length + 1];
+		int n = 0;
+		for (int i = 0; i + pattern.length <= data.length; i++) {
+			if (Arrays.equals(data, i, i + pattern.length, pattern, 0, pattern.length)) {
+				found[n++] = i;
+			}
+		}
+		return Arrays.copyOf(found, n);
+	}
+
+	/**
+	 * Tests that the offsets found are those of a search of the uncompressed data,
+	 * for patterns that are common, rare, overlapping, absent and one character
+	 *
+	 * @throws IOException
+	 */
+	@Test
+	public void testSameAsNaive() throws IOException {
+		byte[] data = log(5000);
+		byte[] compressed = compress(data);
+		for (String p : new String[] { "timeout", "user=bob 500", "e", "  ", "404 404 404", "1234 ", "zebra", "\n4" }) {
+			byte[] pattern = p.getBytes();
+			long[] found = new HuffSearch(pattern).search(new ByteArrayInputStream(compressed));
+			assertEquals(p, Arrays.toString(naive(data, pattern)), Arrays.toString(found));
+		}
+	}
+
+	/**
+	 * Tests runs, where every bit offset of a match is also a match of the bits
+	 *
+	 * @throws IOException
+	 */
+	@Test
+	public void testRuns() throws IOException {
+		byte[] data = new byte[1000];
+		Arrays.fill(data, (byte) 'a');
+		data[500] = 'b';
+		byte[] compressed = compress(data);
+		for (String p : new String[] { "a", "aaa", "ab", "ba", "bb" }) {
+			byte[] pattern = p.getBytes();
+			long[] found = new HuffSearch(pattern).search(new ByteArrayInputStream(compressed));
+			assertEquals(p, Arrays.toString(naive(data, pattern)), Arrays.toString(found));
+		}
+	}
+
+	/**
+	 * Tests a pattern whose codes are longer than the bits matched by the table,
+	 * so the rest are compared as the input goes by
+	 *
+	 * @throws IOException
+	 */
+	@Test
+	public void testLongPattern() throws IOException {
+		byte[] data = log(3000);
+		byte[] compressed = compress(data);
+		byte[] pattern = Arrays.copyOfRange(data, 1000, 1400);
+		long[] found = new HuffSearch(pattern).search(new ByteArrayInputStream(compressed));
+		assertArrayEquals(naive(data, pattern), found);
+		assertEquals(1, found.length);
+
+		// differs only after the first FILTER_BITS bits
+		pattern[pattern.length - 1] = '#';
+		assertEquals(0, new HuffSearch(pattern).search(new ByteArrayInputStream(compressed)).length);
+	}
+
+	/**
+	 * Tests that an empty file has no matches, and a truncated one is reported
+	 *
+	 * @throws IOException
+	 */
+	@Test
+	public void testEmptyAndTruncated() throws IOException {
+		assertEquals(0, new HuffSearch("a".getBytes()).search(new ByteArrayInputStream(compress(new byte[0]))).length);
+
+		byte[] compressed = compress(log(100));
+		try {
+			new HuffSearch("timeout".getBytes())
+					.search(new ByteArrayInputStream(Arrays.copyOf(compressed, compressed.length - 10)));
+			fail("expected an IOException");
+		} catch (IOException e) {
+			// expected
+		}
+	}
+
+}
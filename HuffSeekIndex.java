@@ -0,0 +1,323 @@
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.zip.CRC32C;
+
+/**
+ * An index of the sync points of a block stream: the uncompressed offset and
+ * the file offset of the blocks a reader may start decoding at. Every block of
+ * a block stream starts on a byte boundary with its own tree, so any block is a
+ * sync point, and HuffSeekableChannel reads from the middle of a stream by
+ * starting at the nearest point before the offset wanted, hopping over the
+ * headers of the blocks after it and decoding only the block that holds the
+ * offset. The block size the stream was written with bounds the bytes decoded
+ * for a read; the spacing of the index, the least number of uncompressed bytes
+ * between its points, trades the size of the index against the headers hopped.
+ * <P>
+ * An index is stored after the end of the block stream it indexes, where
+ * decompressing skips it, or in a sidecar file named after the stream with
+ * SIDECAR_SUFFIX. Either way it is the block size, the uncompressed size, the
+ * length of the stream, the number of points and the uncompressed and file
+ * offset of each point, the CRC32C of all that, and a trailer of the offset of
+ * the index in its file and SEEK_INDEX_MAGIC_NUMBER. The length of the stream
+ * is checked against the file, so an index is not used for a stream it does not
+ * belong to.
+ *
+ * @author clairewalker
+ *
+ */
+public final class HuffSeekIndex implements IHuffConstants {
+	/**
+	 * The suffix of the name of a sidecar index file
+	 */
+	public static final String SIDECAR_SUFFIX = ".idx";
+
+	/**
+	 * The size of the trailer at the end of an index: the offset of the index in
+	 * its file and SEEK_INDEX_MAGIC_NUMBER
+	 */
+	static final int TRAILER_SIZE = 12;
+
+	private static final int BLOCK_HEADER_SIZE = 13;
+
+	private final int blockSize;
+	private final long size;
+	private final long streamLength;
+	private final long[] rawOffsets;
+	private final long[] offsets;
+
+	/*
+	 * Private constructor, indexes are built or read
+	 */
+	private HuffSeekIndex(int blockSize, long size, long streamLength, long[] rawOffsets, long[] offsets) {
+		this.blockSize = blockSize;
+		this.size = size;
+		this.streamLength = streamLength;
+		this.rawOffsets = rawOffsets;
+		this.offsets = offsets;
+	}
+
+	/**
+	 * Index every block of a block stream file
+	 *
+	 * @param file is the name of the block stream
+	 * @return the index
+	 * @throws IOException if the file is not a block stream or can't be read
+	 */
+	public static HuffSeekIndex build(String file) throws IOException {
+		return build(file, 0);
+	}
+
+	/**
+	 * Index the blocks of a block stream file, reading only their headers
+	 *
+	 * @param file    is the name of the block stream
+	 * @param spacing is the least number of uncompressed bytes between points, 0
+	 *                for a point at every block
+	 * @return the index
+	 * @throws IOException              if the file is not a block stream or can't
+	 *                                  be read
+	 * @throws IllegalArgumentException if spacing is negative
+	 */
+	public static HuffSeekIndex build(String file, long spacing) throws IOException {
+		if (spacing < 0) {
+			throw new IllegalArgumentException("bad spacing " + spacing);
+		}
+		try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+			FileChannel channel = raf.getChannel();
+			ByteBuffer header = readFully(channel, 0, 8);
+			int blockSize = HuffBlockFormat.readHeader(
+					new DataInputStream(new ByteArrayInputStream(header.array(), 0, 8)));
+			long[] rawOffsets = new long[16];
+			long[] offsets = new long[16];
+			int count = 0;
+			long raw = 0;
+			long pos = 8;
+			while (readFully(channel, pos, 1).get() != BLOCK_END) {
+				ByteBuffer b = readFully(channel, pos, BLOCK_HEADER_SIZE);
+				int rawLength = b.getInt(1);
+				int payloadLength = b.getInt(5);
+				if (rawLength < 0 || rawLength > blockSize || payloadLength < 0) {
+					throw new IOException("corrupt block header");
+				}
+				if (count == 0 || raw - rawOffsets[count - 1] >= spacing) {
+					if (count == rawOffsets.length) {
+						rawOffsets = Arrays.copyOf(rawOffsets, 2 * count);
+						offsets = Arrays.copyOf(offsets, 2 * count);
+					}
+					rawOffsets[count] = raw;
+					offsets[count] = pos;
+					count++;
+				}
+				raw += rawLength;
+				pos += BLOCK_HEADER_SIZE + payloadLength;
+			}
+			return new HuffSeekIndex(blockSize, raw, pos + 1, Arrays.copyOf(rawOffsets, count),
+					Arrays.copyOf(offsets, count));
+		}
+	}
+
+	/**
+	 * Read the index stored after the block stream in a file, or else in its
+	 * sidecar file
+	 *
+	 * @param file is the name of the block stream
+	 * @return the index, or null if there is none for the stream as it is now
+	 * @throws IOException if the file can't be read, or an index is corrupt
+	 */
+	public static HuffSeekIndex read(String file) throws IOException {
+		HuffSeekIndex index;
+		long length;
+		try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+			length = raf.length();
+			index = readIndex(raf.getChannel());
+		}
+		if (index != null) {
+			return index;
+		}
+		File sidecar = new File(file + SIDECAR_SUFFIX);
+		if (!sidecar.exists()) {
+			return null;
+		}
+		try (RandomAccessFile raf = new RandomAccessFile(sidecar, "r")) {
+			index = readIndex(raf.getChannel());
+		}
+		return (index != null && index.streamLength == length) ? index : null;
+	}
+
+	/*
+	 * Helper method to read an index from the end of a file, returning null if
+	 * there is none or it is for a stream of another length
+	 */
+	private static HuffSeekIndex readIndex(FileChannel channel) throws IOException {
+		long length = channel.size();
+		if (length < TRAILER_SIZE) {
+			return null;
+		}
+		ByteBuffer trailer = readFully(channel, length - TRAILER_SIZE, TRAILER_SIZE);
+		long indexOffset = trailer.getLong();
+		if (trailer.getInt() != SEEK_INDEX_MAGIC_NUMBER) {
+			return null;
+		}
+		if (indexOffset < 0 || indexOffset > length - TRAILER_SIZE
+				|| length - TRAILER_SIZE - indexOffset > Integer.MAX_VALUE) {
+			throw new IOException("bad seek index");
+		}
+		byte[] body = readFully(channel, indexOffset, (int) (length - TRAILER_SIZE - indexOffset)).array();
+		if (body.length < 4) {
+			throw new IOException("bad seek index");
+		}
+		CRC32C crc = new CRC32C();
+		crc.update(body, 0, body.length - 4);
+		DataInputStream in = new DataInputStream(new ByteArrayInputStream(body));
+		int blockSize = in.readInt();
+		long size = in.readLong();
+		long streamLength = in.readLong();
+		int count = in.readInt();
+		if (count < 0 || count > body.length / 16
+				|| (int) crc.getValue() != ByteBuffer.wrap(body).getInt(body.length - 4)) {
+			throw new IOException("bad seek index");
+		}
+		long[] rawOffsets = new long[count];
+		long[] offsets = new long[count];
+		for (int i = 0; i < count; i++) {
+			rawOffsets[i] = in.readLong();
+			offsets[i] = in.readLong();
+		}
+		// an index after the stream belongs to the stream it follows
+		if (indexOffset > 0 && streamLength != indexOffset) {
+			return null;
+		}
+		return new HuffSeekIndex(blockSize, size, streamLength, rawOffsets, offsets);
+	}
+
+	/*
+	 * Helper method to read length bytes starting at offset with positioned reads
+	 */
+	private static ByteBuffer readFully(FileChannel channel, long offset, int length) throws IOException {
+		ByteBuffer buf = ByteBuffer.allocate(length);
+		while (buf.hasRemaining()) {
+			if (channel.read(buf, offset + buf.position()) == -1) {
+				throw new IOException("unexpected end of file");
+			}
+		}
+		buf.flip();
+		return buf;
+	}
+
+	/**
+	 * Store the index after the end of the block stream it indexes. Decompressing
+	 * stops at the end of the stream, and HuffFlowProcessor checks that what
+	 * follows it is the index of the stream before skipping it.
+	 *
+	 * @param file is the name of the block stream
+	 * @throws IOException if the file is not the stream this index was built for,
+	 *                     or writing fails
+	 */
+	public void append(String file) throws IOException {
+		if (new File(file).length() != this.streamLength) {
+			throw new IOException("seek index does not match " + file);
+		}
+		try (FileOutputStream out = new FileOutputStream(file, true)) {
+			out.write(toBytes(this.streamLength));
+		}
+	}
+
+	/**
+	 * Store the index in the sidecar file of a block stream, replacing any index
+	 * there
+	 *
+	 * @param file is the name of the block stream
+	 * @throws IOException if writing fails
+	 */
+	public void writeSidecar(String file) throws IOException {
+		try (FileOutputStream out = new FileOutputStream(file + SIDECAR_SUFFIX)) {
+			out.write(toBytes(0));
+		}
+	}
+
+	/*
+	 * Helper method to write the index and its trailer, for an index starting at
+	 * indexOffset of its file
+	 */
+	private byte[] toBytes(long indexOffset) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(16 * this.offsets.length + 40);
+		DataOutputStream out = new DataOutputStream(bytes);
+		out.writeInt(this.blockSize);
+		out.writeLong(this.size);
+		out.writeLong(this.streamLength);
+		out.writeInt(this.offsets.length);
+		for (int i = 0; i < this.offsets.length; i++) {
+			out.writeLong(this.rawOffsets[i]);
+			out.writeLong(this.offsets[i]);
+		}
+		CRC32C crc = new CRC32C();
+		crc.update(bytes.toByteArray());
+		out.writeInt((int) crc.getValue());
+		out.writeLong(indexOffset);
+		out.writeInt(SEEK_INDEX_MAGIC_NUMBER);
+		return bytes.toByteArray();
+	}
+
+	/**
+	 * @return the block size of the stream
+	 */
+	public int blockSize() {
+		return this.blockSize;
+	}
+
+	/**
+	 * @return the number of uncompressed bytes in the stream
+	 */
+	public long size() {
+		return this.size;
+	}
+
+	/**
+	 * @return the number of sync points in the index
+	 */
+	public int points() {
+		return this.offsets.length;
+	}
+
+	/**
+	 * @param rawOffset is an uncompressed offset in the stream
+	 * @return the last sync point at or before rawOffset
+	 */
+	public int find(long rawOffset) {
+		int i = Arrays.binarySearch(this.rawOffsets, rawOffset);
+		// several empty blocks may start at the same offset, take the last
+		if (i >= 0) {
+			while (i + 1 < this.rawOffsets.length && this.rawOffsets[i + 1] == rawOffset) {
+				i++;
+			}
+			return i;
+		}
+		return Math.max(0, -i - 2);
+	}
+
+	/**
+	 * @param point is a sync point
+	 * @return the uncompressed offset of the point
+	 */
+	public long rawOffset(int point) {
+		return this.rawOffsets[point];
+	}
+
+	/**
+	 * @param point is a sync point
+	 * @return the offset in the file of the block at the point
+	 */
+	public long offset(int point) {
+		return this.offsets[point];
+	}
+
+}
@@ -0,0 +1,224 @@
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.NonWritableChannelException;
+import java.nio.channels.SeekableByteChannel;
+
+/**
+ * A read-only channel of the uncompressed bytes of a block stream file, that
+ * can be read from any position. A read finds the nearest sync point before its
+ * position in a HuffSeekIndex, hops over the headers of the blocks from there
+ * to the block that holds the position, and decodes only that block. The last
+ * block decoded is kept, so reading on from where the last read stopped decodes
+ * each block once.
+ * <P>
+ * The index is the one stored in the file or its sidecar, or is built by reading
+ * the block headers of the whole file when the channel is opened if there is
+ * none. The channel's methods are synchronized, so it may be shared by threads,
+ * but each read and change of position is then one at a time.
+ *
+ * @author clairewalker
+ *
+ */
+public class HuffSeekableChannel implements SeekableByteChannel, IHuffConstants {
+	private static final int BLOCK_HEADER_SIZE = 13;
+
+	private final RandomAccessFile file;
+	private final FileChannel channel;
+	private final HuffSeekIndex index;
+	private final HuffBlockBuffer block;
+	private final ByteBuffer header = ByteBuffer.allocate(BLOCK_HEADER_SIZE);
+	private byte[] bytes = new byte[0];
+	private long position;
+	private long blockStart = -1;
+	private long blocksDecoded;
+
+	/**
+	 * HuffSeekableChannel constructor opens a block stream with its stored index,
+	 * building one if it has none
+	 *
+	 * @param file is the name of the block stream
+	 * @throws IOException if the file is not a block stream or can't be read
+	 */
+	public HuffSeekableChannel(String file) throws IOException {
+		this(file, index(file));
+	}
+
+	/**
+	 * HuffSeekableChannel constructor
+	 *
+	 * @param file  is the name of the block stream
+	 * @param index is the index of the stream
+	 * @throws IOException if the file can't be opened
+	 */
+	public HuffSeekableChannel(String file, HuffSeekIndex index) throws IOException {
+		this.file = new RandomAccessFile(file, "r");
+		this.channel = this.file.getChannel();
+		this.index = index;
+		this.block = new HuffBlockBuffer(Math.min(index.blockSize(), DEFAULT_BLOCK_SIZE));
+	}
+
+	/*
+	 * Helper method to read the index of a stream, or build one
+	 */
+	private static HuffSeekIndex index(String file) throws IOException {
+		HuffSeekIndex index = HuffSeekIndex.read(file);
+		return (index != null) ? index : HuffSeekIndex.build(file);
+	}
+
+	/**
+	 * Read uncompressed bytes from the current position into dst, until dst is
+	 * full or the end of the stream
+	 *
+	 * @return the number of bytes read, or -1 at the end of the stream
+	 * @throws IOException if a block is corrupt or the file can't be read
+	 */
+	@Override
+	public synchronized int read(ByteBuffer dst) throws IOException {
+		checkOpen();
+		if (this.position >= this.index.size()) {
+			return -1;
+		}
+		int read = 0;
+		while (dst.hasRemaining() && this.position < this.index.size()) {
+			if (this.blockStart < 0 || this.position < this.blockStart
+					|| this.position >= this.blockStart + this.block.raw().size()) {
+				load(this.position);
+			}
+			int from = (int) (this.position - this.blockStart);
+			int n = Math.min(dst.remaining(), this.block.raw().size() - from);
+			dst.put(this.block.raw().array(), from, n);
+			this.position += n;
+			read += n;
+		}
+		return read;
+	}
+
+	/*
+	 * Helper method to decode the block that holds the uncompressed byte at
+	 * rawOffset, starting from the sync point before it
+	 */
+	private void load(long rawOffset) throws IOException {
+		int point = this.index.find(rawOffset);
+		long raw = this.index.rawOffset(point);
+		long pos = this.index.offset(point);
+		int rawLength;
+		int payloadLength;
+		while (true) {
+			this.header.clear();
+			readFully(this.header, pos);
+			rawLength = this.header.getInt(1);
+			payloadLength = this.header.getInt(5);
+			if (this.header.get(0) == BLOCK_END || rawLength < 0 || payloadLength < 0) {
+				throw new IOException("corrupt block header");
+			}
+			if (raw + rawLength > rawOffset) {
+				break;
+			}
+			raw += rawLength;
+			pos += BLOCK_HEADER_SIZE + payloadLength;
+		}
+
+		// one positioned read for the whole block, then decode it
+		int size = BLOCK_HEADER_SIZE + payloadLength;
+		if (this.bytes.length < size) {
+			this.bytes = new byte[size];
+		}
+		readFully(ByteBuffer.wrap(this.bytes, 0, size), pos);
+		this.blockStart = -1;
+		HuffBlockFormat.read(new DataInputStream(new ByteArrayInputStream(this.bytes, 0, size)), this.block,
+				this.index.blockSize());
+		HuffBlockFormat.decode(this.block);
+		this.blockStart = raw;
+		this.blocksDecoded++;
+	}
+
+	/*
+	 * Helper method to fill the rest of buf from the file starting at offset
+	 */
+	private void readFully(ByteBuffer buf, long offset) throws IOException {
+		while (buf.hasRemaining()) {
+			if (this.channel.read(buf, offset + buf.position()) == -1) {
+				throw new IOException("unexpected end of block stream");
+			}
+		}
+	}
+
+	/*
+	 * Helper method to throw an exception if the channel is closed
+	 */
+	private void checkOpen() throws IOException {
+		if (!this.channel.isOpen()) {
+			throw new ClosedChannelException();
+		}
+	}
+
+	/**
+	 * @throws NonWritableChannelException always
+	 */
+	@Override
+	public int write(ByteBuffer src) {
+		throw new NonWritableChannelException();
+	}
+
+	@Override
+	public synchronized long position() throws IOException {
+		checkOpen();
+		return this.position;
+	}
+
+	/**
+	 * Set the uncompressed position the next read starts at. Nothing is read
+	 * until then.
+	 *
+	 * @throws IllegalArgumentException if newPosition is negative
+	 */
+	@Override
+	public synchronized HuffSeekableChannel position(long newPosition) throws IOException {
+		checkOpen();
+		if (newPosition < 0) {
+			throw new IllegalArgumentException("bad position " + newPosition);
+		}
+		this.position = newPosition;
+		return this;
+	}
+
+	/**
+	 * @return the number of uncompressed bytes in the stream
+	 */
+	@Override
+	public long size() throws IOException {
+		checkOpen();
+		return this.index.size();
+	}
+
+	/**
+	 * @throws NonWritableChannelException always
+	 */
+	@Override
+	public SeekableByteChannel truncate(long size) {
+		throw new NonWritableChannelException();
+	}
+
+	/**
+	 * @return the number of blocks decoded so far
+	 */
+	public synchronized long blocksDecoded() {
+		return this.blocksDecoded;
+	}
+
+	@Override
+	public boolean isOpen() {
+		return this.channel.isOpen();
+	}
+
+	@Override
+	public void close() throws IOException {
+		this.file.close();
+	}
+
+}
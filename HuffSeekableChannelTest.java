@@ -0,0 +1,122 @@
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * @author clairewalker
+ *
+ */
+public class HuffSeekableChannelTest {
+
+	/*
+	 * Helper method to compress data to a new temporary block stream file
+	 */
+	private File compress(byte[] data, int blockSize) throws IOException {
+		File f = File.createTempFile("huff", ".huf");
+		f.deleteOnExit();
+		new File(f.getPath() + HuffSeekIndex.SIDECAR_SUFFIX).deleteOnExit();
+		try (OutputStream out = new FileOutputStream(f)) {
+			HuffBlockFormat.compress(new ByteArrayInputStream(data), out, blockSize, 3, null);
+		}
+		return f;
+	}
+
+	/*
+	 * Helper method to read length bytes at position, checking them against data
+	 */
+	private void check(HuffSeekableChannel c, byte[] data, long position, int length) throws IOException {
+		ByteBuffer buf = ByteBuffer.allocate(length);
+		c.position(position);
+		int n = c.read(buf);
+		int expected = (int) Math.min(length, data.length - position);
+		assertEquals(expected, n);
+		assertArrayEquals(Arrays.copyOfRange(data, (int) position, (int) position + expected),
+				Arrays.copyOf(buf.array(), n));
+	}
+
+	/**
+	 * Tests that reads from anywhere in a stream with its index stored after it
+	 * decode only the blocks they need, and that the stream still decompresses
+	 *
+	 * @throws IOException
+	 */
+	@Test
+	public void testIndexInFile() throws IOException {
+		byte[] data = HuffTestData.text(1000000);
+		File f = compress(data, 16384);
+		HuffSeekIndex.build(f.getPath()).append(f.getPath());
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		HuffBlockFormat.decompress(new ByteArrayInputStream(Files.readAllBytes(f.toPath())), out);
+		assertArrayEquals(data, out.toByteArray());
+
+		try (HuffSeekableChannel c = new HuffSeekableChannel(f.getPath())) {
+			assertEquals(data.length, c.size());
+			Random r = new Random(2);
+			for (int i = 0; i < 100; i++) {
+				check(c, data, r.nextInt(data.length), 4096);
+			}
+			// a 4096 byte read spans at most two blocks
+			assertTrue(c.blocksDecoded() <= 200);
+			check(c, data, data.length - 10, 4096);
+			c.position(data.length);
+			assertEquals(-1, c.read(ByteBuffer.allocate(1)));
+		}
+	}
+
+	/**
+	 * Tests that a sparse index in a sidecar file reads the same bytes, and that
+	 * a stream with no index gets one built when it is opened
+	 *
+	 * @throws IOException
+	 */
+	@Test
+	public void testSidecar() throws IOException {
+		byte[] data = HuffTestData.text(300000);
+		File f = compress(data, 8192);
+		HuffSeekIndex every = HuffSeekIndex.build(f.getPath());
+		HuffSeekIndex sparse = HuffSeekIndex.build(f.getPath(), 65536);
+		assertTrue(sparse.points() < every.points() / 4);
+		assertNull(HuffSeekIndex.read(f.getPath()));
+
+		sparse.writeSidecar(f.getPath());
+		assertEquals(sparse.points(), HuffSeekIndex.read(f.getPath()).points());
+		try (HuffSeekableChannel c = new HuffSeekableChannel(f.getPath())) {
+			check(c, data, 123457, 20000);
+			check(c, data, 5, 100);
+			assertEquals(4, c.blocksDecoded());
+		}
+
+		new File(f.getPath() + HuffSeekIndex.SIDECAR_SUFFIX).delete();
+		try (HuffSeekableChannel c = new HuffSeekableChannel(f.getPath())) {
+			check(c, data, 200000, 100000);
+		}
+	}
+
+	/**
+	 * Tests that an index is not used for a stream it does not belong to
+	 *
+	 * @throws IOException
+	 */
+	@Test
+	public void testStaleSidecar() throws IOException {
+		File f = compress(HuffTestData.text(100000), 8192);
+		HuffSeekIndex.build(f.getPath()).writeSidecar(f.getPath());
+		try (OutputStream out = new FileOutputStream(f)) {
+			HuffBlockFormat.compress(new ByteArrayInputStream(HuffTestData.text(5000)), out, 8192, 1, null);
+		}
+		assertNull(HuffSeekIndex.read(f.getPath()));
+	}
+
+}
@@ -0,0 +1,459 @@
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * A compression service for other processes on the same machine, over HTTP on
+ * the loopback interface, so they can share one warmed-up codec instead of each
+ * embedding its own:
+ *
+ * <pre>
+ * POST /compress[?level=n][&amp;codec=name]  the body compressed
+ * POST /decompress[?codec=name]           the body decompressed
+ * POST /codecs/name                       train the codec name on the body
+ * GET  /stats                             the statistics, as text
+ * </pre>
+ *
+ * Compressing without a codec writes a block stream at one of the levels of
+ * HuffBlockCoders.types(), one tree a block by default. Compressing with a
+ * codec writes the single tree format of Huff.write() with the codec's trained
+ * tree, which costs no counting or tree building, and decompressing with it
+ * reuses the codec's decode table. Trained codecs are kept until the server is
+ * closed.
+ * <P>
+ * Each request is read and answered on a thread of its own, a virtual thread
+ * where the JVM has them. The compressing is done by a fixed set of worker
+ * threads, each with its own compressor, coders and block buffer that are
+ * reused for every job. A worker that takes a small job takes any other jobs
+ * already queued with it, up to BATCH_BYTES in all, and runs them one after
+ * another, so a burst of small requests costs one hand-off and one wake-up per
+ * batch rather than one per request.
+ *
+ * @author clairewalker
+ *
+ */
+public class HuffServer implements IHuffConstants, Closeable {
+	/**
+	 * The most bytes of jobs a worker takes at once
+	 */
+	public static final int BATCH_BYTES = 1 << 16;
+
+	/**
+	 * The largest request body, and the largest decompressed result
+	 */
+	public static final int MAX_BODY = 1 << 26;
+
+	// the most jobs a worker takes at once
+	private static final int BATCH_JOBS = 64;
+
+	// handed to each worker to stop it
+	private static final Job STOP = new Job(false, 0, null, new byte[0]);
+
+	private final HttpServer server;
+	private final ExecutorService requests;
+	private final BlockingQueue<Job> jobs = new LinkedBlockingQueue<Job>();
+	private final List<Thread> workers = new ArrayList<Thread>();
+	private final ConcurrentHashMap<String, HuffCodec> codecs = new ConcurrentHashMap<String, HuffCodec>();
+	private final HuffServerStats stats = new HuffServerStats();
+	// guarded by jobs, so no job is queued behind the workers' STOPs
+	private boolean closed;
+
+	/**
+	 * HuffServer constructor binds to the loopback interface and starts serving
+	 *
+	 * @param port    is the port to listen on, or 0 for any free port
+	 * @param workers is the number of worker threads
+	 * @throws IOException if the port can't be bound
+	 */
+	public HuffServer(int port, int workers) throws IOException {
+		if (workers <= 0) {
+			throw new IllegalArgumentException("bad worker count " + workers);
+		}
+		this.server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+		this.requests = requestExecutor();
+		this.server.setExecutor(this.requests);
+		this.server.createContext("/", this::handle);
+		for (int i = 0; i < workers; i++) {
+			Thread t = new Thread(this::work, "huff-server-worker-" + i);
+			t.setDaemon(true);
+			t.start();
+			this.workers.add(t);
+		}
+		this.server.start();
+	}
+
+	/**
+	 * @return the port the server is listening on
+	 */
+	public int port() {
+		return this.server.getAddress().getPort();
+	}
+
+	/**
+	 * @return the server's statistics
+	 */
+	public HuffServerStats stats() {
+		return this.stats;
+	}
+
+	/**
+	 * Train a codec on sample data and keep it under the given name, as POST
+	 * /codecs/name does
+	 */
+	public void train(String name, byte[] sample) {
+		if (name.isEmpty()) {
+			throw new IllegalArgumentException("no codec name");
+		}
+		this.codecs.put(name, HuffCodec.train(sample));
+	}
+
+	/**
+	 * Stop serving. Requests being answered get up to a second to finish.
+	 */
+	@Override
+	public void close() {
+		synchronized (this.jobs) {
+			this.closed = true;
+		}
+		this.server.stop(1);
+		synchronized (this.jobs) {
+			for (int i = 0; i < this.workers.size(); i++) {
+				this.jobs.add(STOP);
+			}
+		}
+		this.requests.shutdown();
+	}
+
+	/*
+	 * Helper method to make the executor requests are answered on: one virtual
+	 * thread a request on JVMs that have them, found by reflection so the server
+	 * still runs on older ones, or else a pool of platform threads
+	 */
+	private static ExecutorService requestExecutor() {
+		try {
+			return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+		} catch (ReflectiveOperationException | RuntimeException e) {
+			return Executors.newCachedThreadPool(r -> {
+				Thread t = new Thread(r, "huff-server-request");
+				t.setDaemon(true);
+				return t;
+			});
+		}
+	}
+
+	/*
+	 * Helper method to answer one request
+	 */
+	private void handle(HttpExchange exchange) {
+		long start = System.nanoTime();
+		int status = 500;
+		byte[] response;
+		try {
+			String path = exchange.getRequestURI().getPath();
+			String query = exchange.getRequestURI().getQuery();
+			boolean post = exchange.getRequestMethod().equals("POST");
+			if (path.equals("/stats")) {
+				status = 200;
+				response = this.stats.toString().getBytes(StandardCharsets.UTF_8);
+			} else if (!path.equals("/compress") && !path.equals("/decompress") && !path.startsWith("/codecs/")) {
+				status = 404;
+				response = message("no such path " + path);
+			} else if (!post) {
+				status = 405;
+				response = message("use POST");
+			} else {
+				byte[] body = exchange.getRequestBody().readNBytes(MAX_BODY + 1);
+				if (body.length > MAX_BODY) {
+					status = 413;
+					response = message("request body larger than " + MAX_BODY + " bytes");
+				} else if (path.startsWith("/codecs/")) {
+					train(path.substring("/codecs/".length()), body);
+					status = 200;
+					response = new byte[0];
+				} else {
+					response = run(path.equals("/compress"), query, body);
+					status = 200;
+				}
+			}
+		} catch (IllegalArgumentException | IOException e) {
+			// a bad parameter, or a body that isn't compressed or is corrupt
+			status = 400;
+			response = message(e.getMessage());
+		} catch (InterruptedException e) {
+			status = 503;
+			response = message("server stopping");
+		} catch (RuntimeException e) {
+			response = message(e.toString());
+		}
+		try {
+			exchange.getResponseHeaders().set("Content-Type",
+					(status == 200) ? "application/octet-stream" : "text/plain; charset=utf-8");
+			exchange.sendResponseHeaders(status, (response.length == 0) ? -1 : response.length);
+			exchange.getResponseBody().write(response);
+		} catch (IOException e) {
+			// the client went away, there is no one to tell
+			status = 500;
+		} finally {
+			exchange.close();
+			this.stats.request(System.nanoTime() - start, status == 200);
+		}
+	}
+
+	/*
+	 * Helper method to queue a compress or decompress job for the workers and
+	 * wait for its result
+	 */
+	private byte[] run(boolean compress, String query, byte[] body) throws IOException, InterruptedException {
+		int level = 1;
+		HuffCodec codec = null;
+		if (query != null) {
+			for (String param : query.split("&")) {
+				int eq = param.indexOf('=');
+				String key = (eq < 0) ? param : param.substring(0, eq);
+				String value = (eq < 0) ? "" : param.substring(eq + 1);
+				if (key.equals("level") && compress) {
+					level = level(value);
+				} else if (key.equals("codec")) {
+					codec = this.codecs.get(value);
+					if (codec == null) {
+						throw new IllegalArgumentException("no codec " + value);
+					}
+				} else {
+					throw new IllegalArgumentException("unknown parameter " + key);
+				}
+			}
+		}
+		Job job = new Job(compress, level, codec, body);
+		synchronized (this.jobs) {
+			if (this.closed) {
+				throw new InterruptedException();
+			}
+			this.jobs.add(job);
+		}
+		try {
+			return job.result.get();
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof IOException) {
+				throw (IOException) e.getCause();
+			}
+			throw new IllegalStateException(e.getCause());
+		}
+	}
+
+	/*
+	 * Helper method to parse the level parameter
+	 */
+	private static int level(String value) {
+		try {
+			int level = Integer.parseInt(value);
+			HuffBlockCoders.splits(level);
+			return level;
+		} catch (NumberFormatException e) {
+			throw new IllegalArgumentException("bad level " + value);
+		}
+	}
+
+	/*
+	 * Helper method to make the body of an error response
+	 */
+	private static byte[] message(String message) {
+		return (message + "\n").getBytes(StandardCharsets.UTF_8);
+	}
+
+	/*
+	 * A worker: take a job, and any small jobs queued behind it, and run them
+	 */
+	private void work() {
+		Worker w = new Worker();
+		List<Job> batch = new ArrayList<Job>();
+		// a job taken off the queue that did not fit in the last batch
+		Job pending = null;
+		while (true) {
+			Job first = pending;
+			pending = null;
+			if (first == null) {
+				try {
+					first = this.jobs.take();
+				} catch (InterruptedException e) {
+					return;
+				}
+			}
+			if (first == STOP) {
+				return;
+			}
+			batch.add(first);
+			long bytes = first.input.length;
+			Job next;
+			while (bytes < BATCH_BYTES && batch.size() < BATCH_JOBS && (next = this.jobs.poll()) != null) {
+				if (next == STOP) {
+					// leave it for this worker's next take()
+					this.jobs.add(STOP);
+					break;
+				}
+				if (bytes + next.input.length > BATCH_BYTES) {
+					// run it next, on its own or as the first of the next batch
+					pending = next;
+					break;
+				}
+				batch.add(next);
+				bytes += next.input.length;
+			}
+
+			long start = System.nanoTime();
+			long bytesOut = 0;
+			for (Job job : batch) {
+				try {
+					byte[] result = job.compress ? w.compress(job) : w.decompress(job);
+					bytesOut += result.length;
+					job.result.complete(result);
+				} catch (UncheckedIOException e) {
+					job.result.completeExceptionally(e.getCause());
+				} catch (IOException | RuntimeException e) {
+					job.result.completeExceptionally(e);
+				}
+			}
+			this.stats.batch(batch.size(), bytes, bytesOut, System.nanoTime() - start);
+			batch.clear();
+		}
+	}
+
+	/*
+	 * A compress or decompress request, and its result
+	 */
+	private static final class Job {
+		final boolean compress;
+		final int level;
+		final HuffCodec codec;
+		final byte[] input;
+		final CompletableFuture<byte[]> result = new CompletableFuture<byte[]>();
+
+		Job(boolean compress, int level, HuffCodec codec, byte[] input) {
+			this.compress = compress;
+			this.level = level;
+			this.codec = codec;
+			this.input = input;
+		}
+	}
+
+	/*
+	 * The state a worker reuses for every job: a compressor, a splitter, a block
+	 * buffer and the coders of each level
+	 */
+	private static final class Worker {
+		private final HuffCompressor compressor = new HuffCompressor();
+		private final HuffBlockSplitter splitter = new HuffBlockSplitter();
+		private final HuffBlockBuffer block = new HuffBlockBuffer(DEFAULT_BLOCK_SIZE);
+		private final IHuffBlockCoder[][] coders = new IHuffBlockCoder[HuffBlockCoders.MAX_LEVEL + 1][];
+
+		/*
+		 * Compress a job's input as a block stream, or with its codec
+		 */
+		byte[] compress(Job job) throws IOException {
+			Output out = new Output(job.input.length / 2 + 64);
+			if (job.codec != null) {
+				job.codec.encode(job.input, 0, job.input.length, out);
+				return out.toByteArray();
+			}
+			if (job.level > 1 && this.coders[job.level] == null) {
+				this.coders[job.level] = HuffBlockCoders.create(HuffBlockCoders.types(job.level));
+			}
+			DataOutputStream data = new DataOutputStream(out);
+			HuffBlockFormat.writeHeader(data, DEFAULT_BLOCK_SIZE);
+			InputStream in = new ByteArrayInputStream(job.input);
+			long sequence = 0;
+			while (this.block.raw().fill(in, DEFAULT_BLOCK_SIZE) > 0) {
+				this.block.sequence = sequence++;
+				HuffBlockFormat.encode(this.compressor, HuffBlockCoders.splits(job.level) ? this.splitter : null,
+						this.coders[job.level], this.block);
+				HuffBlockFormat.write(data, this.block);
+			}
+			HuffBlockFormat.writeEnd(data);
+			return out.toByteArray();
+		}
+
+		/*
+		 * Decompress a job's input, a block stream or a file in the single tree
+		 * format, with its codec's decode table if it has one
+		 */
+		byte[] decompress(Job job) throws IOException {
+			Output out = new Output(2 * job.input.length + 64);
+			DataInputStream data = new DataInputStream(new ByteArrayInputStream(job.input));
+			if (job.input.length < 4 || data.readInt() != BLOCK_MAGIC_NUMBER) {
+				InputStream in = new ByteArrayInputStream(job.input);
+				if (job.codec != null) {
+					job.codec.decode(in, out);
+				} else {
+					try {
+						HuffCodec.decode(HuffCodec.decoder().reset(in), out, null);
+					} finally {
+						HuffCodec.decoder().finish();
+					}
+				}
+				return out.toByteArray();
+			}
+			int blockSize = data.readInt();
+			if (blockSize <= 0 || blockSize > MAX_BODY) {
+				throw new IOException("bad block size " + blockSize);
+			}
+			long sequence = 0;
+			while (HuffBlockFormat.read(data, this.block, blockSize)) {
+				this.block.sequence = sequence++;
+				HuffBlockFormat.decode(this.block);
+				this.block.raw().writeTo(out);
+			}
+			return out.toByteArray();
+		}
+	}
+
+	/*
+	 * A result buffer that refuses to grow past MAX_BODY, so a small corrupt or
+	 * hostile body can't decompress to fill the heap
+	 */
+	private static final class Output extends ByteArrayOutputStream {
+		Output(int size) {
+			super(Math.min(size, MAX_BODY));
+		}
+
+		@Override
+		public synchronized void write(int b) {
+			check(1);
+			super.write(b);
+		}
+
+		@Override
+		public synchronized void write(byte[] b, int off, int len) {
+			check(len);
+			super.write(b, off, len);
+		}
+
+		/*
+		 * Helper method to fail if writing len more bytes would be too many
+		 */
+		private void check(int len) {
+			if (this.count + (long) len > MAX_BODY) {
+				throw new UncheckedIOException(new IOException("result larger than " + MAX_BODY + " bytes"));
+			}
+		}
+	}
+
+}
@@ -0,0 +1,136 @@
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * What a HuffServer has done since it started: requests served and failed,
+ * bytes in and out, how its jobs were batched, and the latency of its requests
+ * from reading the request line to sending the response. The counters are
+ * updated by many threads at once and read without stopping them, so a
+ * snapshot taken while requests are running need not add up exactly.
+ *
+ * @author clairewalker
+ *
+ */
+public class HuffServerStats {
+	private final long startNanos = System.nanoTime();
+	private final LongAdder requests = new LongAdder();
+	private final LongAdder failures = new LongAdder();
+	private final LongAdder bytesIn = new LongAdder();
+	private final LongAdder bytesOut = new LongAdder();
+	private final LongAdder jobs = new LongAdder();
+	private final LongAdder batches = new LongAdder();
+	private final LongAdder workNanos = new LongAdder();
+	private final HuffHistogram latency = new HuffHistogram();
+
+	/*
+	 * Record a request that was answered, successfully or not
+	 */
+	void request(long nanos, boolean ok) {
+		this.requests.increment();
+		if (!ok) {
+			this.failures.increment();
+		}
+		this.latency.record(nanos);
+	}
+
+	/*
+	 * Record a batch of jobs run one after another by a worker
+	 */
+	void batch(int jobs, long bytesIn, long bytesOut, long nanos) {
+		this.batches.increment();
+		this.jobs.add(jobs);
+		this.bytesIn.add(bytesIn);
+		this.bytesOut.add(bytesOut);
+		this.workNanos.add(nanos);
+	}
+
+	/**
+	 * @return the number of requests answered
+	 */
+	public long requests() {
+		return this.requests.sum();
+	}
+
+	/**
+	 * @return the number of requests answered with an error
+	 */
+	public long failures() {
+		return this.failures.sum();
+	}
+
+	/**
+	 * @return the bytes of request bodies compressed or decompressed
+	 */
+	public long bytesIn() {
+		return this.bytesIn.sum();
+	}
+
+	/**
+	 * @return the bytes of compressed or decompressed results
+	 */
+	public long bytesOut() {
+		return this.bytesOut.sum();
+	}
+
+	/**
+	 * @return the number of compress and decompress jobs run
+	 */
+	public long jobs() {
+		return this.jobs.sum();
+	}
+
+	/**
+	 * @return the number of batches the jobs were run in
+	 */
+	public long batches() {
+		return this.batches.sum();
+	}
+
+	/**
+	 * @return the mean number of jobs a batch
+	 */
+	public double meanBatch() {
+		long batches = batches();
+		return (batches == 0) ? 0 : (double) jobs() / batches;
+	}
+
+	/**
+	 * @return the upper bound, in nanoseconds, of the p-th percentile request
+	 *         latency, accurate to within a factor of 2
+	 */
+	public long latencyPercentile(double p) {
+		return this.latency.percentile(p);
+	}
+
+	/**
+	 * @return the longest request latency in nanoseconds
+	 */
+	public long maxLatency() {
+		return this.latency.max();
+	}
+
+	/**
+	 * @return the megabytes of request bodies processed per second the workers
+	 *         spent processing them
+	 */
+	public double throughput() {
+		long nanos = this.workNanos.sum();
+		return (nanos == 0) ? 0 : bytesIn() / 1e6 / (nanos / 1e9);
+	}
+
+	/**
+	 * @return the requests answered per second since the server started
+	 */
+	public double requestRate() {
+		return requests() / ((System.nanoTime() - this.startNanos) / 1e9);
+	}
+
+	@Override
+	public String toString() {
+		return String.format(
+				"requests %d (%d failed), %.1f per second%n" + "latency p50 %.3f ms, p99 %.3f ms, max %.3f ms%n"
+						+ "jobs %d in %d batches (%.2f per batch)%n" + "bytes in %d, out %d, %.1f MB/s%n",
+				requests(), failures(), requestRate(), latencyPercentile(50) / 1e6, latencyPercentile(99) / 1e6,
+				maxLatency() / 1e6, jobs(), batches(), meanBatch(), bytesIn(), bytesOut(), throughput());
+	}
+
+}
@@ -0,0 +1,163 @@
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+/**
+ * @author clairewalker
+ *
+ */
+public class HuffServerTest {
+
+	/*
+	 * Helper method to POST a body to the server and return the response body,
+	 * or throw an IOException with the status of an error response
+	 */
+	private byte[] post(HuffServer server, String path, byte[] body) throws IOException {
+		HttpURLConnection c = (HttpURLConnection) new URL("http://127.0.0.1:" + server.port() + path)
+				.openConnection();
+		c.setRequestMethod("POST");
+		c.setDoOutput(true);
+		try (OutputStream out = c.getOutputStream()) {
+			out.write(body);
+		}
+		if (c.getResponseCode() != 200) {
+			throw new IOException("status " + c.getResponseCode());
+		}
+		try (InputStream in = c.getInputStream()) {
+			return in.readAllBytes();
+		}
+	}
+
+	/*
+	 * Helper method to wait for the server to count the given number of requests,
+	 * which it does after the client has its response
+	 */
+	private void awaitRequests(HuffServer server, long requests) throws InterruptedException {
+		for (int i = 0; i < 100 && server.stats().requests() < requests; i++) {
+			Thread.sleep(10);
+		}
+	}
+
+	/**
+	 * Tests that many clients at once get back their own data, at each level,
+	 * and that the statistics count every request
+	 *
+	 * @throws Exception
+	 */
+	@Test
+	public void testLoad() throws Exception {
+		ExecutorService clients = Executors.newFixedThreadPool(8);
+		try (HuffServer server = new HuffServer(0, 2)) {
+			List<Future<?>> results = new ArrayList<Future<?>>();
+			for (int i = 0; i < 200; i++) {
+				int n = i;
+				results.add(clients.submit(() -> {
+					byte[] data = HuffTestData.text(100 + 37 * n, n);
+					byte[] compressed = post(server, "/compress?level=" + (1 + n % HuffBlockCoders.MAX_LEVEL), data);
+					assertArrayEquals(data, post(server, "/decompress", compressed));
+					return null;
+				}));
+			}
+			for (Future<?> f : results) {
+				f.get();
+			}
+			awaitRequests(server, 400);
+			HuffServerStats stats = server.stats();
+			assertEquals(400, stats.requests());
+			assertEquals(0, stats.failures());
+			assertEquals(400, stats.jobs());
+			assertTrue(stats.batches() <= stats.jobs());
+			assertTrue(stats.latencyPercentile(50) > 0);
+		} finally {
+			clients.shutdown();
+		}
+	}
+
+	/**
+	 * Tests compressing and decompressing with a trained codec
+	 *
+	 * @throws IOException
+	 */
+	@Test
+	public void testCodec() throws IOException {
+		try (HuffServer server = new HuffServer(0, 1)) {
+			post(server, "/codecs/text", HuffTestData.text(10000, 1));
+			byte[] data = HuffTestData.text(5000, 2);
+			byte[] compressed = post(server, "/compress?codec=text", data);
+			assertTrue(compressed.length < data.length);
+			assertArrayEquals(data, post(server, "/decompress?codec=text", compressed));
+			assertArrayEquals(data, post(server, "/decompress", compressed));
+		}
+	}
+
+	/**
+	 * Tests that corrupt bodies and bad parameters are answered with errors and
+	 * counted as failures, without stopping the server
+	 *
+	 * @throws Exception
+	 */
+	@Test
+	public void testErrors() throws Exception {
+		try (HuffServer server = new HuffServer(0, 1)) {
+			String[] paths = { "/decompress", "/compress?level=9", "/compress?codec=none", "/squash" };
+			for (String path : paths) {
+				try {
+					post(server, path, HuffTestData.text(100, 3));
+					fail(path);
+				} catch (IOException e) {
+					// expected
+				}
+			}
+			awaitRequests(server, 4);
+			assertEquals(4, server.stats().failures());
+			byte[] data = HuffTestData.text(100, 4);
+			assertArrayEquals(data, post(server, "/decompress", post(server, "/compress", data)));
+		}
+	}
+
+	/**
+	 * Tests that closing the server while clients are sending requests answers
+	 * or refuses every one of them, and leaves none waiting for a worker
+	 *
+	 * @throws Exception
+	 */
+	@Test
+	public void testCloseWhileBusy() throws Exception {
+		ExecutorService clients = Executors.newFixedThreadPool(8);
+		try {
+			HuffServer server = new HuffServer(0, 2);
+			List<Future<?>> results = new ArrayList<Future<?>>();
+			for (int i = 0; i < 100; i++) {
+				int n = i;
+				results.add(clients.submit(() -> {
+					try {
+						post(server, "/compress", HuffTestData.text(20000 + 1000 * n, n));
+					} catch (IOException e) {
+						// refused or answered 503 once the server is closing
+					}
+					return null;
+				}));
+			}
+			Thread.sleep(50);
+			server.close();
+			for (Future<?> f : results) {
+				f.get(10, TimeUnit.SECONDS);
+			}
+		} finally {
+			clients.shutdown();
+		}
+	}
+
+}
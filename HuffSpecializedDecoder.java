@@ -0,0 +1,166 @@
+import java.lang.invoke.MethodHandles;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A decoder for the codes of one tree, made by generating a class whose decode
+ * routine is specialised to that tree. The generic decoder checks the bits
+ * left in its buffer and looks up TABLE_BITS bits for every code, and walks the
+ * tree a bit at a time for longer codes. The generated decode() is handed at
+ * least 57 bits at once and decodes a batch of codes from them as straight line
+ * code, one copy for each code the bits are sure to hold: the number of copies,
+ * the bits looked up and the shift that takes them out of the window are
+ * constants, and the lookup table is sized to the depth of the tree, so a tree
+ * of codes up to 12 bits never walks the tree at all. HuffDecoderGenerator
+ * writes the class, and it is defined as a hidden class, so it has no name
+ * anything can link to and is unloaded once its decoder is no longer
+ * reachable.
+ * <P>
+ * Generating and compiling a class costs far more than building a decode table,
+ * so a specialised decoder only pays off for a tree that decodes a lot of data:
+ * a trained HuffCodec used as a dictionary, or any other cached tree. Decoders
+ * are cached by the shape of their tree, keeping the CACHE_SIZE most recently
+ * used; a decoder dropped from the cache is unloaded when the last codec using
+ * it goes. Decoders are immutable and may be shared by any number of threads,
+ * each decoding with its own HuffDecodeContext.
+ *
+ * @author clairewalker
+ *
+ */
+public abstract class HuffSpecializedDecoder implements IHuffConstants {
+	/**
+	 * The number of decoders kept in the cache
+	 */
+	static final int CACHE_SIZE = 64;
+
+	/**
+	 * Set in the result of decode() if the batch ended with the pseudo EOF
+	 */
+	static final int EOF_FLAG = 1 << 16;
+
+	/**
+	 * Set in the result of decode() if the batch ended at a code longer than the
+	 * lookup table, which is left in the window
+	 */
+	static final int LONG_FLAG = 1 << 17;
+
+	private static final Map<Key, HuffSpecializedDecoder> CACHE = new LinkedHashMap<Key, HuffSpecializedDecoder>(16,
+			0.75f, true) {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<Key, HuffSpecializedDecoder> eldest) {
+			return size() > CACHE_SIZE;
+		}
+	};
+
+	// read by the generated decode()
+	int[] lookup;
+	private HuffDecodeTable table;
+	private int[] shape;
+
+	/**
+	 * Decode a batch of codes from the start of window, stopping early at the
+	 * pseudo EOF or a code longer than the lookup table
+	 *
+	 * @param window is at least the next 57 bits of input, from the high bit
+	 * @param out    is where the characters decoded are stored, with room for a
+	 *               batch of them
+	 * @param pos    is the index in out of the first character
+	 * @return (bits used << 8 | characters stored), with EOF_FLAG or LONG_FLAG set
+	 *         if the batch stopped early
+	 */
+	abstract int decode(long window, byte[] out, int pos);
+
+	/**
+	 * @return the decode table for this decoder's tree, for the codes decode()
+	 *         leaves, and the last codes of the input
+	 */
+	HuffDecodeTable table() {
+		return this.table;
+	}
+
+	/**
+	 * Get the specialised decoder for a codebook's tree, generating it unless it is
+	 * cached
+	 *
+	 * @param book is a codebook
+	 * @return the decoder for the codebook's tree
+	 */
+	public static HuffSpecializedDecoder forCodebook(HuffCodebook book) {
+		Key key = new Key(book.shape());
+		synchronized (CACHE) {
+			HuffSpecializedDecoder decoder = CACHE.get(key);
+			if (decoder != null) {
+				return decoder;
+			}
+		}
+		// generate outside the lock; two threads may both generate a decoder for a
+		// new tree, and the first one cached is kept
+		HuffSpecializedDecoder decoder = generate(book);
+		synchronized (CACHE) {
+			HuffSpecializedDecoder cached = CACHE.putIfAbsent(key, decoder);
+			return (cached != null) ? cached : decoder;
+		}
+	}
+
+	/*
+	 * Helper method to generate and define the class for a codebook's tree, and
+	 * make its decoder
+	 */
+	private static HuffSpecializedDecoder generate(HuffCodebook book) {
+		byte[] bytes = HuffDecoderGenerator.generate(book);
+		try {
+			Class<?> c = MethodHandles.lookup().defineHiddenClass(bytes, true).lookupClass();
+			HuffSpecializedDecoder decoder = (HuffSpecializedDecoder) c.getDeclaredConstructor().newInstance();
+			decoder.table = HuffDecodeTable.fromCodebook(book);
+			decoder.lookup = (decoder.table.rootLeaf() >= 0) ? null : HuffDecoderGenerator.lookup(book);
+			decoder.shape = book.shape();
+			return decoder;
+		} catch (ReflectiveOperationException e) {
+			throw new IllegalStateException("can't define decoder class", e);
+		}
+	}
+
+	/**
+	 * @return the number of decoders in the cache
+	 */
+	static int cached() {
+		synchronized (CACHE) {
+			return CACHE.size();
+		}
+	}
+
+	/**
+	 * @param book is a codebook
+	 * @return true if this decoder decodes the tree of book
+	 */
+	public boolean decodes(HuffCodebook book) {
+		return Arrays.equals(this.shape, book.shape());
+	}
+
+	/*
+	 * A tree shape as a key of the cache
+	 */
+	private static final class Key {
+		private final int[] shape;
+		private final int hash;
+
+		Key(int[] shape) {
+			this.shape = shape;
+			this.hash = Arrays.hashCode(shape);
+		}
+
+		@Override
+		public int hashCode() {
+			return this.hash;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			return (o instanceof Key) && Arrays.equals(this.shape, ((Key) o).shape);
+		}
+	}
+
+}
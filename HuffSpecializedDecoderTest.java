@@ -0,0 +1,131 @@
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * @author clairewalker
+ *
+ */
+public class HuffSpecializedDecoderTest {
+
+	/*
+	 * Helper method to make data with the given counts of each character, in a
+	 * random order
+	 */
+	private byte[] data(int[] counts) {
+		int n = 0;
+		for (int c : counts) {
+			n += c;
+		}
+		byte[] data = new byte[n];
+		int at = 0;
+		for (int ch = 0; ch < counts.length; ch++) {
+			for (int i = 0; i < counts[ch]; i++) {
+				data[at++] = (byte) ch;
+			}
+		}
+		Random r = new Random(1);
+		for (int i = data.length - 1; i > 0; i--) {
+			int j = r.nextInt(i + 1);
+			byte t = data[i];
+			data[i] = data[j];
+			data[j] = t;
+		}
+		return data;
+	}
+
+	/*
+	 * Helper method to encode data with its own tree and check that a specialised
+	 * codec decodes it, and that the generic one decodes the same
+	 */
+	private void roundTrip(int[] counts) throws IOException {
+		byte[] data = data(counts);
+		HuffCodebook book = HuffCodebook.fromCounts(counts);
+		ByteArrayOutputStream encoded = new ByteArrayOutputStream();
+		new HuffCodec(book).encode(data, 0, data.length, encoded);
+
+		HuffCodec codec = new HuffCodec(book, true);
+		assertTrue(codec.isSpecialized());
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		assertEquals(data.length, codec.decode(new ByteArrayInputStream(encoded.toByteArray()), out));
+		assertArrayEquals(data, out.toByteArray());
+	}
+
+	/**
+	 * Tests trees of short codes, codes longer than the switch, all 256 characters
+	 * with long codes, and the smallest trees
+	 *
+	 * @throws IOException
+	 */
+	@Test
+	public void testSameAsTable() throws IOException {
+		int[] counts = new int[IHuffConstants.ALPH_SIZE];
+		counts['a'] = 1000;
+		counts['b'] = 300;
+		counts['c'] = 10;
+		roundTrip(counts);
+
+		// counts that grow like the Fibonacci numbers make a tree as deep as it can be
+		counts = new int[IHuffConstants.ALPH_SIZE];
+		int x = 1;
+		int y = 1;
+		for (int ch = 0; ch < 25; ch++) {
+			counts[ch] = x;
+			int z = x + y;
+			x = y;
+			y = z;
+		}
+		roundTrip(counts);
+
+		counts = new int[IHuffConstants.ALPH_SIZE];
+		for (int ch = 0; ch < counts.length; ch++) {
+			counts[ch] = 1 + ch * ch / 4;
+		}
+		roundTrip(counts);
+
+		counts = new int[IHuffConstants.ALPH_SIZE];
+		counts['z'] = 5;
+		roundTrip(counts);
+		roundTrip(new int[IHuffConstants.ALPH_SIZE]);
+	}
+
+	/**
+	 * Tests that decoders are cached by tree, as hidden classes
+	 */
+	@Test
+	public void testCached() {
+		int[] counts = new int[IHuffConstants.ALPH_SIZE];
+		counts['x'] = 7;
+		counts['y'] = 3;
+		HuffSpecializedDecoder d = HuffSpecializedDecoder.forCodebook(HuffCodebook.fromCounts(counts));
+		assertTrue(d.getClass().isHidden());
+		assertSame(d, HuffSpecializedDecoder.forCodebook(HuffCodebook.fromCounts(counts.clone())));
+		counts['y'] = 70;
+		assertNotSame(d, HuffSpecializedDecoder.forCodebook(HuffCodebook.fromCounts(counts)));
+		assertTrue(HuffSpecializedDecoder.cached() <= HuffSpecializedDecoder.CACHE_SIZE);
+	}
+
+	/**
+	 * Tests that a specialised codec decodes a stream with another tree with a
+	 * table
+	 *
+	 * @throws IOException
+	 */
+	@Test
+	public void testOtherTree() throws IOException {
+		byte[] data = "the quick brown fox jumps over the lazy dog".getBytes();
+		ByteArrayOutputStream encoded = new ByteArrayOutputStream();
+		HuffCodec.train(data).encode(data, 0, data.length, encoded);
+
+		HuffCodec codec = new HuffCodec(HuffCodebook.fromCounts(new int[] { 1, 2, 3 }), true);
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		codec.decode(new ByteArrayInputStream(encoded.toByteArray()), out);
+		assertArrayEquals(data, out.toByteArray());
+	}
+
+}
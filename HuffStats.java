@@ -0,0 +1,186 @@
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * A metrics listener that keeps totals and per-phase latency histograms, and
+ * exposes them through JMX. Each histogram has one bucket per power of two
+ * nanoseconds, so recording a latency is a few atomic adds and percentiles are
+ * accurate to within a factor of 2. To turn it on for the whole JVM:
+ * 
+ * <pre>
+ * HuffStats.register();
+ * </pre>
+ * 
+ * @author clairewalker
+ *
+ */
+public class HuffStats implements HuffStatsMBean, IHuffMetricsListener {
+	/**
+	 * The JMX name HuffStats are registered under by register()
+	 */
+	public static final String OBJECT_NAME = "fileCompressor:type=HuffStats";
+
+	private static HuffStats registered;
+
+	private final LongAdder compressions = new LongAdder();
+	private final LongAdder uncompressions = new LongAdder();
+	private final LongAdder failures = new LongAdder();
+	private final LongAdder bytesIn = new LongAdder();
+	private final LongAdder bitsOut = new LongAdder();
+	private final LongAdder compressNanos = new LongAdder();
+	private final LongAdder uncompressedBytes = new LongAdder();
+	private final LongAdder uncompressNanos = new LongAdder();
+	private final HuffHistogram[] phases = new HuffHistogram[HuffPhase.values().length];
+
+	/**
+	 * HuffStats constructor
+	 */
+	public HuffStats() {
+		for (int i = 0; i < this.phases.length; i++) {
+			this.phases[i] = new HuffHistogram();
+		}
+	}
+
+	/**
+	 * Make a HuffStats, add it as a metrics listener and register it with the
+	 * platform MBean server. Calling register() again returns the same HuffStats.
+	 * 
+	 * @return the registered HuffStats
+	 * @throws IllegalStateException if JMX registration fails
+	 */
+	public static synchronized HuffStats register() {
+		if (registered == null) {
+			HuffStats stats = new HuffStats();
+			try {
+				MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+				server.registerMBean(stats, new ObjectName(OBJECT_NAME));
+			} catch (JMException e) {
+				throw new IllegalStateException("could not register " + OBJECT_NAME, e);
+			}
+			HuffMetrics.addListener(stats);
+			registered = stats;
+		}
+		return registered;
+	}
+
+	@Override
+	public void phase(HuffPhase phase, long nanos) {
+		this.phases[phase.ordinal()].record(nanos);
+	}
+
+	@Override
+	public void compressed(long bytesIn, long bitsOut, long nanos) {
+		this.compressions.increment();
+		this.bytesIn.add(bytesIn);
+		this.bitsOut.add(bitsOut);
+		this.compressNanos.add(nanos);
+	}
+
+	@Override
+	public void uncompressed(long bitsIn, long bytesOut, long nanos) {
+		this.uncompressions.increment();
+		this.uncompressedBytes.add(bytesOut);
+		this.uncompressNanos.add(nanos);
+	}
+
+	@Override
+	public void failed(String operation, Throwable e) {
+		this.failures.increment();
+	}
+
+	@Override
+	public long getCompressions() {
+		return this.compressions.sum();
+	}
+
+	@Override
+	public long getUncompressions() {
+		return this.uncompressions.sum();
+	}
+
+	@Override
+	public long getFailures() {
+		return this.failures.sum();
+	}
+
+	@Override
+	public long getBytesIn() {
+		return this.bytesIn.sum();
+	}
+
+	@Override
+	public long getBytesOut() {
+		return (this.bitsOut.sum() + 7) / 8;
+	}
+
+	@Override
+	public double getCompressionRatio() {
+		long in = this.bytesIn.sum();
+		return (in == 0) ? 0 : (double) getBytesOut() / in;
+	}
+
+	@Override
+	public double getBitsPerSymbol() {
+		long in = this.bytesIn.sum();
+		return (in == 0) ? 0 : (double) this.bitsOut.sum() / in;
+	}
+
+	@Override
+	public double getCompressThroughput() {
+		long nanos = this.compressNanos.sum();
+		return (nanos == 0) ? 0 : this.bytesIn.sum() * 1e3 / nanos;
+	}
+
+	@Override
+	public double getUncompressThroughput() {
+		long nanos = this.uncompressNanos.sum();
+		return (nanos == 0) ? 0 : this.uncompressedBytes.sum() * 1e3 / nanos;
+	}
+
+	@Override
+	public String[] getPhaseSummary() {
+		HuffPhase[] all = HuffPhase.values();
+		String[] lines = new String[all.length];
+		for (int i = 0; i < all.length; i++) {
+			HuffHistogram h = this.phases[i];
+			long count = h.count();
+			lines[i] = String.format("%s count=%d mean=%d p50=%d p99=%d max=%d", all[i], count,
+					(count == 0) ? 0 : h.total() / count, h.percentile(50), h.percentile(99), h.max());
+		}
+		return lines;
+	}
+
+	@Override
+	public long getPhasePercentile(String phase, double p) {
+		return this.phases[HuffPhase.valueOf(phase).ordinal()].percentile(p);
+	}
+
+	/**
+	 * @param phase is a phase
+	 * @return the number of times the phase has been recorded
+	 */
+	public long getPhaseCount(HuffPhase phase) {
+		return this.phases[phase.ordinal()].count();
+	}
+
+	@Override
+	public void reset() {
+		this.compressions.reset();
+		this.uncompressions.reset();
+		this.failures.reset();
+		this.bytesIn.reset();
+		this.bitsOut.reset();
+		this.compressNanos.reset();
+		this.uncompressedBytes.reset();
+		this.uncompressNanos.reset();
+		// reset in place, as other threads may be recording into the histograms
+		for (HuffHistogram h : this.phases) {
+			h.reset();
+		}
+	}
+
+}
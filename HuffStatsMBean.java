@@ -0,0 +1,71 @@
+/**
+ * The JMX management interface of HuffStats. Times are in nanoseconds.
+ * 
+ * @author clairewalker
+ *
+ */
+public interface HuffStatsMBean {
+
+	/**
+	 * @return the number of inputs compressed
+	 */
+	public long getCompressions();
+
+	/**
+	 * @return the number of inputs uncompressed
+	 */
+	public long getUncompressions();
+
+	/**
+	 * @return the number of failed operations
+	 */
+	public long getFailures();
+
+	/**
+	 * @return the total bytes of input compressed
+	 */
+	public long getBytesIn();
+
+	/**
+	 * @return the total bytes written by compression
+	 */
+	public long getBytesOut();
+
+	/**
+	 * @return the total compressed size divided by the total input size
+	 */
+	public double getCompressionRatio();
+
+	/**
+	 * @return the average number of bits written per byte of input
+	 */
+	public double getBitsPerSymbol();
+
+	/**
+	 * @return the uncompressed megabytes per second of compression
+	 */
+	public double getCompressThroughput();
+
+	/**
+	 * @return the uncompressed megabytes per second of uncompression
+	 */
+	public double getUncompressThroughput();
+
+	/**
+	 * @return one line per phase with its count, mean, median, 99th percentile and
+	 *         maximum latency
+	 */
+	public String[] getPhaseSummary();
+
+	/**
+	 * @param phase is the name of a HuffPhase, e.g., "ENCODE"
+	 * @param p     is the percentile, from 0 to 100
+	 * @return the latency of the phase at that percentile, to within a factor of 2
+	 */
+	public long getPhasePercentile(String phase, double p);
+
+	/**
+	 * Set all statistics back to zero
+	 */
+	public void reset();
+}
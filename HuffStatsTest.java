@@ -0,0 +1,79 @@
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import org.junit.Test;
+
+/**
+ * @author clairewalker
+ *
+ */
+public class HuffStatsTest {
+
+	/**
+	 * Tests that compressing "teststring" records each compression phase once, and
+	 * the sizes of the compressed output
+	 * 
+	 * @throws IOException
+	 */
+	@Test
+	public void testCompressRecorded() throws IOException {
+		HuffStats stats = new HuffStats();
+		HuffMetrics.addListener(stats);
+		try {
+			new HuffCompressor().compress("teststring".getBytes("UTF-8"), 0, 10, new ByteArrayOutputStream());
+		} finally {
+			HuffMetrics.removeListener(stats);
+		}
+		assertEquals(1, stats.getCompressions());
+		assertEquals(10, stats.getBytesIn());
+		assertEquals((72 + 15 + 32 + 32 + 7) / 8, stats.getBytesOut());
+		assertEquals(15.1, stats.getBitsPerSymbol(), 1e-9);
+		for (HuffPhase p : new HuffPhase[] { HuffPhase.COUNT, HuffPhase.TREE, HuffPhase.TABLE, HuffPhase.HEADER,
+				HuffPhase.ENCODE }) {
+			assertEquals(1, stats.getPhaseCount(p));
+		}
+		assertEquals(0, stats.getPhaseCount(HuffPhase.DECODE));
+	}
+
+	/**
+	 * Tests that nothing is recorded once a listener is removed
+	 * 
+	 * @throws IOException
+	 */
+	@Test
+	public void testRemoved() throws IOException {
+		HuffStats stats = new HuffStats();
+		HuffMetrics.addListener(stats);
+		HuffMetrics.removeListener(stats);
+		new HuffCompressor().compress("teststring".getBytes("UTF-8"), 0, 10, new ByteArrayOutputStream());
+		assertEquals(0, stats.getCompressions());
+		assertFalse(HuffMetrics.enabled());
+	}
+
+	/**
+	 * Tests that reset() empties the phase histograms, and that they go on
+	 * recording afterwards
+	 * 
+	 * @throws IOException
+	 */
+	@Test
+	public void testReset() throws IOException {
+		HuffStats stats = new HuffStats();
+		HuffMetrics.addListener(stats);
+		try {
+			new HuffCompressor().compress("teststring".getBytes("UTF-8"), 0, 10, new ByteArrayOutputStream());
+			stats.reset();
+			assertEquals(0, stats.getCompressions());
+			assertEquals(0, stats.getPhaseCount(HuffPhase.ENCODE));
+			assertEquals(0, stats.getPhasePercentile("ENCODE", 100));
+			new HuffCompressor().compress("teststring".getBytes("UTF-8"), 0, 10, new ByteArrayOutputStream());
+		} finally {
+			HuffMetrics.removeListener(stats);
+		}
+		assertEquals(1, stats.getCompressions());
+		assertEquals(1, stats.getPhaseCount(HuffPhase.ENCODE));
+	}
+
+}
@@ -0,0 +1,62 @@
+import java.util.Random;
+
+/**
+ * Test data shared by the tests: text-like bytes with the skew of English, so
+ * that they compress the way real text does.
+ * 
+ * @author clairewalker
+ *
+ */
+final class HuffTestData {
+	// letters in rough proportion to their frequency in English
+	private static final String LETTERS = "eeeeettttaaaoooiinnsshrdlu      ,.\n";
+
+	/*
+	 * Private constructor, the data is made by the static methods
+	 */
+	private HuffTestData() {
+	}
+
+	/**
+	 * Make text-like data, the same for the same length every time
+	 * 
+	 * @param length is the number of bytes
+	 * @return the data
+	 */
+	static byte[] text(int length) {
+		return text(length, 1);
+	}
+
+	/**
+	 * Make text-like data, the same for the same length and seed every time
+	 * 
+	 * @param length is the number of bytes
+	 * @param seed   is the seed of the random letters
+	 * @return the data
+	 */
+	static byte[] text(int length, long seed) {
+		Random r = new Random(seed);
+		byte[] data = new byte[length];
+		for (int i = 0; i < data.length; i++) {
+			data[i] = (byte) LETTERS.charAt(r.nextInt(LETTERS.length()));
+		}
+		return data;
+	}
+
+	/**
+	 * Make text-like data with about one byte in a thousand of any value, so that
+	 * the tree has long codes for the rare bytes
+	 * 
+	 * @param length is the number of bytes
+	 * @return the data
+	 */
+	static byte[] textWithRareBytes(int length) {
+		Random r = new Random(1);
+		byte[] data = new byte[length];
+		for (int i = 0; i < data.length; i++) {
+			data[i] = (byte) ((r.nextInt(1000) == 0) ? r.nextInt(256) : LETTERS.charAt(r.nextInt(LETTERS.length())));
+		}
+		return data;
+	}
+
+}
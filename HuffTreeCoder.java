@@ -0,0 +1,63 @@
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * The block coder for BLOCK_HUFFMAN blocks: one tree for the block, written as
+ * compressBody() writes it, i.e., the tree, the codes and the pseudo EOF.
+ *
+ * @author clairewalker
+ *
+ */
+public final class HuffTreeCoder implements IHuffBlockCoder, IHuffConstants {
+	private final HuffCompressor compressor;
+
+	/**
+	 * HuffTreeCoder constructor
+	 *
+	 * @param compressor is the compressor to write blocks with, e.g., one the
+	 *                   thread already has
+	 */
+	public HuffTreeCoder(HuffCompressor compressor) {
+		this.compressor = compressor;
+	}
+
+	/**
+	 * HuffTreeCoder constructor with a compressor of its own
+	 */
+	public HuffTreeCoder() {
+		this(new HuffCompressor());
+	}
+
+	@Override
+	public int type() {
+		return BLOCK_HUFFMAN;
+	}
+
+	@Override
+	public long train(byte[] src, int off, int len, int[] counts) {
+		return this.compressor.cost(counts);
+	}
+
+	@Override
+	public long write(byte[] src, int off, int len, OutputStream out) throws IOException {
+		return this.compressor.compressBody(src, off, len, out);
+	}
+
+	@Override
+	public int decode(HuffDecodeContext in, byte[] out, int length) throws IOException {
+		HuffCodebook book = HuffDecodeTable.readCodebook(in);
+		HuffDecodeTable table = HuffDecodeTable.fromCodebook(book);
+		for (int i = 0; i < length; i++) {
+			int ch = in.decodeSymbol(table);
+			if (ch == PSEUDO_EOF) {
+				throw new IOException("block decoded to " + i + " bytes, expected " + length);
+			}
+			out[i] = (byte) ch;
+		}
+		if (in.decodeSymbol(table) != PSEUDO_EOF) {
+			throw new IOException("block longer than " + length + " bytes");
+		}
+		return book.maxLength();
+	}
+
+}
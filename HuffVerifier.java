@@ -0,0 +1,186 @@
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Tests compressed files by decoding them and checking their checksums, without
+ * writing any output. Block streams are read on the calling thread and their
+ * blocks decoded and checked in parallel; archive members are extracted in
+ * parallel; a file in the single tree format of Huff.write() has no checksum,
+ * so it is only checked to decode all the way to its pseudo EOF. The verifier
+ * keeps a fixed set of blocks in circulation, so memory use does not depend on
+ * the size of the file.
+ * 
+ * @author clairewalker
+ *
+ */
+public class HuffVerifier implements IHuffConstants, Closeable {
+	private final int threads;
+	private final ExecutorService pool;
+
+	/**
+	 * HuffVerifier constructor
+	 * 
+	 * @param threads is the number of threads decoding at once
+	 */
+	public HuffVerifier(int threads) {
+		if (threads <= 0) {
+			throw new IllegalArgumentException("bad thread count " + threads);
+		}
+		this.threads = threads;
+		this.pool = Executors.newFixedThreadPool(threads, r -> {
+			Thread t = new Thread(r, "huff-verifier");
+			t.setDaemon(true);
+			return t;
+		});
+	}
+
+	/**
+	 * Test a compressed file of any of the formats
+	 * 
+	 * @param file is the name of the file
+	 * @return the number of uncompressed bytes verified
+	 * @throws IOException if the file is corrupt, not compressed, or can't be read
+	 */
+	public long verify(String file) throws IOException {
+		int magic;
+		try (DataInputStream in = new DataInputStream(new FileInputStream(file))) {
+			magic = in.readInt();
+		}
+		if (magic == ARCHIVE_MAGIC_NUMBER || magic == DEDUP_ARCHIVE_MAGIC_NUMBER) {
+			return verifyArchive(file);
+		}
+		try (InputStream in = new BufferedInputStream(new FileInputStream(file), 1 << 16)) {
+			if (magic == BLOCK_MAGIC_NUMBER) {
+				return verifyBlocks(in);
+			}
+			if (magic == MAGIC_NUMBER) {
+				return HuffCodec.decode(HuffCodec.decoder().reset(in), OutputStream.nullOutputStream(), null);
+			}
+		} finally {
+			HuffCodec.decoder().finish();
+		}
+		throw new IOException("not a compressed file: " + file);
+	}
+
+	/**
+	 * Test a block stream, decoding its blocks in parallel
+	 * 
+	 * @param in is the block stream, which is not closed
+	 * @return the number of uncompressed bytes verified
+	 * @throws IOException if a block is corrupt or the stream can't be read
+	 */
+	public long verifyBlocks(InputStream in) throws IOException {
+		DataInputStream data = new DataInputStream(in);
+		int blockSize = HuffBlockFormat.readHeader(data);
+
+		// two blocks per thread, so one can be read while the other is decoded
+		BlockingQueue<HuffBlockBuffer> free = new ArrayBlockingQueue<HuffBlockBuffer>(2 * this.threads);
+		for (int i = 0; i < 2 * this.threads; i++) {
+			free.add(new HuffBlockBuffer(Math.min(blockSize, DEFAULT_BLOCK_SIZE)));
+		}
+		AtomicReference<IOException> failure = new AtomicReference<IOException>();
+		List<Future<?>> tasks = new ArrayList<Future<?>>();
+		long total = 0;
+		long sequence = 0;
+		try {
+			while (failure.get() == null) {
+				HuffBlockBuffer b = free.take();
+				if (!HuffBlockFormat.read(data, b, blockSize)) {
+					break;
+				}
+				b.sequence = sequence++;
+				total += b.rawLength;
+				tasks.add(this.pool.submit(() -> {
+					try {
+						HuffBlockFormat.decode(b);
+					} catch (IOException e) {
+						failure.compareAndSet(null, e);
+					} catch (RuntimeException e) {
+						// a task that is done may be forgotten without get(), so a coder
+						// that fails some other way must be recorded here too
+						failure.compareAndSet(null, new IOException("verify failed in block " + b.sequence, e));
+					} finally {
+						free.add(b);
+					}
+				}));
+				// forget the tasks that are done, so a long stream doesn't keep them all
+				if (tasks.size() > 4 * this.threads) {
+					tasks.removeIf(Future::isDone);
+				}
+			}
+			for (Future<?> f : tasks) {
+				f.get();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("verify interrupted");
+		} catch (ExecutionException e) {
+			throw new IOException("verify failed", e.getCause());
+		}
+		if (failure.get() != null) {
+			throw failure.get();
+		}
+		return total;
+	}
+
+	/**
+	 * Test an archive, extracting its members in parallel
+	 * 
+	 * @param file is the name of the archive
+	 * @return the number of uncompressed bytes verified
+	 * @throws IOException if a member is corrupt or the archive can't be read
+	 */
+	public long verifyArchive(String file) throws IOException {
+		try (HuffArchiveReader reader = new HuffArchiveReader(file)) {
+			List<HuffArchiveEntry> entries = reader.entries();
+			List<Future<Long>> tasks = new ArrayList<Future<Long>>();
+			// one task per thread, each taking every threads-th member
+			for (int t = 0; t < this.threads; t++) {
+				final int first = t;
+				tasks.add(this.pool.submit(() -> {
+					long bytes = 0;
+					for (int i = first; i < entries.size(); i += this.threads) {
+						bytes += reader.extract(entries.get(i), OutputStream.nullOutputStream());
+					}
+					return bytes;
+				}));
+			}
+			long total = 0;
+			for (Future<Long> f : tasks) {
+				total += f.get();
+			}
+			return total;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("verify interrupted");
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof IOException) {
+				throw (IOException) e.getCause();
+			}
+			throw new IOException("verify failed", e.getCause());
+		}
+	}
+
+	/**
+	 * Stop the verifier's threads
+	 */
+	@Override
+	public void close() {
+		this.pool.shutdownNow();
+	}
+
+}
@@ -0,0 +1,115 @@
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+import org.junit.Test;
+
+/**
+ * @author clairewalker
+ *
+ */
+public class HuffVerifierTest {
+
+	/*
+	 * Helper method to compress 20 blocks of 1000 bytes each
+	 */
+	private byte[] compressed() throws IOException {
+		byte[] data = new byte[20000];
+		for (int i = 0; i < data.length; i++) {
+			data[i] = (byte) ('a' + (i * 7) % 13);
+		}
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		HuffBlockFormat.compress(new ByteArrayInputStream(data), out, 1000);
+		return out.toByteArray();
+	}
+
+	/**
+	 * Tests that every block of a good stream is verified
+	 * 
+	 * @throws IOException
+	 */
+	@Test
+	public void testVerifyBlocks() throws IOException {
+		HuffVerifier v = new HuffVerifier(3);
+		try {
+			assertEquals(20000, v.verifyBlocks(new ByteArrayInputStream(compressed())));
+		} finally {
+			v.close();
+		}
+	}
+
+	/**
+	 * Tests that a flipped bit in the payload of the last block is caught
+	 * 
+	 * @throws IOException
+	 */
+	@Test(expected = IOException.class)
+	public void testCorruptBlock() throws IOException {
+		byte[] c = compressed();
+		// walk the block headers (type, raw length, payload length, checksum) after
+		// the 8 byte stream header to the start of the last payload
+		ByteBuffer buf = ByteBuffer.wrap(c);
+		int pos = 8;
+		int last = pos;
+		while (c[pos] != IHuffConstants.BLOCK_END) {
+			last = pos;
+			pos += 13 + buf.getInt(pos + 5);
+		}
+		// the first payload byte holds the block's tree, never padding
+		c[last + 13] ^= 0x10;
+		HuffVerifier v = new HuffVerifier(3);
+		try {
+			v.verifyBlocks(new ByteArrayInputStream(c));
+		} finally {
+			v.close();
+		}
+	}
+
+	/**
+	 * Tests that a block whose coder fails with an unchecked exception fails the
+	 * verify, even when the block's task is done before the stream is read
+	 * 
+	 * @throws IOException
+	 */
+	@Test(expected = IOException.class)
+	public void testCoderFailure() throws IOException {
+		// a coder for an otherwise unused block type that can't decode
+		int type = 200;
+		HuffBlockCoders.register(type, () -> new IHuffBlockCoder() {
+			@Override
+			public int type() {
+				return type;
+			}
+
+			@Override
+			public long train(byte[] src, int off, int len, int[] counts) {
+				return Long.MAX_VALUE;
+			}
+
+			@Override
+			public long write(byte[] src, int off, int len, OutputStream out) {
+				throw new UnsupportedOperationException();
+			}
+
+			@Override
+			public int decode(HuffDecodeContext in, byte[] out, int length) {
+				throw new IllegalStateException("can't decode");
+			}
+		});
+		// give the first of the 20 blocks that type, so its task is long done by the
+		// end of the stream
+		byte[] c = compressed();
+		c[8] = (byte) type;
+		HuffVerifier v = new HuffVerifier(1);
+		try {
+			v.verifyBlocks(new ByteArrayInputStream(c));
+		} finally {
+			v.close();
+		}
+	}
+
+}
@@ -0,0 +1,57 @@
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * An entropy coder for the blocks of a block stream. Each coder writes blocks
+ * of its own type, and the block type in each block's header chooses the coder
+ * that decodes it, so a stream can mix coders from block to block. Coders are
+ * registered by type with HuffBlockCoders.
+ * <P>
+ * Encoding is in two steps so the encoder can choose between coders: train()
+ * works out the size of a block without writing it, then write() writes the
+ * block last trained. Coders keep their state between the two calls, and are
+ * reusable and not thread safe; each thread has its own instances.
+ *
+ * @author clairewalker
+ *
+ */
+public interface IHuffBlockCoder {
+
+	/**
+	 * @return the block type written in the header of each block this coder
+	 *         writes, from 1 to 255
+	 */
+	public int type();
+
+	/**
+	 * Prepare to write src[off..off+len)
+	 *
+	 * @param counts is the count of each character of the block, indexed by
+	 *               character, as counted by a CharCounter
+	 * @return the number of bits write() will write, not counting the padding of
+	 *         the last byte, or Long.MAX_VALUE if this coder can't code the block
+	 */
+	public long train(byte[] src, int off, int len, int[] counts);
+
+	/**
+	 * Write the payload of the block last passed to train(). The output stream is
+	 * flushed but not closed.
+	 *
+	 * @return the number of bits written, not counting the padding of the last
+	 *         byte
+	 * @throws IOException if writing fails
+	 */
+	public long write(byte[] src, int off, int len, OutputStream out) throws IOException;
+
+	/**
+	 * Decode a payload written by write() into out[0..length)
+	 *
+	 * @param in     is the source of the payload's bits
+	 * @param out    is where the decoded characters are written
+	 * @param length is the number of characters in the block
+	 * @return the length of the longest code, or the coder's nearest equivalent,
+	 *         for the block's flight recorder event
+	 * @throws IOException if the payload is corrupt or ends early
+	 */
+	public int decode(HuffDecodeContext in, byte[] out, int length) throws IOException;
+}
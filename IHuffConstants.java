@@ -37,4 +37,76 @@ public interface IHuffConstants {
      * Isolate the magic number in one place.
      */
     public static final int MAGIC_NUMBER = 1234567873;
+    
+    /**
+     * The magic number at the start and end of a multi-file archive written
+     * by <code>HuffArchiveWriter</code>.
+     */
+    public static final int ARCHIVE_MAGIC_NUMBER = 1234567874;
+    
+    /**
+     * The magic number at the start of a stream of independently compressed
+     * blocks, as written by <code>HuffBlockFormat</code>.
+     */
+    public static final int BLOCK_MAGIC_NUMBER = 1234567875;
+    
+    /**
+     * The magic number at the start and end of an archive written by
+     * <code>HuffArchiveWriter</code> that stores its members as lists of
+     * shared, content-defined chunks.
+     */
+    public static final int DEDUP_ARCHIVE_MAGIC_NUMBER = 1234567876;
+    
+    /**
+     * The magic number at the end of a seek index written by
+     * <code>HuffSeekIndex</code>, after a block stream or in a sidecar file.
+     */
+    public static final int SEEK_INDEX_MAGIC_NUMBER = 1234567877;
+    
+    /**
+     * The number of bytes of input compressed into each block, unless
+     * another size is given.
+     */
+    public static final int DEFAULT_BLOCK_SIZE = 1 << 20;
+    
+    /**
+     * The block type that marks the end of a stream of blocks.
+     */
+    public static final int BLOCK_END = 0;
+    
+    /**
+     * The block type of a block compressed with its own tree, in the same
+     * form as an archive member: the tree, the codes and the pseudo EOF.
+     */
+    public static final int BLOCK_HUFFMAN = 1;
+    
+    /**
+     * The block type of a block stored as it is, for data that Huffman
+     * coding would make larger.
+     */
+    public static final int BLOCK_STORED = 2;
+    
+    /**
+     * The block type of a block coded with several Huffman tables, chosen
+     * group by group. See HuffMultiTable.
+     */
+    public static final int BLOCK_MULTI = 3;
+    
+    /**
+     * The block type of a block coded with an order-1 model, a tree for each
+     * cluster of contexts. See HuffContextModel.
+     */
+    public static final int BLOCK_CONTEXT = 4;
+    
+    /**
+     * The block type of a block coded with range asymmetric numeral systems
+     * instead of Huffman codes. See HuffAnsCoder.
+     */
+    public static final int BLOCK_ANS = 5;
+    
+    /**
+     * The block type of a block coded with one tree as four streams that decode
+     * side by side. See HuffInterleavedCoder.
+     */
+    public static final int BLOCK_INTERLEAVED = 6;
 }
@@ -0,0 +1,44 @@
+/**
+ * Receives the timings and sizes of compression and uncompression as they
+ * happen. Listeners are added with HuffMetrics.addListener() and are called on
+ * the thread doing the work, so they must be thread safe and quick.
+ * 
+ * @author clairewalker
+ *
+ */
+public interface IHuffMetricsListener {
+
+	/**
+	 * Called when a phase of an operation has finished
+	 * 
+	 * @param phase is the phase that finished
+	 * @param nanos is how long the phase took
+	 */
+	public void phase(HuffPhase phase, long nanos);
+
+	/**
+	 * Called when an input has been compressed
+	 * 
+	 * @param bytesIn is the number of bytes of input
+	 * @param bitsOut is the number of bits written, including the header
+	 * @param nanos   is how long compressing took
+	 */
+	public void compressed(long bytesIn, long bitsOut, long nanos);
+
+	/**
+	 * Called when an input has been uncompressed
+	 * 
+	 * @param bitsIn   is the number of bits read, including the header
+	 * @param bytesOut is the number of bytes written
+	 * @param nanos    is how long uncompressing took
+	 */
+	public void uncompressed(long bitsIn, long bytesOut, long nanos);
+
+	/**
+	 * Called when an operation fails
+	 * 
+	 * @param operation is the name of the operation, e.g., "write"
+	 * @param e         is the cause of the failure
+	 */
+	public void failed(String operation, Throwable e);
+}
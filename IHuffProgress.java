@@ -0,0 +1,22 @@
+/**
+ * Told how far a compression or decompression has got. It is called on the
+ * thread doing the work after each block, and once more when the work is done
+ * with the final sizes, so it should be quick. Throwing an
+ * unchecked exception from it, e.g., a CancellationException, stops the work
+ * at the end of the block, and the exception is thrown to the caller.
+ * 
+ * @author clairewalker
+ *
+ */
+@FunctionalInterface
+public interface IHuffProgress {
+
+	/**
+	 * Called after each block, and when done
+	 * 
+	 * @param bytesRead    is the number of bytes read from the input so far
+	 * @param bytesWritten is the number of bytes written to the output so far
+	 */
+	public void progress(long bytesRead, long bytesWritten);
+
+}